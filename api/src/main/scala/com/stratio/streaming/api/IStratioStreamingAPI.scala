@@ -23,6 +23,7 @@ import com.stratio.streaming.commons.exceptions._
 import com.stratio.streaming.dto.StratioQueryStream
 import com.stratio.streaming.commons.messages.{ StratioStreamingMessage, ColumnNameTypeValue }
 import com.stratio.streaming.dto.StratioQueryStream
+import scala.concurrent.Future
 
 trait IStratioStreamingAPI {
   /**
@@ -78,6 +79,27 @@ trait IStratioStreamingAPI {
   @throws(classOf[StratioAPISecurityException])
   def insertData(streamName: String, data: List[ColumnNameValue])
 
+  /**
+   * Inserts several rows into a stream in a single message, sending the
+   * column names only once.
+   * @param streamName
+   * @param rows
+   */
+  @throws(classOf[StratioEngineStatusException])
+  @throws(classOf[StratioAPISecurityException])
+  def insertBatch(streamName: String, rows: List[List[ColumnNameValue]])
+
+  /**
+   * Creates an inserter that buffers the rows of a stream and sends them
+   * with insertBatch once maxRows rows are buffered or lingerInMs
+   * milliseconds after the first buffered row.
+   * @param streamName
+   * @param maxRows
+   * @param lingerInMs
+   */
+  @throws(classOf[StratioEngineStatusException])
+  def createBatchInserter(streamName: String, maxRows: Int, lingerInMs: Int): StreamBatchInserter
+
   /**
    * Adds a query to a stream.
    * @param streamName
@@ -115,6 +137,35 @@ trait IStratioStreamingAPI {
   @throws(classOf[StratioAPISecurityException])
   def listenStream(streamName: String): KafkaStream[String, StratioStreamingMessage]
 
+  /**
+   * Starts listening to a stream, handing its events to the handler from
+   * as many threads as the parallelism. The listener gets a group of its own,
+   * so it receives every event of the stream from the time it starts.
+   * Each thread reads whole partitions of the stream topic, so a parallelism
+   * over the partitions set by kafka.listenPartitions in the engine leaves
+   * threads idle, and the events only keep their order within each thread.
+   * @param streamName
+   * @param parallelism
+   * @param handler
+   */
+  @throws(classOf[StratioEngineStatusException])
+  @throws(classOf[StratioAPISecurityException])
+  def listenStream(streamName: String, parallelism: Int, handler: StratioStreamingMessageHandler)
+
+  /**
+   * Starts listening to a stream in a given kafka consumer group, so the
+   * listeners sharing the group share the events of the stream. The group
+   * goes on from its committed offsets, the first time it starts at the
+   * oldest event kept by kafka.
+   * @param streamName
+   * @param parallelism
+   * @param groupId
+   * @param handler
+   */
+  @throws(classOf[StratioEngineStatusException])
+  @throws(classOf[StratioAPISecurityException])
+  def listenStream(streamName: String, parallelism: Int, groupId: String, handler: StratioStreamingMessageHandler)
+
   /**
    * Stops listening to a stream.
    * @param streamName
@@ -189,6 +240,127 @@ trait IStratioStreamingAPI {
   @throws(classOf[StratioEngineStatusException])
   def stopSaveToMongo(streamName: String)
 
+  /**
+   * Creates a new stream without blocking the caller.
+   * @param streamName
+   * @param columns
+   * @return a future completed when the engine acknowledges the stream
+   */
+  def createStreamAsync(streamName: String, columns: List[ColumnNameType]): Future[Unit]
+
+  /**
+   * Adds columns to a stream without blocking the caller.
+   * @param streamName
+   * @param columns
+   */
+  def alterStreamAsync(streamName: String, columns: List[ColumnNameType]): Future[Unit]
+
+  /**
+   * Adds a query to a stream without blocking the caller.
+   * @param streamName
+   * @param query
+   * @return a future with the query Id
+   */
+  def addQueryAsync(streamName: String, query: String): Future[String]
+
+  /**
+   * Removes a query from a stream without blocking the caller.
+   * @param streamName
+   * @param queryId
+   */
+  def removeQueryAsync(streamName: String, queryId: String): Future[Unit]
+
+  /**
+   * Removes a stream without blocking the caller.
+   * @param streamName
+   */
+  def dropStreamAsync(streamName: String): Future[Unit]
+
+  /**
+   * Starts listening to a stream without blocking the caller.
+   * @param streamName
+   */
+  def listenStreamAsync(streamName: String): Future[KafkaStream[String, StratioStreamingMessage]]
+
+  /**
+   * Starts listening to a stream with a handler without blocking the caller.
+   * @param streamName
+   * @param parallelism
+   * @param handler
+   */
+  def listenStreamAsync(streamName: String, parallelism: Int, handler: StratioStreamingMessageHandler): Future[Unit]
+
+  /**
+   * Starts listening to a stream with a handler in a given kafka consumer
+   * group without blocking the caller.
+   * @param streamName
+   * @param parallelism
+   * @param groupId
+   * @param handler
+   */
+  def listenStreamAsync(streamName: String,
+    parallelism: Int,
+    groupId: String,
+    handler: StratioStreamingMessageHandler): Future[Unit]
+
+  /**
+   * Stops listening to a stream without blocking the caller.
+   * @param streamName
+   */
+  def stopListenStreamAsync(streamName: String): Future[Unit]
+
+  /**
+   * Gets a list of the columns from a given stream without blocking the caller.
+   * @param stream
+   */
+  def columnsFromStreamAsync(stream: String): Future[List[ColumnNameTypeValue]]
+
+  /**
+   * Gets a list of the queries from a given stream without blocking the caller.
+   * @param stream
+   */
+  def queriesFromStreamAsync(stream: String): Future[List[StratioQueryStream]]
+
+  /**
+   * Gets a list of all the stream that currently exists without blocking the caller.
+   */
+  def listStreamsAsync(): Future[List[StratioStream]]
+
+  /**
+   * Indexes the stream to the elasticsearch instance without blocking the caller.
+   */
+  def indexStreamAsync(stream: String): Future[Unit]
+
+  /**
+   * Stops indexing the stream without blocking the caller.
+   */
+  def stopIndexStreamAsync(stream: String): Future[Unit]
+
+  /**
+   * Saves the stream to cassandra DB without blocking the caller.
+   */
+  def saveToCassandraAsync(streamName: String): Future[Unit]
+
+  /**
+   * Stops saving the stream to cassandra DB without blocking the caller.
+   */
+  def stopSaveToCassandraAsync(streamName: String): Future[Unit]
+
+  /**
+   * Saves the stream to MongoDB without blocking the caller.
+   */
+  def saveToMongoAsync(streamName: String): Future[Unit]
+
+  /**
+   * Stops saving the stream to MongoDB without blocking the caller.
+   */
+  def stopSaveToMongoAsync(streamName: String): Future[Unit]
+
+  /**
+   * Sends the pending inserts and closes the connections with the engine.
+   */
+  def close()
+
   /**
    * Allows the client to define the time that the API
    * will wait for the engine responses.
@@ -198,4 +370,13 @@ trait IStratioStreamingAPI {
    */
   @throws(classOf[StratioEngineStatusException])
   def defineAcknowledgeTimeOut(timeOutInMs: Int): IStratioStreamingAPI
+
+  /**
+   * Allows the client to receive the engine responses in a kafka
+   * topic of its own instead of zookeeper. It must be defined
+   * before initializing the API.
+   *
+   * @param enabled
+   */
+  def defineAcknowledgeReplyTopic(enabled: Boolean): IStratioStreamingAPI
 }
@@ -17,7 +17,7 @@ package com.stratio.streaming.api
 
 import org.apache.curator.retry.RetryOneTime
 import org.apache.curator.framework.{ CuratorFramework, CuratorFrameworkFactory }
-import com.stratio.streaming.commons.messages.ColumnNameTypeValue
+import com.stratio.streaming.commons.messages.{ ColumnNameTypeValue, StreamQuery }
 import com.stratio.streaming.kafka.KafkaConsumer
 import com.stratio.streaming.commons.constants.BUS._
 import com.stratio.streaming.commons.constants.STREAM_OPERATIONS.DEFINITION._
@@ -29,13 +29,13 @@ import com.stratio.streaming.commons.constants.STREAMING._
 import com.stratio.streaming.commons.exceptions.{ StratioEngineConnectionException, StratioEngineOperationException, StratioEngineStatusException }
 import com.stratio.streaming.commons.streams.StratioStream
 import com.stratio.streaming.commons.constants.STREAM_OPERATIONS.DEFINITION
-import java.util.List
+import java.util.{List, UUID}
 import com.stratio.streaming.messaging._
 import com.stratio.streaming.api.messaging.MessageBuilder._
 import scala.collection.JavaConversions._
 import com.stratio.streaming.messaging.InsertMessageBuilder
 import com.stratio.streaming.api.messaging.MessageBuilderWithColumns
-import com.stratio.streaming.kafka.KafkaProducer
+import com.stratio.streaming.kafka.{KafkaProducer, KafkaReplyConsumer}
 import com.stratio.streaming.dto.StratioQueryStream
 import com.stratio.streaming.messaging.QueryMessageBuilder
 import com.stratio.streaming.zookeeper.ZookeeperConsumer
@@ -43,23 +43,30 @@ import com.stratio.streaming.commons.kafka.service.{ TopicService, KafkaTopicSer
 import org.slf4j.LoggerFactory
 import com.stratio.streaming.api.messaging.ColumnNameValue
 import com.stratio.streaming.api.messaging.ColumnNameType
+import scala.concurrent.{Await, Future}
+import scala.concurrent.ExecutionContext.Implicits.global
+import scala.concurrent.duration.Duration
 
 class StratioStreamingAPI
   extends IStratioStreamingAPI {
   import StratioStreamingAPI._
 
-  def createStream(streamName: String, columns: List[ColumnNameType]) = {
-    checkStreamingStatus()
+  def createStream(streamName: String, columns: List[ColumnNameType]) =
+    await(createStreamAsync(streamName, columns))
+
+  def createStreamAsync(streamName: String, columns: List[ColumnNameType]) = whenStreamingIsUp {
     val operation = DEFINITION.CREATE.toLowerCase
     val creationStreamMessage = MessageBuilderWithColumns(sessionId, operation).build(streamName, columns)
-    syncOperation.performSyncOperation(creationStreamMessage)
+    syncOperation.performSyncOperationAsync(creationStreamMessage)
   }
 
-  def alterStream(streamName: String, columns: List[ColumnNameType]) = {
-    checkStreamingStatus()
+  def alterStream(streamName: String, columns: List[ColumnNameType]) =
+    await(alterStreamAsync(streamName, columns))
+
+  def alterStreamAsync(streamName: String, columns: List[ColumnNameType]) = whenStreamingIsUp {
     val operation = ALTER.toLowerCase
     val alterStreamMessage = MessageBuilderWithColumns(sessionId, operation).build(streamName, columns)
-    syncOperation.performSyncOperation(alterStreamMessage)
+    syncOperation.performSyncOperationAsync(alterStreamMessage)
   }
 
   def insertData(streamName: String, data: List[ColumnNameValue]) = {
@@ -68,53 +75,107 @@ class StratioStreamingAPI
     asyncOperation.performAsyncOperation(insertStreamMessage)
   }
 
-  def addQuery(streamName: String, query: String): String = {
+  def insertBatch(streamName: String, rows: List[List[ColumnNameValue]]) = {
+    checkStreamingStatus()
+    if (!rows.isEmpty) {
+      val insertBatchMessage = InsertMessageBuilder(sessionId).buildBatch(streamName, rows)
+      asyncOperation.performAsyncOperation(insertBatchMessage)
+    }
+  }
+
+  def createBatchInserter(streamName: String, maxRows: Int, lingerInMs: Int) = {
     checkStreamingStatus()
+    new StreamBatchInserter(this, streamName, maxRows, lingerInMs)
+  }
+
+  def addQuery(streamName: String, query: String): String =
+    await(addQueryAsync(streamName, query))
+
+  def addQueryAsync(streamName: String, query: String) = whenStreamingIsUp {
     val operation = ADD_QUERY.toLowerCase
     val addQueryStreamMessage = QueryMessageBuilder(sessionId).build(streamName, query, operation)
-    syncOperation.performSyncOperation(addQueryStreamMessage)
-    getQueryId(streamName, query)
+    syncOperation.performSyncOperationAsync(addQueryStreamMessage).flatMap(_ => getQueryIdAsync(streamName, query))
   }
 
-  def getQueryId(streamName: String, query: String): String = {
-    val queries = queriesFromStream(streamName)
-    val addedQuery = queries.find(theQuery => theQuery.query.equals(query))
-    addedQuery match {
-      case Some(q) => q.queryId
-      case _ => ""
-    }
+  def getQueryId(streamName: String, query: String): String =
+    await(getQueryIdAsync(streamName, query))
+
+  def getQueryIdAsync(streamName: String, query: String) = {
+    // the engine shares the queries that only differ in their formatting,
+    // keeping the text of the first one added
+    val canonicalQuery = StreamQuery.canonicalize(query)
+    queriesFromStreamAsync(streamName).map(queries => {
+      val addedQuery = queries.find(theQuery => StreamQuery.canonicalize(theQuery.query) == canonicalQuery)
+      addedQuery match {
+        case Some(q) => q.queryId
+        case _ => ""
+      }
+    })
   }
 
-  def removeQuery(streamName: String, queryId: String) = {
-    checkStreamingStatus()
+  def removeQuery(streamName: String, queryId: String) =
+    await(removeQueryAsync(streamName, queryId))
+
+  def removeQueryAsync(streamName: String, queryId: String) = whenStreamingIsUp {
     val operation = REMOVE_QUERY.toLowerCase
     val removeQueryMessage = QueryMessageBuilder(sessionId).build(streamName, queryId, operation)
-    syncOperation.performSyncOperation(removeQueryMessage)
+    syncOperation.performSyncOperationAsync(removeQueryMessage)
   }
 
-  def dropStream(streamName: String) = {
-    checkStreamingStatus()
-    val operation = DROP.toLowerCase
-    val dropStreamMessage = StreamMessageBuilder(sessionId).build(streamName, operation)
-    syncOperation.performSyncOperation(dropStreamMessage)
+  def dropStream(streamName: String) =
+    await(dropStreamAsync(streamName))
+
+  def dropStreamAsync(streamName: String) = streamOperation(streamName, DROP)
+
+  def listenStream(streamName: String) =
+    await(listenStreamAsync(streamName))
+
+  def listenStreamAsync(streamName: String) = {
+    streamOperation(streamName, LISTEN).map(_ => {
+      val kafkaConsumer = new KafkaConsumer(streamName, zookeeperCluster)
+      addStreamingListener(streamName, kafkaConsumer)
+      kafkaConsumer.stream
+    })
   }
 
-  def listenStream(streamName: String) = {
-    checkStreamingStatus()
-    val operation = LISTEN.toLowerCase
-    val listenStreamMessage = StreamMessageBuilder(sessionId).build(streamName, operation)
-    syncOperation.performSyncOperation(listenStreamMessage)
-    val kafkaConsumer = new KafkaConsumer(streamName, zookeeperCluster)
-    streamingListeners.put(streamName, kafkaConsumer)
-    kafkaConsumer.stream
+  def listenStream(streamName: String, parallelism: Int, handler: StratioStreamingMessageHandler) =
+    await(listenStreamAsync(streamName, parallelism, handler))
+
+  def listenStream(streamName: String, parallelism: Int, groupId: String, handler: StratioStreamingMessageHandler) =
+    await(listenStreamAsync(streamName, parallelism, groupId, handler))
+
+  def listenStreamAsync(streamName: String, parallelism: Int, handler: StratioStreamingMessageHandler): Future[Unit] =
+    listenStreamAsync(streamName, parallelism, None, handler)
+
+  def listenStreamAsync(streamName: String,
+    parallelism: Int,
+    groupId: String,
+    handler: StratioStreamingMessageHandler): Future[Unit] =
+    listenStreamAsync(streamName, parallelism, Some(groupId), handler)
+
+  private def listenStreamAsync(streamName: String,
+    parallelism: Int,
+    groupId: Option[String],
+    handler: StratioStreamingMessageHandler): Future[Unit] = {
+    streamOperation(streamName, LISTEN).map(_ => {
+      val kafkaConsumer = new KafkaConsumer(streamName, zookeeperCluster, groupId, true, parallelism)
+      addStreamingListener(streamName, kafkaConsumer)
+      kafkaConsumer.consume(handler)
+    })
   }
 
-  def stopListenStream(streamName: String) = {
-    checkStreamingStatus()
+  private def addStreamingListener(streamName: String, kafkaConsumer: KafkaConsumer) {
+    streamingListeners.put(streamName, kafkaConsumer).foreach(_.close())
+  }
+
+  def stopListenStream(streamName: String) =
+    await(stopListenStreamAsync(streamName))
+
+  def stopListenStreamAsync(streamName: String) = whenStreamingIsUp {
     val operation = STOP_LISTEN.toLowerCase
     val stopListenStreamMessage = StreamMessageBuilder(sessionId).build(streamName, operation)
     shutdownKafkaConsumerAndRemoveStreamingListener(streamName)
-    syncOperation.performSyncOperation(stopListenStreamMessage)
+    syncOperation.performSyncOperationAsync(stopListenStreamMessage)
   }
 
   private def shutdownKafkaConsumerAndRemoveStreamingListener(streamName: String) {
@@ -126,73 +187,76 @@ class StratioStreamingAPI
     streamingListeners.remove(streamName)
   }
 
-  def queriesFromStream(stream: String): List[StratioQueryStream] = {
-    val stratioStreams = listStreams().toList
-    val stratioStream = stratioStreams.find(element => element.getStreamName.equals(stream))
-    stratioStream match {
-      case None => throw new StratioEngineOperationException("StratioEngine error: STREAM DOES NOT EXIST")
-      case Some(element) => element.getQueries.map(query => new StratioQueryStream(query.getQuery, query.getQueryId))
-    }
+  def queriesFromStream(stream: String): List[StratioQueryStream] =
+    await(queriesFromStreamAsync(stream))
+
+  def queriesFromStreamAsync(stream: String) = {
+    listStreamsAsync().map(stratioStreams => {
+      val stratioStream = stratioStreams.find(element => element.getStreamName.equals(stream))
+      stratioStream match {
+        case None => throw new StratioEngineOperationException("StratioEngine error: STREAM DOES NOT EXIST")
+        case Some(element) => seqAsJavaList(element.getQueries.map(query => new StratioQueryStream(query.getQuery, query.getQueryId)))
+      }
+    })
   }
 
-  def columnsFromStream(stream: String): List[ColumnNameTypeValue] = {
-    val stratioStreams = listStreams().toList
-    val stratioStream = stratioStreams.find(element => element.getStreamName.equals(stream))
-    stratioStream match {
-      case None => throw new StratioEngineOperationException("StratioEngine error: STREAM DOES NOT EXIST")
-      case Some(element) => element.getColumns
-    }
+  def columnsFromStream(stream: String): List[ColumnNameTypeValue] =
+    await(columnsFromStreamAsync(stream))
+
+  def columnsFromStreamAsync(stream: String) = {
+    listStreamsAsync().map(stratioStreams => {
+      val stratioStream = stratioStreams.find(element => element.getStreamName.equals(stream))
+      stratioStream match {
+        case None => throw new StratioEngineOperationException("StratioEngine error: STREAM DOES NOT EXIST")
+        case Some(element) => element.getColumns
+      }
+    })
   }
 
-  def listStreams(): List[StratioStream] = {
-    checkStreamingStatus()
+  def listStreams(): List[StratioStream] =
+    await(listStreamsAsync())
+
+  def listStreamsAsync() = whenStreamingIsUp {
     val operation = LIST.toLowerCase
     val listStreamMessage = builder.withOperation(operation)
       .withSessionId(sessionId)
       .build()
-    statusOperation.getListStreams(listStreamMessage)
+    statusOperation.getListStreamsAsync(listStreamMessage)
   }
 
-  def saveToCassandra(streamName: String) = {
-    checkStreamingStatus()
-    val operation = SAVETO_CASSANDRA.toLowerCase
-    val saveToCassandraMessage = StreamMessageBuilder(sessionId).build(streamName, operation)
-    syncOperation.performSyncOperation(saveToCassandraMessage)
-  }
+  def saveToCassandra(streamName: String) =
+    await(saveToCassandraAsync(streamName))
 
-  def stopSaveToCassandra(streamName: String) = {
-    checkStreamingStatus()
-    val operation = STOP_SAVETO_CASSANDRA.toLowerCase
-    val stopSaveToCassandraMessage = StreamMessageBuilder(sessionId).build(streamName, operation)
-    syncOperation.performSyncOperation(stopSaveToCassandraMessage)
-  }
+  def saveToCassandraAsync(streamName: String) = streamOperation(streamName, SAVETO_CASSANDRA)
 
-  def saveToMongo(streamName: String) = {
-    checkStreamingStatus()
-    val operation = SAVETO_MONGO.toLowerCase
-    val saveToCassandraMessage = StreamMessageBuilder(sessionId).build(streamName, operation)
-    syncOperation.performSyncOperation(saveToCassandraMessage)
-  }
+  def stopSaveToCassandra(streamName: String) =
+    await(stopSaveToCassandraAsync(streamName))
 
-  def stopSaveToMongo(streamName: String) = {
-    checkStreamingStatus()
-    val operation = STOP_SAVETO_MONGO.toLowerCase
-    val stopSaveToCassandraMessage = StreamMessageBuilder(sessionId).build(streamName, operation)
-    syncOperation.performSyncOperation(stopSaveToCassandraMessage)
-  }
+  def stopSaveToCassandraAsync(streamName: String) = streamOperation(streamName, STOP_SAVETO_CASSANDRA)
 
-  def indexStream(streamName: String) = {
-    checkStreamingStatus()
-    val operation = INDEX.toLowerCase
-    val indexStreamMessage = StreamMessageBuilder(sessionId).build(streamName, operation)
-    syncOperation.performSyncOperation(indexStreamMessage)
-  }
+  def saveToMongo(streamName: String) =
+    await(saveToMongoAsync(streamName))
 
-  def stopIndexStream(streamName: String) = {
-    checkStreamingStatus()
-    val operation = STOP_INDEX.toLowerCase
-    val indexStreamMessage = StreamMessageBuilder(sessionId).build(streamName, operation)
-    syncOperation.performSyncOperation(indexStreamMessage)
+  def saveToMongoAsync(streamName: String) = streamOperation(streamName, SAVETO_MONGO)
+
+  def stopSaveToMongo(streamName: String) =
+    await(stopSaveToMongoAsync(streamName))
+
+  def stopSaveToMongoAsync(streamName: String) = streamOperation(streamName, STOP_SAVETO_MONGO)
+
+  def indexStream(streamName: String) =
+    await(indexStreamAsync(streamName))
+
+  def indexStreamAsync(streamName: String) = streamOperation(streamName, INDEX)
+
+  def stopIndexStream(streamName: String) =
+    await(stopIndexStreamAsync(streamName))
+
+  def stopIndexStreamAsync(streamName: String) = streamOperation(streamName, STOP_INDEX)
+
+  private def streamOperation(streamName: String, operation: String) = whenStreamingIsUp {
+    val streamMessage = StreamMessageBuilder(sessionId).build(streamName, operation.toLowerCase)
+    syncOperation.performSyncOperationAsync(streamMessage)
   }
 
   def initialize() = {
@@ -233,10 +297,24 @@ class StratioStreamingAPI
     }
   }
 
+  def close() = {
+    streamingListeners.keys.toList.foreach(shutdownKafkaConsumerAndRemoveStreamingListener)
+    if (!brokerServer.isEmpty) {
+      insertProducer.close()
+      kafkaProducer.close()
+      replyConsumer.foreach(_.close())
+    }
+  }
+
   def defineAcknowledgeTimeOut(timeOutInMs: Int) = {
     ackTimeOut = timeOutInMs
     this
   }
+
+  def defineAcknowledgeReplyTopic(enabled: Boolean) = {
+    replyTopicEnabled = enabled
+    this
+  }
 }
 
 object StratioStreamingAPI
@@ -251,19 +329,32 @@ object StratioStreamingAPI
   var zookeeperPort = 0
   lazy val zookeeperCluster = s"$zookeeperServer:$zookeeperPort"
   var streamingUpAndRunning = false
-  val streamingListeners = scala.collection.mutable.Map[String, KafkaConsumer]()
+  val streamingListeners: scala.collection.mutable.Map[String, KafkaConsumer] =
+    new scala.collection.concurrent.TrieMap[String, KafkaConsumer]()
   lazy val kafkaProducer = new KafkaProducer(TOPICS, kafkaBroker)
+  lazy val insertProducer = new KafkaProducer(TOPICS, kafkaBroker,
+    synchronously = insertProducerSynchronously,
+    compressionCodec = insertProducerCompressionCodec,
+    batchSize = insertProducerBatchSize,
+    messageSendMaxRetries = insertProducerSendMaxRetries,
+    requestRequiredAcks = insertProducerRequiredAcks,
+    queueBufferingMaxMs = insertProducerQueueBufferingMaxMs)
   val retryPolicy = new RetryOneTime(500)
   lazy val zookeeperClient = CuratorFrameworkFactory.newClient(zookeeperCluster, retryPolicy)
   var topicService: TopicService = _
   var ackTimeOut = 8000
+  var replyTopicEnabled = false
+  lazy val replyTopicName = REPLY_TOPIC_PREFIX + UUID.randomUUID().toString
+  lazy val replyConsumer =
+    if (replyTopicEnabled) Some(new KafkaReplyConsumer(replyTopicName, zookeeperCluster)) else None
   lazy val zookeeperConsumer = {
     zookeeperClient.start()
     ZookeeperConsumer(zookeeperClient)
   }
-  lazy val syncOperation = new StreamingAPISyncOperation(kafkaProducer, zookeeperConsumer, ackTimeOut)
-  lazy val asyncOperation = new StreamingAPIAsyncOperation(kafkaProducer)
-  lazy val statusOperation = new StreamingAPIListOperation(kafkaProducer, zookeeperConsumer, ackTimeOut)
+  lazy val syncOperation = new StreamingAPISyncOperation(kafkaProducer, zookeeperConsumer, ackTimeOut, replyConsumer)
+  lazy val asyncOperation = new StreamingAPIAsyncOperation(insertProducer)
+  lazy val statusOperation = new StreamingAPIListOperation(kafkaProducer, zookeeperConsumer, ackTimeOut,
+    replyConsumer)
 
   def checkEphemeralNode() {
     val ephemeralNodePath = ZK_EPHEMERAL_NODE_PATH
@@ -282,12 +373,34 @@ object StratioStreamingAPI
   def initializeTopic() {
     topicService = new KafkaTopicService(zookeeperCluster, brokerServer, brokerPort, 10000, 10000)
     topicService.createTopicIfNotExist(streamingTopicName, 1, 1)
+    if (replyTopicEnabled) {
+      topicService.createTopicIfNotExist(replyTopicName, 1, 1)
+      replyConsumer
+    }
   }
 
   def checkStreamingStatus() {
     if (!streamingUpAndRunning) throw new StratioEngineStatusException("Stratio streaming is down")
   }
 
+  /**
+   * Runs the operation if the engine is up, a failed future otherwise.
+   */
+  def whenStreamingIsUp[T](operation: => Future[T]): Future[T] = {
+    try {
+      checkStreamingStatus()
+      operation
+    } catch {
+      case e: Exception => Future.failed(e)
+    }
+  }
+
+  /**
+   * The blocking operations wait for the asynchronous ones, they always
+   * complete once the acknowledge time-out has expired.
+   */
+  def await[T](operation: Future[T]): T = Await.result(operation, Duration.Inf)
+
   def addListener() = {
     zookeeperClient.getCuratorListenable().addListener(new CuratorListener() {
       def eventReceived(client: CuratorFramework, event: CuratorEvent) = {
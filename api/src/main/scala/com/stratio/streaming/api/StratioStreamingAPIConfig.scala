@@ -19,4 +19,20 @@ import com.typesafe.config.ConfigFactory
 
 trait StratioStreamingAPIConfig {
   val config = ConfigFactory.load("stratio-streaming.conf")
+
+  /**
+   * Settings of the producer of the insert requests, all of them optional.
+   */
+  lazy val insertProducerSynchronously = configOrElse("kafka.producer.type", "async") == "sync"
+  lazy val insertProducerCompressionCodec = configOrElse("kafka.producer.compression.codec", "none")
+  lazy val insertProducerBatchSize = configOrElse("kafka.producer.batch.size", 200)
+  lazy val insertProducerQueueBufferingMaxMs = configOrElse("kafka.producer.queue.buffering.max.ms", 20)
+  lazy val insertProducerRequiredAcks = configOrElse("kafka.producer.required.acks", 1)
+  lazy val insertProducerSendMaxRetries = configOrElse("kafka.producer.send.max.retries", 3)
+
+  private def configOrElse(path: String, default: String) =
+    if (config.hasPath(path)) config.getString(path) else default
+
+  private def configOrElse(path: String, default: Int) =
+    if (config.hasPath(path)) config.getInt(path) else default
 }
@@ -0,0 +1,96 @@
+/**
+ * Copyright (C) 2014 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.streaming.api
+
+import java.util.List
+import java.util.concurrent.{Executors, ScheduledFuture, ThreadFactory, TimeUnit}
+import com.stratio.streaming.api.messaging.ColumnNameValue
+import org.slf4j.LoggerFactory
+import StreamBatchInserter._
+
+/**
+ * Buffers the rows inserted into a stream and sends them as bulk inserts,
+ * when maxRows rows are buffered or lingerInMs milliseconds after the first
+ * row of the batch was buffered, whatever happens first.
+ */
+class StreamBatchInserter(api: StratioStreamingAPI,
+                          val streamName: String,
+                          val maxRows: Int,
+                          val lingerInMs: Int) {
+  private val log = LoggerFactory.getLogger(getClass)
+  private var rows = new java.util.ArrayList[List[ColumnNameValue]](maxRows)
+  private var lingerFlush: Option[ScheduledFuture[_]] = None
+  private var closed = false
+
+  require(maxRows > 0, "maxRows must be positive")
+
+  /**
+   * Buffers a row, sending the batch if it is full.
+   */
+  def insert(data: List[ColumnNameValue]) = synchronized {
+    if (closed) throw new IllegalStateException(s"The batch inserter of $streamName is closed")
+    StratioStreamingAPI.checkStreamingStatus()
+    rows.add(data)
+    if (rows.size >= maxRows) {
+      flush()
+    } else if (lingerFlush.isEmpty) {
+      lingerFlush = Some(lingerTimer.schedule(new Runnable {
+        def run() {
+          try {
+            flush()
+          } catch {
+            case e: Exception => log.error(s"Error sending the rows buffered for $streamName", e)
+          }
+        }
+      }, lingerInMs, TimeUnit.MILLISECONDS))
+    }
+  }
+
+  /**
+   * Sends the buffered rows now.
+   */
+  def flush() = synchronized {
+    lingerFlush.foreach(_.cancel(false))
+    lingerFlush = None
+    if (!rows.isEmpty) {
+      val batch = rows
+      rows = new java.util.ArrayList[List[ColumnNameValue]](maxRows)
+      api.insertBatch(streamName, batch)
+    }
+  }
+
+  /**
+   * Sends the buffered rows and rejects the next ones.
+   */
+  def close() = synchronized {
+    flush()
+    closed = true
+  }
+
+  def pendingRows = synchronized {
+    rows.size
+  }
+}
+
+object StreamBatchInserter {
+  private val lingerTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory {
+    def newThread(runnable: Runnable) = {
+      val thread = new Thread(runnable, "stratio-streaming-batch-linger")
+      thread.setDaemon(true)
+      thread
+    }
+  })
+}
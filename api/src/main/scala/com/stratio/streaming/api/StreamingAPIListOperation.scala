@@ -16,25 +16,48 @@
 package com.stratio.streaming.api
 
 import com.stratio.streaming.commons.streams.StratioStream
-import com.stratio.streaming.commons.messages.StratioStreamingMessage
+import com.stratio.streaming.commons.messages.{ListStreamsMessage, StratioStreamingMessage}
 import scala.collection.JavaConversions._
-import java.util.UUID
-import com.stratio.streaming.kafka.KafkaProducer
+import com.stratio.streaming.kafka.{KafkaProducer, KafkaReplyConsumer}
 import com.stratio.streaming.zookeeper.ZookeeperConsumer
 import com.stratio.streaming.utils.StreamsParser
 import java.util.List
-import scala.collection.immutable
+import scala.concurrent.{Await, Future}
+import scala.concurrent.ExecutionContext.Implicits.global
+import scala.concurrent.duration.Duration
 
 class StreamingAPIListOperation(kafkaProducer: KafkaProducer,
                              zookeeperConsumer: ZookeeperConsumer,
-                                 ackTimeOutInMs: Int)
+                                 ackTimeOutInMs: Int,
+                                  replyConsumer: Option[KafkaReplyConsumer] = None)
   extends StreamingAPIOperation {
 
+  // last catalog received, the engine only sends what changed since its version
+  private var catalogVersion: String = null
+  private val catalog = scala.collection.mutable.LinkedHashMap[String, StratioStream]()
+
+  // list requests are sent one after the other, a diff is always applied to
+  // the catalog version it was computed from
+  private var lastListing: Future[Any] = Future.successful(())
+
   def getListStreams(message: StratioStreamingMessage): List[StratioStream] = {
-    val zNodeUniqueId = UUID.randomUUID().toString
-    addMessageToKafkaTopic(message, zNodeUniqueId, kafkaProducer)
-    val jsonStreamingResponse = waitForTheStreamingResponse(zookeeperConsumer, message, ackTimeOutInMs)
-    val parsedList = StreamsParser.parse(jsonStreamingResponse)
-    parsedList
+    Await.result(getListStreamsAsync(message), Duration.Inf)
+  }
+
+  def getListStreamsAsync(message: StratioStreamingMessage): Future[List[StratioStream]] = synchronized {
+    val listing = lastListing.recover { case _ => () }.flatMap(_ => {
+      message.setRequest(catalogVersion)
+      performOperation(message, kafkaProducer, zookeeperConsumer, replyConsumer, ackTimeOutInMs)
+    }).map(jsonStreamingResponse => applyToCatalog(StreamsParser.parseMessage(jsonStreamingResponse)))
+    lastListing = listing
+    listing
+  }
+
+  private def applyToCatalog(listStreamsMessage: ListStreamsMessage): List[StratioStream] = synchronized {
+    if (!listStreamsMessage.isDiff) catalog.clear()
+    if (listStreamsMessage.getRemovedStreams != null) catalog --= listStreamsMessage.getRemovedStreams
+    StreamsParser.toStratioStreams(listStreamsMessage).foreach(stream => catalog.put(stream.getStreamName, stream))
+    catalogVersion = listStreamsMessage.getCatalogVersion
+    catalog.values.toList
   }
 }
@@ -20,10 +20,14 @@ import com.google.gson.Gson
 import com.stratio.streaming.commons.constants.STREAMING._
 import scala.concurrent.duration._
 import scala.concurrent._
-import com.stratio.streaming.kafka.KafkaProducer
+import com.stratio.streaming.kafka.{KafkaProducer, KafkaReplyConsumer}
 import com.stratio.streaming.commons.exceptions.StratioEngineOperationException
 import com.stratio.streaming.zookeeper.ZookeeperConsumer
 import org.slf4j.LoggerFactory
+import java.util.UUID
+import java.util.concurrent.{Executors, ThreadFactory, TimeUnit}
+import ExecutionContext.Implicits.global
+import StreamingAPIOperation._
 
 class StreamingAPIOperation
   extends StratioStreamingAPIConfig {
@@ -36,24 +40,78 @@ class StreamingAPIOperation
     tableProducer.send(kafkaMessage, message.getOperation)
   }
 
+  /**
+   * Sends the message and returns the reply, read from the reply topic when
+   * there is a reply consumer and from zookeeper otherwise. Every operation
+   * in flight shares the same reply dispatching, nothing is blocked while
+   * waiting.
+   */
+  protected def performOperation(message: StratioStreamingMessage,
+                                  kafkaProducer: KafkaProducer,
+                                  zookeeperConsumer: ZookeeperConsumer,
+                                  replyConsumer: Option[KafkaReplyConsumer],
+                                  ackTimeOutInMs: Int): Future[String] = {
+    val zNodeUniqueId = UUID.randomUUID().toString
+    replyConsumer match {
+      case Some(consumer) => {
+        message.setReply_topic(consumer.topic)
+        val reply = consumer.expectReply(message.getRequest_id)
+        addMessageToKafkaTopic(message, zNodeUniqueId, kafkaProducer)
+        withAckTimeOut(reply, message, ackTimeOutInMs, () => consumer.forgetReply(message.getRequest_id))
+      }
+      case None => {
+        addMessageToKafkaTopic(message, zNodeUniqueId, kafkaProducer)
+        readTheStreamingResponse(zookeeperConsumer, message, ackTimeOutInMs)
+      }
+    }
+  }
+
+  protected def performOperationAndWaitForTheStreamingResponse(message: StratioStreamingMessage,
+                                  kafkaProducer: KafkaProducer,
+                                  zookeeperConsumer: ZookeeperConsumer,
+                                  replyConsumer: Option[KafkaReplyConsumer],
+                                  ackTimeOutInMs: Int): String = {
+    // the response always completes, at the latest when the ack times out
+    Await.result(performOperation(message, kafkaProducer, zookeeperConsumer, replyConsumer, ackTimeOutInMs),
+      Duration.Inf)
+  }
+
   protected def getOperationZNodeFullPath(operation: String, uniqueId: String) = {
     val zookeeperBasePath = ZK_BASE_PATH
     val zookeeperPath = s"$zookeeperBasePath/$operation/$uniqueId"
     zookeeperPath
   }
 
-  protected def waitForTheStreamingResponse(zookeeperConsumer: ZookeeperConsumer,
+  protected def readTheStreamingResponse(zookeeperConsumer: ZookeeperConsumer,
                                   message: StratioStreamingMessage,
-                                  ackTimeOutInMs: Int) = {
+                                  ackTimeOutInMs: Int): Future[String] = {
     val zNodeFullPath = getOperationZNodeFullPath(
       message.getOperation.toLowerCase,
       message.getRequest_id)
-    try {
-      Await.result(zookeeperConsumer.readZNode(zNodeFullPath), ackTimeOutInMs milliseconds)
-      val response = zookeeperConsumer.getZNodeData(zNodeFullPath)
-      zookeeperConsumer.removeZNode(zNodeFullPath)
-      response.get
-    } catch {
+    withAckTimeOut(zookeeperConsumer.readZNode(zNodeFullPath), message, ackTimeOutInMs, () => ()).map(_ => {
+      blocking {
+        val response = zookeeperConsumer.getZNodeData(zNodeFullPath)
+        zookeeperConsumer.removeZNode(zNodeFullPath)
+        response.get
+      }
+    })
+  }
+
+  private def withAckTimeOut[T](response: Future[T],
+                                message: StratioStreamingMessage,
+                                ackTimeOutInMs: Int,
+                                onTimeOut: () => Unit): Future[T] = {
+    val timedResponse = Promise[T]()
+    val timeOut = ackTimer.schedule(new Runnable {
+      def run() {
+        if (timedResponse.tryFailure(new TimeoutException())) onTimeOut()
+      }
+    }, ackTimeOutInMs, TimeUnit.MILLISECONDS)
+    response.onComplete(result => {
+      timeOut.cancel(false)
+      timedResponse.tryComplete(result)
+    })
+    timedResponse.future.recover {
       case e: TimeoutException => {
         log.error("Ack timeout expired for: "+message.getRequest)
         throw new StratioEngineOperationException("Acknowledge timeout expired"+message.getRequest)
@@ -61,3 +119,13 @@ class StreamingAPIOperation
     }
   }
 }
+
+object StreamingAPIOperation {
+  private val ackTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory {
+    def newThread(runnable: Runnable) = {
+      val thread = new Thread(runnable, "stratio-streaming-ack-timeouts")
+      thread.setDaemon(true)
+      thread
+    }
+  })
+}
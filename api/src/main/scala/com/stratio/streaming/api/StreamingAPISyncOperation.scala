@@ -15,32 +15,43 @@
  */
 package com.stratio.streaming.api
 
-import java.util.UUID
 import com.stratio.streaming.commons.messages.StratioStreamingMessage
 import com.stratio.streaming.commons.exceptions.{StratioAPIGenericException, StratioAPISecurityException, StratioEngineOperationException}
-import com.stratio.streaming.kafka.KafkaProducer
+import com.stratio.streaming.kafka.{KafkaProducer, KafkaReplyConsumer}
 import com.stratio.streaming.zookeeper.ZookeeperConsumer
 import com.stratio.streaming.commons.constants.REPLY_CODES._
 import com.google.gson.Gson
 import com.stratio.streaming.commons.dto.ActionCallbackDto
+import scala.concurrent.{Await, Future}
+import scala.concurrent.ExecutionContext.Implicits.global
+import scala.concurrent.duration.Duration
 
 case class StreamingAPISyncOperation(
   kafkaProducer: KafkaProducer,
   zookeeperConsumer: ZookeeperConsumer,
-  ackTimeOutInMs: Int)
+  ackTimeOutInMs: Int,
+  replyConsumer: Option[KafkaReplyConsumer] = None)
   extends StreamingAPIOperation {
 
   /**
    * Sends the message to the StratioStreamingEngine and waits
-   * for the Acknowledge to be written in zookeeper.
+   * for the Acknowledge to be written in zookeeper or in the reply topic.
    *
    * @param message
    */
   def performSyncOperation(message: StratioStreamingMessage) = {
-    val zNodeUniqueId = UUID.randomUUID().toString
-    addMessageToKafkaTopic(message, zNodeUniqueId, kafkaProducer)
-    val syncOperationResponse = waitForTheStreamingResponse(zookeeperConsumer, message, ackTimeOutInMs)
-    manageStreamingResponse(syncOperationResponse, message)
+    Await.result(performSyncOperationAsync(message), Duration.Inf)
+  }
+
+  /**
+   * Sends the message to the StratioStreamingEngine, the future
+   * completes when the Acknowledge is received.
+   *
+   * @param message
+   */
+  def performSyncOperationAsync(message: StratioStreamingMessage): Future[Unit] = {
+    performOperation(message, kafkaProducer, zookeeperConsumer, replyConsumer, ackTimeOutInMs)
+      .map(syncOperationResponse => manageStreamingResponse(syncOperationResponse, message))
   }
 
   private def manageStreamingResponse(response: String, message: StratioStreamingMessage) = {
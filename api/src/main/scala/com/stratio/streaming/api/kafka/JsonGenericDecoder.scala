@@ -23,9 +23,14 @@ import com.stratio.streaming.commons.exceptions.StratioAPIGenericException
 class JsonGenericDecoder extends Decoder[StratioStreamingMessage] {
     def fromBytes(bytes: Array[Byte]): StratioStreamingMessage = {
       try {
-        new Gson().fromJson(new String(bytes), classOf[StratioStreamingMessage])
+        JsonGenericDecoder.gson.fromJson(new String(bytes, "UTF-8"), classOf[StratioStreamingMessage])
       } catch {
           case _ => throw new StratioAPIGenericException("Streaming API error: unable to decode the engine message")
       }
     }
 }
+
+object JsonGenericDecoder {
+  // gson is thread-safe, every decoder shares the same instance
+  private val gson = new Gson()
+}
@@ -17,28 +17,73 @@ package com.stratio.streaming.kafka
 
 import kafka.serializer.{StringDecoder, DefaultDecoder}
 import java.util.Properties
+import java.util.UUID
 import kafka.utils.Logging
 import scala.collection.JavaConversions._
 import kafka.consumer.{KafkaStream, Consumer, ConsumerConfig, Whitelist}
 import scala.Predef._
+import com.stratio.streaming.api.StratioStreamingMessageHandler
 import com.stratio.streaming.commons.messages.StratioStreamingMessage
 import scala.reflect.ClassTag
 
+/**
+ * Consumer of the events of a stream, read from as many kafka streams as the
+ * given parallelism. The group is unique unless one is given, so every
+ * listener receives all the events.
+ *
+ * A generated group never has committed offsets, so it always starts at the
+ * newest event instead of reading the whole topic again on every listen.
+ * readFromStartOfStream only applies to a given group read for the first time.
+ */
 class KafkaConsumer(topic: String,
                      zookeeperConnect: String,
-                     groupId: String = "1111",
-                     readFromStartOfStream: Boolean = true
+                     groupId: Option[String] = None,
+                     readFromStartOfStream: Boolean = true,
+                     parallelism: Int = 1
                      ) extends Logging {
 
+  require(parallelism > 0, "parallelism must be positive")
+
   val props = new Properties()
-  props.put("group.id", groupId)
+  props.put("group.id", groupId.getOrElse("stratio-streaming-" + UUID.randomUUID().toString))
   props.put("zookeeper.connect", zookeeperConnect)
-  props.put("auto.offset.reset", if(readFromStartOfStream) "smallest" else "largest")
+  props.put("auto.offset.reset", if(groupId.isDefined && readFromStartOfStream) "smallest" else "largest")
   val config = new ConsumerConfig(props)
   val connector = Consumer.create(config)
   val filterSpec = new Whitelist(topic)
 
-  val stream = connector.createMessageStreamsByFilter(filterSpec, 1, new StringDecoder(), new JsonGenericDecoder()).get(0)
+  // the decoders are stateless, every kafka stream shares them
+  val streams = connector.createMessageStreamsByFilter(filterSpec, parallelism, new StringDecoder(),
+    new JsonGenericDecoder())
+
+  val stream = streams.head
+
+  /**
+   * Hands the events of every kafka stream to the handler, each kafka stream
+   * in its own thread, until the consumer is closed.
+   */
+  def consume(handler: StratioStreamingMessageHandler) {
+    streams.zipWithIndex.foreach({
+      case (kafkaStream, index) =>
+        val reader = new Thread(new Runnable {
+          def run() {
+            try {
+              for (message <- kafkaStream) {
+                try {
+                  handler.onMessage(message.message)
+                } catch {
+                  case e: Exception => error("Error handling an event of stream " + topic, e)
+                }
+              }
+            } catch {
+              case e: Exception => error("Consumer of stream " + topic + " stopped", e)
+            }
+          }
+        }, "stratio-streaming-listener-" + topic + "-" + index)
+        reader.setDaemon(true)
+        reader.start()
+    })
+  }
 
   def close() {
     connector.shutdown()
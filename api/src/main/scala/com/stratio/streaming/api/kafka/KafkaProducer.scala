@@ -18,31 +18,42 @@ package com.stratio.streaming.kafka
 import java.util.UUID
 import java.util.Properties
 import kafka.producer._
+import kafka.message.CompressionCodec
 import org.slf4j.LoggerFactory
 
+/**
+ * Producer of the requests sent to the engine. The async producer batches
+ * up to batchSize messages or queueBufferingMaxMs milliseconds in a
+ * background thread, and must be closed to send the pending messages.
+ */
 case class KafkaProducer(topic: String,
                           brokerList: String,
                           clientId: String = UUID.randomUUID().toString,
                           synchronously: Boolean = true,
-                          compress: Boolean = true,
+                          compressionCodec: String = "none",
                           batchSize: Integer = 200,
                           messageSendMaxRetries: Integer = 3,
-                          requestRequiredAcks: Integer = -1
+                          requestRequiredAcks: Integer = -1,
+                          queueBufferingMaxMs: Integer = 5000
                           ) {
 
   val props = new Properties()
   val log = LoggerFactory.getLogger(getClass)
-  //val codec = if(compress) DefaultCompressionCodec.codec else NoCompressionCodec.codec
 
-  //props.put("compression.codec", codec.toString)
   props.put("serializer.class", "kafka.serializer.StringEncoder")
   props.put("metadata.broker.list", brokerList)
+  props.put("client.id", clientId)
+  props.put("producer.type", if (synchronously) "sync" else "async")
+  props.put("compression.codec", CompressionCodec.getCompressionCodec(compressionCodec).codec.toString)
+  props.put("batch.num.messages", batchSize.toString)
+  props.put("queue.buffering.max.ms", queueBufferingMaxMs.toString)
+  props.put("message.send.max.retries", messageSendMaxRetries.toString)
+  props.put("request.required.acks", requestRequiredAcks.toString)
 
   val producer = new Producer[AnyRef, AnyRef](new ProducerConfig(props))
 
   def send(message: String, key: String) = {
     try {
-      log.info("Sending KeyedMessage[key, value]: ["+key+","+message+"]")
       producer.send(new KeyedMessage(topic, key, message))
     } catch {
       case e: Exception =>
@@ -50,4 +61,8 @@ case class KafkaProducer(topic: String,
         log.error("Exception: "+e.getMessage)
     }
   }
+
+  def close() = {
+    producer.close()
+  }
 }
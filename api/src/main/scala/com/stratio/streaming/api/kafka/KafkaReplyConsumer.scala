@@ -0,0 +1,78 @@
+/**
+ * Copyright (C) 2014 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.streaming.kafka
+
+import java.util.Properties
+import java.util.concurrent.ConcurrentHashMap
+import kafka.consumer.{Consumer, ConsumerConfig, Whitelist}
+import kafka.serializer.StringDecoder
+import scala.concurrent.{Future, Promise}
+import org.slf4j.LoggerFactory
+
+/**
+ * Reads the replies the engine sends to the reply topic of this session and
+ * hands each one to the operation waiting for its request id.
+ */
+class KafkaReplyConsumer(val topic: String,
+                         zookeeperConnect: String) {
+
+  val log = LoggerFactory.getLogger(getClass)
+  private val pendingReplies = new ConcurrentHashMap[String, Promise[String]]()
+
+  val props = new Properties()
+  // the topic belongs to this session, so does the group
+  props.put("group.id", topic)
+  props.put("zookeeper.connect", zookeeperConnect)
+  props.put("auto.offset.reset", "smallest")
+  props.put("auto.commit.enable", "false")
+  val connector = Consumer.create(new ConsumerConfig(props))
+
+  private val stream = connector.createMessageStreamsByFilter(new Whitelist(topic), 1,
+    new StringDecoder(), new StringDecoder()).head
+
+  private val reader = new Thread(new Runnable {
+    def run() {
+      try {
+        for (message <- stream) {
+          val reply = pendingReplies.remove(message.key)
+          if (reply != null) reply.trySuccess(message.message)
+          else log.debug("Discarding reply of request " + message.key)
+        }
+      } catch {
+        case e: Exception => log.info("Reply consumer of topic " + topic + " stopped: " + e.getMessage)
+      }
+    }
+  }, "stratio-streaming-replies")
+  reader.setDaemon(true)
+  reader.start()
+
+  /**
+   * Registers the request before sending it, so its reply cannot be missed.
+   */
+  def expectReply(requestId: String): Future[String] = {
+    val reply = Promise[String]()
+    pendingReplies.put(requestId, reply)
+    reply.future
+  }
+
+  def forgetReply(requestId: String) {
+    pendingReplies.remove(requestId)
+  }
+
+  def close() {
+    connector.shutdown()
+  }
+}
@@ -33,4 +33,26 @@ case class InsertMessageBuilder(sessionId: String) {
       .withSessionId(sessionId)
       .build()
   }
+
+  /**
+   * Packs the rows into one message, with the column names sent once as
+   * the columns of the message and every row holding only its values.
+   */
+  def buildBatch(streamName: String, rows: List[List[ColumnNameValue]]) = {
+    val columnNames = rows.toList.flatMap(row => row.toList.map(_.columnName)).distinct
+    val positions = columnNames.zipWithIndex.toMap
+    val packedRows = new java.util.ArrayList[java.util.List[Object]](rows.size)
+    rows.foreach(row => {
+      val values = new Array[Object](columnNames.size)
+      row.foreach(element => values(positions(element.columnName)) = element.columnValue)
+      packedRows.add(java.util.Arrays.asList(values: _*))
+    })
+    val message = builder.withColumns(columnNames.map(columnName => new ColumnNameTypeValue(columnName, null, null)))
+      .withOperation(operation)
+      .withStreamName(streamName)
+      .withSessionId(sessionId)
+      .build()
+    message.setRows(packedRows)
+    message
+  }
 }
@@ -17,6 +17,7 @@ package com.stratio.streaming.api.messaging
 
 import com.stratio.streaming.commons.messages.{ StreamQuery, ColumnNameTypeValue, StratioStreamingMessage }
 import java.util.List
+import java.util.UUID
 
 object MessageBuilder {
 
@@ -99,7 +100,7 @@ object MessageBuilder {
   def builder = new StratioStreamingMessageBuilder("",
     "",
     "",
-    "" + System.currentTimeMillis,
+    UUID.randomUUID().toString,
     "",
     new java.lang.Long(System.currentTimeMillis),
     null,
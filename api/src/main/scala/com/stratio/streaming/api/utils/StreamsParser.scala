@@ -24,21 +24,26 @@ import com.stratio.streaming.commons.exceptions.StratioAPIGenericException
 object StreamsParser {
   val theGsonParser = new Gson()
 
-  def parse(json: String) = {
+  def parse(json: String) = toStratioStreams(parseMessage(json))
+
+  def parseMessage(json: String): ListStreamsMessage = {
     try {
-      val listStreams = theGsonParser.fromJson(json, classOf[ListStreamsMessage]).getStreams.toList
-      val stratioStreams = listStreams.map(stream => {
-        new StratioStream(stream.getStreamName,
-          stream.getColumns,
-          stream.getQueries,
-          stream.getActiveActions,
-          stream.isUserDefined)}
-      )
-      stratioStreams
+      val listStreamsMessage = theGsonParser.fromJson(json, classOf[ListStreamsMessage])
+      if (listStreamsMessage.getStreams == null) throw new IllegalArgumentException("Missing streams")
+      listStreamsMessage
     } catch {
         case _ => throw new StratioAPIGenericException("Streaming API error: unable to parse the json response")
     }
+  }
 
+  def toStratioStreams(listStreamsMessage: ListStreamsMessage) = {
+    listStreamsMessage.getStreams.toList.map(stream => {
+      new StratioStream(stream.getStreamName,
+        stream.getColumns,
+        stream.getQueries,
+        stream.getActiveActions,
+        stream.isUserDefined)}
+    )
   }
 
 }
@@ -15,23 +15,44 @@
  */
 package com.stratio.streaming.zookeeper
 
-import scala.concurrent.{ExecutionContext, Future}
-import ExecutionContext.Implicits.global
+import scala.concurrent.{Future, Promise}
 import org.apache.curator.framework.CuratorFramework
+import org.apache.curator.framework.api.CuratorWatcher
 import scala.Predef._
 import scala.Some
 import org.slf4j.LoggerFactory
-import org.apache.zookeeper.data.Stat
+import org.apache.zookeeper.WatchedEvent
+import org.apache.zookeeper.Watcher.Event.EventType
 
 case class ZookeeperConsumer(zooKeeperClient: CuratorFramework) {
   val log = LoggerFactory.getLogger(getClass)
-  def readZNode(fullPath: String) = {
-    Future {
-      var nodeExists = zNodeExists(fullPath)
-      while(!nodeExists) {
-        nodeExists = zNodeExists(fullPath)
+
+  /**
+   * Completes when the zNode exists. A watch is left on the path instead of
+   * polling it, so waiting costs one request until the node is created.
+   */
+  def readZNode(fullPath: String): Future[Unit] = {
+    val created = Promise[Unit]()
+    watchZNode(fullPath, created)
+    created.future
+  }
+
+  private def watchZNode(fullPath: String, created: Promise[Unit]) {
+    val watcher = new CuratorWatcher {
+      def process(event: WatchedEvent) {
+        event.getType match {
+          case EventType.NodeCreated => created.trySuccess(())
+          // connection events also fire the watch, check again
+          case _ => if (!created.isCompleted) watchZNode(fullPath, created)
+        }
       }
     }
+    try {
+      if (zooKeeperClient.checkExists().usingWatcher(watcher).forPath(fullPath) != null)
+        created.trySuccess(())
+    } catch {
+      case e: Exception => log.warn("Unable to watch zNode: " + fullPath, e)
+    }
   }
 
   def getZNodeData(fullPath: String): Option[String] = {
@@ -0,0 +1,83 @@
+/**
+ * Copyright (C) 2014 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.streaming.unit
+
+import org.scalatest._
+import org.scalatest.mock._
+import org.mockito.Mockito
+import org.mockito.Matchers._
+import scala.collection.JavaConversions._
+import com.stratio.streaming.api.{StratioStreamingAPI, StreamBatchInserter}
+import com.stratio.streaming.api.messaging.ColumnNameValue
+import com.stratio.streaming.messaging.InsertMessageBuilder
+
+class BulkInsertUnitTests
+  extends FunSpec
+  with GivenWhenThen
+  with ShouldMatchers
+  with MockitoSugar
+  with BeforeAndAfter {
+
+  before {
+    StratioStreamingAPI.streamingUpAndRunning = true
+  }
+
+  after {
+    StratioStreamingAPI.streamingUpAndRunning = false
+  }
+
+  describe("The Insert Message Builder") {
+    it("should pack the rows with a shared column header") {
+      Given("two rows with different columns")
+      val rows: java.util.List[java.util.List[ColumnNameValue]] = List(
+        seqAsJavaList(List(new ColumnNameValue("name", "first"), new ColumnNameValue("value", new java.lang.Double(1)))),
+        seqAsJavaList(List(new ColumnNameValue("value", new java.lang.Double(2)), new ColumnNameValue("extra", "x"))))
+      When("we build the bulk insert")
+      val message = InsertMessageBuilder("sessionId").buildBatch("testStream", rows)
+      Then("the columns should hold every column name once")
+      message.getColumns.map(_.getColumn).toList should be(List("name", "value", "extra"))
+      And("every row should hold its values in the order of the columns")
+      message.getRows.size should be(2)
+      message.getRows.get(0).toList should be(List("first", 1.0, null))
+      message.getRows.get(1).toList should be(List(null, 2.0, "x"))
+    }
+  }
+
+  describe("The Stream Batch Inserter") {
+    it("should send the rows when the batch is full") {
+      Given("an inserter of batches of 3 rows")
+      val api = mock[StratioStreamingAPI]
+      val inserter = new StreamBatchInserter(api, "testStream", 3, 60000)
+      When("we insert 4 rows")
+      (1 to 4).foreach(i => inserter.insert(seqAsJavaList(List(new ColumnNameValue("value", i.toString)))))
+      Then("a batch of 3 rows should have been sent")
+      Mockito.verify(api, Mockito.times(1)).insertBatch(anyString(), any())
+      And("the last row should wait for the next batch")
+      inserter.pendingRows should be(1)
+    }
+
+    it("should send the rows when the linger time expires") {
+      Given("an inserter lingering 50 ms")
+      val api = mock[StratioStreamingAPI]
+      val inserter = new StreamBatchInserter(api, "testStream", 100, 50)
+      When("we insert a single row")
+      inserter.insert(seqAsJavaList(List(new ColumnNameValue("value", "1"))))
+      Then("the row should be sent without filling the batch")
+      Mockito.verify(api, Mockito.timeout(2000)).insertBatch(anyString(), any())
+      inserter.pendingRows should be(0)
+    }
+  }
+}
@@ -34,6 +34,16 @@ class JsonGenericDecoderUnitTests
       fieldsList.getStreamName should be ("testStream")
     }
 
+    it("should decode messages from several threads at the same time") {
+      val jsonGenericDecoder = new JsonGenericDecoder
+      val streamNames = (1 to 200).par.map(i => {
+        val json = s"""{"streamName":"stream$i","columns":[{"column":"field1","value":$i}]}"""
+        jsonGenericDecoder.fromBytes(json.getBytes("UTF-8")).getStreamName
+      }).toList
+
+      streamNames should be((1 to 200).map(i => s"stream$i").toList)
+    }
+
     it("should throw a StratioAPIGenericException when the json to be parsed is not-well formed") {
       val jsonToBeParsed = """{not well-formed json"""
       val jsonGenericDecoder = new JsonGenericDecoder
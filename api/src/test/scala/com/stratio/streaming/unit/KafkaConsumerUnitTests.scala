@@ -0,0 +1,53 @@
+/**
+ * Copyright (C) 2014 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.streaming.unit
+
+import org.scalatest.{BeforeAndAfterAll, GivenWhenThen, ShouldMatchers, FunSpec}
+import com.netflix.curator.test.TestingServer
+import com.stratio.streaming.kafka.KafkaConsumer
+
+class KafkaConsumerUnitTests
+  extends FunSpec
+  with ShouldMatchers
+  with GivenWhenThen
+  with BeforeAndAfterAll {
+
+  val zookeeperServer = new TestingServer()
+
+  override def afterAll() {
+    zookeeperServer.close()
+  }
+
+  describe("The Kafka Consumer") {
+    it("should start a generated group at the newest event") {
+      Given("a consumer without group")
+      val kafkaConsumer = new KafkaConsumer("theTopic", zookeeperServer.getConnectString)
+      Then("it should not read the history of the topic")
+      kafkaConsumer.props.getProperty("auto.offset.reset") should be("largest")
+      kafkaConsumer.props.getProperty("group.id") should startWith("stratio-streaming-")
+      kafkaConsumer.close()
+    }
+
+    it("should start a given group at the oldest event") {
+      Given("a consumer of a given group")
+      val kafkaConsumer = new KafkaConsumer("theTopic", zookeeperServer.getConnectString, Some("theGroup"))
+      Then("it should read the topic from the start the first time")
+      kafkaConsumer.props.getProperty("auto.offset.reset") should be("smallest")
+      kafkaConsumer.props.getProperty("group.id") should be("theGroup")
+      kafkaConsumer.close()
+    }
+  }
+}
@@ -0,0 +1,52 @@
+/**
+ * Copyright (C) 2014 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.streaming.unit
+
+import org.scalatest._
+import com.stratio.streaming.kafka.KafkaProducer
+
+class KafkaProducerUnitTests
+  extends FunSpec
+  with GivenWhenThen
+  with ShouldMatchers {
+
+  describe("The Kafka Producer") {
+    it("should configure the kafka producer with its settings") {
+      Given("an async producer compressing with snappy")
+      val kafkaProducer = new KafkaProducer("theTopic", "localhost:9092",
+        synchronously = false,
+        compressionCodec = "snappy",
+        batchSize = 500,
+        requestRequiredAcks = 1,
+        queueBufferingMaxMs = 20)
+      Then("the kafka producer should use them")
+      kafkaProducer.props.getProperty("producer.type") should be("async")
+      kafkaProducer.props.getProperty("compression.codec") should be("2")
+      kafkaProducer.props.getProperty("batch.num.messages") should be("500")
+      kafkaProducer.props.getProperty("request.required.acks") should be("1")
+      kafkaProducer.props.getProperty("queue.buffering.max.ms") should be("20")
+      kafkaProducer.close()
+    }
+
+    it("should reject unknown compression codecs") {
+      Given("an unknown compression codec")
+      Then("the producer should not be created")
+      intercept[kafka.common.UnknownCodecException] {
+        new KafkaProducer("theTopic", "localhost:9092", compressionCodec = "zip")
+      }
+    }
+  }
+}
@@ -78,6 +78,24 @@ with MockitoSugar {
       }
     }
 
+    it("should apply the changes sent by the engine to the streams already listed") {
+      Given("a list operation that already has the catalog")
+      val listOperation = new StreamingAPIListOperation(kafkaProducerMock, zookeeperConsumerMock, 2000)
+      val streamsList = """{"count":2,"timestamp":1402494388420,"catalogVersion":"catalog:1","streams":[{"streamName":"firstStream","columns":[],"queries":[],"activeActions":[],"userDefined":true},{"streamName":"secondStream","columns":[],"queries":[],"activeActions":[],"userDefined":true}]}"""
+      val changes = """{"count":2,"timestamp":1402494388421,"catalogVersion":"catalog:2","diff":true,"removedStreams":["secondStream"],"streams":[{"streamName":"thirdStream","columns":[],"queries":[],"activeActions":[],"userDefined":true}]}"""
+      Mockito.doNothing().when(kafkaProducerMock).send(anyString(), anyString())
+      org.mockito.Mockito.when(zookeeperConsumerMock.readZNode(anyString())).thenReturn(Future.successful())
+      org.mockito.Mockito.when(zookeeperConsumerMock.getZNodeData(anyString())).thenReturn(Some(streamsList))
+      listOperation.getListStreams(stratioStreamingMessage)
+      When("the engine replies with the changes since that version")
+      org.mockito.Mockito.when(zookeeperConsumerMock.getZNodeData(anyString())).thenReturn(Some(changes))
+      val streams = listOperation.getListStreams(stratioStreamingMessage)
+      Then("the request should carry the known version")
+      stratioStreamingMessage.getRequest should be("catalog:1")
+      And("the changes should be applied to the known streams")
+      streams.map(_.getStreamName).toList should be(List("firstStream", "thirdStream"))
+    }
+
     it("should throw a StratioEngineOperationException when the ack time-out expired") {
       Given("a time-out exception")
       When("we perform the sync operation")
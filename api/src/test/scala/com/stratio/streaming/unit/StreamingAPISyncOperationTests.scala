@@ -24,7 +24,7 @@ import scala.collection.JavaConversions._
 import org.mockito.Mockito
 import scala.concurrent._
 import com.stratio.streaming.commons.constants.REPLY_CODES._
-import com.stratio.streaming.kafka.KafkaProducer
+import com.stratio.streaming.kafka.{KafkaProducer, KafkaReplyConsumer}
 import com.stratio.streaming.api.StreamingAPISyncOperation
 import com.stratio.streaming.zookeeper.ZookeeperConsumer
 import scala.Some
@@ -52,6 +52,53 @@ with MockitoSugar {
     true)
 
   describe("The Streaming API Sync Operation") {
+    it("should wait for the engine response in the reply topic when there is one") {
+      Given("a reply consumer with an OK engine response")
+      val replyConsumerMock = mock[KafkaReplyConsumer]
+      val replyTopicSyncOperation = new StreamingAPISyncOperation(kafkaProducerMock, zookeeperConsumerMock, 2000,
+        Some(replyConsumerMock))
+      org.mockito.Mockito.when(replyConsumerMock.topic).thenReturn("theReplyTopic")
+      org.mockito.Mockito.when(replyConsumerMock.expectReply("requestId")).thenReturn(Future.successful(s"""{"errorCode":$OK}"""))
+      Mockito.doNothing().when(kafkaProducerMock).send(anyString(), anyString())
+      When("we perform the sync operation")
+      replyTopicSyncOperation.performSyncOperation(stratioStreamingMessage)
+      Then("the request should carry the reply topic")
+      stratioStreamingMessage.getReply_topic should be("theReplyTopic")
+      And("zookeeper should not be read")
+      Mockito.verify(zookeeperConsumerMock, Mockito.never()).readZNode(anyString())
+      stratioStreamingMessage.setReply_topic(null)
+    }
+
+    it("should return a pending future while the engine response has not arrived") {
+      Given("an engine response that has not been written yet")
+      val engineResponse = Promise[Unit]()
+      Mockito.doNothing().when(kafkaProducerMock).send(anyString(), anyString())
+      org.mockito.Mockito.when(zookeeperConsumerMock.readZNode(anyString())).thenReturn(engineResponse.future)
+      org.mockito.Mockito.when(zookeeperConsumerMock.getZNodeData(anyString())).thenReturn(Some(s"""{"errorCode":$OK}"""))
+      When("we perform the async operation")
+      val operation = stratioStreamingAPISyncOperation.performSyncOperationAsync(stratioStreamingMessage)
+      Then("the caller should not be blocked")
+      operation.isCompleted should be(false)
+      And("the operation should complete once the engine response is written")
+      engineResponse.success(())
+      Await.result(operation, duration.Duration(2, "seconds"))
+      operation.isCompleted should be(true)
+    }
+
+    it("should fail the future when the engine returns an ERROR return code") {
+      Given("a KO_COLUMN_DOES_NOT_EXIST engine response")
+      val engineResponse = s"""{"errorCode":$KO_COLUMN_DOES_NOT_EXIST}"""
+      Mockito.doNothing().when(kafkaProducerMock).send(anyString(), anyString())
+      org.mockito.Mockito.when(zookeeperConsumerMock.readZNode(anyString())).thenReturn(Future.successful())
+      org.mockito.Mockito.when(zookeeperConsumerMock.getZNodeData(anyString())).thenReturn(Some(engineResponse))
+      When("we perform the async operation")
+      val operation = stratioStreamingAPISyncOperation.performSyncOperationAsync(stratioStreamingMessage)
+      Then("the future should fail with a StratioEngineOperationException")
+      intercept[StratioEngineOperationException] {
+        Await.result(operation, duration.Duration(2, "seconds"))
+      }
+    }
+
     it("should throw no exceptions when the engine returns an OK return code") {
       Given("an OK engine response")
       val engineResponse = s"""{"errorCode":$OK}"""
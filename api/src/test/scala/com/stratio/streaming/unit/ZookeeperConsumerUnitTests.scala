@@ -69,6 +69,23 @@ class ZookeeperConsumerUnitTests
       }
     }
 
+    it("should complete as soon as the znode is created") {
+      Given("a reader waiting for a znode")
+      val uniqueId = UUID.randomUUID().toString
+      val fullPath = s"$operationFullPath/$uniqueId"
+      val created = zookeeperConsumer.readZNode(fullPath)
+      Thread.sleep(200)
+      created.isCompleted should be(false)
+      When("the znode is created")
+      val creationTime = System.nanoTime()
+      zookeeperClient.create().forPath(fullPath)
+      Await.result(created, 1 seconds)
+      val latencyInMs = (System.nanoTime() - creationTime) / 1000000
+      info(s"Acknowledge latency: $latencyInMs ms")
+      Then("the reader should be notified by the watch")
+      latencyInMs should be < 500L
+    }
+
     it("should pick up the value from the zNode") {
       Given("a zNode with data")
       val uniqueId = UUID.randomUUID().toString
@@ -19,5 +19,6 @@ public interface BUS {
 	 public static final String STREAMING_GROUP_ID 	= "stratioStreaming";
 	public static final String TOPICS				= "stratio_streaming_requests";
 	public static final String LIST_STREAMS_TOPIC	= "stratio_streaming_list_streams";
+	public static final String REPLY_TOPIC_PREFIX	= "stratio_streaming_replies_";
 //	
 }
@@ -17,11 +17,19 @@ package com.stratio.streaming.commons.messages;
 
 import java.util.List;
 
+/**
+ * Reply to a LIST request. When the request carries the catalog version the
+ * client already has, the reply is a diff: streams only holds the streams
+ * added or changed since then and removedStreams the dropped ones.
+ */
 public class ListStreamsMessage {
 	
 	private Integer count;
 	private Long timestamp;
 	private List<StratioStreamingMessage> streams;
+	private String catalogVersion;
+	private Boolean diff;
+	private List<String> removedStreams;
 
 	public ListStreamsMessage() {
 		// TODO Auto-generated constructor stub
@@ -68,4 +76,40 @@ public class ListStreamsMessage {
 	public void setStreams(List<StratioStreamingMessage> streams) {
 		this.streams = streams;
 	}
+
+	/**
+	 * @return opaque version of the catalog, to be sent back in the request of
+	 *         the next LIST
+	 */
+	public String getCatalogVersion() {
+		return catalogVersion;
+	}
+
+	public void setCatalogVersion(String catalogVersion) {
+		this.catalogVersion = catalogVersion;
+	}
+
+	public boolean isDiff() {
+		return Boolean.TRUE.equals(diff);
+	}
+
+	public void setDiff(Boolean diff) {
+		this.diff = diff;
+	}
+
+	public List<String> getRemovedStreams() {
+		return removedStreams;
+	}
+
+	public void setRemovedStreams(List<String> removedStreams) {
+		this.removedStreams = removedStreams;
+	}
+
+	/**
+	 * @return true if nothing has changed since the version of the request
+	 */
+	public boolean isUnchanged() {
+		return isDiff() && (streams == null || streams.isEmpty())
+				&& (removedStreams == null || removedStreams.isEmpty());
+	}
 }
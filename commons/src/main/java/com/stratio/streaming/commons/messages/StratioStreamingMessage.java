@@ -38,6 +38,8 @@ public class StratioStreamingMessage implements Serializable {
     private List<StreamQuery> queries;
     private Set<StreamAction> activeActions;
     private Boolean userDefined;
+    private String reply_topic;
+    private List<List<Object>> rows;
 
     public StratioStreamingMessage() {
 
@@ -117,6 +119,30 @@ public class StratioStreamingMessage implements Serializable {
         this.request_id = request_id;
     }
 
+    /**
+     * @return kafka topic where the reply is expected, null to reply in
+     *         zookeeper
+     */
+    public String getReply_topic() {
+        return reply_topic;
+    }
+
+    public void setReply_topic(String reply_topic) {
+        this.reply_topic = reply_topic;
+    }
+
+    /**
+     * @return values of a bulk insert, in the order of the column names
+     *         given as columns, null for a single insert
+     */
+    public List<List<Object>> getRows() {
+        return rows;
+    }
+
+    public void setRows(List<List<Object>> rows) {
+        this.rows = rows;
+    }
+
     public Boolean isUserDefined() {
         return userDefined;
     }
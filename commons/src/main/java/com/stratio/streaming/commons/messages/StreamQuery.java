@@ -1,50 +1,91 @@
-/**
- * Copyright (C) 2014 Stratio (http://stratio.com)
- *
- * Licensed under the Apache License, Version 2.0 (the "License");
- * you may not use this file except in compliance with the License.
- * You may obtain a copy of the License at
- *
- *         http://www.apache.org/licenses/LICENSE-2.0
- *
- * Unless required by applicable law or agreed to in writing, software
- * distributed under the License is distributed on an "AS IS" BASIS,
- * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
- * See the License for the specific language governing permissions and
- * limitations under the License.
- */
-package com.stratio.streaming.commons.messages;
-
-import java.io.Serializable;
-
-public class StreamQuery implements Serializable {
-
-	private static final long serialVersionUID = 4790891263734101673L;
-
-	private String queryId;
-	private String query;
-	
-	public StreamQuery(String queryId, String query) {
-		this.queryId = queryId;
-		this.query = query;
-	}
-
-	public String getQueryId() {
-		return queryId;
-	}
-
-	public void setQueryId(String queryId) {
-		this.queryId = queryId;
-	}
-
-	public String getQuery() {
-		return query;
-	}
-
-	public void setQuery(String query) {
-		this.query = query;
-	}
-
-
-
-}
+/**
+ * Copyright (C) 2014 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.streaming.commons.messages;
+
+import java.io.Serializable;
+
+public class StreamQuery implements Serializable {
+
+	private static final long serialVersionUID = 4790891263734101673L;
+
+	private static final String SYMBOLS = ",;()[]=<>!+-*/";
+
+	private String queryId;
+	private String query;
+	
+	public StreamQuery(String queryId, String query) {
+		this.queryId = queryId;
+		this.query = query;
+	}
+
+	public String getQueryId() {
+		return queryId;
+	}
+
+	public void setQueryId(String queryId) {
+		this.queryId = queryId;
+	}
+
+	public String getQuery() {
+		return query;
+	}
+
+	public void setQuery(String query) {
+		this.query = query;
+	}
+
+	/**
+	 * Normalizes the query text so queries that only differ in whitespaces,
+	 * the trailing semicolon or the case of timebatch are considered the same.
+	 * Quoted literals are kept untouched.
+	 */
+	public static String canonicalize(String query) {
+		if (query == null) {
+			return null;
+		}
+		StringBuilder canonical = new StringBuilder(query.length());
+		char quote = 0;
+		boolean pendingSpace = false;
+		for (char c : query.trim().toCharArray()) {
+			if (quote != 0) {
+				canonical.append(c);
+				if (c == quote) {
+					quote = 0;
+				}
+			} else if (Character.isWhitespace(c)) {
+				pendingSpace = true;
+			} else {
+				boolean symbol = SYMBOLS.indexOf(c) >= 0;
+				int length = canonical.length();
+				if (pendingSpace && !symbol && length > 0 && SYMBOLS.indexOf(canonical.charAt(length - 1)) < 0) {
+					canonical.append(' ');
+				}
+				pendingSpace = false;
+				if (c == '\'' || c == '"') {
+					quote = c;
+				}
+				canonical.append(c);
+			}
+		}
+		while (canonical.length() > 0 && canonical.charAt(canonical.length() - 1) == ';') {
+			canonical.setLength(canonical.length() - 1);
+		}
+		return canonical.toString().replaceAll("timebatch", "timeBatch");
+	}
+
+
+
+}
@@ -15,10 +15,15 @@
  */
 package com.stratio.streaming;
 
+import java.io.File;
+import java.io.IOException;
 import java.net.MalformedURLException;
 import java.util.Date;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.apache.spark.api.java.JavaRDD;
 import org.apache.spark.api.java.function.Function;
@@ -34,6 +39,7 @@ import org.wso2.siddhi.query.api.definition.Attribute;
 import org.wso2.siddhi.query.api.definition.StreamDefinition;
 
 import com.google.common.net.HostAndPort;
+import com.hazelcast.core.HazelcastInstance;
 import com.hazelcast.core.HazelcastInstanceNotActiveException;
 import com.stratio.streaming.commons.constants.BUS;
 import com.stratio.streaming.commons.constants.STREAMING;
@@ -43,6 +49,9 @@ import com.stratio.streaming.commons.kafka.service.KafkaTopicService;
 import com.stratio.streaming.commons.kafka.service.TopicService;
 import com.stratio.streaming.commons.messages.StratioStreamingMessage;
 import com.stratio.streaming.configuration.ConfigurationContext;
+import com.stratio.streaming.functions.ActionBaseFunction;
+import com.stratio.streaming.functions.ShardedActionFunction;
+import com.stratio.streaming.functions.ShardedActionFunction.ActionFunctionFactory;
 import com.stratio.streaming.functions.dal.IndexStreamFunction;
 import com.stratio.streaming.functions.dal.ListenStreamFunction;
 import com.stratio.streaming.functions.dal.SaveToCassandraStreamFunction;
@@ -56,10 +65,29 @@ import com.stratio.streaming.functions.messages.FilterMessagesByOperationFunctio
 import com.stratio.streaming.functions.messages.KeepPayloadFromMessageFunction;
 import com.stratio.streaming.functions.requests.CollectRequestForStatsFunction;
 import com.stratio.streaming.functions.requests.SaveRequestsToAuditLogFunction;
+import com.stratio.streaming.streams.Casandra2PersistenceStore;
+import com.stratio.streaming.streams.DeltaSnapshots;
+import com.stratio.streaming.streams.FilePersistenceStore;
+import com.stratio.streaming.streams.InsertLog;
 import com.stratio.streaming.streams.QueryDTO;
+import com.stratio.streaming.streams.SiddhiShards;
+import com.stratio.streaming.streams.SnapshotCompression;
+import com.stratio.streaming.streams.SnapshotRetention;
+import com.stratio.streaming.streams.SnapshotScheduler;
+import com.stratio.streaming.streams.SnapshotSerializer;
+import com.stratio.streaming.streams.StreamFailover;
+import com.stratio.streaming.streams.StreamInputQueue;
+import com.stratio.streaming.streams.StreamInputQueue.OverflowPolicy;
+import com.stratio.streaming.streams.StreamInputQueues;
 import com.stratio.streaming.streams.StreamPersistence;
+import com.stratio.streaming.streams.StreamPlacement;
 import com.stratio.streaming.streams.StreamSharedStatus;
+import com.stratio.streaming.streams.StreamStatusCache;
+import com.stratio.streaming.streams.StreamStatusDTO;
+import com.stratio.streaming.streams.StreamingPersistenceStore;
+import com.stratio.streaming.utils.ReplyUtils;
 import com.stratio.streaming.utils.SiddhiUtils;
+import com.stratio.streaming.utils.ZKReplyWriter;
 import com.stratio.streaming.utils.ZKUtils;
 
 /**
@@ -76,7 +104,13 @@ import com.stratio.streaming.utils.ZKUtils;
 public class StreamingEngine {
 
     private static Logger logger = LoggerFactory.getLogger(StreamingEngine.class);
-    private static SiddhiManager siddhiManager;
+    private static final long SNAPSHOT_SHUTDOWN_TIMEOUT = 30000;
+    private static SiddhiShards siddhiShards;
+    private static StreamPlacement streamPlacement;
+    private static StreamFailover streamFailover;
+    private static SnapshotScheduler snapshotScheduler;
+    private static List<InsertLog> insertLogs;
+    private static final List<StreamInputQueues> inputQueues = new ArrayList<>();
     private static JavaStreamingContext streamingBaseContext;
 
     private static ConfigurationContext cc;
@@ -99,29 +133,61 @@ public class StreamingEngine {
                     streamingBaseContext.stop();
                 }
 
+                // no snapshots while the engine goes down
+                if (snapshotScheduler != null) {
+                    snapshotScheduler.shutdown(SNAPSHOT_SHUTDOWN_TIMEOUT);
+                }
+
+                // process the events still waiting in the input queues
+                for (StreamInputQueues shardInputQueues : inputQueues) {
+                    shardInputQueues.shutdown();
+                }
+
                 // shutdown siddhi
-                if (siddhiManager != null) {
+                if (siddhiShards != null) {
 
                     // remove All revisions (HA)
-                    StreamPersistence.removeEngineStatusFromCleanExit(getSiddhiManager());
+                    for (SiddhiManager siddhiManager : siddhiShards.getSiddhiManagers()) {
+                        StreamPersistence.removeEngineStatusFromCleanExit(siddhiManager);
+                    }
+                    if (insertLogs != null) {
+                        for (InsertLog insertLog : insertLogs) {
+                            try {
+                                insertLog.clear();
+                                insertLog.close();
+                            } catch (IOException e) {
+                                logger.error("Error removing insert log " + insertLog.getDirectory(), e);
+                            }
+                        }
+                    }
 
-                    // shutdown listeners
+                    // shutdown listeners, only the ones of the streams of this
+                    // node: the topics are shared by the whole cluster
 
                     try {
 
-                        getSiddhiManager().getSiddhiContext().getHazelcastInstance()
-                                .getTopic(STREAMING.INTERNAL_LISTEN_TOPIC).publish("*");
-                        getSiddhiManager().getSiddhiContext().getHazelcastInstance()
-                                .getTopic(STREAMING.INTERNAL_SAVE2CASSANDRA_TOPIC).publish("*");
+                        HazelcastInstance hazelcastInstance = getSiddhiManager().getSiddhiContext()
+                                .getHazelcastInstance();
+                        for (SiddhiManager siddhiManager : siddhiShards.getSiddhiManagers()) {
+                            for (StreamDefinition streamDefinition : siddhiManager.getStreamDefinitions()) {
+                                hazelcastInstance.getTopic(STREAMING.INTERNAL_LISTEN_TOPIC).publish(
+                                        streamDefinition.getStreamId());
+                                hazelcastInstance.getTopic(STREAMING.INTERNAL_SAVE2CASSANDRA_TOPIC).publish(
+                                        streamDefinition.getStreamId());
+                            }
+                        }
 
                     } catch (HazelcastInstanceNotActiveException notActive) {
                         logger.info("Hazelcast is not active at this moment");
                     }
 
-                    getSiddhiManager().shutdown();
+                    for (SiddhiManager siddhiManager : siddhiShards.getSiddhiManagers()) {
+                        siddhiManager.shutdown();
+                    }
                 }
 
-                // shutdown zookeeper
+                // shutdown replies and zookeeper
+                ReplyUtils.shutdownKafkaReplies();
                 ZKUtils.shutdownZKUtils();
 
                 logger.info("Shutdown complete, bye.");
@@ -153,41 +219,94 @@ public class StreamingEngine {
      */
     private static void launchStratioStreamingEngine() throws Exception {
 
-        ConfigurationContext cc = new ConfigurationContext();
+        final ConfigurationContext cc = new ConfigurationContext();
 
         String topics = BUS.TOPICS;
 
-        ZKUtils.getZKUtils(cc.getZookeeperHostsQuorum()).createEphemeralZNode(STREAMING.ZK_BASE_PATH + "/" + "engine",
-                String.valueOf(System.currentTimeMillis()).getBytes());
+        ReplyUtils.startKafkaReplies(cc.getKafkaHostsQuorum());
+
+        if (cc.isClusterEnabled()) {
+            ZKUtils.getZKUtils(cc.getZookeeperHostsQuorum()).createLeaderEphemeralZNode(
+                    STREAMING.ZK_BASE_PATH + "/" + "engine", String.valueOf(System.currentTimeMillis()).getBytes());
+        } else {
+            ZKUtils.getZKUtils(cc.getZookeeperHostsQuorum()).createEphemeralZNode(
+                    STREAMING.ZK_BASE_PATH + "/" + "engine", String.valueOf(System.currentTimeMillis()).getBytes());
+        }
 
         // Create the context with a x seconds batch size
         streamingBaseContext = new JavaStreamingContext(cc.getSparkHost(), StreamingEngine.class.getName(),
                 new Duration(cc.getStreamingBatchTime()));
         streamingBaseContext.sparkContext().getConf().setJars(JavaStreamingContext.jarOfClass(StreamingEngine.class));
 
+        HostAndPort kafkaHostAndPort = HostAndPort.fromString(cc.getKafkaHosts().get(0));
+        final TopicService topicService = new KafkaTopicService(cc.getZookeeperHostsQuorum(),
+                kafkaHostAndPort.getHostText(), kafkaHostAndPort.getPort(), cc.getKafkaConnectionTimeout(),
+                cc.getKafkaSessionTimeout());
+
         KeepPayloadFromMessageFunction keepPayloadFromMessageFunction = new KeepPayloadFromMessageFunction();
-        CreateStreamFunction createStreamFunction = new CreateStreamFunction(getSiddhiManager(),
-                cc.getZookeeperHostsQuorum());
-        AlterStreamFunction alterStreamFunction = new AlterStreamFunction(getSiddhiManager(),
-                cc.getZookeeperHostsQuorum());
-        InsertIntoStreamFunction insertIntoStreamFunction = new InsertIntoStreamFunction(getSiddhiManager(),
-                cc.getZookeeperHostsQuorum());
-        AddQueryToStreamFunction addQueryToStreamFunction = new AddQueryToStreamFunction(getSiddhiManager(),
-                cc.getZookeeperHostsQuorum());
-        ListenStreamFunction listenStreamFunction = new ListenStreamFunction(getSiddhiManager(),
-                cc.getZookeeperHostsQuorum(), cc.getKafkaHostsQuorum());
-        ListStreamsFunction listStreamsFunction = new ListStreamsFunction(getSiddhiManager(),
+        // every request is processed by the function bound to the siddhi
+        // shard owning its stream
+        ShardedActionFunction createStreamFunction = new ShardedActionFunction(getSiddhiShards(),
+                getStreamPlacement(), "create", new ActionFunctionFactory() {
+                    @Override
+                    public ActionBaseFunction create(SiddhiManager siddhiManager) {
+                        return new CreateStreamFunction(siddhiManager, cc.getZookeeperHostsQuorum());
+                    }
+                });
+        ShardedActionFunction alterStreamFunction = new ShardedActionFunction(getSiddhiShards(),
+                getStreamPlacement(), "alter", new ActionFunctionFactory() {
+                    @Override
+                    public ActionBaseFunction create(SiddhiManager siddhiManager) {
+                        return new AlterStreamFunction(siddhiManager, cc.getZookeeperHostsQuorum());
+                    }
+                });
+        ShardedActionFunction insertIntoStreamFunction = new ShardedActionFunction(getSiddhiShards(),
+                getStreamPlacement(), "insert", new ActionFunctionFactory() {
+                    @Override
+                    public ActionBaseFunction create(SiddhiManager siddhiManager) {
+                        StreamInputQueues shardInputQueues = null;
+                        if (cc.isInputQueueEnabled()) {
+                            shardInputQueues = new StreamInputQueues(siddhiManager, cc.getInputQueueCapacity(),
+                                    OverflowPolicy.fromName(cc.getInputQueueOverflowPolicy()));
+                            inputQueues.add(shardInputQueues);
+                        }
+                        InsertLog shardInsertLog = getInsertLogs() == null ? null : getInsertLogs().get(
+                                getSiddhiShards().getSiddhiManagers().indexOf(siddhiManager));
+                        return new InsertIntoStreamFunction(siddhiManager, cc.getZookeeperHostsQuorum(),
+                                shardInputQueues, shardInsertLog);
+                    }
+                });
+        ShardedActionFunction addQueryToStreamFunction = new ShardedActionFunction(getSiddhiShards(),
+                getStreamPlacement(), "query", new ActionFunctionFactory() {
+                    @Override
+                    public ActionBaseFunction create(SiddhiManager siddhiManager) {
+                        return new AddQueryToStreamFunction(siddhiManager, cc.getZookeeperHostsQuorum());
+                    }
+                });
+        ShardedActionFunction listenStreamFunction = new ShardedActionFunction(getSiddhiShards(),
+                getStreamPlacement(), "listen", new ActionFunctionFactory() {
+                    @Override
+                    public ActionBaseFunction create(SiddhiManager siddhiManager) {
+                        return new ListenStreamFunction(siddhiManager, cc.getZookeeperHostsQuorum(),
+                                cc.getKafkaHostsQuorum(), topicService, cc.getKafkaListenPartitions(),
+                                cc.getKafkaReplicationFactor());
+                    }
+                });
+        ListStreamsFunction listStreamsFunction = new ListStreamsFunction(getSiddhiShards(), getStreamPlacement(),
                 cc.getZookeeperHostsQuorum());
-        SaveToCassandraStreamFunction saveToCassandraStreamFunction = new SaveToCassandraStreamFunction(
-                getSiddhiManager(), cc.getZookeeperHostsQuorum(), cc.getCassandraHostsQuorum());
+        ShardedActionFunction saveToCassandraStreamFunction = new ShardedActionFunction(getSiddhiShards(),
+                getStreamPlacement(), "save2cassandra", new ActionFunctionFactory() {
+                    @Override
+                    public ActionBaseFunction create(SiddhiManager siddhiManager) {
+                        return new SaveToCassandraStreamFunction(siddhiManager, cc.getZookeeperHostsQuorum(),
+                                cc.getCassandraHostsQuorum());
+                    }
+                });
 
         Map<String, Integer> topicMap = new HashMap<String, Integer>();
         String[] topicList = topics.split(",");
 
         // building the topic map, by using the num of partitions of each topic
-        HostAndPort kafkaHostAndPort = HostAndPort.fromString(cc.getKafkaHosts().get(0));
-        TopicService topicService = new KafkaTopicService(cc.getZookeeperHostsQuorum(), kafkaHostAndPort.getHostText(),
-                kafkaHostAndPort.getPort(), cc.getKafkaConnectionTimeout(), cc.getKafkaSessionTimeout());
         for (String topic : topicList) {
             topicService.createTopicIfNotExist(topic, cc.getKafkaReplicationFactor(), cc.getKafkaPartitions());
             Integer partitions = topicService.getNumPartitionsForTopic(topic);
@@ -206,8 +325,14 @@ public class StreamingEngine {
         messages.cache();
 
         if (cc.getElasticSearchHost() != null) {
-            IndexStreamFunction indexStreamFunction = new IndexStreamFunction(getSiddhiManager(),
-                    cc.getZookeeperHostsQuorum(), cc.getElasticSearchHost(), cc.getElasticSearchPort());
+            ShardedActionFunction indexStreamFunction = new ShardedActionFunction(getSiddhiShards(),
+                    getStreamPlacement(), "index", new ActionFunctionFactory() {
+                        @Override
+                        public ActionBaseFunction create(SiddhiManager siddhiManager) {
+                            return new IndexStreamFunction(siddhiManager, cc.getZookeeperHostsQuorum(), cc
+                                    .getElasticSearchHost(), cc.getElasticSearchPort());
+                        }
+                    });
 
             JavaDStream<StratioStreamingMessage> streamToIndexerRequests = messages.filter(
                     new FilterMessagesByOperationFunction(STREAM_OPERATIONS.ACTION.INDEX)).map(
@@ -225,9 +350,14 @@ public class StreamingEngine {
         }
 
         if (cc.getMongoHost() != null) {
-            SaveToMongoStreamFunction saveToMongoStreamFunction = new SaveToMongoStreamFunction(getSiddhiManager(),
-                    cc.getZookeeperHostsQuorum(), cc.getMongoHost(), cc.getMongoPort(), cc.getMongoUsername(),
-                    cc.getMongoPassword());
+            ShardedActionFunction saveToMongoStreamFunction = new ShardedActionFunction(getSiddhiShards(),
+                    getStreamPlacement(), "save2mongo", new ActionFunctionFactory() {
+                        @Override
+                        public ActionBaseFunction create(SiddhiManager siddhiManager) {
+                            return new SaveToMongoStreamFunction(siddhiManager, cc.getZookeeperHostsQuorum(), cc
+                                    .getMongoHost(), cc.getMongoPort(), cc.getMongoUsername(), cc.getMongoPassword());
+                        }
+                    });
 
             JavaDStream<StratioStreamingMessage> saveToMongoRequests = messages.filter(
                     new FilterMessagesByOperationFunction(STREAM_OPERATIONS.ACTION.SAVETO_MONGO)).map(
@@ -337,7 +467,23 @@ public class StreamingEngine {
             }
         }
 
-        StreamPersistence.saveStreamingEngineStatus(getSiddhiManager());
+        if (cc.isFailOverEnabled()) {
+            // the inserts after the last snapshot, then the sinks of the
+            // streams restored from the last execution
+            if (getInsertLogs() != null) {
+                for (int shard = 0; shard < getSiddhiShards().size(); shard++) {
+                    StreamPersistence.replayInserts(getSiddhiShards().get(shard), getInsertLogs().get(shard));
+                }
+            }
+            for (SiddhiManager siddhiManager : getSiddhiShards().getSiddhiManagers()) {
+                StreamPersistence.restoreActions(siddhiManager, cc);
+            }
+
+            snapshotScheduler = new SnapshotScheduler(getSiddhiShards(), cc.getSnapshotInterval());
+            snapshotScheduler.setInsertLogs(getInsertLogs());
+            snapshotScheduler.snapshot();
+            snapshotScheduler.start();
+        }
 
         if (cc.isPrintStreams()) {
 
@@ -351,50 +497,93 @@ public class StreamingEngine {
                     StringBuffer sb = new StringBuffer();
                     sb.append("\n********************************************\n");
                     sb.append("**            SIDDHI STREAMS              **\n");
+                    int countSiddhi = 0;
+                    for (SiddhiManager siddhiManager : getSiddhiShards().getSiddhiManagers()) {
+                        countSiddhi += siddhiManager.getStreamDefinitions().size();
+                    }
                     sb.append("** countSiddhi:");
-                    sb.append(siddhiManager.getStreamDefinitions().size());
+                    sb.append(countSiddhi);
                     sb.append(" // countHazelcast: ");
                     sb.append(getSiddhiManager().getSiddhiContext().getHazelcastInstance()
                             .getMap(STREAMING.STREAM_STATUS_MAP).size());
                     sb.append("     **\n");
 
-                    for (StreamDefinition streamMetaData : getSiddhiManager().getStreamDefinitions()) {
+                    for (int shard = 0; shard < getSiddhiShards().size(); shard++) {
+                        SiddhiManager siddhiManager = getSiddhiShards().get(shard);
 
-                        StringBuffer streamDefinition = new StringBuffer();
+                        for (StreamDefinition streamMetaData : siddhiManager.getStreamDefinitions()) {
 
-                        streamDefinition.append(streamMetaData.getStreamId());
+                            StringBuffer streamDefinition = new StringBuffer();
 
-                        for (Attribute column : streamMetaData.getAttributeList()) {
-                            streamDefinition.append(" |" + column.getName() + "," + column.getType());
-                        }
+                            streamDefinition.append(streamMetaData.getStreamId());
 
-                        if (StreamSharedStatus.getStreamStatus(streamMetaData.getStreamId(), getSiddhiManager()) != null) {
-                            HashMap<String, QueryDTO> attachedQueries = StreamSharedStatus.getStreamStatus(
-                                    streamMetaData.getStreamId(), getSiddhiManager()).getAddedQueries();
+                            for (Attribute column : streamMetaData.getAttributeList()) {
+                                streamDefinition.append(" |" + column.getName() + "," + column.getType());
+                            }
 
-                            streamDefinition.append(" /// " + attachedQueries.size() + " attachedQueries: (");
+                            StreamStatusDTO streamStatus = StreamSharedStatus.getStreamStatus(
+                                    streamMetaData.getStreamId(), siddhiManager);
+                            if (streamStatus != null) {
+                                HashMap<String, QueryDTO> attachedQueries = streamStatus.getAddedQueries();
 
-                            for (String queryId : attachedQueries.keySet()) {
-                                streamDefinition.append(queryId + "/");
+                                streamDefinition.append(" /// " + attachedQueries.size() + " attachedQueries: (");
+
+                                for (String queryId : attachedQueries.keySet()) {
+                                    streamDefinition.append(queryId + "/");
+                                }
+
+                                streamDefinition.append(" - userDefined:" + streamStatus.isUserDefined() + "- ");
+                                streamDefinition.append(" - listenEnable:"
+                                        + streamStatus.isActionEnabled(StreamAction.LISTEN) + "- ");
                             }
 
-                            streamDefinition.append(" - userDefined:"
-                                    + StreamSharedStatus.getStreamStatus(streamMetaData.getStreamId(),
-                                            getSiddhiManager()).isUserDefined() + "- ");
-                            streamDefinition.append(" - listenEnable:"
-                                    + StreamSharedStatus.getStreamStatus(streamMetaData.getStreamId(),
-                                            getSiddhiManager()).isActionEnabled(StreamAction.LISTEN) + "- ");
+                            sb.append("** stream [shard " + shard + "]: ").append(streamDefinition.toString())
+                                    .append("\n");
+                        }
+                    }
+
+                    for (StreamInputQueues shardInputQueues : inputQueues) {
+                        for (StreamInputQueue queue : shardInputQueues.getQueues()) {
+                            sb.append("** input queue: " + queue.getStreamName() + " |depth:" + queue.getDepth() + "/"
+                                    + queue.getCapacity() + " |processed:" + queue.getProcessed() + " |dropped:"
+                                    + queue.getDropped() + "\n");
                         }
+                    }
 
-                        sb.append("** stream: ".concat(streamDefinition.toString()).concat("\n"));
+                    if (streamFailover != null) {
+                        sb.append("** cluster: nodes:" + streamPlacement.getRing().getNodes().size() + " |recoveries:"
+                                + streamFailover.getRecoveries() + " |recoveredStreams:"
+                                + streamFailover.getRecoveredStreams() + " |restoredStreams:"
+                                + streamFailover.getRestoredStreams() + " |failedStreams:"
+                                + streamFailover.getFailedStreams() + " |lastRecoveryTime:"
+                                + streamFailover.getLastRecoveryTime() + "ms\n");
                     }
 
+                    StreamStatusCache catalogCache = StreamStatusCache.of(getSiddhiManager().getSiddhiContext()
+                            .getHazelcastInstance());
+                    sb.append("** catalog cache: version:" + catalogCache.getVersion() + " |hits:"
+                            + catalogCache.getHits() + " |misses:" + catalogCache.getMisses() + "\n");
+
+                    if (snapshotScheduler != null) {
+                        sb.append("** snapshots: taken:" + snapshotScheduler.getSnapshots() + " |skipped:"
+                                + snapshotScheduler.getSkipped() + " |failed:" + snapshotScheduler.getFailed()
+                                + " |lastDuration:" + snapshotScheduler.getLastDuration() + "ms |lastBytes:"
+                                + snapshotScheduler.getLastBytes() + "\n");
+                    }
+
+                    ZKUtils zkUtils = ZKUtils.getZKUtils(cc.getZookeeperHostsQuorum());
+                    ZKReplyWriter replyWriter = zkUtils.getReplyWriter();
+                    sb.append("** zookeeper replies: written:" + replyWriter.getWritten() + " |failed:"
+                            + replyWriter.getFailed() + " |writes:" + replyWriter.getBatches() + " |pending:"
+                            + replyWriter.getPending() + " |avgLatency:" + replyWriter.getAverageLatencyMicros()
+                            + "us |maxLatency:" + replyWriter.getMaxLatencyMicros() + "us |toClean:"
+                            + zkUtils.getReplyCleaner().getTracked() + " |cleaned:"
+                            + zkUtils.getReplyCleaner().getRemoved() + "\n");
+
                     sb.append("********************************************\n");
 
                     logger.info(sb.toString());
 
-                    StreamPersistence.saveStreamingEngineStatus(getSiddhiManager());
-
                     return null;
                 }
 
@@ -407,12 +596,80 @@ public class StreamingEngine {
 
     }
 
-    private static SiddhiManager getSiddhiManager() {
-        if (siddhiManager == null) {
-            siddhiManager = SiddhiUtils.setupSiddhiManager(cc.getCassandraHostsQuorum(), cc.isFailOverEnabled());
+    private static SiddhiShards getSiddhiShards() {
+        if (siddhiShards == null) {
+            siddhiShards = SiddhiUtils.setupSiddhiShards(cc.getSiddhiShards(),
+                    cc.isFailOverEnabled() ? getPersistenceStoreFactory() : null,
+                    cc.isClusterEnabled() ? cc.getClusterMembers() : null, cc.getClusterNodeName());
         }
 
-        return siddhiManager;
+        return siddhiShards;
+    }
+
+    /**
+     * Insert log of every shard, null if disabled or without failover. The
+     * shards taking over the streams of dead nodes add theirs.
+     */
+    private static List<InsertLog> getInsertLogs() {
+        if (insertLogs == null && cc.isFailOverEnabled() && cc.isInsertLogEnabled()) {
+            List<InsertLog> shardInsertLogs = new CopyOnWriteArrayList<>();
+            for (int shard = 0; shard < getSiddhiShards().size(); shard++) {
+                shardInsertLogs.add(new InsertLog(new File(cc.getInsertLogDirectory(), getSiddhiShards()
+                        .getShardQueryPlanIdentifier(shard)), cc.isInsertLogFsync()));
+            }
+            insertLogs = shardInsertLogs;
+        }
+        return insertLogs;
+    }
+
+    /**
+     * Stores of the failover snapshots, configured before the last revision
+     * is restored.
+     */
+    private static StreamingPersistenceStore.Factory getPersistenceStoreFactory() {
+        final SnapshotCompression snapshotCompression = SnapshotCompression.fromName(cc.getSnapshotCompression());
+        final SnapshotRetention snapshotRetention = new SnapshotRetention(cc.getSnapshotRetentionMaxRevisions(),
+                cc.getSnapshotRetentionMaxAge());
+        final boolean fileStore = "file".equalsIgnoreCase(cc.getPersistenceStore());
+
+        return new StreamingPersistenceStore.Factory() {
+            @Override
+            public StreamingPersistenceStore create(String queryPlanIdentifier) {
+                StreamingPersistenceStore store;
+                if (fileStore) {
+                    store = new FilePersistenceStore(cc.getPersistenceFileDirectory(), queryPlanIdentifier,
+                            cc.isPersistenceFileFsync());
+                } else {
+                    store = new Casandra2PersistenceStore(cc.getCassandraHostsQuorum(), "", "", queryPlanIdentifier);
+                }
+                store.setSnapshotSerializer(new SnapshotSerializer(snapshotCompression));
+                store.setDeltaSnapshots(new DeltaSnapshots(cc.getSnapshotFullInterval()));
+                store.setSnapshotRetention(snapshotRetention);
+                return store;
+            }
+        };
+    }
+
+    /**
+     * Placement of the streams between the engine nodes, null if the cluster
+     * mode is disabled.
+     */
+    private static StreamPlacement getStreamPlacement() {
+        if (streamPlacement == null && cc.isClusterEnabled()) {
+            streamPlacement = new StreamPlacement(getSiddhiManager().getSiddhiContext().getHazelcastInstance());
+            streamFailover = new StreamFailover(getSiddhiShards(), streamPlacement, cc,
+                    cc.isFailOverEnabled() ? getPersistenceStoreFactory() : null, getInsertLogs());
+        }
+
+        return streamPlacement;
+    }
+
+    /**
+     * First shard, it also holds the stats streams. All the shards share the
+     * same hazelcast instance.
+     */
+    private static SiddhiManager getSiddhiManager() {
+        return getSiddhiShards().get(0);
     }
 
 }
@@ -17,6 +17,7 @@ package com.stratio.streaming.callbacks;
 
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
 
 import kafka.javaapi.producer.Producer;
 import kafka.producer.KeyedMessage;
@@ -46,6 +47,8 @@ public class StreamToBusCallback extends StreamCallback implements MessageListen
     private String kafkaCluster;
     private Producer<String, String> producer;
     private Boolean running;
+    // receive is called from the threads of siddhi and of the input queues
+    private final AtomicLong sentEvents = new AtomicLong();
 
     public StreamToBusCallback(StreamDefinition streamDefinition, String kafkaCluster) {
         this.streamDefinition = streamDefinition;
@@ -97,8 +100,11 @@ public class StreamToBusCallback extends StreamCallback implements MessageListen
 
         for (StratioStreamingMessage event : collected_events) {
 
+            // a changing key spreads the events between the partitions of
+            // the topic, so parallel listeners share them. Kafka 0.8 keeps
+            // unkeyed events in the same partition for minutes
             KeyedMessage<String, String> message = new KeyedMessage<String, String>(streamDefinition.getId(), // topic
-                    streamDefinition.getId() + "event", // key
+                    String.valueOf(sentEvents.getAndIncrement()), // key
                     new Gson().toJson(event)); // message
 
             producer.send(message);
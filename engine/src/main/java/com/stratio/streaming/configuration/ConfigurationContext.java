@@ -1,5 +1,6 @@
 package com.stratio.streaming.configuration;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 
@@ -24,11 +25,34 @@ public class ConfigurationContext {
     private final long streamingBatchTime;
     private final int kafkaReplicationFactor;
     private final int kafkaPartitions;
+    private final int kafkaListenPartitions;
     private final int kafkaSessionTimeout;
     private final int kafkaConnectionTimeout;
 
     private final String sparkHost;
 
+    private final int siddhiShards;
+    private final boolean inputQueueEnabled;
+    private final int inputQueueCapacity;
+    private final String inputQueueOverflowPolicy;
+
+    private final boolean clusterEnabled;
+    private final List<String> clusterMembers;
+    private final String clusterNodeName;
+
+    private final long snapshotInterval;
+    private final String snapshotCompression;
+    private final int snapshotFullInterval;
+    private final int snapshotRetentionMaxRevisions;
+    private final long snapshotRetentionMaxAge;
+
+    private final String persistenceStore;
+    private final String persistenceFileDirectory;
+    private final boolean persistenceFileFsync;
+    private final boolean insertLogEnabled;
+    private final String insertLogDirectory;
+    private final boolean insertLogFsync;
+
     /** OPTIONAL PROPERTIES **/
 
     private final String elasticSearchHost;
@@ -43,10 +67,19 @@ public class ConfigurationContext {
         CASSANDRA_HOSTS("cassandra.hosts"), KAFKA_HOSTS("kafka.hosts"), ZOOKEEPER_HOSTS("zookeeper.hosts"), FAILOVER_ENABLED(
                 "failOverEnabled"), AUDIT_ENABLED("auditEnabled"), STATS_ENABLED("statsEnabled"), PRINT_STREAMS(
                 "printStreams"), STREAMING_BATCH_TIME("spark.streamingBatchTime"), SPARK_HOST("spark.host"), KAFKA_REPLICATION_FACTOR(
-                "kafka.replicationFactor"), KAFKA_PARTITIONS("kafka.partitions"), KAFKA_SESSION_TIMEOUT(
+                "kafka.replicationFactor"), KAFKA_PARTITIONS("kafka.partitions"), KAFKA_LISTEN_PARTITIONS(
+                "kafka.listenPartitions"), KAFKA_SESSION_TIMEOUT(
                 "kafka.sessionTimeout"), KAFKA_CONNECTION_TIMEOUT("kafka.connectionTimeout"), ELASTICSEARCH_HOST(
                 "elasticsearch.host"), ELASTICSEARCH_PORT("elasticsearch.port"), MONGO_HOST("mongo.host"), MONGO_PORT(
-                "mongo.port"), MONGO_USER("mongo.user"), MONGO_PASSWORD("mongo.password");
+                "mongo.port"), MONGO_USER("mongo.user"), MONGO_PASSWORD("mongo.password"), SIDDHI_SHARDS("siddhi.shards"), INPUT_QUEUE_ENABLED(
+                "siddhi.inputQueue.enabled"), INPUT_QUEUE_CAPACITY("siddhi.inputQueue.capacity"), INPUT_QUEUE_OVERFLOW_POLICY(
+                "siddhi.inputQueue.overflowPolicy"), CLUSTER_ENABLED("cluster.enabled"), CLUSTER_MEMBERS("cluster.members"), CLUSTER_NODE_NAME(
+                "cluster.nodeName"), SNAPSHOT_COMPRESSION(
+                "snapshot.compression"), SNAPSHOT_INTERVAL("snapshot.interval"), SNAPSHOT_FULL_INTERVAL("snapshot.fullInterval"), SNAPSHOT_RETENTION_MAX_REVISIONS(
+                "snapshot.retention.maxRevisions"), SNAPSHOT_RETENTION_MAX_AGE("snapshot.retention.maxAge"), PERSISTENCE_STORE(
+                "persistence.store"), PERSISTENCE_FILE_DIRECTORY("persistence.file.directory"), PERSISTENCE_FILE_FSYNC(
+                "persistence.file.fsync"), INSERT_LOG_ENABLED("persistence.insertLog.enabled"), INSERT_LOG_DIRECTORY(
+                "persistence.insertLog.directory"), INSERT_LOG_FSYNC("persistence.insertLog.fsync");
 
         private final String key;
 
@@ -77,9 +110,55 @@ public class ConfigurationContext {
                 TimeUnit.MILLISECONDS);
         this.kafkaReplicationFactor = config.getInt(ConfigurationKeys.KAFKA_REPLICATION_FACTOR.getKey());
         this.kafkaPartitions = config.getInt(ConfigurationKeys.KAFKA_PARTITIONS.getKey());
+        Integer listenPartitions = (Integer) this.valueOrNull(ConfigurationKeys.KAFKA_LISTEN_PARTITIONS.getKey(),
+                config);
+        this.kafkaListenPartitions = listenPartitions == null ? 1 : listenPartitions;
         this.kafkaSessionTimeout = config.getInt(ConfigurationKeys.KAFKA_SESSION_TIMEOUT.getKey());
         this.kafkaConnectionTimeout = config.getInt(ConfigurationKeys.KAFKA_CONNECTION_TIMEOUT.getKey());
 
+        Integer shards = (Integer) this.valueOrNull(ConfigurationKeys.SIDDHI_SHARDS.getKey(), config);
+        this.siddhiShards = shards == null ? 1 : shards;
+
+        Boolean queueEnabled = (Boolean) this.valueOrNull(ConfigurationKeys.INPUT_QUEUE_ENABLED.getKey(), config);
+        this.inputQueueEnabled = queueEnabled == null ? false : queueEnabled;
+        Integer queueCapacity = (Integer) this.valueOrNull(ConfigurationKeys.INPUT_QUEUE_CAPACITY.getKey(), config);
+        this.inputQueueCapacity = queueCapacity == null ? 8192 : queueCapacity;
+        String overflowPolicy = (String) this.valueOrNull(ConfigurationKeys.INPUT_QUEUE_OVERFLOW_POLICY.getKey(),
+                config);
+        this.inputQueueOverflowPolicy = overflowPolicy == null ? "block" : overflowPolicy;
+
+        Boolean cluster = (Boolean) this.valueOrNull(ConfigurationKeys.CLUSTER_ENABLED.getKey(), config);
+        this.clusterEnabled = cluster == null ? false : cluster;
+        this.clusterMembers = config.hasPath(ConfigurationKeys.CLUSTER_MEMBERS.getKey()) ? config
+                .getStringList(ConfigurationKeys.CLUSTER_MEMBERS.getKey()) : Collections.<String> emptyList();
+        this.clusterNodeName = (String) this.valueOrNull(ConfigurationKeys.CLUSTER_NODE_NAME.getKey(), config);
+
+        this.snapshotInterval = config.hasPath(ConfigurationKeys.SNAPSHOT_INTERVAL.getKey()) ? config.getDuration(
+                ConfigurationKeys.SNAPSHOT_INTERVAL.getKey(), TimeUnit.MILLISECONDS) : TimeUnit.SECONDS.toMillis(30);
+        String compression = (String) this.valueOrNull(ConfigurationKeys.SNAPSHOT_COMPRESSION.getKey(), config);
+        this.snapshotCompression = compression == null ? "snappy" : compression;
+        Integer fullInterval = (Integer) this.valueOrNull(ConfigurationKeys.SNAPSHOT_FULL_INTERVAL.getKey(), config);
+        this.snapshotFullInterval = fullInterval == null ? 10 : fullInterval;
+        Integer maxRevisions = (Integer) this.valueOrNull(ConfigurationKeys.SNAPSHOT_RETENTION_MAX_REVISIONS.getKey(),
+                config);
+        this.snapshotRetentionMaxRevisions = maxRevisions == null ? 20 : maxRevisions;
+        this.snapshotRetentionMaxAge = config.hasPath(ConfigurationKeys.SNAPSHOT_RETENTION_MAX_AGE.getKey()) ? config
+                .getDuration(ConfigurationKeys.SNAPSHOT_RETENTION_MAX_AGE.getKey(), TimeUnit.MILLISECONDS)
+                : TimeUnit.DAYS.toMillis(1);
+
+        String store = (String) this.valueOrNull(ConfigurationKeys.PERSISTENCE_STORE.getKey(), config);
+        this.persistenceStore = store == null ? "cassandra" : store;
+        String fileDirectory = (String) this.valueOrNull(ConfigurationKeys.PERSISTENCE_FILE_DIRECTORY.getKey(), config);
+        this.persistenceFileDirectory = fileDirectory == null ? "data/snapshots" : fileDirectory;
+        Boolean fsync = (Boolean) this.valueOrNull(ConfigurationKeys.PERSISTENCE_FILE_FSYNC.getKey(), config);
+        this.persistenceFileFsync = fsync == null ? true : fsync;
+        Boolean insertLog = (Boolean) this.valueOrNull(ConfigurationKeys.INSERT_LOG_ENABLED.getKey(), config);
+        this.insertLogEnabled = insertLog == null ? false : insertLog;
+        String insertLogDir = (String) this.valueOrNull(ConfigurationKeys.INSERT_LOG_DIRECTORY.getKey(), config);
+        this.insertLogDirectory = insertLogDir == null ? "data/insert-log" : insertLogDir;
+        Boolean insertLogSync = (Boolean) this.valueOrNull(ConfigurationKeys.INSERT_LOG_FSYNC.getKey(), config);
+        this.insertLogFsync = insertLogSync == null ? false : insertLogSync;
+
         this.elasticSearchHost = (String) this.valueOrNull(ConfigurationKeys.ELASTICSEARCH_HOST.getKey(), config);
         this.elasticSearchPort = (Integer) this.valueOrNull(ConfigurationKeys.ELASTICSEARCH_PORT.getKey(), config);
 
@@ -138,6 +217,78 @@ public class ConfigurationContext {
         return sparkHost;
     }
 
+    public int getSiddhiShards() {
+        return siddhiShards;
+    }
+
+    public boolean isInputQueueEnabled() {
+        return inputQueueEnabled;
+    }
+
+    public int getInputQueueCapacity() {
+        return inputQueueCapacity;
+    }
+
+    public String getInputQueueOverflowPolicy() {
+        return inputQueueOverflowPolicy;
+    }
+
+    public boolean isClusterEnabled() {
+        return clusterEnabled;
+    }
+
+    public List<String> getClusterMembers() {
+        return clusterMembers;
+    }
+
+    public String getClusterNodeName() {
+        return clusterNodeName;
+    }
+
+    public long getSnapshotInterval() {
+        return snapshotInterval;
+    }
+
+    public String getSnapshotCompression() {
+        return snapshotCompression;
+    }
+
+    public int getSnapshotFullInterval() {
+        return snapshotFullInterval;
+    }
+
+    public int getSnapshotRetentionMaxRevisions() {
+        return snapshotRetentionMaxRevisions;
+    }
+
+    public long getSnapshotRetentionMaxAge() {
+        return snapshotRetentionMaxAge;
+    }
+
+    public String getPersistenceStore() {
+        return persistenceStore;
+    }
+
+    public String getPersistenceFileDirectory() {
+        return persistenceFileDirectory;
+    }
+
+    public boolean isPersistenceFileFsync() {
+        return persistenceFileFsync;
+    }
+
+    public boolean isInsertLogEnabled() {
+        return insertLogEnabled;
+    }
+
+    public String getInsertLogDirectory() {
+        return insertLogDirectory;
+    }
+
+    public boolean isInsertLogFsync() {
+        return insertLogFsync;
+    }
+
     public int getKafkaReplicationFactor() {
         return kafkaReplicationFactor;
     }
@@ -146,6 +297,10 @@ public class ConfigurationContext {
         return kafkaPartitions;
     }
 
+    public int getKafkaListenPartitions() {
+        return kafkaListenPartitions;
+    }
+
     public int getKafkaSessionTimeout() {
         return kafkaSessionTimeout;
     }
@@ -0,0 +1,81 @@
+/**
+ * Copyright (C) 2014 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.streaming.extensions;
+
+import org.wso2.siddhi.query.api.definition.Attribute;
+import org.wso2.siddhi.query.compiler.exception.SiddhiPraserException;
+
+/**
+ * Aggregations that can be computed from a {@link PartialAggregate}.
+ */
+public enum AggregationType {
+    SUM, COUNT, MIN, MAX, AVG;
+
+    public double value(PartialAggregate aggregate) {
+        switch (this) {
+        case SUM:
+            return aggregate.getSum();
+        case COUNT:
+            return aggregate.getCount();
+        case MIN:
+            return aggregate.getMin();
+        case MAX:
+            return aggregate.getMax();
+        case AVG:
+            return aggregate.getSum() / aggregate.getCount();
+        default:
+            throw new IllegalStateException("Unsupported aggregation: " + this);
+        }
+    }
+
+    public static AggregationType fromName(String name) throws SiddhiPraserException {
+        for (AggregationType type : values()) {
+            if (type.name().equalsIgnoreCase(name)) {
+                return type;
+            }
+        }
+        throw new SiddhiPraserException("Unsupported aggregation: " + name);
+    }
+
+    public static boolean isNumeric(Attribute.Type type) {
+        switch (type) {
+        case INT:
+        case LONG:
+        case FLOAT:
+        case DOUBLE:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Converts an aggregated value back to the type of the source attribute,
+     * so emitted events keep the definition of the input stream.
+     */
+    public static Object toAttributeType(double value, Attribute.Type type) {
+        switch (type) {
+        case INT:
+            return (int) value;
+        case LONG:
+            return (long) value;
+        case FLOAT:
+            return (float) value;
+        default:
+            return value;
+        }
+    }
+}
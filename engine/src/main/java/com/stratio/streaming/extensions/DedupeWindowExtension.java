@@ -0,0 +1,200 @@
+/**
+ * Copyright (C) 2014 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.streaming.extensions;
+
+import java.util.Iterator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.wso2.siddhi.core.config.SiddhiContext;
+import org.wso2.siddhi.core.event.StreamEvent;
+import org.wso2.siddhi.core.event.in.InEvent;
+import org.wso2.siddhi.core.event.in.InListEvent;
+import org.wso2.siddhi.core.query.QueryPostProcessingElement;
+import org.wso2.siddhi.core.query.processor.window.WindowProcessor;
+import org.wso2.siddhi.query.api.definition.AbstractDefinition;
+import org.wso2.siddhi.query.api.expression.Expression;
+import org.wso2.siddhi.query.api.extension.annotation.SiddhiExtension;
+import org.wso2.siddhi.query.compiler.exception.SiddhiPraserException;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+
+/**
+ * Drops events whose id has already been seen inside a time horizon.
+ *
+ * Usage: #window.stratio:dedupe(horizon, falsePositiveRate, idAttribute
+ * [, expectedEventsPerHorizon])
+ *
+ * Seen ids are kept in a ring of time sliced Bloom filters instead of a map,
+ * so memory is fixed by expectedEventsPerHorizon and falsePositiveRate and
+ * does not depend on the number of distinct ids. A false positive drops a
+ * new event as duplicate; duplicates are never let through while inside the
+ * horizon.
+ */
+@SiddhiExtension(namespace = "stratio", function = "dedupe")
+public class DedupeWindowExtension extends WindowProcessor {
+
+    private static Logger logger = LoggerFactory.getLogger(DedupeWindowExtension.class);
+
+    private static final int SLICES_PER_HORIZON = 4;
+    private static final long DEFAULT_EXPECTED_EVENTS = 100000;
+
+    private String streamId;
+    private int idPosition;
+    private long sliceTime;
+    private int expectedPerSlice;
+    private double slicePositiveRate;
+
+    /**
+     * One more slice than the horizon, so the oldest one still covers ids
+     * received a whole horizon ago.
+     */
+    private BloomFilter<CharSequence>[] slices;
+    private long currentSlice;
+
+    @Override
+    protected void processEvent(InEvent inEvent) {
+        boolean duplicated;
+        acquireLock();
+        try {
+            rotate(System.currentTimeMillis() / sliceTime);
+            String id = String.valueOf(inEvent.getData(idPosition));
+            duplicated = false;
+            for (BloomFilter<CharSequence> slice : slices) {
+                if (slice.mightContain(id)) {
+                    duplicated = true;
+                    break;
+                }
+            }
+            if (!duplicated) {
+                slices[(int) (currentSlice % slices.length)].put(id);
+            }
+        } finally {
+            releaseLock();
+        }
+
+        if (!duplicated) {
+            nextProcessor.process(inEvent);
+        }
+    }
+
+    @Override
+    protected void processEvent(InListEvent inListEvent) {
+        for (int i = 0; i < inListEvent.getActiveEvents(); i++) {
+            processEvent((InEvent) inListEvent.getEvent(i));
+        }
+    }
+
+    @Override
+    public Iterator<StreamEvent> iterator() {
+        return null;
+    }
+
+    @Override
+    public Iterator<StreamEvent> iterator(String s) {
+        return null;
+    }
+
+    @Override
+    protected Object[] currentState() {
+        return new Object[] { slices, currentSlice };
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected void restoreState(Object[] objects) {
+        if (objects != null && objects.length != 0) {
+            BloomFilter<CharSequence>[] restoredSlices = (BloomFilter<CharSequence>[]) objects[0];
+            if (restoredSlices.length == slices.length) {
+                slices = restoredSlices;
+                currentSlice = (Long) objects[1];
+            } else {
+                logger.warn("Discarding persisted filters of stream {}, window definition has changed", streamId);
+            }
+        }
+    }
+
+    @Override
+    protected void init(Expression[] expressions, QueryPostProcessingElement queryPostProcessingElement,
+            AbstractDefinition abstractDefinition, String s, boolean b, SiddhiContext siddhiContext) {
+
+        if (expressions.length < 3 || expressions.length > 4) {
+            throw new SiddhiPraserException(
+                    "dedupe window expects (horizon, falsePositiveRate, idAttribute [, expectedEventsPerHorizon])");
+        }
+
+        long horizon = WindowParameters.longValue(expressions[0], "horizon");
+        double falsePositiveRate = WindowParameters.doubleValue(expressions[1], "falsePositiveRate");
+        if (horizon < SLICES_PER_HORIZON) {
+            throw new SiddhiPraserException("dedupe window requires a horizon of at least " + SLICES_PER_HORIZON
+                    + " milliseconds");
+        }
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new SiddhiPraserException("dedupe window requires 0 < falsePositiveRate < 1");
+        }
+
+        streamId = abstractDefinition.getId();
+        idPosition = WindowParameters.attributePosition(expressions[2], abstractDefinition);
+
+        long expectedEvents = DEFAULT_EXPECTED_EVENTS;
+        if (expressions.length == 4) {
+            expectedEvents = WindowParameters.longValue(expressions[3], "expectedEventsPerHorizon");
+            if (expectedEvents <= 0) {
+                throw new SiddhiPraserException("dedupe window requires a positive expectedEventsPerHorizon");
+            }
+        }
+
+        sliceTime = horizon / SLICES_PER_HORIZON;
+        expectedPerSlice = (int) Math.min(Integer.MAX_VALUE,
+                (expectedEvents + SLICES_PER_HORIZON - 1) / SLICES_PER_HORIZON);
+        // every lookup checks all the slices, split the error rate between them
+        slicePositiveRate = falsePositiveRate / (SLICES_PER_HORIZON + 1);
+
+        slices = newSlices(SLICES_PER_HORIZON + 1);
+        currentSlice = System.currentTimeMillis() / sliceTime;
+    }
+
+    @SuppressWarnings("unchecked")
+    private BloomFilter<CharSequence>[] newSlices(int count) {
+        BloomFilter<CharSequence>[] newSlices = new BloomFilter[count];
+        for (int i = 0; i < count; i++) {
+            newSlices[i] = newSlice();
+        }
+        return newSlices;
+    }
+
+    private BloomFilter<CharSequence> newSlice() {
+        return BloomFilter.create(Funnels.stringFunnel(Charsets.UTF_8), expectedPerSlice, slicePositiveRate);
+    }
+
+    private void rotate(long slice) {
+        if (slice <= currentSlice) {
+            return;
+        }
+        long steps = Math.min(slice - currentSlice, slices.length);
+        for (long i = 1; i <= steps; i++) {
+            slices[(int) ((currentSlice + i) % slices.length)] = newSlice();
+        }
+        currentSlice = slice;
+    }
+
+    @Override
+    public void destroy() {
+        slices = null;
+    }
+}
@@ -0,0 +1,231 @@
+/**
+ * Copyright (C) 2014 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.streaming.extensions;
+
+import java.util.Iterator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.wso2.siddhi.core.config.SiddhiContext;
+import org.wso2.siddhi.core.event.StreamEvent;
+import org.wso2.siddhi.core.event.in.InEvent;
+import org.wso2.siddhi.core.event.in.InListEvent;
+import org.wso2.siddhi.core.query.QueryPostProcessingElement;
+import org.wso2.siddhi.core.query.processor.window.WindowProcessor;
+import org.wso2.siddhi.query.api.definition.AbstractDefinition;
+import org.wso2.siddhi.query.api.definition.Attribute;
+import org.wso2.siddhi.query.api.expression.Expression;
+import org.wso2.siddhi.query.api.extension.annotation.SiddhiExtension;
+import org.wso2.siddhi.query.compiler.exception.SiddhiPraserException;
+
+import com.google.common.math.LongMath;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Sliding time window that keeps one partial aggregate per pane instead of
+ * every event.
+ *
+ * Usage: #window.stratio:pane(windowTime, slideTime, 'sum|count|min|max|avg',
+ * attribute1, attribute2...)
+ *
+ * The window is split in panes of gcd(windowTime, slideTime) ms. Every
+ * slideTime one event is emitted with the shape of the input stream: the
+ * given attributes hold the aggregate of the whole window and the rest of
+ * the attributes the values of the last received event.
+ */
+@SiddhiExtension(namespace = "stratio", function = "pane")
+public class PaneWindowExtension extends WindowProcessor {
+
+    private static Logger logger = LoggerFactory.getLogger(PaneWindowExtension.class);
+
+    private String streamId;
+    private AggregationType aggregationType;
+    private int[] attributePositions;
+    private Attribute.Type[] attributeTypes;
+
+    private long paneSize;
+    private int panesPerSlide;
+
+    private PartialAggregate[][] panes;
+    private int currentPane;
+    private int panesSinceLastEmit;
+    private Object[] lastData;
+
+    private ScheduledExecutorService paneScheduler;
+
+    @Override
+    protected void processEvent(InEvent inEvent) {
+        acquireLock();
+        try {
+            for (int i = 0; i < attributePositions.length; i++) {
+                Object value = inEvent.getData(attributePositions[i]);
+                if (value != null) {
+                    panes[currentPane][i].add(((Number) value).doubleValue());
+                }
+            }
+            lastData = inEvent.getData();
+        } finally {
+            releaseLock();
+        }
+    }
+
+    @Override
+    protected void processEvent(InListEvent inListEvent) {
+        for (int i = 0; i < inListEvent.getActiveEvents(); i++) {
+            processEvent((InEvent) inListEvent.getEvent(i));
+        }
+    }
+
+    @Override
+    public Iterator<StreamEvent> iterator() {
+        return null;
+    }
+
+    @Override
+    public Iterator<StreamEvent> iterator(String s) {
+        return null;
+    }
+
+    @Override
+    protected Object[] currentState() {
+        return new Object[] { panes, currentPane, panesSinceLastEmit, lastData };
+    }
+
+    @Override
+    protected void restoreState(Object[] objects) {
+        if (objects != null && objects.length != 0) {
+            PartialAggregate[][] restoredPanes = (PartialAggregate[][]) objects[0];
+            if (restoredPanes.length == panes.length && restoredPanes[0].length == panes[0].length) {
+                panes = restoredPanes;
+                currentPane = (Integer) objects[1];
+                panesSinceLastEmit = (Integer) objects[2];
+                lastData = (Object[]) objects[3];
+            } else {
+                logger.warn("Discarding persisted panes of stream {}, window definition has changed", streamId);
+            }
+        }
+    }
+
+    @Override
+    protected void init(Expression[] expressions, QueryPostProcessingElement queryPostProcessingElement,
+            AbstractDefinition abstractDefinition, String s, boolean b, SiddhiContext siddhiContext) {
+
+        if (expressions.length < 4) {
+            throw new SiddhiPraserException(
+                    "pane window expects (windowTime, slideTime, aggregation, attribute1, attribute2...)");
+        }
+
+        long windowTime = WindowParameters.longValue(expressions[0], "windowTime");
+        long slideTime = WindowParameters.longValue(expressions[1], "slideTime");
+        if (windowTime <= 0 || slideTime <= 0 || slideTime > windowTime) {
+            throw new SiddhiPraserException("pane window requires 0 < slideTime <= windowTime");
+        }
+
+        streamId = abstractDefinition.getId();
+        aggregationType = AggregationType.fromName(WindowParameters.stringValue(expressions[2], "aggregation"));
+
+        attributePositions = new int[expressions.length - 3];
+        attributeTypes = new Attribute.Type[attributePositions.length];
+        for (int i = 0; i < attributePositions.length; i++) {
+            attributePositions[i] = WindowParameters.attributePosition(expressions[i + 3], abstractDefinition);
+            attributeTypes[i] = abstractDefinition.getAttributeList().get(attributePositions[i]).getType();
+            if (!AggregationType.isNumeric(attributeTypes[i])) {
+                throw new SiddhiPraserException("pane window can only aggregate numeric attributes");
+            }
+        }
+
+        paneSize = LongMath.gcd(windowTime, slideTime);
+        panesPerSlide = (int) (slideTime / paneSize);
+        panes = new PartialAggregate[(int) (windowTime / paneSize)][attributePositions.length];
+        for (PartialAggregate[] pane : panes) {
+            for (int i = 0; i < pane.length; i++) {
+                pane[i] = new PartialAggregate();
+            }
+        }
+
+        paneScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setDaemon(true)
+                .setNameFormat("stratio-pane-window-" + streamId + "-%d").build());
+        paneScheduler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                closePane();
+            }
+        }, paneSize, paneSize, TimeUnit.MILLISECONDS);
+    }
+
+    private void closePane() {
+        InEvent output = null;
+        acquireLock();
+        try {
+            panesSinceLastEmit++;
+            if (panesSinceLastEmit >= panesPerSlide) {
+                panesSinceLastEmit = 0;
+                output = combinePanes();
+            }
+            currentPane = (currentPane + 1) % panes.length;
+            for (PartialAggregate partial : panes[currentPane]) {
+                partial.reset();
+            }
+        } catch (RuntimeException e) {
+            logger.error("Error sliding pane window of stream " + streamId, e);
+        } finally {
+            releaseLock();
+        }
+
+        if (output != null) {
+            nextProcessor.process(output);
+        }
+    }
+
+    private InEvent combinePanes() {
+        if (lastData == null) {
+            return null;
+        }
+
+        PartialAggregate[] window = new PartialAggregate[attributePositions.length];
+        boolean empty = true;
+        for (int i = 0; i < window.length; i++) {
+            window[i] = new PartialAggregate();
+            for (PartialAggregate[] pane : panes) {
+                window[i].merge(pane[i]);
+            }
+            empty &= window[i].isEmpty();
+        }
+
+        if (empty) {
+            return null;
+        }
+
+        Object[] data = lastData.clone();
+        for (int i = 0; i < window.length; i++) {
+            data[attributePositions[i]] = window[i].isEmpty() ? null : AggregationType.toAttributeType(
+                    aggregationType.value(window[i]), attributeTypes[i]);
+        }
+        return new InEvent(streamId, System.currentTimeMillis(), data);
+    }
+
+    @Override
+    public void destroy() {
+        if (paneScheduler != null) {
+            paneScheduler.shutdownNow();
+        }
+        panes = null;
+        lastData = null;
+    }
+}
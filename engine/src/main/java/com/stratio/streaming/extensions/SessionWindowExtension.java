@@ -0,0 +1,299 @@
+/**
+ * Copyright (C) 2014 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.streaming.extensions;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.wso2.siddhi.core.config.SiddhiContext;
+import org.wso2.siddhi.core.event.StreamEvent;
+import org.wso2.siddhi.core.event.in.InEvent;
+import org.wso2.siddhi.core.event.in.InListEvent;
+import org.wso2.siddhi.core.query.QueryPostProcessingElement;
+import org.wso2.siddhi.core.query.processor.window.WindowProcessor;
+import org.wso2.siddhi.query.api.definition.AbstractDefinition;
+import org.wso2.siddhi.query.api.definition.Attribute;
+import org.wso2.siddhi.query.api.expression.Expression;
+import org.wso2.siddhi.query.api.extension.annotation.SiddhiExtension;
+import org.wso2.siddhi.query.compiler.exception.SiddhiPraserException;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Per key session window, a session is closed when no event has been received
+ * for its key during gapTime.
+ *
+ * Usage: #window.stratio:session(gapTime, [maxSessions,] keyAttribute,
+ * 'sum|count|min|max|avg', attribute1, attribute2...)
+ *
+ * When a session closes one event is emitted with the shape of the input
+ * stream: the given attributes hold the aggregate of the session and the rest
+ * of the attributes the values of its last event. Expirations are driven by a
+ * {@link TimerWheel} with one entry per open session; at most maxSessions keys
+ * are kept open and the least recently active session is closed early when a
+ * new key arrives over the limit.
+ */
+@SiddhiExtension(namespace = "stratio", function = "session")
+public class SessionWindowExtension extends WindowProcessor {
+
+    private static Logger logger = LoggerFactory.getLogger(SessionWindowExtension.class);
+
+    private static final int DEFAULT_MAX_SESSIONS = 10000;
+    private static final int TICKS_PER_GAP = 32;
+
+    private String streamId;
+    private long gapTime;
+    private int maxSessions;
+    private int keyPosition;
+    private AggregationType aggregationType;
+    private int[] attributePositions;
+    private Attribute.Type[] attributeTypes;
+
+    private LinkedHashMap<Object, Session> sessions;
+    private TimerWheel<Session> timerWheel;
+    private List<Session> evicted;
+
+    private ScheduledExecutorService wheelScheduler;
+
+    @Override
+    protected void processEvent(InEvent inEvent) {
+        List<InEvent> output;
+        acquireLock();
+        try {
+            long now = System.currentTimeMillis();
+            Object key = inEvent.getData(keyPosition);
+            Session session = sessions.get(key);
+            if (session == null) {
+                session = new Session(key, attributePositions.length);
+                sessions.put(key, session);
+                timerWheel.schedule(session, now + gapTime);
+            }
+            session.add(inEvent, attributePositions, now);
+            output = closeSessions(evicted);
+            evicted.clear();
+        } finally {
+            releaseLock();
+        }
+        emit(output);
+    }
+
+    @Override
+    protected void processEvent(InListEvent inListEvent) {
+        for (int i = 0; i < inListEvent.getActiveEvents(); i++) {
+            processEvent((InEvent) inListEvent.getEvent(i));
+        }
+    }
+
+    @Override
+    public Iterator<StreamEvent> iterator() {
+        return null;
+    }
+
+    @Override
+    public Iterator<StreamEvent> iterator(String s) {
+        return null;
+    }
+
+    @Override
+    protected Object[] currentState() {
+        return new Object[] { new ArrayList<>(sessions.values()) };
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected void restoreState(Object[] objects) {
+        if (objects != null && objects.length != 0) {
+            sessions.clear();
+            timerWheel.clear();
+            for (Session session : (List<Session>) objects[0]) {
+                if (session.aggregates.length != attributePositions.length) {
+                    logger.warn("Discarding persisted sessions of stream {}, window definition has changed", streamId);
+                    sessions.clear();
+                    timerWheel.clear();
+                    return;
+                }
+                sessions.put(session.key, session);
+                timerWheel.schedule(session, session.lastSeen + gapTime);
+            }
+        }
+    }
+
+    @Override
+    protected void init(Expression[] expressions, QueryPostProcessingElement queryPostProcessingElement,
+            AbstractDefinition abstractDefinition, String s, boolean b, SiddhiContext siddhiContext) {
+
+        if (expressions.length < 4) {
+            throw new SiddhiPraserException(
+                    "session window expects (gapTime, [maxSessions,] keyAttribute, aggregation, attribute1...)");
+        }
+
+        gapTime = WindowParameters.longValue(expressions[0], "gapTime");
+        if (gapTime <= 0) {
+            throw new SiddhiPraserException("session window requires a positive gapTime");
+        }
+
+        int next = 1;
+        maxSessions = DEFAULT_MAX_SESSIONS;
+        if (WindowParameters.isLong(expressions[next])) {
+            maxSessions = (int) WindowParameters.longValue(expressions[next++], "maxSessions");
+            if (maxSessions <= 0) {
+                throw new SiddhiPraserException("session window requires a positive maxSessions");
+            }
+        }
+        if (expressions.length - next < 3) {
+            throw new SiddhiPraserException("session window expects at least one attribute to aggregate");
+        }
+
+        streamId = abstractDefinition.getId();
+        keyPosition = WindowParameters.attributePosition(expressions[next++], abstractDefinition);
+        aggregationType = AggregationType.fromName(WindowParameters.stringValue(expressions[next++], "aggregation"));
+
+        attributePositions = new int[expressions.length - next];
+        attributeTypes = new Attribute.Type[attributePositions.length];
+        for (int i = 0; i < attributePositions.length; i++) {
+            attributePositions[i] = WindowParameters.attributePosition(expressions[next + i], abstractDefinition);
+            attributeTypes[i] = abstractDefinition.getAttributeList().get(attributePositions[i]).getType();
+            if (!AggregationType.isNumeric(attributeTypes[i])) {
+                throw new SiddhiPraserException("session window can only aggregate numeric attributes");
+            }
+        }
+
+        evicted = new ArrayList<>();
+        sessions = new LinkedHashMap<Object, Session>(16, 0.75f, true) {
+            private static final long serialVersionUID = -2847319024658113307L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Object, Session> eldest) {
+                if (size() > maxSessions) {
+                    evicted.add(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+
+        long tick = Math.max(1, gapTime / TICKS_PER_GAP);
+        timerWheel = new TimerWheel<>(tick, TICKS_PER_GAP + 2, System.currentTimeMillis());
+
+        wheelScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setDaemon(true)
+                .setNameFormat("stratio-session-window-" + streamId + "-%d").build());
+        wheelScheduler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                expireSessions();
+            }
+        }, tick, tick, TimeUnit.MILLISECONDS);
+    }
+
+    private void expireSessions() {
+        List<InEvent> output = null;
+        acquireLock();
+        try {
+            long now = System.currentTimeMillis();
+            List<Session> expired = new ArrayList<>();
+            for (Session session : timerWheel.advance(now)) {
+                if (session.closed) {
+                    continue;
+                }
+                long deadline = session.lastSeen + gapTime;
+                if (deadline <= now) {
+                    sessions.remove(session.key);
+                    expired.add(session);
+                } else {
+                    // the session got events since it was scheduled
+                    timerWheel.schedule(session, deadline);
+                }
+            }
+            output = closeSessions(expired);
+        } catch (RuntimeException e) {
+            logger.error("Error expiring sessions of stream " + streamId, e);
+        } finally {
+            releaseLock();
+        }
+        emit(output);
+    }
+
+    private List<InEvent> closeSessions(List<Session> toClose) {
+        List<InEvent> output = new ArrayList<>(toClose.size());
+        for (Session session : toClose) {
+            session.closed = true;
+            Object[] data = session.lastData.clone();
+            for (int i = 0; i < attributePositions.length; i++) {
+                PartialAggregate aggregate = session.aggregates[i];
+                data[attributePositions[i]] = aggregate.isEmpty() ? null : AggregationType.toAttributeType(
+                        aggregationType.value(aggregate), attributeTypes[i]);
+            }
+            output.add(new InEvent(streamId, System.currentTimeMillis(), data));
+        }
+        return output;
+    }
+
+    private void emit(List<InEvent> output) {
+        if (output != null) {
+            for (InEvent event : output) {
+                nextProcessor.process(event);
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (wheelScheduler != null) {
+            wheelScheduler.shutdownNow();
+        }
+        sessions = null;
+        timerWheel = null;
+    }
+
+    private static class Session implements Serializable {
+
+        private static final long serialVersionUID = -6218839125527146722L;
+
+        private final Object key;
+        private final PartialAggregate[] aggregates;
+        private long lastSeen;
+        private Object[] lastData;
+        private transient boolean closed;
+
+        private Session(Object key, int attributes) {
+            this.key = key;
+            this.aggregates = new PartialAggregate[attributes];
+            for (int i = 0; i < attributes; i++) {
+                aggregates[i] = new PartialAggregate();
+            }
+        }
+
+        private void add(InEvent event, int[] attributePositions, long now) {
+            for (int i = 0; i < attributePositions.length; i++) {
+                Object value = event.getData(attributePositions[i]);
+                if (value != null) {
+                    aggregates[i].add(((Number) value).doubleValue());
+                }
+            }
+            lastSeen = now;
+            lastData = event.getData();
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * Copyright (C) 2014 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.streaming.extensions;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Hashed timer wheel: deadlines are bucketed in slots of tickMs, so
+ * scheduling is O(1) and every tick only visits the entries of one slot.
+ *
+ * A slot is only processed once its whole tick has elapsed, so items are
+ * returned at most one tick late. Deadlines further away than one revolution
+ * stay in their slot until the wheel comes back to it. Not thread safe,
+ * callers must synchronize.
+ */
+public class TimerWheel<T> {
+
+    private final long tickMs;
+    private final List<Entry<T>>[] slots;
+    private long lastTick;
+
+    @SuppressWarnings("unchecked")
+    public TimerWheel(long tickMs, int slotCount, long now) {
+        if (tickMs <= 0 || slotCount <= 0) {
+            throw new IllegalArgumentException("tickMs and slotCount must be positive");
+        }
+        this.tickMs = tickMs;
+        this.slots = new List[slotCount];
+        for (int i = 0; i < slotCount; i++) {
+            slots[i] = new LinkedList<>();
+        }
+        this.lastTick = now / tickMs - 1;
+    }
+
+    public void schedule(T item, long deadline) {
+        long tick = Math.max(deadline / tickMs, lastTick + 1);
+        slots[(int) (tick % slots.length)].add(new Entry<>(item, deadline));
+    }
+
+    /**
+     * Moves the wheel up to the last elapsed tick and returns the items whose
+     * deadline has been reached, in slot order.
+     */
+    public List<T> advance(long now) {
+        List<T> expired = new ArrayList<>();
+        long currentTick = now / tickMs - 1;
+        // no need to visit a slot twice in the same call
+        long firstTick = Math.max(lastTick + 1, currentTick - slots.length + 1);
+        for (long tick = firstTick; tick <= currentTick; tick++) {
+            Iterator<Entry<T>> entries = slots[(int) (tick % slots.length)].iterator();
+            while (entries.hasNext()) {
+                Entry<T> entry = entries.next();
+                if (entry.deadline <= now) {
+                    expired.add(entry.item);
+                    entries.remove();
+                }
+            }
+        }
+        lastTick = Math.max(lastTick, currentTick);
+        return expired;
+    }
+
+    public void clear() {
+        for (List<Entry<T>> slot : slots) {
+            slot.clear();
+        }
+    }
+
+    public long getTickMs() {
+        return tickMs;
+    }
+
+    private static class Entry<T> {
+        private final T item;
+        private final long deadline;
+
+        private Entry(T item, long deadline) {
+            this.item = item;
+            this.deadline = deadline;
+        }
+    }
+}
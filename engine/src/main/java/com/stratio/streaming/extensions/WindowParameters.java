@@ -0,0 +1,77 @@
+/**
+ * Copyright (C) 2014 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.streaming.extensions;
+
+import org.wso2.siddhi.query.api.definition.AbstractDefinition;
+import org.wso2.siddhi.query.api.expression.Expression;
+import org.wso2.siddhi.query.api.expression.Variable;
+import org.wso2.siddhi.query.api.expression.constant.DoubleConstant;
+import org.wso2.siddhi.query.api.expression.constant.FloatConstant;
+import org.wso2.siddhi.query.api.expression.constant.IntConstant;
+import org.wso2.siddhi.query.api.expression.constant.LongConstant;
+import org.wso2.siddhi.query.api.expression.constant.StringConstant;
+import org.wso2.siddhi.query.compiler.exception.SiddhiPraserException;
+
+/**
+ * Helpers to read the parameters given to the stratio window extensions.
+ */
+public class WindowParameters {
+
+    private WindowParameters() {
+
+    }
+
+    public static boolean isLong(Expression expression) {
+        return expression instanceof IntConstant || expression instanceof LongConstant;
+    }
+
+    /**
+     * Time parameters ("1 sec", "5 min"...) are received as int or long
+     * constants in milliseconds.
+     */
+    public static long longValue(Expression expression, String parameterName) throws SiddhiPraserException {
+        if (expression instanceof IntConstant) {
+            return ((IntConstant) expression).getValue();
+        } else if (expression instanceof LongConstant) {
+            return ((LongConstant) expression).getValue();
+        }
+        throw new SiddhiPraserException("Parameter " + parameterName + " must be an integer or a time constant");
+    }
+
+    public static double doubleValue(Expression expression, String parameterName) throws SiddhiPraserException {
+        if (expression instanceof DoubleConstant) {
+            return ((DoubleConstant) expression).getValue();
+        } else if (expression instanceof FloatConstant) {
+            return ((FloatConstant) expression).getValue();
+        }
+        return longValue(expression, parameterName);
+    }
+
+    public static String stringValue(Expression expression, String parameterName) throws SiddhiPraserException {
+        if (expression instanceof StringConstant) {
+            return ((StringConstant) expression).getValue();
+        }
+        throw new SiddhiPraserException("Parameter " + parameterName + " must be a string");
+    }
+
+    public static int attributePosition(Expression expression, AbstractDefinition definition)
+            throws SiddhiPraserException {
+        if (expression instanceof Variable) {
+            return definition.getAttributePosition(((Variable) expression).getAttributeName());
+        }
+        throw new SiddhiPraserException("Expected an attribute name but found " + expression);
+    }
+}
@@ -16,6 +16,7 @@
 package com.stratio.streaming.functions;
 
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
 
 import org.apache.spark.api.java.JavaRDD;
@@ -30,7 +31,7 @@ import com.stratio.streaming.commons.messages.StratioStreamingMessage;
 import com.stratio.streaming.exception.RequestValidationException;
 import com.stratio.streaming.functions.validator.RequestValidation;
 import com.stratio.streaming.functions.validator.StreamAllowedValidation;
-import com.stratio.streaming.utils.ZKUtils;
+import com.stratio.streaming.utils.ReplyUtils;
 
 public abstract class ActionBaseFunction implements Function<JavaRDD<StratioStreamingMessage>, Void> {
 
@@ -58,7 +59,12 @@ public abstract class ActionBaseFunction implements Function<JavaRDD<StratioStre
 
     @Override
     public Void call(JavaRDD<StratioStreamingMessage> rdd) throws Exception {
-        for (StratioStreamingMessage message : rdd.collect()) {
+        process(rdd.collect());
+        return null;
+    }
+
+    public void process(List<StratioStreamingMessage> messages) throws Exception {
+        for (StratioStreamingMessage message : messages) {
             try {
 
                 boolean defaultResponse = false;
@@ -86,7 +92,6 @@ public abstract class ActionBaseFunction implements Function<JavaRDD<StratioStre
                 ackStreamingOperation(message, new ActionCallbackDto(REPLY_CODES.KO_GENERAL_ERROR, e.getMessage()));
             }
         }
-        return null;
     }
 
     private boolean validOperation(StratioStreamingMessage request, Set<RequestValidation> validators) throws Exception {
@@ -104,7 +109,7 @@ public abstract class ActionBaseFunction implements Function<JavaRDD<StratioStre
     }
 
     protected void ackStreamingOperation(StratioStreamingMessage message, ActionCallbackDto reply) throws Exception {
-        ZKUtils.getZKUtils(zookeeperHost).createZNodeJsonReply(message, reply);
+        ReplyUtils.sendJsonReply(zookeeperHost, message, reply);
     }
 
     public SiddhiManager getSiddhiManager() {
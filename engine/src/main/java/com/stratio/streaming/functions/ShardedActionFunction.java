@@ -0,0 +1,191 @@
+/**
+ * Copyright (C) 2014 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.streaming.functions;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.spark.api.java.JavaRDD;
+import org.apache.spark.api.java.function.Function;
+import org.wso2.siddhi.core.SiddhiManager;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.hazelcast.core.Message;
+import com.hazelcast.core.MessageListener;
+import com.stratio.streaming.commons.messages.StratioStreamingMessage;
+import com.stratio.streaming.streams.SiddhiShards;
+import com.stratio.streaming.streams.StreamPlacement;
+
+/**
+ * Routes every request to the copy of the action function bound to the shard
+ * owning its stream. Requests of the same shard keep their order, different
+ * shards are processed in parallel.
+ *
+ * In cluster mode the requests of streams owned by other engine nodes are
+ * forwarded to them, and the requests forwarded to this node are processed
+ * in the next batch, so a shard never runs two batches at the same time. The
+ * shards added to hold the streams taken over from dead nodes get their
+ * function in the first batch after they are added.
+ */
+public class ShardedActionFunction implements Function<JavaRDD<StratioStreamingMessage>, Void> {
+
+    private static final long serialVersionUID = 5276930563741189021L;
+
+    public interface ActionFunctionFactory {
+        ActionBaseFunction create(SiddhiManager siddhiManager);
+    }
+
+    private final transient SiddhiShards shards;
+    private final transient ActionFunctionFactory factory;
+    private final transient List<ActionBaseFunction> shardFunctions;
+    private transient ExecutorService shardExecutor;
+    private final transient StreamPlacement placement;
+    private final transient Queue<StratioStreamingMessage> forwardedMessages;
+    private final String name;
+
+    public ShardedActionFunction(SiddhiShards shards, String name, ActionFunctionFactory factory) {
+        this(shards, null, name, factory);
+    }
+
+    /**
+     * @param placement
+     *            streams placement between the engine nodes, null to process
+     *            every request in this node
+     */
+    public ShardedActionFunction(SiddhiShards shards, StreamPlacement placement, String name,
+            ActionFunctionFactory factory) {
+        this.shards = shards;
+        this.placement = placement;
+        this.name = name;
+        this.factory = factory;
+        this.forwardedMessages = new ConcurrentLinkedQueue<>();
+        this.shardFunctions = new ArrayList<>(shards.size());
+        addShardFunctions();
+
+        if (placement != null) {
+            placement.listen(name, new MessageListener<StratioStreamingMessage>() {
+                @Override
+                public void onMessage(Message<StratioStreamingMessage> message) {
+                    forwardedMessages.add(message.getMessageObject());
+                }
+            });
+        }
+    }
+
+    @Override
+    public Void call(JavaRDD<StratioStreamingMessage> rdd) throws Exception {
+        List<StratioStreamingMessage> messages = rdd.collect();
+        if (placement != null) {
+            messages = routeToOwners(messages);
+        }
+        int shardCount = addShardFunctions();
+        if (shardCount == 1) {
+            shardFunctions.get(0).process(messages);
+            return null;
+        }
+
+        List<List<StratioStreamingMessage>> messagesByShard = new ArrayList<>(shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            messagesByShard.add(new ArrayList<StratioStreamingMessage>());
+        }
+        for (StratioStreamingMessage message : messages) {
+            messagesByShard.get(shards.shardOf(message.getStreamName())).add(message);
+        }
+
+        ExecutorService shardExecutor = getShardExecutor();
+        List<Future<Void>> pending = new ArrayList<>();
+        for (int i = 0; i < shardCount; i++) {
+            final ActionBaseFunction shardFunction = shardFunctions.get(i);
+            final List<StratioStreamingMessage> shardMessages = messagesByShard.get(i);
+            if (!shardMessages.isEmpty()) {
+                pending.add(shardExecutor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        shardFunction.process(shardMessages);
+                        return null;
+                    }
+                }));
+            }
+        }
+
+        for (Future<Void> shardResult : pending) {
+            try {
+                shardResult.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Exception) {
+                    throw (Exception) e.getCause();
+                }
+                throw e;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Creates the functions of the shards added since the last batch.
+     * 
+     * @return number of shards with function
+     */
+    private synchronized int addShardFunctions() {
+        List<SiddhiManager> siddhiManagers = shards.getSiddhiManagers();
+        for (int i = shardFunctions.size(); i < siddhiManagers.size(); i++) {
+            shardFunctions.add(factory.create(siddhiManagers.get(i)));
+        }
+        return shardFunctions.size();
+    }
+
+    /**
+     * One thread for every shard processing requests, new threads are started
+     * as shards are added.
+     */
+    private synchronized ExecutorService getShardExecutor() {
+        if (shardExecutor == null) {
+            shardExecutor = Executors.newCachedThreadPool(new ThreadFactoryBuilder().setDaemon(true)
+                    .setNameFormat("stratio-shard-" + name + "-%d").build());
+        }
+        return shardExecutor;
+    }
+
+    /**
+     * Forwards the requests owned by other nodes and adds the ones forwarded
+     * to this node since the last batch.
+     */
+    private List<StratioStreamingMessage> routeToOwners(List<StratioStreamingMessage> messages) {
+        // streams inherited from dead nodes must exist before their requests
+        placement.recoverOrphanStreams();
+
+        List<StratioStreamingMessage> localMessages = new ArrayList<>();
+        StratioStreamingMessage forwarded;
+        while ((forwarded = forwardedMessages.poll()) != null) {
+            localMessages.add(forwarded);
+        }
+        for (StratioStreamingMessage message : messages) {
+            if (placement.isLocal(message.getStreamName())) {
+                localMessages.add(message);
+            } else {
+                placement.forward(name, message);
+            }
+        }
+        return localMessages;
+    }
+}
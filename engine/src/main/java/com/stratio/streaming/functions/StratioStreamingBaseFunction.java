@@ -27,7 +27,7 @@ import org.wso2.siddhi.core.SiddhiManager;
 import com.stratio.streaming.commons.constants.REPLY_CODES;
 import com.stratio.streaming.commons.constants.STREAM_OPERATIONS;
 import com.stratio.streaming.commons.messages.StratioStreamingMessage;
-import com.stratio.streaming.utils.ZKUtils;
+import com.stratio.streaming.utils.ReplyUtils;
 
 /**
  * @author dmorales
@@ -54,7 +54,7 @@ public abstract class StratioStreamingBaseFunction implements Function<JavaRDD<S
 
     protected void ackStreamingOperation(StratioStreamingMessage request, Integer reply) throws Exception {
 
-        ZKUtils.getZKUtils(zookeeperCluster).createZNodeJsonReply(request, reply);
+        ReplyUtils.sendJsonReply(zookeeperCluster, request, reply);
 
         if (!request.getOperation().equalsIgnoreCase(STREAM_OPERATIONS.MANIPULATION.INSERT)) {
 
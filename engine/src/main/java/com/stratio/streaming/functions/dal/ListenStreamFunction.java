@@ -22,6 +22,7 @@ import org.wso2.siddhi.core.SiddhiManager;
 import com.stratio.streaming.commons.constants.REPLY_CODES;
 import com.stratio.streaming.commons.constants.STREAM_OPERATIONS;
 import com.stratio.streaming.commons.constants.StreamAction;
+import com.stratio.streaming.commons.kafka.service.TopicService;
 import com.stratio.streaming.commons.messages.StratioStreamingMessage;
 import com.stratio.streaming.functions.ActionBaseFunction;
 import com.stratio.streaming.functions.validator.ActionEnabledValidation;
@@ -33,10 +34,26 @@ public class ListenStreamFunction extends ActionBaseFunction {
     private static final long serialVersionUID = 4566359991793310850L;
 
     private final String kafkaCluster;
+    private final transient TopicService topicService;
+    private final int partitions;
+    private final int replicationFactor;
 
     public ListenStreamFunction(SiddhiManager siddhiManager, String zookeeperHost, String kafkaCluster) {
+        this(siddhiManager, zookeeperHost, kafkaCluster, null, 0, 0);
+    }
+
+    /**
+     * @param topicService
+     *            creates the topic of the stream with the given partitions
+     *            before the first event is sent, null to let kafka create it
+     */
+    public ListenStreamFunction(SiddhiManager siddhiManager, String zookeeperHost, String kafkaCluster,
+            TopicService topicService, int partitions, int replicationFactor) {
         super(siddhiManager, zookeeperHost);
         this.kafkaCluster = kafkaCluster;
+        this.topicService = topicService;
+        this.partitions = partitions;
+        this.replicationFactor = replicationFactor;
     }
 
     @Override
@@ -51,6 +68,9 @@ public class ListenStreamFunction extends ActionBaseFunction {
 
     @Override
     protected boolean startAction(StratioStreamingMessage message) {
+        if (topicService != null) {
+            topicService.createTopicIfNotExist(message.getStreamName(), replicationFactor, partitions);
+        }
         StreamOperations.listenStream(message, kafkaCluster, getSiddhiManager());
         return true;
     }
@@ -28,8 +28,8 @@ import com.stratio.streaming.commons.constants.STREAM_OPERATIONS;
 import com.stratio.streaming.commons.messages.StratioStreamingMessage;
 import com.stratio.streaming.exception.RequestValidationException;
 import com.stratio.streaming.functions.ActionBaseFunction;
-import com.stratio.streaming.functions.validator.QueryExistsValidation;
 import com.stratio.streaming.functions.validator.QueryNotExistsValidation;
+import com.stratio.streaming.functions.validator.QueryOutputStreamValidation;
 import com.stratio.streaming.functions.validator.RequestValidation;
 import com.stratio.streaming.functions.validator.StreamNotExistsValidation;
 import com.stratio.streaming.streams.StreamOperations;
@@ -83,8 +83,8 @@ public class AddQueryToStreamFunction extends ActionBaseFunction {
 
     @Override
     protected void addStartRequestsValidations(Set<RequestValidation> validators) {
-        validators.add(new QueryExistsValidation(getSiddhiManager()));
         validators.add(new StreamNotExistsValidation(getSiddhiManager()));
+        validators.add(new QueryOutputStreamValidation(getSiddhiManager()));
     }
 
 }
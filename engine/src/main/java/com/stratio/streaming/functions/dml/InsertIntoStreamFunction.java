@@ -15,9 +15,14 @@
  */
 package com.stratio.streaming.functions.dml;
 
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
 import java.util.Set;
 
 import org.wso2.siddhi.core.SiddhiManager;
+import org.wso2.siddhi.core.event.Event;
+import org.wso2.siddhi.core.event.in.InEvent;
 import org.wso2.siddhi.query.api.exception.AttributeNotExistException;
 
 import com.stratio.streaming.commons.constants.REPLY_CODES;
@@ -28,14 +33,51 @@ import com.stratio.streaming.exception.RequestValidationException;
 import com.stratio.streaming.functions.ActionBaseFunction;
 import com.stratio.streaming.functions.validator.RequestValidation;
 import com.stratio.streaming.functions.validator.StreamNotExistsValidation;
+import com.stratio.streaming.streams.InsertLog;
+import com.stratio.streaming.streams.StreamInputQueues;
 import com.stratio.streaming.utils.SiddhiUtils;
 
 public class InsertIntoStreamFunction extends ActionBaseFunction {
 
     private static final long serialVersionUID = -2545263418772827277L;
 
+    private final transient StreamInputQueues inputQueues;
+    private final transient InsertLog insertLog;
+
     public InsertIntoStreamFunction(SiddhiManager siddhiManager, String zookeeperHost) {
+        this(siddhiManager, zookeeperHost, null);
+    }
+
+    /**
+     * @param inputQueues
+     *            if not null events are handed to the stream input queues
+     *            instead of being processed in the calling thread
+     */
+    public InsertIntoStreamFunction(SiddhiManager siddhiManager, String zookeeperHost, StreamInputQueues inputQueues) {
+        this(siddhiManager, zookeeperHost, inputQueues, null);
+    }
+
+    /**
+     * @param insertLog
+     *            if not null events are logged before being handed to siddhi,
+     *            and requests already logged are skipped
+     */
+    public InsertIntoStreamFunction(SiddhiManager siddhiManager, String zookeeperHost,
+            StreamInputQueues inputQueues, InsertLog insertLog) {
         super(siddhiManager, zookeeperHost);
+        this.inputQueues = inputQueues;
+        this.insertLog = insertLog;
+        if (insertLog != null) {
+            insertLog.setInputQueues(inputQueues);
+        }
+    }
+
+    @Override
+    public void process(List<StratioStreamingMessage> messages) throws Exception {
+        super.process(messages);
+        if (inputQueues != null) {
+            inputQueues.removeDroppedStreams();
+        }
     }
 
     @Override
@@ -51,9 +93,30 @@ public class InsertIntoStreamFunction extends ActionBaseFunction {
     @Override
     protected boolean startAction(StratioStreamingMessage message) throws RequestValidationException {
         try {
-            getSiddhiManager().getInputHandler(message.getStreamName()).send(
-                    SiddhiUtils.getOrderedValues(getSiddhiManager().getStreamDefinition(message.getStreamName()),
-                            message.getColumns()));
+            List<Object[]> events;
+            if (message.getRows() == null) {
+                events = Collections.singletonList(SiddhiUtils.getOrderedValues(
+                        getSiddhiManager().getStreamDefinition(message.getStreamName()), message.getColumns()));
+            } else {
+                events = SiddhiUtils.getOrderedValues(getSiddhiManager().getStreamDefinition(message.getStreamName()),
+                        message.getColumns(), message.getRows());
+            }
+            if (insertLog == null) {
+                send(message.getStreamName(), events);
+            } else {
+                insertLog.getInsertLock().lock();
+                try {
+                    if (insertLog.append(message.getRequest_id(), message.getStreamName(), events)) {
+                        send(message.getStreamName(), events);
+                    } else {
+                        log.debug("Skipping insert request {} already processed", message.getRequest_id());
+                    }
+                } finally {
+                    insertLog.getInsertLock().unlock();
+                }
+            }
+        } catch (IOException e) {
+            throw new RequestValidationException(REPLY_CODES.KO_GENERAL_ERROR, e.getMessage());
         } catch (AttributeNotExistException e) {
             throw new RequestValidationException(REPLY_CODES.KO_COLUMN_DOES_NOT_EXIST, e.getMessage());
         } catch (InterruptedException e) {
@@ -62,6 +125,24 @@ public class InsertIntoStreamFunction extends ActionBaseFunction {
         return false;
     }
 
+    private void send(String streamName, List<Object[]> events) throws InterruptedException {
+        if (inputQueues != null) {
+            for (Object[] event : events) {
+                inputQueues.offer(streamName, event);
+            }
+        } else if (events.size() == 1) {
+            getSiddhiManager().getInputHandler(streamName).send(events.get(0));
+        } else {
+            // the rows of a bulk insert reach siddhi as a single batch
+            long timestamp = System.currentTimeMillis();
+            Event[] batch = new Event[events.size()];
+            for (int i = 0; i < batch.length; i++) {
+                batch[i] = new InEvent(streamName, timestamp, events.get(i));
+            }
+            getSiddhiManager().getInputHandler(streamName).send(batch);
+        }
+    }
+
     @Override
     protected void ackStreamingOperation(StratioStreamingMessage message, ActionCallbackDto reply) throws Exception {
         log.debug("Overriding zookeeper inser action.Data: {}", reply);
@@ -15,28 +15,40 @@
  */
 package com.stratio.streaming.functions.dml;
 
-import java.util.List;
+import java.util.Collections;
 import java.util.Set;
 
 import org.wso2.siddhi.core.SiddhiManager;
 
 import com.stratio.streaming.commons.constants.REPLY_CODES;
 import com.stratio.streaming.commons.constants.STREAM_OPERATIONS;
-import com.stratio.streaming.commons.messages.ListStreamsMessage;
 import com.stratio.streaming.commons.messages.StratioStreamingMessage;
 import com.stratio.streaming.exception.RequestValidationException;
 import com.stratio.streaming.functions.ActionBaseFunction;
 import com.stratio.streaming.functions.validator.RequestValidation;
 import com.stratio.streaming.functions.validator.StreamAllowedValidation;
-import com.stratio.streaming.streams.StreamOperations;
-import com.stratio.streaming.utils.ZKUtils;
+import com.stratio.streaming.streams.SiddhiShards;
+import com.stratio.streaming.streams.StreamCatalogSnapshot;
+import com.stratio.streaming.streams.StreamPlacement;
+import com.stratio.streaming.utils.ReplyUtils;
 
 public class ListStreamsFunction extends ActionBaseFunction {
 
     private static final long serialVersionUID = 3580834398296372380L;
 
+    private final transient StreamCatalogSnapshot catalogSnapshot;
+
     public ListStreamsFunction(SiddhiManager siddhiManager, String zookeeperHost) {
-        super(siddhiManager, zookeeperHost);
+        this(new SiddhiShards(Collections.singletonList(siddhiManager)), zookeeperHost);
+    }
+
+    public ListStreamsFunction(SiddhiShards shards, String zookeeperHost) {
+        this(shards, null, zookeeperHost);
+    }
+
+    public ListStreamsFunction(SiddhiShards shards, StreamPlacement placement, String zookeeperHost) {
+        super(shards.get(0), zookeeperHost);
+        this.catalogSnapshot = new StreamCatalogSnapshot(shards, placement);
     }
 
     @Override
@@ -51,10 +63,9 @@ public class ListStreamsFunction extends ActionBaseFunction {
 
     @Override
     protected boolean startAction(StratioStreamingMessage message) throws RequestValidationException {
-        List<StratioStreamingMessage> existingStreams = StreamOperations.listStreams(message, getSiddhiManager());
+        // the request holds the catalog version the client already has
         try {
-            ZKUtils.getZKUtils(getZookeeperHost()).createZNodeJsonReply(message,
-                    new ListStreamsMessage(existingStreams.size(), System.currentTimeMillis(), existingStreams));
+            ReplyUtils.sendJsonReply(getZookeeperHost(), message, catalogSnapshot.list(message.getRequest()));
         } catch (Exception e) {
             throw new RequestValidationException(REPLY_CODES.KO_GENERAL_ERROR, e.getMessage());
         }
@@ -0,0 +1,56 @@
+/**
+ * Copyright (C) 2014 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.streaming.functions.validator;
+
+import org.wso2.siddhi.core.SiddhiManager;
+
+import com.stratio.streaming.commons.constants.REPLY_CODES;
+import com.stratio.streaming.commons.messages.StratioStreamingMessage;
+import com.stratio.streaming.exception.RequestValidationException;
+import com.stratio.streaming.streams.StreamStatusCache;
+import com.stratio.streaming.utils.SiddhiUtils;
+
+/**
+ * A query runs in the siddhi engine of its input stream, so it can only
+ * insert into a new stream or into a stream of the same engine. Otherwise the
+ * output stream would be defined twice, in two different shards or nodes.
+ */
+public class QueryOutputStreamValidation extends BaseSiddhiRequestValidation {
+
+    private final static String OUTPUT_STREAM_IN_OTHER_SHARD = "Query of stream %s can not insert into stream %s, "
+            + "it is placed in another shard or node";
+
+    public QueryOutputStreamValidation(SiddhiManager sm) {
+        super(sm);
+    }
+
+    @Override
+    public void validate(StratioStreamingMessage request) throws RequestValidationException {
+        if (request.getRequest() == null) {
+            return;
+        }
+        String outputStreamName = SiddhiUtils.getQueryOutputStreamName(request.getRequest());
+        if (outputStreamName == null || getSm().getStreamDefinition(outputStreamName) != null) {
+            return;
+        }
+        // streams of the catalog not defined here belong to another engine
+        StreamStatusCache catalog = StreamStatusCache.of(getSm().getSiddhiContext().getHazelcastInstance());
+        if (catalog.get(outputStreamName) != null) {
+            throw new RequestValidationException(REPLY_CODES.KO_STREAM_OPERATION_NOT_ALLOWED, String.format(
+                    OUTPUT_STREAM_IN_OTHER_SHARD, request.getStreamName(), outputStreamName));
+        }
+    }
+}
@@ -15,11 +15,19 @@
  */
 package com.stratio.streaming.streams;
 
+import java.io.IOException;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import me.prettyprint.cassandra.serializers.BytesArraySerializer;
+import me.prettyprint.cassandra.serializers.LongSerializer;
 import me.prettyprint.cassandra.serializers.StringSerializer;
 import me.prettyprint.cassandra.service.CassandraHostConfigurator;
 import me.prettyprint.hector.api.Cluster;
@@ -33,23 +41,40 @@ import me.prettyprint.hector.api.query.SliceQuery;
 
 import org.apache.log4j.Logger;
 import org.wso2.siddhi.core.event.management.PersistenceManagementEvent;
-import org.wso2.siddhi.core.persistence.ByteSerializer;
 import org.wso2.siddhi.core.persistence.PersistenceObject;
-import org.wso2.siddhi.core.persistence.PersistenceStore;
 
-public class Casandra2PersistenceStore implements PersistenceStore {
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.stratio.streaming.utils.SiddhiUtils;
+
+public class Casandra2PersistenceStore implements StreamingPersistenceStore {
     private static Logger log = Logger.getLogger(Casandra2PersistenceStore.class);
 
     private static final String KEYSPACE = "StreamingSnapshots";
     private static final String COLUMN_FAMILY_NAME = "Snapshots";
     private static final String INDEX_COLUMN_FAMILY_NAME = "SnapshotsIndex";
     private static final String EXECUTION_PLAN_COLUMN_FAMILY_NAME = "ExecutionPlanSnapshots";
+    private static final String EXECUTION_PLAN_ROW_KEY = "savedExecutionPlan";
+    private static final String LATEST_REVISION_ROW_PREFIX = "latestRevision-";
+    private static final String LATEST_REVISION_COLUMN = "revision";
+    // kept in the row of the revision, next to the snapshots of its nodes
+    private static final String INSERT_LOG_SEQUENCE_COLUMN = "insertLogSequence";
+    private static final int INDEX_PAGE_SIZE = 1000;
+    private static final long RETENTION_INTERVAL = 60000;
 
     private StringSerializer sser = new StringSerializer();
     private BytesArraySerializer bser = new BytesArraySerializer();
 
     private Keyspace keyspace;
     private Cluster cluster;
+    private String queryPlanIdentifier = SiddhiUtils.QUERY_PLAN_IDENTIFIER;
+    private SnapshotSerializer snapshotSerializer = new SnapshotSerializer(SnapshotCompression.SNAPPY);
+    private DeltaSnapshots deltaSnapshots = new DeltaSnapshots(DeltaSnapshots.DEFAULT_FULL_SNAPSHOT_INTERVAL);
+    private SnapshotRetention snapshotRetention = new SnapshotRetention(SnapshotRetention.DEFAULT_MAX_REVISIONS,
+            SnapshotRetention.DEFAULT_MAX_AGE);
+    private volatile String lastExecutionPlanIdentifier;
+    private volatile Long insertLogSequence;
+    private final AtomicLong writtenBytes = new AtomicLong();
+    private ScheduledExecutorService retentionExecutor;
 
     private static Date timeAt1970 = new Date(10000);
 
@@ -64,6 +89,23 @@ public class Casandra2PersistenceStore implements PersistenceStore {
 
     }
 
+    /**
+     * Store for one of several siddhi engines sharing the keyspace, each one
+     * keeps its execution plan and revisions in its own rows.
+     */
+    public Casandra2PersistenceStore(String cassandraCluster, String username, String password,
+            String queryPlanIdentifier) {
+        this(cassandraCluster, username, password);
+        this.queryPlanIdentifier = queryPlanIdentifier;
+    }
+
+    private static String executionPlanRowKey(String queryPlanIdentifier) {
+        if (SiddhiUtils.QUERY_PLAN_IDENTIFIER.equals(queryPlanIdentifier)) {
+            return EXECUTION_PLAN_ROW_KEY;
+        }
+        return EXECUTION_PLAN_ROW_KEY + "-" + queryPlanIdentifier;
+    }
+
     private void init(Cluster cluster) {
         if (cluster.describeKeyspace(KEYSPACE) == null) {
             log.info("Creating  keyspace for snapshosts " + KEYSPACE);
@@ -92,34 +134,116 @@ public class Casandra2PersistenceStore implements PersistenceStore {
     public void save(PersistenceManagementEvent persistenceManagementEvent, String nodeID,
             PersistenceObject persistenceObject) {
 
+        byte[] snapshot;
+        try {
+            snapshot = snapshotSerializer.serialize(persistenceObject);
+        } catch (IOException e) {
+            log.error("Error serializing snapshot of node " + nodeID, e);
+            return;
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Snapshot of node " + nodeID + ": " + snapshotSerializer.getLastSnapshotBytes() + " bytes ("
+                    + snapshotSerializer.getLastStateBytes() + " uncompressed) in "
+                    + snapshotSerializer.getLastSerializationTime() + " ms");
+        }
+
+        // unchanged state is written as a reference to the revision holding
+        // it
+        String unchangedRevision = deltaSnapshots.findUnchanged(persistenceManagementEvent.getRevision(), nodeID,
+                snapshot);
+        if (unchangedRevision != null) {
+            snapshot = DeltaSnapshots.reference(unchangedRevision);
+        }
+
+        // snapshot and index in the same batch
         Mutator<String> mutator = HFactory.createMutator(keyspace, sser);
 
-        mutator.insert(persistenceManagementEvent.getRevision(), COLUMN_FAMILY_NAME,
-                HFactory.createColumn(nodeID, ByteSerializer.OToB(persistenceObject), sser, bser));
+        mutator.addInsertion(persistenceManagementEvent.getRevision(), COLUMN_FAMILY_NAME,
+                HFactory.createColumn(nodeID, snapshot, sser, bser));
+        // same row as the snapshot, both are written or none
+        Long sequence = insertLogSequence;
+        if (sequence != null) {
+            mutator.addInsertion(persistenceManagementEvent.getRevision(), COLUMN_FAMILY_NAME,
+                    HFactory.createColumn(INSERT_LOG_SEQUENCE_COLUMN, LongSerializer.get().toBytes(sequence), sser,
+                            bser));
+        }
 
-        mutator.insert(
+        mutator.addInsertion(
                 persistenceManagementEvent.getExecutionPlanIdentifier(),
                 INDEX_COLUMN_FAMILY_NAME,
                 HFactory.createColumn(persistenceManagementEvent.getRevision(),
                         String.valueOf(System.currentTimeMillis()), sser, sser));
+        mutator.addInsertion(LATEST_REVISION_ROW_PREFIX + persistenceManagementEvent.getExecutionPlanIdentifier(),
+                INDEX_COLUMN_FAMILY_NAME,
+                HFactory.createColumn(LATEST_REVISION_COLUMN, persistenceManagementEvent.getRevision(), sser, sser));
         mutator.execute();
+        writtenBytes.addAndGet(snapshot.length);
+
+        // replaced by a full snapshot
+        removeRevisions(persistenceManagementEvent.getExecutionPlanIdentifier(),
+                deltaSnapshots.takeCompactableRevisions());
+
+        lastExecutionPlanIdentifier = persistenceManagementEvent.getExecutionPlanIdentifier();
+        startRetention();
     }
 
-    @Override
-    public PersistenceObject load(PersistenceManagementEvent persistenceManagementEvent, String nodeId) {
+    private void removeRevisions(String executionPlanIdentifier, List<String> revisions) {
+        if (revisions.isEmpty()) {
+            return;
+        }
+
+        Mutator<String> mutator = HFactory.createMutator(keyspace, sser);
+        for (String revision : revisions) {
+            mutator.addDeletion(revision, COLUMN_FAMILY_NAME);
+            mutator.addDeletion(executionPlanIdentifier, INDEX_COLUMN_FAMILY_NAME, revision, sser);
+        }
+        mutator.execute();
 
-        ColumnSlice<String, byte[]> cs;
+        log.debug("Removed " + revisions.size() + " snapshot revisions");
+    }
+
+    private byte[] loadSnapshot(String revision, String nodeId) {
 
         SliceQuery<String, String, byte[]> q = HFactory.createSliceQuery(keyspace, sser, sser, bser);
-        q.setColumnFamily(COLUMN_FAMILY_NAME).setKey(persistenceManagementEvent.getRevision())
-                .setRange("", "", false, 1000).setColumnNames(nodeId);
+        q.setColumnFamily(COLUMN_FAMILY_NAME).setKey(revision).setRange("", "", false, 1000).setColumnNames(nodeId);
 
         QueryResult<ColumnSlice<String, byte[]>> r = q.execute();
 
-        cs = r.get();
+        byte[] snapshot = null;
+        for (HColumn<String, byte[]> hc : r.get().getColumns()) {
+            snapshot = hc.getValue();
+        }
+        return snapshot;
+    }
+
+    @Override
+    public PersistenceObject load(PersistenceManagementEvent persistenceManagementEvent, String nodeId) {
+
+        byte[] snapshot = loadSnapshot(persistenceManagementEvent.getRevision(), nodeId);
+        if (snapshot == null) {
+            return null;
+        }
+
+        // the state was unchanged in this revision
+        String referencedRevision = DeltaSnapshots.referencedRevision(snapshot);
+        if (referencedRevision != null) {
+            snapshot = loadSnapshot(referencedRevision, nodeId);
+            if (snapshot == null) {
+                log.error("Snapshot of node " + nodeId + " referenced in revision "
+                        + persistenceManagementEvent.getRevision() + " not found in revision " + referencedRevision);
+                return null;
+            }
+        }
+
         PersistenceObject persistenceObject = null;
-        for (HColumn<String, byte[]> hc : cs.getColumns()) {
-            persistenceObject = (PersistenceObject) ByteSerializer.BToO(hc.getValue());
+        try {
+            persistenceObject = (PersistenceObject) snapshotSerializer.deserialize(snapshot);
+        } catch (IOException | ClassNotFoundException e) {
+            log.error("Error restoring snapshot of node " + nodeId, e);
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Snapshot of node " + nodeId + " restored in " + snapshotSerializer.getLastDeserializationTime()
+                    + " ms");
         }
         return persistenceObject;
 
@@ -127,51 +251,163 @@ public class Casandra2PersistenceStore implements PersistenceStore {
 
     @Override
     public String getLastRevision(String executionPlanIdentifier) {
-        ColumnSlice<String, byte[]> cs;
-        String rangeStart = new StringBuffer(String.valueOf(timeAt1970.getTime())).append("_").toString();
-        boolean firstLoop = true;
-        while (true) {
-            SliceQuery<String, String, byte[]> q = HFactory.createSliceQuery(keyspace, sser, sser, bser);
-            q.setColumnFamily(INDEX_COLUMN_FAMILY_NAME).setKey(executionPlanIdentifier)
-                    .setRange(rangeStart, String.valueOf(Long.MAX_VALUE), false, 1000);
 
-            QueryResult<ColumnSlice<String, byte[]>> r = q.execute();
+        SliceQuery<String, String, String> q = HFactory.createSliceQuery(keyspace, sser, sser, sser);
+        q.setColumnFamily(INDEX_COLUMN_FAMILY_NAME).setKey(LATEST_REVISION_ROW_PREFIX + executionPlanIdentifier)
+                .setColumnNames(LATEST_REVISION_COLUMN);
 
-            cs = r.get();
-            int size = cs.getColumns().size();
-            if (firstLoop && size == 0) {
-                return null;
-            } else if (size == 0) {
-                return rangeStart;
-            } else {
-                firstLoop = false;
+        HColumn<String, String> latestRevision = q.execute().get().getColumnByName(LATEST_REVISION_COLUMN);
+        if (latestRevision != null) {
+            log.debug("found revision " + latestRevision.getValue());
+            return latestRevision.getValue();
+        }
+
+        // revisions saved before the pointer existed, revision names start
+        // with the time so the greatest one is the newest
+        String rangeEnd = new StringBuffer(String.valueOf(timeAt1970.getTime())).append("_").toString();
+        q = HFactory.createSliceQuery(keyspace, sser, sser, sser);
+        q.setColumnFamily(INDEX_COLUMN_FAMILY_NAME).setKey(executionPlanIdentifier)
+                .setRange(String.valueOf(Long.MAX_VALUE), rangeEnd, true, 1);
+
+        List<HColumn<String, String>> newest = q.execute().get().getColumns();
+        if (newest.isEmpty()) {
+            return null;
+        }
+        log.debug("found revision " + newest.get(0).getName());
+        return newest.get(0).getName();
+    }
+
+    @Override
+    public void setInsertLogSequence(Long insertLogSequence) {
+        this.insertLogSequence = insertLogSequence;
+    }
+
+    @Override
+    public Long getInsertLogSequence(String revision) {
+
+        SliceQuery<String, String, byte[]> q = HFactory.createSliceQuery(keyspace, sser, sser, bser);
+        q.setColumnFamily(COLUMN_FAMILY_NAME).setKey(revision).setColumnNames(INSERT_LOG_SEQUENCE_COLUMN);
+
+        HColumn<String, byte[]> sequence = q.execute().get().getColumnByName(INSERT_LOG_SEQUENCE_COLUMN);
+        return sequence == null ? null : LongSerializer.get().fromBytes(sequence.getValue());
+    }
+
+    /**
+     * Removes the revisions out of the retention policy, the newest revision
+     * and the ones it references are always kept.
+     * 
+     * @return number of revisions removed
+     */
+    public int pruneRevisions() {
+
+        String planIdentifier = lastExecutionPlanIdentifier;
+        if (planIdentifier == null) {
+            return 0;
+        }
+
+        List<String> expired = snapshotRetention.selectExpired(readRevisions(planIdentifier),
+                deltaSnapshots.getLiveRevisions(), System.currentTimeMillis());
+        removeRevisions(planIdentifier, expired);
+        return expired.size();
+    }
+
+    /**
+     * @return save time of every indexed revision of the plan, newest first
+     */
+    private LinkedHashMap<String, Long> readRevisions(String planIdentifier) {
+        LinkedHashMap<String, Long> revisions = new LinkedHashMap<>();
+        String rangeStart = "";
+        while (true) {
+            SliceQuery<String, String, String> q = HFactory.createSliceQuery(keyspace, sser, sser, sser);
+            q.setColumnFamily(INDEX_COLUMN_FAMILY_NAME).setKey(planIdentifier)
+                    .setRange(rangeStart, "", true, INDEX_PAGE_SIZE);
+
+            List<HColumn<String, String>> columns = q.execute().get().getColumns();
+            for (HColumn<String, String> column : columns) {
+                if (!column.getName().equals(rangeStart)) {
+                    revisions.put(column.getName(), parseSaveTime(column.getValue()));
+                }
             }
-            int lastIndex = size - 1;
-            rangeStart = cs.getColumns().get(lastIndex).getName();
-            if (size < 1000) {
+            if (columns.size() < INDEX_PAGE_SIZE) {
                 break;
             }
+            rangeStart = columns.get(columns.size() - 1).getName();
+        }
+        return revisions;
+    }
+
+    private static long parseSaveTime(String saveTime) {
+        try {
+            return Long.parseLong(saveTime);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private synchronized void startRetention() {
+        if (retentionExecutor != null) {
+            return;
         }
-        log.debug("found revision " + rangeStart);
-        return rangeStart;
+        retentionExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setDaemon(true)
+                .setNameFormat("stratio-snapshot-retention-%d").build());
+        retentionExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    pruneRevisions();
+                } catch (RuntimeException e) {
+                    log.error("Error removing old snapshot revisions", e);
+                }
+            }
+        }, RETENTION_INTERVAL, RETENTION_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public long getWrittenBytes() {
+        return writtenBytes.get();
+    }
+
+    public SnapshotSerializer getSnapshotSerializer() {
+        return snapshotSerializer;
+    }
+
+    @Override
+    public void setSnapshotSerializer(SnapshotSerializer snapshotSerializer) {
+        this.snapshotSerializer = snapshotSerializer;
+    }
+
+    @Override
+    public void setSnapshotRetention(SnapshotRetention snapshotRetention) {
+        this.snapshotRetention = snapshotRetention;
+    }
+
+    public DeltaSnapshots getDeltaSnapshots() {
+        return deltaSnapshots;
+    }
+
+    @Override
+    public void setDeltaSnapshots(DeltaSnapshots deltaSnapshots) {
+        this.deltaSnapshots = deltaSnapshots;
     }
 
+    @Override
     public void saveExecutionPlan(String executionPlan) {
         Mutator<String> mutator = HFactory.createMutator(keyspace, sser);
 
-        mutator.addInsertion("savedExecutionPlan", EXECUTION_PLAN_COLUMN_FAMILY_NAME,
+        mutator.addInsertion(executionPlanRowKey(queryPlanIdentifier), EXECUTION_PLAN_COLUMN_FAMILY_NAME,
                 HFactory.createColumn("executionPlan", executionPlan, StringSerializer.get(), StringSerializer.get()));
 
         mutator.execute();
     }
 
+    @Override
     public String recoverLastExecutionPlan(String executionPlanIdentifier) {
 
         String executionPlan = "";
 
         SliceQuery<String, String, String> q = HFactory.createSliceQuery(keyspace, sser, sser, sser);
-        q.setColumnFamily(EXECUTION_PLAN_COLUMN_FAMILY_NAME).setKey("savedExecutionPlan").setRange("", "", false, 1000)
-                .setColumnNames("executionPlan");
+        q.setColumnFamily(EXECUTION_PLAN_COLUMN_FAMILY_NAME).setKey(executionPlanRowKey(executionPlanIdentifier))
+                .setRange("", "", false, 1000).setColumnNames("executionPlan");
 
         QueryResult<ColumnSlice<String, String>> r = q.execute();
 
@@ -183,13 +419,22 @@ public class Casandra2PersistenceStore implements PersistenceStore {
 
     }
 
+    /**
+     * Removes the revisions and the execution plan of this engine, the ones
+     * of other engines sharing the keyspace are kept.
+     */
+    @Override
     public void removeAllRevisions() {
 
-        if (cluster.describeKeyspace(KEYSPACE) != null) {
-            cluster.truncate(KEYSPACE, COLUMN_FAMILY_NAME);
-            cluster.truncate(KEYSPACE, INDEX_COLUMN_FAMILY_NAME);
-            cluster.truncate(KEYSPACE, EXECUTION_PLAN_COLUMN_FAMILY_NAME);
+        Mutator<String> mutator = HFactory.createMutator(keyspace, sser);
+        for (String revision : readRevisions(queryPlanIdentifier).keySet()) {
+            mutator.addDeletion(revision, COLUMN_FAMILY_NAME);
         }
+        mutator.addDeletion(queryPlanIdentifier, INDEX_COLUMN_FAMILY_NAME);
+        mutator.addDeletion(LATEST_REVISION_ROW_PREFIX + queryPlanIdentifier, INDEX_COLUMN_FAMILY_NAME);
+        mutator.addDeletion(executionPlanRowKey(queryPlanIdentifier), EXECUTION_PLAN_COLUMN_FAMILY_NAME);
+        mutator.execute();
+        deltaSnapshots.reset();
 
     }
 
@@ -0,0 +1,83 @@
+/**
+ * Copyright (C) 2014 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.streaming.streams;
+
+import java.util.Collection;
+import java.util.Map.Entry;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * Consistent hashing of stream names over the engine nodes. Every node is
+ * placed several times in the ring, so adding or removing a node only moves
+ * the streams of its own segments.
+ */
+public class ConsistentHashRing {
+
+    public static final int DEFAULT_VIRTUAL_NODES = 128;
+
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    private final TreeMap<Long, String> ring = new TreeMap<>();
+    private final SortedSet<String> nodes = new TreeSet<>();
+
+    public ConsistentHashRing(Collection<String> nodes) {
+        this(nodes, DEFAULT_VIRTUAL_NODES);
+    }
+
+    public ConsistentHashRing(Collection<String> nodes, int virtualNodes) {
+        if (virtualNodes <= 0) {
+            throw new IllegalArgumentException("Virtual nodes must be positive");
+        }
+        for (String node : nodes) {
+            this.nodes.add(node);
+            for (int i = 0; i < virtualNodes; i++) {
+                ring.put(hash(node + "#" + i), node);
+            }
+        }
+    }
+
+    /**
+     * @return the node owning the key, or null if the ring is empty
+     */
+    public String getNode(String key) {
+        if (ring.isEmpty()) {
+            return null;
+        }
+        Entry<Long, String> entry = ring.ceilingEntry(hash(key));
+        if (entry == null) {
+            entry = ring.firstEntry();
+        }
+        return entry.getValue();
+    }
+
+    public SortedSet<String> getNodes() {
+        return nodes;
+    }
+
+    public boolean contains(String node) {
+        return nodes.contains(node);
+    }
+
+    private static long hash(String key) {
+        return HASH.hashString(key, Charsets.UTF_8).asLong();
+    }
+}
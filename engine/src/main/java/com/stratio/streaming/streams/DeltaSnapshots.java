@@ -0,0 +1,174 @@
+/**
+ * Copyright (C) 2014 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.streaming.streams;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+
+/**
+ * Keeps track of the state written by every snapshot element, so a revision
+ * only writes the elements whose state has changed. The unchanged ones are
+ * stored as a reference to the revision holding their state.
+ *
+ * Every fullSnapshotInterval revisions all the elements are written again,
+ * and once that full revision is complete the previous revisions are no
+ * longer referenced and can be compacted.
+ */
+public class DeltaSnapshots {
+
+    public static final int DEFAULT_FULL_SNAPSHOT_INTERVAL = 10;
+
+    private static final byte REFERENCE_MAGIC_0 = 'S';
+    private static final byte REFERENCE_MAGIC_1 = 'R';
+
+    private final int fullSnapshotInterval;
+
+    private final Map<String, WrittenState> writtenStates = new HashMap<>();
+    private final List<String> liveRevisions = new ArrayList<>();
+    private final List<String> compactableRevisions = new ArrayList<>();
+
+    private String currentRevision;
+    private boolean currentRevisionFull;
+    private long revisions;
+
+    private final AtomicLong writtenElements = new AtomicLong();
+    private final AtomicLong unchangedElements = new AtomicLong();
+
+    public DeltaSnapshots(int fullSnapshotInterval) {
+        if (fullSnapshotInterval <= 0) {
+            throw new IllegalArgumentException("Full snapshot interval must be positive");
+        }
+        this.fullSnapshotInterval = fullSnapshotInterval;
+    }
+
+    /**
+     * @return the revision already holding this state of the element, or
+     *         null if it has to be written in the given revision
+     */
+    public synchronized String findUnchanged(String revision, String nodeId, byte[] state) {
+        if (!revision.equals(currentRevision)) {
+            startRevision(revision);
+        }
+
+        long hash = Hashing.murmur3_128().hashBytes(state).asLong();
+        WrittenState written = writtenStates.get(nodeId);
+        if (!currentRevisionFull && written != null && written.hash == hash && written.length == state.length) {
+            unchangedElements.incrementAndGet();
+            return written.revision;
+        }
+
+        writtenStates.put(nodeId, new WrittenState(revision, hash, state.length));
+        writtenElements.incrementAndGet();
+        return null;
+    }
+
+    private void startRevision(String revision) {
+        if (currentRevisionFull && liveRevisions.size() > 1) {
+            // the full revision is complete, nothing references the older
+            // ones
+            List<String> older = liveRevisions.subList(0, liveRevisions.size() - 1);
+            compactableRevisions.addAll(older);
+            older.clear();
+        }
+
+        currentRevision = revision;
+        currentRevisionFull = revisions % fullSnapshotInterval == 0;
+        revisions++;
+        liveRevisions.add(revision);
+    }
+
+    /**
+     * @return the revisions that can be removed since the last call
+     */
+    public synchronized List<String> takeCompactableRevisions() {
+        if (compactableRevisions.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<String> revisionsToRemove = new ArrayList<>(compactableRevisions);
+        compactableRevisions.clear();
+        return revisionsToRemove;
+    }
+
+    /**
+     * @return the revisions the newest one may reference
+     */
+    public synchronized List<String> getLiveRevisions() {
+        return new ArrayList<>(liveRevisions);
+    }
+
+    /**
+     * Forgets the written states, the next revision is a full one.
+     */
+    public synchronized void reset() {
+        writtenStates.clear();
+        liveRevisions.clear();
+        compactableRevisions.clear();
+        currentRevision = null;
+        currentRevisionFull = false;
+        revisions = 0;
+    }
+
+    public static byte[] reference(String revision) {
+        byte[] name = revision.getBytes(Charsets.UTF_8);
+        byte[] reference = new byte[name.length + 2];
+        reference[0] = REFERENCE_MAGIC_0;
+        reference[1] = REFERENCE_MAGIC_1;
+        System.arraycopy(name, 0, reference, 2, name.length);
+        return reference;
+    }
+
+    /**
+     * @return the revision referenced, or null if the value is a snapshot
+     */
+    public static String referencedRevision(byte[] value) {
+        if (value.length < 2 || value[0] != REFERENCE_MAGIC_0 || value[1] != REFERENCE_MAGIC_1) {
+            return null;
+        }
+        return new String(value, 2, value.length - 2, Charsets.UTF_8);
+    }
+
+    public int getFullSnapshotInterval() {
+        return fullSnapshotInterval;
+    }
+
+    public long getWrittenElements() {
+        return writtenElements.get();
+    }
+
+    public long getUnchangedElements() {
+        return unchangedElements.get();
+    }
+
+    private static class WrittenState {
+
+        private final String revision;
+        private final long hash;
+        private final int length;
+
+        private WrittenState(String revision, long hash, int length) {
+            this.revision = revision;
+            this.hash = hash;
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+/**
+ * Copyright (C) 2014 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.streaming.streams;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.stratio.streaming.commons.constants.StreamAction;
+
+/**
+ * Streams, queries and enabled actions of one siddhi engine, saved next to
+ * its snapshots so a restarted engine gets back the same catalog: the query
+ * ids known by the clients and the sinks of every stream.
+ *
+ * Saved as versioned json, plans saved by older engines as a plain siddhi
+ * execution plan are not structured and have to be added as they are.
+ */
+public class ExecutionPlanSnapshot {
+
+    public static final int FORMAT_VERSION = 1;
+
+    private static final Gson GSON = new Gson();
+
+    private int version = FORMAT_VERSION;
+    private List<StreamPlan> streams = new ArrayList<>();
+
+    public static class StreamPlan {
+        private String name;
+        private String definition;
+        private boolean userDefined;
+        private List<StreamAction> actions = new ArrayList<>();
+        private TreeMap<String, QueryPlan> queries = new TreeMap<>();
+
+        public String getName() {
+            return name;
+        }
+
+        public String getDefinition() {
+            return definition;
+        }
+
+        public boolean isUserDefined() {
+            return userDefined;
+        }
+
+        public List<StreamAction> getActions() {
+            return actions;
+        }
+
+        /**
+         * @return queries by the id known by the clients
+         */
+        public TreeMap<String, QueryPlan> getQueries() {
+            return queries;
+        }
+    }
+
+    public static class QueryPlan {
+        private String query;
+        private int references;
+
+        public String getQuery() {
+            return query;
+        }
+
+        public int getReferences() {
+            return references;
+        }
+    }
+
+    /**
+     * Takes the streams of the catalog, sorted so the same catalog always
+     * gives the same plan.
+     */
+    public static ExecutionPlanSnapshot fromStreamStatus(Collection<StreamStatusDTO> streamStatuses) {
+        ExecutionPlanSnapshot snapshot = new ExecutionPlanSnapshot();
+        for (StreamStatusDTO streamStatus : streamStatuses) {
+            StreamPlan stream = new StreamPlan();
+            stream.name = streamStatus.getStreamName();
+            stream.definition = streamStatus.getStreamDefinition();
+            stream.userDefined = Boolean.TRUE.equals(streamStatus.isUserDefined());
+            stream.actions.addAll(streamStatus.getActionsEnabled());
+            Collections.sort(stream.actions);
+            for (Entry<String, QueryDTO> addedQuery : streamStatus.getAddedQueries().entrySet()) {
+                QueryPlan query = new QueryPlan();
+                query.query = addedQuery.getValue().getQueryRaw();
+                query.references = addedQuery.getValue().getReferences();
+                stream.queries.put(addedQuery.getKey(), query);
+            }
+            snapshot.streams.add(stream);
+        }
+        Collections.sort(snapshot.streams, new Comparator<StreamPlan>() {
+            @Override
+            public int compare(StreamPlan first, StreamPlan second) {
+                return first.name.compareTo(second.name);
+            }
+        });
+        return snapshot;
+    }
+
+    /**
+     * @return true if the plan has been saved by this class, false for plain
+     *         siddhi execution plans
+     */
+    public static boolean isStructured(String executionPlan) {
+        return executionPlan != null && executionPlan.trim().startsWith("{");
+    }
+
+    /**
+     * @throws IllegalArgumentException
+     *             if the plan is malformed or has been saved by a newer
+     *             version
+     */
+    public static ExecutionPlanSnapshot fromJson(String executionPlan) {
+        ExecutionPlanSnapshot snapshot;
+        try {
+            snapshot = GSON.fromJson(executionPlan, ExecutionPlanSnapshot.class);
+        } catch (JsonParseException e) {
+            throw new IllegalArgumentException("Malformed execution plan", e);
+        }
+        if (snapshot == null || snapshot.streams == null) {
+            throw new IllegalArgumentException("Malformed execution plan");
+        }
+        if (snapshot.version > FORMAT_VERSION) {
+            throw new IllegalArgumentException("Unsupported execution plan version " + snapshot.version);
+        }
+        return snapshot;
+    }
+
+    public String toJson() {
+        return GSON.toJson(this);
+    }
+
+    /**
+     * Builds the catalog entry of a restored stream, the siddhi ids of its
+     * queries have to be set once they are added.
+     */
+    public static StreamStatusDTO toStreamStatus(StreamPlan stream) {
+        StreamStatusDTO streamStatus = new StreamStatusDTO(stream.name, stream.userDefined);
+        streamStatus.setStreamDefinition(stream.definition);
+        for (StreamAction action : stream.actions) {
+            streamStatus.enableAction(action);
+        }
+        for (Entry<String, QueryPlan> query : stream.queries.entrySet()) {
+            QueryDTO queryDTO = new QueryDTO(query.getValue().query);
+            for (int i = 1; i < query.getValue().references; i++) {
+                queryDTO.retain();
+            }
+            streamStatus.getAddedQueries().put(query.getKey(), queryDTO);
+        }
+        return streamStatus;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public List<StreamPlan> getStreams() {
+        return streams;
+    }
+}
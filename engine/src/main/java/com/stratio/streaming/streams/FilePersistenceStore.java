@@ -0,0 +1,599 @@
+/**
+ * Copyright (C) 2014 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.streaming.streams;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import org.apache.log4j.Logger;
+import org.wso2.siddhi.core.event.management.PersistenceManagementEvent;
+import org.wso2.siddhi.core.persistence.PersistenceObject;
+
+/**
+ * Persistence store keeping the snapshots of one siddhi engine in local
+ * files, for the nodes running the failover without cassandra.
+ *
+ * Snapshots are appended to segment files, each record checksummed so a
+ * record half written by a crash is discarded when the store is opened
+ * again. The location of every snapshot is kept in memory and the snapshots
+ * are read through memory mapped buffers. Segments are deleted once none of
+ * their revisions is kept by the retention policy.
+ */
+public class FilePersistenceStore implements StreamingPersistenceStore {
+    private static Logger log = Logger.getLogger(FilePersistenceStore.class);
+
+    public static final long DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private static final String SEGMENT_PREFIX = "snapshots-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String EXECUTION_PLAN_FILE = "execution-plan";
+
+    private static final int RECORD_MAGIC = 0x53524543;
+    private static final byte SNAPSHOT_RECORD = 1;
+    private static final byte REMOVAL_RECORD = 2;
+    // snapshot with the insert log sequence of its revision
+    private static final byte LOGGED_SNAPSHOT_RECORD = 3;
+    // magic and body length
+    private static final int RECORD_HEADER_BYTES = 8;
+    private static final int RECORD_CRC_BYTES = 8;
+
+    private final File directory;
+    private final boolean fsync;
+    private final long segmentSize;
+
+    private SnapshotSerializer snapshotSerializer = new SnapshotSerializer(SnapshotCompression.SNAPPY);
+    private DeltaSnapshots deltaSnapshots = new DeltaSnapshots(DeltaSnapshots.DEFAULT_FULL_SNAPSHOT_INTERVAL);
+    private SnapshotRetention snapshotRetention = new SnapshotRetention(SnapshotRetention.DEFAULT_MAX_REVISIONS,
+            SnapshotRetention.DEFAULT_MAX_AGE);
+
+    // oldest first
+    private final LinkedHashMap<String, Revision> revisions = new LinkedHashMap<>();
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private Segment activeSegment;
+    private String lastRevision;
+    private Long insertLogSequence;
+    private final AtomicLong writtenBytes = new AtomicLong();
+
+    private static class Revision {
+        private final long saveTime;
+        private final Map<String, SnapshotLocation> snapshots = new HashMap<>();
+        private Long insertLogSequence;
+
+        private Revision(long saveTime) {
+            this.saveTime = saveTime;
+        }
+    }
+
+    private static class SnapshotLocation {
+        private final Segment segment;
+        private final long position;
+        private final int length;
+
+        private SnapshotLocation(Segment segment, long position, int length) {
+            this.segment = segment;
+            this.position = position;
+            this.length = length;
+        }
+    }
+
+    private static class Segment {
+        private final long sequence;
+        private final File file;
+        private RandomAccessFile writer;
+        private MappedByteBuffer mapped;
+        private long size;
+        private int liveSnapshots;
+
+        private Segment(long sequence, File file) {
+            this.sequence = sequence;
+            this.file = file;
+        }
+    }
+
+    public FilePersistenceStore(String directory, String queryPlanIdentifier, boolean fsync) {
+        this(new File(directory, queryPlanIdentifier), fsync, DEFAULT_SEGMENT_SIZE);
+    }
+
+    public FilePersistenceStore(File directory, boolean fsync, long segmentSize) {
+        this.directory = directory;
+        this.fsync = fsync;
+        this.segmentSize = segmentSize;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalStateException("Cannot create snapshots directory " + directory);
+        }
+        try {
+            recover();
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot open snapshots directory " + directory, e);
+        }
+    }
+
+    /**
+     * Rebuilds the index from the segments, truncating the records left
+     * incomplete by a crash.
+     */
+    private void recover() throws IOException {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                    long sequence = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length()
+                            - SEGMENT_SUFFIX.length()));
+                    segments.put(sequence, new Segment(sequence, file));
+                }
+            }
+        }
+
+        for (Segment segment : segments.values()) {
+            long validBytes = scan(segment);
+            if (validBytes < segment.file.length()) {
+                log.warn("Discarding " + (segment.file.length() - validBytes) + " bytes of incomplete snapshots in "
+                        + segment.file);
+                try (RandomAccessFile file = new RandomAccessFile(segment.file, "rw")) {
+                    file.setLength(validBytes);
+                }
+            }
+            segment.size = validBytes;
+        }
+
+        if (segments.isEmpty()) {
+            activeSegment = newSegment(0);
+        } else {
+            activeSegment = segments.lastEntry().getValue();
+            openWriter(activeSegment);
+        }
+        removeDeadSegments();
+
+        log.info("Recovered " + revisions.size() + " snapshot revisions from " + directory);
+    }
+
+    /**
+     * @return bytes of the segment holding complete records
+     */
+    private long scan(Segment segment) throws IOException {
+        long position = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(segment.file)))) {
+            while (true) {
+                if (in.readInt() != RECORD_MAGIC) {
+                    return position;
+                }
+                int bodyLength = in.readInt();
+                if (bodyLength <= 0 || position + RECORD_HEADER_BYTES + bodyLength > segment.file.length()) {
+                    return position;
+                }
+                byte[] body = new byte[bodyLength];
+                in.readFully(body);
+                CRC32 crc = new CRC32();
+                crc.update(body);
+                if (in.readLong() != crc.getValue()) {
+                    return position;
+                }
+
+                DataInputStream record = new DataInputStream(new ByteArrayInputStream(body));
+                byte type = record.readByte();
+                long saveTime = record.readLong();
+                String revision = record.readUTF();
+                if (type == SNAPSHOT_RECORD || type == LOGGED_SNAPSHOT_RECORD) {
+                    String nodeId = record.readUTF();
+                    Long sequence = type == LOGGED_SNAPSHOT_RECORD ? record.readLong() : null;
+                    int length = record.readInt();
+                    long dataPosition = position + RECORD_HEADER_BYTES + bodyLength - length;
+                    index(revision, saveTime, nodeId, sequence, new SnapshotLocation(segment, dataPosition, length));
+                } else if (type == REMOVAL_RECORD) {
+                    unindex(revision);
+                }
+                position += RECORD_HEADER_BYTES + bodyLength + RECORD_CRC_BYTES;
+            }
+        } catch (EOFException e) {
+            return position;
+        }
+    }
+
+    private void index(String revision, long saveTime, String nodeId, Long insertLogSequence,
+            SnapshotLocation location) {
+        Revision entry = revisions.get(revision);
+        if (entry == null) {
+            entry = new Revision(saveTime);
+            revisions.put(revision, entry);
+        }
+        if (insertLogSequence != null) {
+            entry.insertLogSequence = insertLogSequence;
+        }
+        SnapshotLocation replaced = entry.snapshots.put(nodeId, location);
+        if (replaced != null) {
+            replaced.segment.liveSnapshots--;
+        }
+        location.segment.liveSnapshots++;
+        lastRevision = revision;
+    }
+
+    private void unindex(String revision) {
+        Revision entry = revisions.remove(revision);
+        if (entry != null) {
+            for (SnapshotLocation location : entry.snapshots.values()) {
+                location.segment.liveSnapshots--;
+            }
+        }
+        if (revision.equals(lastRevision)) {
+            lastRevision = null;
+            for (String remaining : revisions.keySet()) {
+                lastRevision = remaining;
+            }
+        }
+    }
+
+    @Override
+    public synchronized void save(PersistenceManagementEvent persistenceManagementEvent, String nodeID,
+            PersistenceObject persistenceObject) {
+
+        byte[] snapshot;
+        try {
+            snapshot = snapshotSerializer.serialize(persistenceObject);
+        } catch (IOException e) {
+            log.error("Error serializing snapshot of node " + nodeID, e);
+            return;
+        }
+
+        String revision = persistenceManagementEvent.getRevision();
+        boolean newRevision = !revision.equals(lastRevision);
+
+        // unchanged state is written as a reference to the revision holding
+        // it
+        String unchangedRevision = deltaSnapshots.findUnchanged(revision, nodeID, snapshot);
+        if (unchangedRevision != null) {
+            snapshot = DeltaSnapshots.reference(unchangedRevision);
+        }
+
+        try {
+            long saveTime = System.currentTimeMillis();
+            ByteArrayOutputStream body = new ByteArrayOutputStream(snapshot.length + 64);
+            DataOutputStream out = new DataOutputStream(body);
+            // the sequence goes in the checksummed record of the snapshot
+            out.writeByte(insertLogSequence == null ? SNAPSHOT_RECORD : LOGGED_SNAPSHOT_RECORD);
+            out.writeLong(saveTime);
+            out.writeUTF(revision);
+            out.writeUTF(nodeID);
+            if (insertLogSequence != null) {
+                out.writeLong(insertLogSequence);
+            }
+            out.writeInt(snapshot.length);
+            out.write(snapshot);
+
+            long position = append(body.toByteArray());
+            long dataPosition = position + RECORD_HEADER_BYTES + body.size() - snapshot.length;
+            index(revision, saveTime, nodeID, insertLogSequence, new SnapshotLocation(activeSegment, dataPosition,
+                    snapshot.length));
+            writtenBytes.addAndGet(snapshot.length);
+
+            // replaced by a full snapshot
+            removeRevisions(deltaSnapshots.takeCompactableRevisions());
+            if (newRevision) {
+                pruneRevisions();
+            }
+        } catch (IOException e) {
+            log.error("Error writing snapshot of node " + nodeID + " in " + directory, e);
+        }
+    }
+
+    /**
+     * @return position of the record in the active segment
+     */
+    private long append(byte[] body) throws IOException {
+        if (activeSegment.size > 0 && activeSegment.size + body.length > segmentSize) {
+            roll();
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_BYTES + body.length + RECORD_CRC_BYTES);
+        record.putInt(RECORD_MAGIC).putInt(body.length).put(body).putLong(crc.getValue());
+        record.flip();
+
+        long position = activeSegment.size;
+        FileChannel channel = activeSegment.writer.getChannel();
+        while (record.hasRemaining()) {
+            channel.write(record, activeSegment.size + record.position());
+        }
+        if (fsync) {
+            channel.force(false);
+        }
+        activeSegment.size += record.limit();
+        return position;
+    }
+
+    private void roll() throws IOException {
+        activeSegment.writer.close();
+        activeSegment.writer = null;
+        activeSegment = newSegment(activeSegment.sequence + 1);
+    }
+
+    private Segment newSegment(long sequence) throws IOException {
+        Segment segment = new Segment(sequence, new File(directory, String.format("%s%016d%s", SEGMENT_PREFIX,
+                sequence, SEGMENT_SUFFIX)));
+        openWriter(segment);
+        segments.put(sequence, segment);
+        return segment;
+    }
+
+    private void openWriter(Segment segment) throws IOException {
+        segment.writer = new RandomAccessFile(segment.file, "rw");
+    }
+
+    private void removeRevisions(List<String> removed) throws IOException {
+        if (removed.isEmpty()) {
+            return;
+        }
+        for (String revision : removed) {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(body);
+            out.writeByte(REMOVAL_RECORD);
+            out.writeLong(System.currentTimeMillis());
+            out.writeUTF(revision);
+            append(body.toByteArray());
+            unindex(revision);
+        }
+        removeDeadSegments();
+
+        log.debug("Removed " + removed.size() + " snapshot revisions");
+    }
+
+    /**
+     * Deletes the sealed segments without any live snapshot.
+     */
+    private void removeDeadSegments() {
+        Iterator<Segment> iterator = segments.values().iterator();
+        while (iterator.hasNext()) {
+            Segment segment = iterator.next();
+            if (segment != activeSegment && segment.liveSnapshots <= 0) {
+                iterator.remove();
+                segment.mapped = null;
+                if (!segment.file.delete()) {
+                    log.warn("Cannot delete snapshot segment " + segment.file);
+                }
+            }
+        }
+    }
+
+    private byte[] loadSnapshot(String revision, String nodeId) throws IOException {
+        Revision entry = revisions.get(revision);
+        SnapshotLocation location = entry == null ? null : entry.snapshots.get(nodeId);
+        if (location == null) {
+            return null;
+        }
+
+        byte[] snapshot = new byte[location.length];
+        Segment segment = location.segment;
+        if (segment == activeSegment) {
+            // still growing, only the region of the snapshot is mapped
+            segment.writer.getChannel().map(FileChannel.MapMode.READ_ONLY, location.position, location.length)
+                    .get(snapshot);
+        } else {
+            if (segment.mapped == null) {
+                try (RandomAccessFile file = new RandomAccessFile(segment.file, "r")) {
+                    segment.mapped = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, segment.size);
+                }
+            }
+            ByteBuffer view = segment.mapped.duplicate();
+            view.position((int) location.position);
+            view.get(snapshot);
+        }
+        return snapshot;
+    }
+
+    @Override
+    public synchronized PersistenceObject load(PersistenceManagementEvent persistenceManagementEvent, String nodeId) {
+
+        try {
+            byte[] snapshot = loadSnapshot(persistenceManagementEvent.getRevision(), nodeId);
+            if (snapshot == null) {
+                return null;
+            }
+
+            // the state was unchanged in this revision
+            String referencedRevision = DeltaSnapshots.referencedRevision(snapshot);
+            if (referencedRevision != null) {
+                snapshot = loadSnapshot(referencedRevision, nodeId);
+                if (snapshot == null) {
+                    log.error("Snapshot of node " + nodeId + " referenced in revision "
+                            + persistenceManagementEvent.getRevision() + " not found in revision "
+                            + referencedRevision);
+                    return null;
+                }
+            }
+
+            return (PersistenceObject) snapshotSerializer.deserialize(snapshot);
+        } catch (IOException | ClassNotFoundException e) {
+            log.error("Error restoring snapshot of node " + nodeId, e);
+            return null;
+        }
+    }
+
+    @Override
+    public synchronized String getLastRevision(String executionPlanIdentifier) {
+        return lastRevision;
+    }
+
+    @Override
+    public synchronized void setInsertLogSequence(Long insertLogSequence) {
+        this.insertLogSequence = insertLogSequence;
+    }
+
+    @Override
+    public synchronized Long getInsertLogSequence(String revision) {
+        Revision entry = revisions.get(revision);
+        return entry == null ? null : entry.insertLogSequence;
+    }
+
+    /**
+     * Removes the revisions out of the retention policy, the newest revision
+     * and the ones it references are always kept.
+     * 
+     * @return number of revisions removed
+     */
+    public synchronized int pruneRevisions() {
+        // newest first
+        LinkedHashMap<String, Long> saveTimes = new LinkedHashMap<>();
+        List<Map.Entry<String, Revision>> oldestFirst = new ArrayList<>(revisions.entrySet());
+        ListIterator<Map.Entry<String, Revision>> iterator = oldestFirst.listIterator(oldestFirst.size());
+        while (iterator.hasPrevious()) {
+            Map.Entry<String, Revision> revision = iterator.previous();
+            saveTimes.put(revision.getKey(), revision.getValue().saveTime);
+        }
+
+        List<String> expired = snapshotRetention.selectExpired(saveTimes, deltaSnapshots.getLiveRevisions(),
+                System.currentTimeMillis());
+        try {
+            removeRevisions(expired);
+        } catch (IOException e) {
+            log.error("Error removing old snapshot revisions in " + directory, e);
+            return 0;
+        }
+        return expired.size();
+    }
+
+    @Override
+    public synchronized void saveExecutionPlan(String executionPlan) {
+        File target = new File(directory, EXECUTION_PLAN_FILE);
+        File temporary = new File(directory, EXECUTION_PLAN_FILE + ".tmp");
+        try {
+            try (RandomAccessFile file = new RandomAccessFile(temporary, "rw")) {
+                file.setLength(0);
+                file.write(executionPlan.getBytes(StandardCharsets.UTF_8));
+                if (fsync) {
+                    file.getChannel().force(true);
+                }
+            }
+            Files.move(temporary.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.error("Error saving execution plan in " + directory, e);
+        }
+    }
+
+    @Override
+    public synchronized String recoverLastExecutionPlan(String executionPlanIdentifier) {
+        File file = new File(directory, EXECUTION_PLAN_FILE);
+        if (!file.exists()) {
+            return "";
+        }
+        try {
+            return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            log.error("Error reading execution plan in " + directory, e);
+            return "";
+        }
+    }
+
+    @Override
+    public synchronized void removeAllRevisions() {
+        try {
+            activeSegment.writer.close();
+        } catch (IOException e) {
+            log.warn("Error closing snapshot segment " + activeSegment.file, e);
+        }
+        for (Segment segment : segments.values()) {
+            segment.mapped = null;
+            segment.file.delete();
+        }
+        segments.clear();
+        revisions.clear();
+        lastRevision = null;
+        new File(directory, EXECUTION_PLAN_FILE).delete();
+        deltaSnapshots.reset();
+
+        try {
+            activeSegment = newSegment(0);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot open snapshots directory " + directory, e);
+        }
+    }
+
+    public synchronized void close() {
+        try {
+            activeSegment.writer.close();
+        } catch (IOException e) {
+            log.warn("Error closing snapshot segment " + activeSegment.file, e);
+        }
+    }
+
+    /**
+     * @return revisions kept, oldest first
+     */
+    public synchronized List<String> getRevisions() {
+        return new ArrayList<>(revisions.keySet());
+    }
+
+    @Override
+    public long getWrittenBytes() {
+        return writtenBytes.get();
+    }
+
+    public synchronized int getSegments() {
+        return segments.size();
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public SnapshotSerializer getSnapshotSerializer() {
+        return snapshotSerializer;
+    }
+
+    @Override
+    public synchronized void setSnapshotSerializer(SnapshotSerializer snapshotSerializer) {
+        this.snapshotSerializer = snapshotSerializer;
+    }
+
+    public DeltaSnapshots getDeltaSnapshots() {
+        return deltaSnapshots;
+    }
+
+    @Override
+    public synchronized void setDeltaSnapshots(DeltaSnapshots deltaSnapshots) {
+        this.deltaSnapshots = deltaSnapshots;
+    }
+
+    @Override
+    public synchronized void setSnapshotRetention(SnapshotRetention snapshotRetention) {
+        this.snapshotRetention = snapshotRetention;
+    }
+}
@@ -0,0 +1,447 @@
+/**
+ * Copyright (C) 2014 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.streaming.streams;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Write-ahead log of the events inserted into one siddhi engine, so the
+ * events inserted after the last snapshot can be replayed after a crash.
+ *
+ * Every insert is logged and handed to siddhi holding the insert lock, and
+ * snapshots are taken holding the checkpoint lock once the input queues are
+ * empty, so the state of a snapshot holds exactly the events logged up to its
+ * sequence. The ids of the logged requests are remembered to skip the
+ * requests delivered again by kafka after a restart.
+ *
+ * The events of a bulk insert are logged in a single record, so a crash never
+ * leaves only a part of them in the log.
+ */
+public class InsertLog {
+
+    private static Logger logger = LoggerFactory.getLogger(InsertLog.class);
+
+    public static final int DEFAULT_REMEMBERED_REQUESTS = 100000;
+
+    private static final String SEGMENT_PREFIX = "inserts-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final long DRAIN_TIMEOUT = TimeUnit.SECONDS.toMillis(30);
+
+    private static final byte NULL = 0;
+    private static final byte STRING = 1;
+    private static final byte INTEGER = 2;
+    private static final byte LONG = 3;
+    private static final byte FLOAT = 4;
+    private static final byte DOUBLE = 5;
+    private static final byte BOOLEAN = 6;
+
+    public interface EntryHandler {
+        void apply(long sequence, String streamName, Object[] event) throws Exception;
+    }
+
+    private final File directory;
+    private final boolean fsync;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Boolean> recentRequests;
+
+    // first sequence of every segment
+    private final TreeMap<Long, File> segments = new TreeMap<>();
+    private FileOutputStream activeSegment;
+    private long lastSequence;
+    private long duplicates;
+
+    private volatile StreamInputQueues inputQueues;
+
+    public InsertLog(File directory, boolean fsync) {
+        this(directory, fsync, DEFAULT_REMEMBERED_REQUESTS);
+    }
+
+    public InsertLog(File directory, boolean fsync, final int rememberedRequests) {
+        this.directory = directory;
+        this.fsync = fsync;
+        this.recentRequests = new LinkedHashMap<String, Boolean>() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > rememberedRequests;
+            }
+        };
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalStateException("Cannot create insert log directory " + directory);
+        }
+        try {
+            recover();
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot open insert log " + directory, e);
+        }
+    }
+
+    private void recover() throws IOException {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                    segments.put(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length()
+                            - SEGMENT_SUFFIX.length())), file);
+                }
+            }
+        }
+
+        for (File segment : segments.values()) {
+            long validBytes = read(segment, 0, new EntryHandler() {
+                @Override
+                public void apply(long sequence, String streamName, Object[] event) {
+                }
+            });
+            if (validBytes < segment.length()) {
+                logger.warn("Discarding " + (segment.length() - validBytes) + " bytes of incomplete inserts in "
+                        + segment);
+                try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+                    file.setLength(validBytes);
+                }
+            }
+        }
+        roll();
+    }
+
+    /**
+     * Lock held while an insert is logged and handed to siddhi.
+     */
+    public Lock getInsertLock() {
+        return lock.readLock();
+    }
+
+    /**
+     * Lock held while the snapshot of the logged inserts is taken.
+     */
+    public Lock getCheckpointLock() {
+        return lock.writeLock();
+    }
+
+    /**
+     * Queues whose events have to reach siddhi before a snapshot.
+     */
+    public void setInputQueues(StreamInputQueues inputQueues) {
+        this.inputQueues = inputQueues;
+    }
+
+    /**
+     * @return false if the request has already been logged
+     */
+    public synchronized boolean append(String requestId, String streamName, Object[] event) throws IOException {
+        return append(requestId, streamName, Collections.singletonList(event));
+    }
+
+    /**
+     * Logs the events of a bulk insert, taking one sequence per event.
+     * 
+     * @return false if the request has already been logged
+     */
+    public synchronized boolean append(String requestId, String streamName, List<Object[]> events)
+            throws IOException {
+        if (requestId != null && recentRequests.containsKey(requestId)) {
+            duplicates++;
+            return false;
+        }
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream(64 * events.size());
+        DataOutputStream out = new DataOutputStream(body);
+        out.writeLong(lastSequence + 1);
+        out.writeUTF(requestId == null ? "" : requestId);
+        out.writeUTF(streamName);
+        if (events.size() == 1) {
+            writeEvent(out, events.get(0));
+        } else {
+            // a negative length marks the records holding several events
+            out.writeInt(-events.size());
+            for (Object[] event : events) {
+                writeEvent(out, event);
+            }
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(body.toByteArray());
+        DataOutputStream record = new DataOutputStream(activeSegment);
+        record.writeInt(body.size());
+        body.writeTo(record);
+        record.writeLong(crc.getValue());
+        record.flush();
+        if (fsync) {
+            activeSegment.getFD().sync();
+        }
+
+        lastSequence += events.size();
+        if (requestId != null) {
+            recentRequests.put(requestId, Boolean.TRUE);
+        }
+        return true;
+    }
+
+    /**
+     * Waits for the input queues to hand their events to siddhi, must be
+     * called holding the checkpoint lock.
+     * 
+     * @return sequence of the last insert held by the siddhi state
+     */
+    public long awaitApplied() {
+        StreamInputQueues queues = inputQueues;
+        long deadline = System.currentTimeMillis() + DRAIN_TIMEOUT;
+        while (queues != null && queues.getPendingEvents() > 0) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new IllegalStateException("Input queues not drained after " + DRAIN_TIMEOUT + " ms");
+            }
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted waiting for the input queues", e);
+            }
+        }
+        synchronized (this) {
+            return lastSequence;
+        }
+    }
+
+    /**
+     * Removes the inserts up to a sequence already held by a saved snapshot.
+     */
+    public synchronized void truncate(long sequence) throws IOException {
+        if (segments.lastKey() <= sequence) {
+            roll();
+        }
+        Iterator<Map.Entry<Long, File>> iterator = segments.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Long, File> segment = iterator.next();
+            Long nextSegment = segments.higherKey(segment.getKey());
+            if (nextSegment == null || nextSegment - 1 > sequence) {
+                break;
+            }
+            iterator.remove();
+            if (!segment.getValue().delete()) {
+                logger.warn("Cannot delete insert log segment " + segment.getValue());
+            }
+        }
+    }
+
+    /**
+     * Hands the logged inserts after a sequence to the handler, in order.
+     * 
+     * @return number of inserts replayed
+     */
+    public synchronized long replay(long afterSequence, EntryHandler handler) throws IOException {
+        final long[] replayed = new long[1];
+        for (File segment : new ArrayList<>(segments.values())) {
+            read(segment, afterSequence, handler, replayed);
+        }
+        return replayed[0];
+    }
+
+    /**
+     * Removes every logged insert, after a clean shutdown.
+     */
+    public synchronized void clear() throws IOException {
+        activeSegment.close();
+        for (File segment : segments.values()) {
+            segment.delete();
+        }
+        segments.clear();
+        recentRequests.clear();
+        roll();
+    }
+
+    public synchronized void close() throws IOException {
+        activeSegment.close();
+    }
+
+    private void roll() throws IOException {
+        if (activeSegment != null) {
+            activeSegment.close();
+        }
+        File segment = new File(directory, String.format("%s%016d%s", SEGMENT_PREFIX, lastSequence + 1,
+                SEGMENT_SUFFIX));
+        activeSegment = new FileOutputStream(segment, true);
+        segments.put(lastSequence + 1, segment);
+    }
+
+    private long read(File segment, long afterSequence, EntryHandler handler) throws IOException {
+        return read(segment, afterSequence, handler, new long[1]);
+    }
+
+    /**
+     * @return bytes of the segment holding complete records
+     */
+    private long read(File segment, long afterSequence, EntryHandler handler, long[] applied) throws IOException {
+        long position = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(segment)))) {
+            while (true) {
+                int bodyLength = in.readInt();
+                if (bodyLength <= 0 || position + 4 + bodyLength + 8 > segment.length()) {
+                    return position;
+                }
+                byte[] body = new byte[bodyLength];
+                in.readFully(body);
+                CRC32 crc = new CRC32();
+                crc.update(body);
+                if (in.readLong() != crc.getValue()) {
+                    return position;
+                }
+
+                DataInputStream record = new DataInputStream(new ByteArrayInputStream(body));
+                long sequence = record.readLong();
+                String requestId = record.readUTF();
+                String streamName = record.readUTF();
+                List<Object[]> events = new ArrayList<>();
+                int length = record.readInt();
+                if (length < 0) {
+                    for (int i = 0; i < -length; i++) {
+                        events.add(readEvent(record, record.readInt()));
+                    }
+                } else {
+                    events.add(readEvent(record, length));
+                }
+
+                lastSequence = Math.max(lastSequence, sequence + events.size() - 1);
+                if (!requestId.isEmpty()) {
+                    recentRequests.put(requestId, Boolean.TRUE);
+                }
+                for (Object[] event : events) {
+                    if (sequence > afterSequence) {
+                        try {
+                            handler.apply(sequence, streamName, event);
+                            applied[0]++;
+                        } catch (Exception e) {
+                            logger.error("Error replaying insert " + sequence + " into stream " + streamName, e);
+                        }
+                    }
+                    sequence++;
+                }
+                position += 4 + bodyLength + 8;
+            }
+        } catch (EOFException e) {
+            return position;
+        }
+    }
+
+    private static void writeEvent(DataOutputStream out, Object[] event) throws IOException {
+        out.writeInt(event.length);
+        for (Object value : event) {
+            if (value == null) {
+                out.writeByte(NULL);
+            } else if (value instanceof String) {
+                out.writeByte(STRING);
+                out.writeUTF((String) value);
+            } else if (value instanceof Integer) {
+                out.writeByte(INTEGER);
+                out.writeInt((Integer) value);
+            } else if (value instanceof Long) {
+                out.writeByte(LONG);
+                out.writeLong((Long) value);
+            } else if (value instanceof Float) {
+                out.writeByte(FLOAT);
+                out.writeFloat((Float) value);
+            } else if (value instanceof Double) {
+                out.writeByte(DOUBLE);
+                out.writeDouble((Double) value);
+            } else if (value instanceof Boolean) {
+                out.writeByte(BOOLEAN);
+                out.writeBoolean((Boolean) value);
+            } else {
+                throw new IOException("Unsupported event value " + value.getClass());
+            }
+        }
+    }
+
+    private static Object[] readEvent(DataInputStream in, int length) throws IOException {
+        Object[] event = new Object[length];
+        for (int i = 0; i < event.length; i++) {
+            byte type = in.readByte();
+            switch (type) {
+            case NULL:
+                break;
+            case STRING:
+                event[i] = in.readUTF();
+                break;
+            case INTEGER:
+                event[i] = in.readInt();
+                break;
+            case LONG:
+                event[i] = in.readLong();
+                break;
+            case FLOAT:
+                event[i] = in.readFloat();
+                break;
+            case DOUBLE:
+                event[i] = in.readDouble();
+                break;
+            case BOOLEAN:
+                event[i] = in.readBoolean();
+                break;
+            default:
+                throw new IOException("Unknown event value type " + type);
+            }
+        }
+        return event;
+    }
+
+    public synchronized long getLastSequence() {
+        return lastSequence;
+    }
+
+    /**
+     * @return first sequence not removed by a truncation, greater than the
+     *         last sequence if the log is empty
+     */
+    public synchronized long getFirstSequence() {
+        return segments.firstKey();
+    }
+
+    /**
+     * @return requests skipped because they had already been logged
+     */
+    public synchronized long getDuplicates() {
+        return duplicates;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+}
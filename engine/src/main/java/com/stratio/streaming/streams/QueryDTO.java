@@ -2,27 +2,74 @@ package com.stratio.streaming.streams;
 
 import java.io.Serializable;
 
+import com.stratio.streaming.commons.messages.StreamQuery;
+
 public class QueryDTO implements Serializable {
 
     private static final long serialVersionUID = -4566524384334289720L;
 
     private final String queryRaw;
+    private final String canonicalQuery;
+
+    /**
+     * Number of add query requests sharing this query, it is removed from
+     * siddhi when the last one is removed.
+     */
+    private int references;
+
+    /**
+     * Id of the query in siddhi when it differs from the id known by the
+     * clients, after the query has been added again by another engine node.
+     */
+    private String siddhiQueryId;
 
     public QueryDTO(String queryRaw) {
         this.queryRaw = queryRaw;
+        this.canonicalQuery = canonicalize(queryRaw);
+        this.references = 1;
     }
 
     public String getQueryRaw() {
         return queryRaw;
     }
 
+    public String getCanonicalQuery() {
+        return canonicalQuery;
+    }
+
+    public int getReferences() {
+        return references;
+    }
+
+    public String getSiddhiQueryId() {
+        return siddhiQueryId;
+    }
+
+    public void setSiddhiQueryId(String siddhiQueryId) {
+        this.siddhiQueryId = siddhiQueryId;
+    }
+
+    public int retain() {
+        return ++references;
+    }
+
+    public int release() {
+        return --references;
+    }
+
+    /**
+     * @see StreamQuery#canonicalize(String)
+     */
+    public static String canonicalize(String query) {
+        return StreamQuery.canonicalize(query);
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (obj != null) {
             if (obj instanceof QueryDTO) {
-                if (this.hashCode() == obj.hashCode()) {
-                    return true;
-                }
+                String otherQuery = ((QueryDTO) obj).canonicalQuery;
+                return canonicalQuery == null ? otherQuery == null : canonicalQuery.equals(otherQuery);
             }
         }
         return false;
@@ -30,8 +77,8 @@ public class QueryDTO implements Serializable {
 
     @Override
     public int hashCode() {
-        if (queryRaw != null) {
-            return queryRaw.trim().replaceAll(" ", "").hashCode();
+        if (canonicalQuery != null) {
+            return canonicalQuery.hashCode();
         } else {
             return 0;
         }
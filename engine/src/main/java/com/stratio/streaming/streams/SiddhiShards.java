@@ -0,0 +1,138 @@
+/**
+ * Copyright (C) 2014 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.streaming.streams;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.wso2.siddhi.core.SiddhiManager;
+
+import com.stratio.streaming.utils.SiddhiUtils;
+
+/**
+ * Set of independent siddhi engines, each one owning a subset of the streams.
+ *
+ * A stream lives in the shard where it was defined, so the streams created
+ * by a query are always in the same shard as its input stream, and queries
+ * inserting into an existing stream of another shard are rejected. New
+ * streams are placed by hashing their name.
+ *
+ * Shards are added while running to hold the streams taken over from dead
+ * engine nodes, they are never removed.
+ */
+public class SiddhiShards {
+
+    private final List<SiddhiManager> siddhiManagers;
+    private final List<String> queryPlanIdentifiers;
+    private final String nodeName;
+
+    public SiddhiShards(List<SiddhiManager> siddhiManagers) {
+        this(siddhiManagers, null);
+    }
+
+    /**
+     * @param nodeName
+     *            name of this engine node in the cluster, it scopes the
+     *            persisted state of the shards. Null when running alone
+     */
+    public SiddhiShards(List<SiddhiManager> siddhiManagers, String nodeName) {
+        if (siddhiManagers.isEmpty()) {
+            throw new IllegalArgumentException("At least one siddhi manager is needed");
+        }
+        this.siddhiManagers = new CopyOnWriteArrayList<>(siddhiManagers);
+        List<String> identifiers = new ArrayList<>(siddhiManagers.size());
+        for (int i = 0; i < siddhiManagers.size(); i++) {
+            identifiers.add(getQueryPlanIdentifier(nodeName, i));
+        }
+        this.queryPlanIdentifiers = new CopyOnWriteArrayList<>(identifiers);
+        this.nodeName = nodeName;
+    }
+
+    public static String getQueryPlanIdentifier(int shard) {
+        return getQueryPlanIdentifier(null, shard);
+    }
+
+    /**
+     * Identifier of the persisted state of a shard. Every node of a cluster
+     * has its own, otherwise their snapshots would overwrite each other.
+     */
+    public static String getQueryPlanIdentifier(String nodeName, int shard) {
+        String identifier = SiddhiUtils.QUERY_PLAN_IDENTIFIER;
+        if (nodeName != null) {
+            // also used as a directory name
+            identifier = identifier + "-" + nodeName.replaceAll("[^A-Za-z0-9._-]", "_");
+        }
+        // the first shard keeps the identifier used before sharding, so
+        // persisted revisions of a single engine can still be restored
+        if (shard == 0) {
+            return identifier;
+        }
+        return identifier + "-shard-" + shard;
+    }
+
+    public String getShardQueryPlanIdentifier(int shard) {
+        return queryPlanIdentifiers.get(shard);
+    }
+
+    /**
+     * Identifier for the next shard added. The generation keeps apart the
+     * shards added by every run of the node, the state persisted by the
+     * previous ones may still be taken over by other nodes.
+     */
+    public synchronized String nextQueryPlanIdentifier(String generation) {
+        return getQueryPlanIdentifier(nodeName, siddhiManagers.size()) + "-"
+                + generation.replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+
+    /**
+     * @return the new shard
+     */
+    public synchronized int addShard(SiddhiManager siddhiManager, String queryPlanIdentifier) {
+        queryPlanIdentifiers.add(queryPlanIdentifier);
+        siddhiManagers.add(siddhiManager);
+        return siddhiManagers.size() - 1;
+    }
+
+    public int size() {
+        return siddhiManagers.size();
+    }
+
+    public SiddhiManager get(int shard) {
+        return siddhiManagers.get(shard);
+    }
+
+    public List<SiddhiManager> getSiddhiManagers() {
+        return Collections.unmodifiableList(siddhiManagers);
+    }
+
+    public int shardOf(String streamName) {
+        if (siddhiManagers.size() == 1 || streamName == null) {
+            return 0;
+        }
+        for (int i = 0; i < siddhiManagers.size(); i++) {
+            if (siddhiManagers.get(i).getStreamDefinition(streamName) != null) {
+                return i;
+            }
+        }
+        return (streamName.hashCode() & Integer.MAX_VALUE) % siddhiManagers.size();
+    }
+
+    public SiddhiManager getSiddhiManager(String streamName) {
+        return siddhiManagers.get(shardOf(streamName));
+    }
+}
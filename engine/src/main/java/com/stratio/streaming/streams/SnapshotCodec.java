@@ -0,0 +1,35 @@
+/**
+ * Copyright (C) 2014 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.streaming.streams;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Compression applied to the serialized state of a snapshot. The id is
+ * written in the snapshot header, so it must never change once released.
+ */
+public interface SnapshotCodec {
+
+    byte getId();
+
+    String getName();
+
+    OutputStream compress(OutputStream out) throws IOException;
+
+    InputStream decompress(InputStream in) throws IOException;
+}
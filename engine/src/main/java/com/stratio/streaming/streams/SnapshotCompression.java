@@ -0,0 +1,89 @@
+/**
+ * Copyright (C) 2014 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.streaming.streams;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.xerial.snappy.SnappyInputStream;
+import org.xerial.snappy.SnappyOutputStream;
+
+/**
+ * Built-in snapshot codecs.
+ */
+public enum SnapshotCompression implements SnapshotCodec {
+
+    NONE((byte) 0) {
+        @Override
+        public OutputStream compress(OutputStream out) {
+            return out;
+        }
+
+        @Override
+        public InputStream decompress(InputStream in) {
+            return in;
+        }
+    },
+    SNAPPY((byte) 1) {
+        @Override
+        public OutputStream compress(OutputStream out) throws IOException {
+            return new SnappyOutputStream(out);
+        }
+
+        @Override
+        public InputStream decompress(InputStream in) throws IOException {
+            return new SnappyInputStream(in);
+        }
+    },
+    DEFLATE((byte) 2) {
+        @Override
+        public OutputStream compress(OutputStream out) {
+            return new DeflaterOutputStream(out, new Deflater(Deflater.BEST_SPEED), BUFFER_SIZE);
+        }
+
+        @Override
+        public InputStream decompress(InputStream in) {
+            return new InflaterInputStream(in, new Inflater(), BUFFER_SIZE);
+        }
+    };
+
+    private static final int BUFFER_SIZE = 32 * 1024;
+
+    private final byte id;
+
+    private SnapshotCompression(byte id) {
+        this.id = id;
+    }
+
+    @Override
+    public byte getId() {
+        return id;
+    }
+
+    @Override
+    public String getName() {
+        return name().toLowerCase();
+    }
+
+    public static SnapshotCompression fromName(String name) {
+        return SnapshotCompression.valueOf(name.trim().toUpperCase());
+    }
+}
@@ -0,0 +1,74 @@
+/**
+ * Copyright (C) 2014 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.streaming.streams;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map.Entry;
+
+/**
+ * Chooses the snapshot revisions to remove: only the newest maxRevisions
+ * ones not older than maxAge are kept. The newest revision and the revisions
+ * it depends on are never removed.
+ */
+public class SnapshotRetention {
+
+    public static final int DEFAULT_MAX_REVISIONS = 20;
+    public static final long DEFAULT_MAX_AGE = 24 * 60 * 60 * 1000L;
+
+    private final int maxRevisions;
+    private final long maxAge;
+
+    public SnapshotRetention(int maxRevisions, long maxAge) {
+        if (maxRevisions <= 0) {
+            throw new IllegalArgumentException("At least one revision must be kept");
+        }
+        this.maxRevisions = maxRevisions;
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * @param revisions
+     *            revision and time it was saved, newest first
+     * @param protectedRevisions
+     *            revisions still needed to restore the newest one
+     */
+    public List<String> selectExpired(LinkedHashMap<String, Long> revisions, Collection<String> protectedRevisions,
+            long now) {
+
+        List<String> expired = new ArrayList<>();
+        int position = 0;
+        for (Entry<String, Long> revision : revisions.entrySet()) {
+            boolean keep = position == 0 || protectedRevisions.contains(revision.getKey())
+                    || (position < maxRevisions && now - revision.getValue() <= maxAge);
+            if (!keep) {
+                expired.add(revision.getKey());
+            }
+            position++;
+        }
+        return expired;
+    }
+
+    public int getMaxRevisions() {
+        return maxRevisions;
+    }
+
+    public long getMaxAge() {
+        return maxAge;
+    }
+}
@@ -0,0 +1,175 @@
+/**
+ * Copyright (C) 2014 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.streaming.streams;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.wso2.siddhi.core.SiddhiManager;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Takes the failover snapshots of every siddhi engine in its own thread, so
+ * the batches never wait for them. A snapshot requested while the previous
+ * one is still being written is skipped.
+ */
+public class SnapshotScheduler implements Runnable {
+
+    private static Logger logger = LoggerFactory.getLogger(SnapshotScheduler.class);
+
+    private final SiddhiShards shards;
+    private final long intervalMillis;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final AtomicLong snapshots = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private volatile long lastDuration;
+    private volatile long lastBytes;
+    private volatile long lastSnapshotTime;
+
+    private ScheduledExecutorService executor;
+    private volatile List<InsertLog> insertLogs;
+
+    public SnapshotScheduler(SiddhiShards shards, long intervalMillis) {
+        if (intervalMillis <= 0) {
+            throw new IllegalArgumentException("Snapshot interval must be positive");
+        }
+        this.shards = shards;
+        this.intervalMillis = intervalMillis;
+    }
+
+    /**
+     * @param insertLogs
+     *            insert log of every shard, in the order of the shards
+     */
+    public void setInsertLogs(List<InsertLog> insertLogs) {
+        this.insertLogs = insertLogs;
+    }
+
+    public synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setDaemon(true)
+                .setNameFormat("stratio-snapshot-scheduler-%d").build());
+        executor.scheduleAtFixedRate(this, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        logger.info("Taking failover snapshots every {} ms", intervalMillis);
+    }
+
+    /**
+     * Stops the scheduler, waiting for the snapshot being written.
+     */
+    public synchronized void shutdown(long timeoutMillis) {
+        if (executor == null) {
+            return;
+        }
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                logger.warn("Snapshot still running after {} ms", timeoutMillis);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        executor = null;
+    }
+
+    @Override
+    public void run() {
+        snapshot();
+    }
+
+    /**
+     * Persists the state of every shard.
+     * 
+     * @return false if skipped because another snapshot is running
+     */
+    public boolean snapshot() {
+        if (!running.compareAndSet(false, true)) {
+            skipped.incrementAndGet();
+            logger.debug("Previous snapshot still running, skipping this one");
+            return false;
+        }
+        try {
+            long start = System.currentTimeMillis();
+            long bytes = 0;
+            for (int shard = 0; shard < shards.size(); shard++) {
+                SiddhiManager siddhiManager = shards.get(shard);
+                StreamingPersistenceStore store = StreamPersistence.getPersistenceStore(siddhiManager);
+                if (store == null) {
+                    continue;
+                }
+                long writtenBefore = store.getWrittenBytes();
+                StreamPersistence.saveStreamingEngineStatus(siddhiManager, insertLogs == null ? null : insertLogs
+                        .get(shard));
+                bytes += store.getWrittenBytes() - writtenBefore;
+            }
+            lastDuration = System.currentTimeMillis() - start;
+            lastBytes = bytes;
+            lastSnapshotTime = start;
+            snapshots.incrementAndGet();
+            logger.debug("Snapshot of {} bytes taken in {} ms", bytes, lastDuration);
+        } catch (RuntimeException e) {
+            failed.incrementAndGet();
+            logger.error("Error taking failover snapshot", e);
+        } finally {
+            running.set(false);
+        }
+        return true;
+    }
+
+    public long getIntervalMillis() {
+        return intervalMillis;
+    }
+
+    public long getSnapshots() {
+        return snapshots.get();
+    }
+
+    public long getSkipped() {
+        return skipped.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * @return milliseconds taken by the last snapshot
+     */
+    public long getLastDuration() {
+        return lastDuration;
+    }
+
+    /**
+     * @return bytes written by the last snapshot
+     */
+    public long getLastBytes() {
+        return lastBytes;
+    }
+
+    public long getLastSnapshotTime() {
+        return lastSnapshotTime;
+    }
+}
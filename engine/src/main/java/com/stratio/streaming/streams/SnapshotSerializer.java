@@ -0,0 +1,148 @@
+/**
+ * Copyright (C) 2014 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.streaming.streams;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.common.io.CountingOutputStream;
+
+/**
+ * Serializes snapshots with a small header in front of the compressed state:
+ * two magic bytes, the format version and the id of the codec used, so
+ * snapshots written with any codec can be restored.
+ *
+ * Snapshots written before the header existed are plain java serialization
+ * and are still readable.
+ */
+public class SnapshotSerializer {
+
+    public static final byte FORMAT_VERSION = 1;
+
+    private static final byte MAGIC_0 = 'S';
+    private static final byte MAGIC_1 = 'N';
+    private static final int HEADER_SIZE = 4;
+
+    private static final byte JAVA_SERIALIZATION_MAGIC_0 = (byte) 0xAC;
+    private static final byte JAVA_SERIALIZATION_MAGIC_1 = (byte) 0xED;
+
+    private final SnapshotCodec codec;
+    private final Map<Byte, SnapshotCodec> codecs = new ConcurrentHashMap<>();
+
+    private volatile long lastStateBytes;
+    private volatile long lastSnapshotBytes;
+    private volatile long lastSerializationTime;
+    private volatile long lastDeserializationTime;
+
+    public SnapshotSerializer(SnapshotCodec codec) {
+        for (SnapshotCompression compression : SnapshotCompression.values()) {
+            register(compression);
+        }
+        register(codec);
+        this.codec = codec;
+    }
+
+    /**
+     * Makes a custom codec available to restore snapshots.
+     */
+    public void register(SnapshotCodec codec) {
+        SnapshotCodec previous = codecs.get(codec.getId());
+        if (previous != null && previous != codec) {
+            throw new IllegalArgumentException("Codec id " + codec.getId() + " already used by "
+                    + previous.getName());
+        }
+        codecs.put(codec.getId(), codec);
+    }
+
+    public SnapshotCodec getCodec() {
+        return codec;
+    }
+
+    public byte[] serialize(Object state) throws IOException {
+        long start = System.currentTimeMillis();
+
+        ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+        snapshot.write(MAGIC_0);
+        snapshot.write(MAGIC_1);
+        snapshot.write(FORMAT_VERSION);
+        snapshot.write(codec.getId());
+
+        CountingOutputStream stateBytes = new CountingOutputStream(codec.compress(snapshot));
+        try (ObjectOutputStream out = new ObjectOutputStream(stateBytes)) {
+            out.writeObject(state);
+        }
+
+        byte[] bytes = snapshot.toByteArray();
+        lastStateBytes = stateBytes.getCount();
+        lastSnapshotBytes = bytes.length;
+        lastSerializationTime = System.currentTimeMillis() - start;
+        return bytes;
+    }
+
+    public Object deserialize(byte[] snapshot) throws IOException, ClassNotFoundException {
+        long start = System.currentTimeMillis();
+
+        InputStream in;
+        if (snapshot.length >= 2 && snapshot[0] == JAVA_SERIALIZATION_MAGIC_0
+                && snapshot[1] == JAVA_SERIALIZATION_MAGIC_1) {
+            in = new ByteArrayInputStream(snapshot);
+        } else {
+            if (snapshot.length < HEADER_SIZE || snapshot[0] != MAGIC_0 || snapshot[1] != MAGIC_1) {
+                throw new IOException("Unknown snapshot format");
+            }
+            if (snapshot[2] > FORMAT_VERSION) {
+                throw new IOException("Unsupported snapshot format version " + snapshot[2]);
+            }
+            SnapshotCodec snapshotCodec = codecs.get(snapshot[3]);
+            if (snapshotCodec == null) {
+                throw new IOException("Unknown snapshot codec " + snapshot[3]);
+            }
+            in = snapshotCodec.decompress(new ByteArrayInputStream(snapshot, HEADER_SIZE, snapshot.length
+                    - HEADER_SIZE));
+        }
+
+        try (ObjectInputStream objectIn = new ObjectInputStream(in)) {
+            return objectIn.readObject();
+        } finally {
+            lastDeserializationTime = System.currentTimeMillis() - start;
+        }
+    }
+
+    /**
+     * @return size of the serialized state before compression
+     */
+    public long getLastStateBytes() {
+        return lastStateBytes;
+    }
+
+    public long getLastSnapshotBytes() {
+        return lastSnapshotBytes;
+    }
+
+    public long getLastSerializationTime() {
+        return lastSerializationTime;
+    }
+
+    public long getLastDeserializationTime() {
+        return lastDeserializationTime;
+    }
+}
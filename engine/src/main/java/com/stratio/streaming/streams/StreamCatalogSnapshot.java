@@ -0,0 +1,186 @@
+/**
+ * Copyright (C) 2014 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.streaming.streams;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.UUID;
+
+import com.google.common.collect.Ordering;
+import com.stratio.streaming.commons.constants.StreamAction;
+import com.stratio.streaming.commons.messages.ColumnNameTypeValue;
+import com.stratio.streaming.commons.messages.ListStreamsMessage;
+import com.stratio.streaming.commons.messages.StratioStreamingMessage;
+import com.stratio.streaming.commons.messages.StreamQuery;
+
+/**
+ * List of streams answered to LIST requests, built again only when the
+ * shared catalog has changed. Every change of the list moves its version, and
+ * clients sending back the version they have get only what changed since
+ * then.
+ *
+ * Versions are only meaningful for the node that built them: the catalog id
+ * is part of the version, so a version of another node or of a previous run
+ * is answered with the whole list.
+ */
+public class StreamCatalogSnapshot {
+
+    private static final int DEFAULT_HISTORY = 16;
+    private static final String VERSION_SEPARATOR = ":";
+
+    private final SiddhiShards shards;
+    private final StreamPlacement placement;
+    private final StreamStatusCache cache;
+    private final int history;
+
+    private final String catalogId = UUID.randomUUID().toString();
+    private final Map<Long, Map<String, String>> signaturesByVersion = new LinkedHashMap<>();
+
+    private long version;
+    private long builtFromCatalogVersion = -1;
+    private Map<String, StratioStreamingMessage> streams = Collections.emptyMap();
+    private Map<String, String> signatures = Collections.emptyMap();
+    private long rebuilds;
+
+    public StreamCatalogSnapshot(SiddhiShards shards, StreamPlacement placement) {
+        this(shards, placement, DEFAULT_HISTORY);
+    }
+
+    /**
+     * @param history
+     *            number of previous versions a diff can be computed from
+     */
+    public StreamCatalogSnapshot(SiddhiShards shards, StreamPlacement placement, int history) {
+        this.shards = shards;
+        this.placement = placement;
+        this.history = history;
+        this.cache = StreamStatusCache.of(shards.get(0).getSiddhiContext().getHazelcastInstance());
+    }
+
+    /**
+     * @param knownVersion
+     *            catalog version the client already has, null for the whole
+     *            list
+     */
+    public synchronized ListStreamsMessage list(String knownVersion) {
+        refresh();
+
+        ListStreamsMessage reply;
+        Map<String, String> knownSignatures = signaturesOf(knownVersion);
+        if (knownSignatures == null) {
+            reply = new ListStreamsMessage(streams.size(), System.currentTimeMillis(),
+                    new ArrayList<>(streams.values()));
+        } else {
+            List<StratioStreamingMessage> changed = new ArrayList<>();
+            for (Entry<String, StratioStreamingMessage> stream : streams.entrySet()) {
+                if (!signatures.get(stream.getKey()).equals(knownSignatures.get(stream.getKey()))) {
+                    changed.add(stream.getValue());
+                }
+            }
+            List<String> removed = new ArrayList<>();
+            for (String streamName : knownSignatures.keySet()) {
+                if (!streams.containsKey(streamName)) {
+                    removed.add(streamName);
+                }
+            }
+            reply = new ListStreamsMessage(streams.size(), System.currentTimeMillis(), changed);
+            reply.setDiff(Boolean.TRUE);
+            reply.setRemovedStreams(removed);
+        }
+        reply.setCatalogVersion(catalogId + VERSION_SEPARATOR + version);
+        return reply;
+    }
+
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return times the list has been built again from the catalog
+     */
+    public synchronized long getRebuilds() {
+        return rebuilds;
+    }
+
+    private void refresh() {
+        // read before listing, a change made while listing is seen next time
+        long catalogVersion = cache.getVersion();
+        if (catalogVersion == builtFromCatalogVersion) {
+            return;
+        }
+        rebuilds++;
+
+        Map<String, StratioStreamingMessage> currentStreams = new LinkedHashMap<>();
+        Map<String, String> currentSignatures = new LinkedHashMap<>();
+        for (StratioStreamingMessage stream : StreamOperations.listStreams(null, shards, placement)) {
+            currentStreams.put(stream.getStreamName(), stream);
+            currentSignatures.put(stream.getStreamName(), signature(stream));
+        }
+        builtFromCatalogVersion = catalogVersion;
+
+        if (currentSignatures.equals(signatures)) {
+            return;
+        }
+        version++;
+        streams = currentStreams;
+        signatures = currentSignatures;
+        signaturesByVersion.put(version, currentSignatures);
+        Iterator<Long> versions = signaturesByVersion.keySet().iterator();
+        while (signaturesByVersion.size() > history) {
+            versions.next();
+            versions.remove();
+        }
+    }
+
+    private Map<String, String> signaturesOf(String knownVersion) {
+        if (knownVersion == null || !knownVersion.startsWith(catalogId + VERSION_SEPARATOR)) {
+            return null;
+        }
+        try {
+            return signaturesByVersion.get(Long.valueOf(knownVersion.substring(catalogId.length() + 1)));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static String signature(StratioStreamingMessage stream) {
+        StringBuilder signature = new StringBuilder();
+        signature.append(stream.isUserDefined()).append('|');
+        for (ColumnNameTypeValue column : stream.getColumns()) {
+            signature.append(column.getColumn()).append(' ').append(column.getType()).append(',');
+        }
+        signature.append('|');
+        List<String> queries = new ArrayList<>();
+        for (StreamQuery query : stream.getQueries()) {
+            queries.add(query.getQueryId() + '=' + query.getQuery());
+        }
+        for (String query : Ordering.natural().sortedCopy(queries)) {
+            signature.append(query).append(',');
+        }
+        signature.append('|');
+        if (stream.getActiveActions() != null) {
+            for (StreamAction action : Ordering.natural().sortedCopy(stream.getActiveActions())) {
+                signature.append(action).append(',');
+            }
+        }
+        return signature.toString();
+    }
+}
@@ -0,0 +1,311 @@
+/**
+ * Copyright (C) 2014 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.streaming.streams;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.wso2.siddhi.core.SiddhiManager;
+
+import com.hazelcast.core.HazelcastInstance;
+import com.stratio.streaming.commons.constants.StreamAction;
+import com.stratio.streaming.commons.messages.StratioStreamingMessage;
+import com.stratio.streaming.configuration.ConfigurationContext;
+import com.stratio.streaming.streams.StreamPlacement.OrphanStreamsHandler;
+import com.stratio.streaming.utils.SiddhiUtils;
+
+/**
+ * Takes over the streams of dead engine nodes from the shared catalog.
+ *
+ * With the failover enabled, the streams persisted together by a dead node
+ * are restored in a new shard from the last revision of their plan, read
+ * from the store of the dead node: siddhi snapshots belong to a whole
+ * execution plan and cannot be merged into a running shard. The new shard is
+ * persisted with an identifier of this node before the state of the dead
+ * node is removed.
+ *
+ * If the state cannot be restored the streams are defined again without it,
+ * and the state of the dead node is kept.
+ *
+ * The inserts received by the dead node after its last snapshot are lost,
+ * its insert log is kept on its own disk. So is the state saved by the file
+ * store, unless its directory is shared between the nodes.
+ *
+ * Streams without persisted state are defined again, their queries added and
+ * their actions enabled, in the shard holding the other streams of their
+ * node.
+ */
+public class StreamFailover implements OrphanStreamsHandler {
+
+    private static Logger logger = LoggerFactory.getLogger(StreamFailover.class);
+
+    private final SiddhiShards shards;
+    private final String localNodeId;
+    private final ConfigurationContext configurationContext;
+    private final StreamingPersistenceStore.Factory storeFactory;
+    private final List<InsertLog> insertLogs;
+
+    private final AtomicLong recoveries = new AtomicLong();
+    private final AtomicLong recoveredStreams = new AtomicLong();
+    private final AtomicLong restoredStreams = new AtomicLong();
+    private final AtomicLong failedStreams = new AtomicLong();
+    private volatile long lastRecoveryTime = -1;
+
+    public StreamFailover(SiddhiShards shards, StreamPlacement placement, ConfigurationContext configurationContext) {
+        this(shards, placement, configurationContext, null, null);
+    }
+
+    /**
+     * @param storeFactory
+     *            opens the stores of the dead nodes and of the shards added
+     *            for their streams, null if the failover is disabled
+     * @param insertLogs
+     *            insert log of every shard, the shards added get their own.
+     *            Null if disabled
+     */
+    public StreamFailover(SiddhiShards shards, StreamPlacement placement, ConfigurationContext configurationContext,
+            StreamingPersistenceStore.Factory storeFactory, List<InsertLog> insertLogs) {
+        this.shards = shards;
+        this.localNodeId = placement.getLocalNodeId();
+        this.configurationContext = configurationContext;
+        this.storeFactory = storeFactory;
+        this.insertLogs = insertLogs;
+        placement.setOrphanStreamsHandler(this);
+    }
+
+    @Override
+    public void recover(List<StreamStatusDTO> orphanStreams, long detectedAt) {
+        logger.info("Taking over " + orphanStreams.size() + " streams of dead engine nodes");
+
+        // the streams persisted together are restored together
+        Map<String, List<StreamStatusDTO>> persistedStreams = new LinkedHashMap<>();
+        List<StreamStatusDTO> otherStreams = new ArrayList<>();
+        for (StreamStatusDTO streamStatus : orphanStreams) {
+            String queryPlanIdentifier = streamStatus.getQueryPlanIdentifier();
+            if (storeFactory == null || queryPlanIdentifier == null) {
+                otherStreams.add(streamStatus);
+                continue;
+            }
+            List<StreamStatusDTO> planStreams = persistedStreams.get(queryPlanIdentifier);
+            if (planStreams == null) {
+                planStreams = new ArrayList<>();
+                persistedStreams.put(queryPlanIdentifier, planStreams);
+            }
+            planStreams.add(streamStatus);
+        }
+
+        for (Entry<String, List<StreamStatusDTO>> plan : persistedStreams.entrySet()) {
+            takeOverPlan(plan.getKey(), plan.getValue());
+        }
+        defineStreams(otherStreams, null);
+
+        recoveries.incrementAndGet();
+        lastRecoveryTime = System.currentTimeMillis() - detectedAt;
+        logger.info("Streams of dead engine nodes recovered " + lastRecoveryTime + " ms after the failure");
+    }
+
+    /**
+     * Restores the streams of a plan persisted by a dead node in a new shard.
+     */
+    private void takeOverPlan(String deadQueryPlanIdentifier, List<StreamStatusDTO> planStreams) {
+        String queryPlanIdentifier = shards.nextQueryPlanIdentifier(localNodeId);
+        SiddhiManager siddhiManager = createShard(queryPlanIdentifier);
+        StreamingPersistenceStore deadStore = storeFactory.create(deadQueryPlanIdentifier);
+
+        List<String> streamNames = new ArrayList<>();
+        for (StreamStatusDTO streamStatus : planStreams) {
+            streamNames.add(streamStatus.getStreamName());
+        }
+        Set<String> planRestoredStreams;
+        boolean stateRestored;
+        try {
+            planRestoredStreams = StreamPersistence.restoreTakenOverStreams(siddhiManager, deadStore,
+                    deadQueryPlanIdentifier, streamNames);
+            stateRestored = true;
+            restoredStreams.addAndGet(planRestoredStreams.size());
+        } catch (RuntimeException e) {
+            logger.error("Error restoring the state of " + deadQueryPlanIdentifier
+                    + ", its streams are defined again without it", e);
+            // their queries were already added before the failure
+            planRestoredStreams = getStreamsOfPlan(queryPlanIdentifier, streamNames);
+            stateRestored = false;
+        }
+        recoveredStreams.addAndGet(planRestoredStreams.size());
+        StreamPersistence.restoreActions(siddhiManager, configurationContext);
+
+        // created after the last revision of the dead node, or not restored,
+        // they start empty
+        List<StreamStatusDTO> newStreams = new ArrayList<>();
+        for (StreamStatusDTO streamStatus : planStreams) {
+            if (!planRestoredStreams.contains(streamStatus.getStreamName())) {
+                newStreams.add(streamStatus);
+            }
+        }
+        defineStreams(newStreams, siddhiManager);
+
+        InsertLog insertLog = null;
+        if (insertLogs != null) {
+            insertLog = new InsertLog(new File(configurationContext.getInsertLogDirectory(), queryPlanIdentifier),
+                    configurationContext.isInsertLogFsync());
+        }
+
+        // a dead node coming back must not restore the streams again, but its
+        // state is kept while it has not been restored
+        try {
+            StreamPersistence.saveStreamingEngineStatus(siddhiManager, insertLog);
+            if (stateRestored) {
+                deadStore.removeAllRevisions();
+            }
+        } catch (RuntimeException e) {
+            logger.error("Error persisting the streams taken over from " + deadQueryPlanIdentifier
+                    + ", its state is kept", e);
+        }
+
+        // the insert log of a shard is found by its position
+        if (insertLog != null) {
+            insertLogs.add(insertLog);
+        }
+        int shard = shards.addShard(siddhiManager, queryPlanIdentifier);
+        logger.info("Streams of " + deadQueryPlanIdentifier + " taken over in shard " + shard + ", "
+                + planRestoredStreams.size() + " of " + planStreams.size() + " restored from its last revision");
+    }
+
+    /**
+     * New engine persisting its state with the identifier, for the streams
+     * of a dead node.
+     */
+    protected SiddhiManager createShard(String queryPlanIdentifier) {
+        HazelcastInstance hazelcastInstance = shards.get(0).getSiddhiContext().getHazelcastInstance();
+        return SiddhiUtils.setupSiddhiManager(storeFactory, hazelcastInstance, queryPlanIdentifier);
+    }
+
+    /**
+     * @return the streams already in the catalog as held by the engine
+     *         persisting with the identifier
+     */
+    private Set<String> getStreamsOfPlan(String queryPlanIdentifier, List<String> streamNames) {
+        StreamStatusCache cache = StreamStatusCache.of(shards.get(0).getSiddhiContext().getHazelcastInstance());
+        Set<String> planStreams = new HashSet<>();
+        for (String streamName : streamNames) {
+            StreamStatusDTO streamStatus = cache.get(streamName);
+            if (streamStatus != null && queryPlanIdentifier.equals(streamStatus.getQueryPlanIdentifier())) {
+                planStreams.add(streamName);
+            }
+        }
+        return planStreams;
+    }
+
+    /**
+     * Defines the streams again, with their queries and actions but without
+     * the events of their windows.
+     * 
+     * @param siddhiManager
+     *            engine to define them in, null for the shard holding the
+     *            other streams of their node
+     */
+    private void defineStreams(List<StreamStatusDTO> streams, SiddhiManager siddhiManager) {
+        // first all the streams, queries can read from or insert into any
+        // of them
+        for (StreamStatusDTO streamStatus : streams) {
+            SiddhiManager streamSiddhiManager = getSiddhiManager(streamStatus, siddhiManager);
+            try {
+                if (streamSiddhiManager.getStreamDefinition(streamStatus.getStreamName()) == null) {
+                    streamSiddhiManager.defineStream(SiddhiUtils.buildDefineStreamSiddhiQL(new StratioStreamingMessage(
+                            streamStatus.getStreamName(), SiddhiUtils.decodeStreamDefinitionColumns(streamStatus
+                                    .getStreamDefinition()), null)));
+                }
+            } catch (RuntimeException e) {
+                logger.error("Error defining stream " + streamStatus.getStreamName(), e);
+            }
+        }
+
+        for (StreamStatusDTO streamStatus : streams) {
+            try {
+                SiddhiManager streamSiddhiManager = getSiddhiManager(streamStatus, siddhiManager);
+
+                for (Entry<String, QueryDTO> query : streamStatus.getAddedQueries().entrySet()) {
+                    String siddhiQueryId = streamSiddhiManager.addQuery(query.getValue().getQueryRaw()
+                            .replaceAll("timebatch", "timeBatch"));
+                    query.getValue().setSiddhiQueryId(siddhiQueryId.equals(query.getKey()) ? null : siddhiQueryId);
+                }
+
+                for (StreamAction action : streamStatus.getActionsEnabled()) {
+                    StreamOperations.enableAction(action, streamStatus.getStreamName(), configurationContext,
+                            streamSiddhiManager);
+                }
+
+                streamStatus.setOwnerNode(localNodeId);
+                StreamSharedStatus.putStreamStatus(streamStatus, streamSiddhiManager);
+                recoveredStreams.incrementAndGet();
+            } catch (Exception e) {
+                failedStreams.incrementAndGet();
+                logger.error("Error taking over stream " + streamStatus.getStreamName(), e);
+            }
+        }
+    }
+
+    /**
+     * The streams inherited from the same node go to the same shard, as
+     * queries only work between streams of the same siddhi engine.
+     */
+    private SiddhiManager getSiddhiManager(StreamStatusDTO streamStatus, SiddhiManager siddhiManager) {
+        if (siddhiManager != null) {
+            return siddhiManager;
+        }
+        for (SiddhiManager shard : shards.getSiddhiManagers()) {
+            if (shard.getStreamDefinition(streamStatus.getStreamName()) != null) {
+                return shard;
+            }
+        }
+        return shards.get((streamStatus.getOwnerNode().hashCode() & Integer.MAX_VALUE) % shards.size());
+    }
+
+    public long getRecoveries() {
+        return recoveries.get();
+    }
+
+    public long getRecoveredStreams() {
+        return recoveredStreams.get();
+    }
+
+    /**
+     * @return streams recovered with the state persisted by their dead node
+     */
+    public long getRestoredStreams() {
+        return restoredStreams.get();
+    }
+
+    public long getFailedStreams() {
+        return failedStreams.get();
+    }
+
+    /**
+     * @return milliseconds between the detection of the last node failure
+     *         and the recovery of its streams, -1 if there has been none
+     */
+    public long getLastRecoveryTime() {
+        return lastRecoveryTime;
+    }
+}
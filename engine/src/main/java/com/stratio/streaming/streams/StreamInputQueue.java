@@ -0,0 +1,181 @@
+/**
+ * Copyright (C) 2014 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.streaming.streams;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.wso2.siddhi.core.stream.input.InputHandler;
+
+/**
+ * Bounded single producer / single consumer ring buffer between the insert
+ * requests of one stream and its siddhi input handler, drained by its own
+ * worker thread.
+ *
+ * Producer and consumer only share two sequences, there are no locks: the
+ * producer publishes a slot by moving the tail and the worker frees it by
+ * moving the head.
+ */
+public class StreamInputQueue implements Runnable {
+
+    private static Logger logger = LoggerFactory.getLogger(StreamInputQueue.class);
+
+    public enum OverflowPolicy {
+        BLOCK, DROP;
+
+        public static OverflowPolicy fromName(String name) {
+            return OverflowPolicy.valueOf(name.trim().toUpperCase());
+        }
+    }
+
+    private static final long MAX_IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long FULL_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final String streamName;
+    private final InputHandler inputHandler;
+    private final OverflowPolicy overflowPolicy;
+
+    private final Object[][] buffer;
+    private final int mask;
+
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final Thread worker;
+    private volatile boolean running = true;
+
+    /**
+     * @param capacity
+     *            rounded up to the next power of two
+     */
+    public StreamInputQueue(String streamName, InputHandler inputHandler, int capacity, OverflowPolicy overflowPolicy) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Input queue capacity must be positive");
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.streamName = streamName;
+        this.inputHandler = inputHandler;
+        this.overflowPolicy = overflowPolicy;
+        this.buffer = new Object[size][];
+        this.mask = size - 1;
+
+        this.worker = new Thread(this, "stratio-input-queue-" + streamName);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Enqueues an event. Only one thread can publish in the same queue.
+     *
+     * @return false if the event has been dropped
+     */
+    public boolean offer(Object[] event) {
+        long currentTail = tail.get();
+        while (currentTail - head.get() >= buffer.length) {
+            if (overflowPolicy == OverflowPolicy.DROP || !running) {
+                if (dropped.incrementAndGet() % buffer.length == 1) {
+                    logger.warn("Input queue of stream {} is full, {} events dropped", streamName, dropped.get());
+                }
+                return false;
+            }
+            LockSupport.parkNanos(FULL_PARK_NANOS);
+        }
+        buffer[(int) (currentTail & mask)] = event;
+        tail.lazySet(currentTail + 1);
+        return true;
+    }
+
+    @Override
+    public void run() {
+        long idleParkNanos = 1;
+        while (running || head.get() < tail.get()) {
+            long currentHead = head.get();
+            long available = tail.get();
+            if (currentHead == available) {
+                LockSupport.parkNanos(idleParkNanos);
+                idleParkNanos = Math.min(idleParkNanos << 1, MAX_IDLE_PARK_NANOS);
+                continue;
+            }
+            idleParkNanos = 1;
+
+            for (long sequence = currentHead; sequence < available; sequence++) {
+                int slot = (int) (sequence & mask);
+                Object[] event = buffer[slot];
+                buffer[slot] = null;
+                try {
+                    inputHandler.send(event);
+                    processed.incrementAndGet();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (RuntimeException e) {
+                    logger.error("Error sending event to stream " + streamName, e);
+                }
+            }
+            head.lazySet(available);
+        }
+    }
+
+    /**
+     * Stops accepting events and waits for the worker to process the pending
+     * ones.
+     */
+    public void shutdown(long timeoutMillis) {
+        running = false;
+        try {
+            worker.join(timeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (worker.isAlive()) {
+            logger.warn("Input queue of stream {} closed with {} pending events", streamName, getDepth());
+            worker.interrupt();
+        }
+    }
+
+    public String getStreamName() {
+        return streamName;
+    }
+
+    public InputHandler getInputHandler() {
+        return inputHandler;
+    }
+
+    public int getCapacity() {
+        return buffer.length;
+    }
+
+    public long getDepth() {
+        return tail.get() - head.get();
+    }
+
+    public long getProcessed() {
+        return processed.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * Copyright (C) 2014 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.streaming.streams;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.wso2.siddhi.core.SiddhiManager;
+import org.wso2.siddhi.core.stream.input.InputHandler;
+
+import com.stratio.streaming.streams.StreamInputQueue.OverflowPolicy;
+
+/**
+ * Input queues of the streams of one siddhi engine, created on the first
+ * insert into each stream.
+ */
+public class StreamInputQueues {
+
+    private static final long SHUTDOWN_TIMEOUT_MILLIS = 5000;
+
+    private final SiddhiManager siddhiManager;
+    private final int capacity;
+    private final OverflowPolicy overflowPolicy;
+
+    private final ConcurrentMap<String, StreamInputQueue> queues = new ConcurrentHashMap<>();
+
+    public StreamInputQueues(SiddhiManager siddhiManager, int capacity, OverflowPolicy overflowPolicy) {
+        this.siddhiManager = siddhiManager;
+        this.capacity = capacity;
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    public boolean offer(String streamName, Object[] event) {
+        InputHandler inputHandler = siddhiManager.getInputHandler(streamName);
+        StreamInputQueue queue = queues.get(streamName);
+        if (queue == null || queue.getInputHandler() != inputHandler) {
+            // the stream has been dropped and created again
+            if (queue != null) {
+                queue.shutdown(SHUTDOWN_TIMEOUT_MILLIS);
+            }
+            queue = new StreamInputQueue(streamName, inputHandler, capacity, overflowPolicy);
+            queues.put(streamName, queue);
+        }
+        return queue.offer(event);
+    }
+
+    /**
+     * Stops the queues of the streams that no longer exist in siddhi.
+     */
+    public void removeDroppedStreams() {
+        Iterator<StreamInputQueue> iterator = queues.values().iterator();
+        while (iterator.hasNext()) {
+            StreamInputQueue queue = iterator.next();
+            if (siddhiManager.getStreamDefinition(queue.getStreamName()) == null) {
+                iterator.remove();
+                queue.shutdown(SHUTDOWN_TIMEOUT_MILLIS);
+            }
+        }
+    }
+
+    /**
+     * @return events not handed to siddhi yet
+     */
+    public long getPendingEvents() {
+        long pending = 0;
+        for (StreamInputQueue queue : queues.values()) {
+            pending += queue.getDepth();
+        }
+        return pending;
+    }
+
+    public Collection<StreamInputQueue> getQueues() {
+        return new ArrayList<>(queues.values());
+    }
+
+    public void shutdown() {
+        for (StreamInputQueue queue : queues.values()) {
+            queue.shutdown(SHUTDOWN_TIMEOUT_MILLIS);
+        }
+        queues.clear();
+    }
+}
@@ -17,6 +17,7 @@ package com.stratio.streaming.streams;
 
 import java.net.UnknownHostException;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map.Entry;
@@ -29,7 +30,6 @@ import org.wso2.siddhi.query.api.exception.AttributeAlreadyExistException;
 
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
-import com.hazelcast.core.IMap;
 import com.hazelcast.core.ITopic;
 import com.stratio.streaming.callbacks.StreamToBusCallback;
 import com.stratio.streaming.callbacks.StreamToCassandraCallback;
@@ -40,6 +40,7 @@ import com.stratio.streaming.commons.constants.StreamAction;
 import com.stratio.streaming.commons.messages.ColumnNameTypeValue;
 import com.stratio.streaming.commons.messages.StratioStreamingMessage;
 import com.stratio.streaming.commons.messages.StreamQuery;
+import com.stratio.streaming.configuration.ConfigurationContext;
 import com.stratio.streaming.utils.SiddhiUtils;
 
 public class StreamOperations {
@@ -93,8 +94,8 @@ public class StreamOperations {
             HashMap<String, QueryDTO> attachedQueries = StreamSharedStatus.getStreamStatus(request.getStreamName(),
                     siddhiManager).getAddedQueries();
 
-            for (String queryId : attachedQueries.keySet()) {
-                siddhiManager.removeQuery(queryId);
+            for (Entry<String, QueryDTO> attachedQuery : attachedQueries.entrySet()) {
+                siddhiManager.removeQuery(getSiddhiQueryId(attachedQuery.getKey(), attachedQuery.getValue()));
             }
         }
 
@@ -107,6 +108,14 @@ public class StreamOperations {
     }
 
     public static void addQueryToExistingStream(StratioStreamingMessage request, SiddhiManager siddhiManager) {
+        // identical queries on the same stream share the running one
+        String sharedQueryId = StreamSharedStatus.findSharedQueryId(request.getRequest(), request.getStreamName(),
+                siddhiManager);
+        if (sharedQueryId != null) {
+            StreamSharedStatus.retainQueryInStreamStatus(sharedQueryId, request.getStreamName(), siddhiManager);
+            return;
+        }
+
         // add query to siddhi
         String queryId = siddhiManager.addQuery(request.getRequest().replaceAll("timebatch", "timeBatch"));
         // register query in stream status
@@ -124,21 +133,28 @@ public class StreamOperations {
 
     public static void removeQueryFromExistingStream(StratioStreamingMessage request, SiddhiManager siddhiManager) {
 
-        // remove query in stream status
-        String queryId = StreamSharedStatus.removeQueryInStreamStatus(request.getRequest(), request.getStreamName(),
-                siddhiManager);
+        String siddhiQueryId = getSiddhiQueryId(request.getRequest(),
+                StreamSharedStatus.getStreamStatus(request.getStreamName(), siddhiManager).getAddedQueries()
+                        .get(request.getRequest()));
 
-        // remove query in siddhi
-        siddhiManager.removeQuery(queryId);
+        // release query in stream status, it is still running if shared
+        if (!StreamSharedStatus.releaseQueryInStreamStatus(request.getRequest(), request.getStreamName(),
+                siddhiManager)) {
+            return;
+        }
 
-        // recover all cached streams
-        IMap<Object, Object> streamStatusMap = siddhiManager.getSiddhiContext().getHazelcastInstance()
-                .getMap(STREAMING.STREAM_STATUS_MAP);
+        // streams defined in this siddhi before removing the query, the
+        // catalog can also hold streams of other shards
+        List<String> definedStreams = Lists.newArrayList();
+        for (StreamDefinition streamMetaData : siddhiManager.getStreamDefinitions()) {
+            definedStreams.add(streamMetaData.getStreamId());
+        }
 
-        // we will see if siddhi has removed any streams automatically
-        for (Entry<Object, Object> streamStatus : streamStatusMap.entrySet()) {
+        // remove query in siddhi
+        siddhiManager.removeQuery(siddhiQueryId);
 
-            String streamName = (String) streamStatus.getKey();
+        // we will see if siddhi has removed any streams automatically
+        for (String streamName : definedStreams) {
 
             // if this stream does not exist in siddhi
             if (siddhiManager.getStreamDefinition(streamName) == null) {
@@ -153,9 +169,63 @@ public class StreamOperations {
         }
     }
 
-    public static List<StratioStreamingMessage> listStreams(StratioStreamingMessage request, SiddhiManager siddhiManager) {
+    private static String getSiddhiQueryId(String queryId, QueryDTO query) {
+        if (query == null || query.getSiddhiQueryId() == null) {
+            return queryId;
+        }
+        return query.getSiddhiQueryId();
+    }
+
+    public static List<StratioStreamingMessage> listStreams(StratioStreamingMessage request, SiddhiShards shards) {
+        return listStreams(request, shards, null);
+    }
+
+    /**
+     * @param placement
+     *            if not null, the streams owned by other engine nodes are
+     *            listed from their shared status
+     */
+    public static List<StratioStreamingMessage> listStreams(StratioStreamingMessage request, SiddhiShards shards,
+            StreamPlacement placement) {
 
         List<StratioStreamingMessage> streams = Lists.newArrayList();
+        for (SiddhiManager siddhiManager : shards.getSiddhiManagers()) {
+            addStreams(streams, siddhiManager);
+        }
+        if (placement != null) {
+            addRemoteStreams(streams, shards, placement);
+        }
+        return streams;
+    }
+
+    private static void addRemoteStreams(List<StratioStreamingMessage> streams, SiddhiShards shards,
+            StreamPlacement placement) {
+
+        for (StreamStatusDTO streamStatus : StreamStatusCache.of(
+                shards.get(0).getSiddhiContext().getHazelcastInstance()).getAll()) {
+
+            if (placement.getLocalNodeId().equals(streamStatus.getOwnerNode())
+                    || shards.getSiddhiManager(streamStatus.getStreamName()).getStreamDefinition(
+                            streamStatus.getStreamName()) != null
+                    || Arrays.asList(STREAMING.STATS_NAMES.STATS_STREAMS).contains(streamStatus.getStreamName())) {
+                continue;
+            }
+
+            List<StreamQuery> queries = Lists.newArrayList();
+            for (Entry<String, QueryDTO> entry : streamStatus.getAddedQueries().entrySet()) {
+                queries.add(new StreamQuery(entry.getKey(), entry.getValue().getQueryRaw()));
+            }
+
+            StratioStreamingMessage streamMessage = new StratioStreamingMessage(streamStatus.getStreamName(),
+                    SiddhiUtils.decodeStreamDefinitionColumns(streamStatus.getStreamDefinition()), queries);
+            streamMessage.setUserDefined(streamStatus.isUserDefined());
+            streamMessage.setActiveActions(streamStatus.getActionsEnabled());
+
+            streams.add(streamMessage);
+        }
+    }
+
+    private static void addStreams(List<StratioStreamingMessage> streams, SiddhiManager siddhiManager) {
 
         for (StreamDefinition streamMetaData : siddhiManager.getStreamDefinitions()) {
 
@@ -194,9 +264,6 @@ public class StreamOperations {
                 streams.add(streamMessage);
             }
         }
-
-        return streams;
-
     }
 
     public static void listenStream(StratioStreamingMessage request, String kafkaCluster, SiddhiManager siddhiManager) {
@@ -210,9 +277,6 @@ public class StreamOperations {
 
         siddhiManager.addCallback(request.getStreamName(), streamCallBack);
 
-        // TODO to avoid an error when a first event is sended to a non created
-        // topic, create the topic first (BUG KAFKA-1124)
-
         StreamSharedStatus.changeActionStreamStatus(Boolean.TRUE, request.getStreamName(), siddhiManager,
                 StreamAction.LISTEN);
     }
@@ -302,4 +366,39 @@ public class StreamOperations {
         StreamSharedStatus.changeActionStreamStatus(Boolean.FALSE, request.getStreamName(), siddhiManager,
                 StreamAction.SAVE_TO_MONGO);
     }
+
+    /**
+     * Enables again an action of a stream defined in this engine by a failover
+     * or a restart. Actions whose sink is not configured are skipped.
+     */
+    public static void enableAction(StreamAction action, String streamName,
+            ConfigurationContext configurationContext, SiddhiManager siddhiManager) throws Exception {
+
+        StratioStreamingMessage request = new StratioStreamingMessage(streamName, null,
+                Collections.<StreamQuery> emptyList());
+
+        switch (action) {
+        case LISTEN:
+            listenStream(request, configurationContext.getKafkaHostsQuorum(), siddhiManager);
+            break;
+        case SAVE_TO_CASSANDRA:
+            save2cassandraStream(request, configurationContext.getCassandraHostsQuorum(), siddhiManager);
+            break;
+        case SAVE_TO_MONGO:
+            if (configurationContext.getMongoHost() != null) {
+                save2mongoStream(request, configurationContext.getMongoHost(), configurationContext.getMongoPort(),
+                        configurationContext.getMongoUsername(), configurationContext.getMongoPassword(),
+                        siddhiManager);
+            }
+            break;
+        case INDEXED:
+            if (configurationContext.getElasticSearchHost() != null) {
+                streamToIndexer(request, configurationContext.getElasticSearchHost(),
+                        configurationContext.getElasticSearchPort(), siddhiManager);
+            }
+            break;
+        default:
+            throw new IllegalArgumentException("Unknown action " + action + " of stream " + streamName);
+        }
+    }
 }
@@ -15,52 +15,124 @@
  */
 package com.stratio.streaming.streams;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.wso2.siddhi.core.SiddhiManager;
 
 import com.hazelcast.core.IMap;
 import com.stratio.streaming.commons.constants.STREAMING;
+import com.stratio.streaming.commons.constants.StreamAction;
+import com.stratio.streaming.commons.messages.StratioStreamingMessage;
+import com.stratio.streaming.configuration.ConfigurationContext;
+import com.stratio.streaming.streams.ExecutionPlanSnapshot.StreamPlan;
 import com.stratio.streaming.utils.SiddhiUtils;
 
 public class StreamPersistence {
 
     private static Logger logger = LoggerFactory.getLogger(StreamPersistence.class);
 
+    // last plan written by every engine
+    private static final Map<SiddhiManager, String> savedExecutionPlans = Collections
+            .synchronizedMap(new WeakHashMap<SiddhiManager, String>());
+
+    // revision restored in every engine when it started
+    private static final Map<SiddhiManager, String> restoredRevisions = Collections
+            .synchronizedMap(new WeakHashMap<SiddhiManager, String>());
+
+    // identifier every engine persists its state with
+    private static final Map<SiddhiManager, String> queryPlanIdentifiers = Collections
+            .synchronizedMap(new WeakHashMap<SiddhiManager, String>());
+
     private StreamPersistence() {
         // TODO Auto-generated constructor stub
     }
 
+    /**
+     * @return the failover store of the engine, null if the failover is
+     *         disabled
+     */
+    public static StreamingPersistenceStore getPersistenceStore(SiddhiManager siddhiManager) {
+        return (StreamingPersistenceStore) siddhiManager.getSiddhiContext().getPersistenceService()
+                .getPersistenceStore();
+    }
+
+    /**
+     * @return the identifier the engine persists its state with, null if the
+     *         failover is disabled
+     */
+    public static String getQueryPlanIdentifier(SiddhiManager siddhiManager) {
+        return queryPlanIdentifiers.get(siddhiManager);
+    }
+
     public static String saveStreamingEngineStatus(SiddhiManager siddhiManager) {
+        return saveStreamingEngineStatus(siddhiManager, null);
+    }
+
+    /**
+     * @param insertLog
+     *            log of the inserts into the engine, the revision records the
+     *            last insert its state holds. Null if disabled
+     */
+    public static String saveStreamingEngineStatus(SiddhiManager siddhiManager, InsertLog insertLog) {
 
         if (siddhiManager.getSiddhiContext().getPersistenceService().getPersistenceStore() == null) {
             return "";
         }
 
-        String revisionID = siddhiManager.persist();
-        String executionPlan = "";
-
-        IMap<Object, Object> streamStatusMap = siddhiManager.getSiddhiContext().getHazelcastInstance()
-                .getMap(STREAMING.STREAM_STATUS_MAP);
-
-        for (Object stream : streamStatusMap.values()) {
+        String revisionID;
+        long insertSequence = 0;
+        if (insertLog == null) {
+            revisionID = siddhiManager.persist();
+        } else {
+            // no insert can reach siddhi while its state is taken
+            StreamingPersistenceStore persistenceStore = getPersistenceStore(siddhiManager);
+            insertLog.getCheckpointLock().lock();
+            try {
+                insertSequence = insertLog.awaitApplied();
+                persistenceStore.setInsertLogSequence(insertSequence);
+                revisionID = siddhiManager.persist();
+            } finally {
+                persistenceStore.setInsertLogSequence(null);
+                insertLog.getCheckpointLock().unlock();
+            }
+        }
 
-            executionPlan += ((StreamStatusDTO) stream).getStreamDefinition() + ";";
+        List<StreamStatusDTO> localStreams = new ArrayList<>();
+        for (StreamStatusDTO stream : StreamStatusCache.of(siddhiManager.getSiddhiContext().getHazelcastInstance())
+                .getAll()) {
 
-            for (QueryDTO query : ((StreamStatusDTO) stream).getAddedQueries().values()) {
-                executionPlan += query.getQueryRaw() + ";";
+            // the catalog is shared, skip streams owned by other shards
+            if (siddhiManager.getStreamDefinition(stream.getStreamName()) != null) {
+                localStreams.add(stream);
             }
-
         }
 
-        logger.debug("StreamPersistence: revisionID: " + revisionID + "//executionPlan: " + executionPlan);
+        String executionPlan = ExecutionPlanSnapshot.fromStreamStatus(localStreams).toJson();
 
-        if (!executionPlan.equalsIgnoreCase("")) {
+        // only written when the catalog changes
+        if (!executionPlan.equals(savedExecutionPlans.get(siddhiManager))) {
+            logger.debug("StreamPersistence: revisionID: " + revisionID + "//executionPlan: " + executionPlan);
 
-            Casandra2PersistenceStore cassandraPersistence = (Casandra2PersistenceStore) siddhiManager
-                    .getSiddhiContext().getPersistenceService().getPersistenceStore();
+            getPersistenceStore(siddhiManager).saveExecutionPlan(executionPlan);
+            savedExecutionPlans.put(siddhiManager, executionPlan);
+        }
 
-            cassandraPersistence.saveExecutionPlan(executionPlan);
+        if (insertLog != null) {
+            try {
+                insertLog.truncate(insertSequence);
+            } catch (IOException e) {
+                logger.error("Error removing inserts held by the snapshot " + revisionID, e);
+            }
         }
 
         return revisionID;
@@ -70,29 +142,210 @@ public class StreamPersistence {
     public static void removeEngineStatusFromCleanExit(SiddhiManager siddhiManager) {
 
         if (siddhiManager.getSiddhiContext().getPersistenceService().getPersistenceStore() != null) {
-            Casandra2PersistenceStore cassandraPersistence = (Casandra2PersistenceStore) siddhiManager
+            StreamingPersistenceStore persistenceStore = (StreamingPersistenceStore) siddhiManager
                     .getSiddhiContext().getPersistenceService().getPersistenceStore();
 
-            cassandraPersistence.removeAllRevisions();
+            persistenceStore.removeAllRevisions();
+            savedExecutionPlans.remove(siddhiManager);
+            restoredRevisions.remove(siddhiManager);
+            queryPlanIdentifiers.remove(siddhiManager);
 
         }
 
     }
 
-    public static void restoreLastRevision(SiddhiManager siddhiManager) {
+    /**
+     * @param queryPlanIdentifier
+     *            identifier the engine persists its state with
+     */
+    public static void restoreLastRevision(SiddhiManager siddhiManager, String queryPlanIdentifier) {
 
-        Casandra2PersistenceStore cassandraPersistence = (Casandra2PersistenceStore) siddhiManager.getSiddhiContext()
+        StreamingPersistenceStore persistenceStore = (StreamingPersistenceStore) siddhiManager.getSiddhiContext()
                 .getPersistenceService().getPersistenceStore();
+        queryPlanIdentifiers.put(siddhiManager, queryPlanIdentifier);
 
-        String recoveredExecutionPlan = cassandraPersistence
-                .recoverLastExecutionPlan(SiddhiUtils.QUERY_PLAN_IDENTIFIER);
+        String recoveredExecutionPlan = persistenceStore.recoverLastExecutionPlan(queryPlanIdentifier);
 
-        if (recoveredExecutionPlan != null && !recoveredExecutionPlan.equals("")) {
+        if (ExecutionPlanSnapshot.isStructured(recoveredExecutionPlan)) {
+            logger.debug("StreamPersistence: recovered execution plan from last execution -> " + recoveredExecutionPlan);
+            try {
+                restoreExecutionPlan(ExecutionPlanSnapshot.fromJson(recoveredExecutionPlan), siddhiManager, null);
+                savedExecutionPlans.put(siddhiManager, recoveredExecutionPlan);
+            } catch (IllegalArgumentException e) {
+                logger.error("Execution plan of the last execution cannot be restored", e);
+                return;
+            }
+        } else if (recoveredExecutionPlan != null && !recoveredExecutionPlan.equals("")) {
+            // saved by an older version as a plain siddhi plan
             logger.debug("StreamPersistence: recovered execution plan from last execution -> " + recoveredExecutionPlan);
             siddhiManager.addExecutionPlan(recoveredExecutionPlan);
         }
 
-        siddhiManager.restoreLastRevision();
+        String revision = persistenceStore.getLastRevision(queryPlanIdentifier);
+        if (revision != null) {
+            siddhiManager.restoreRevision(revision);
+            restoredRevisions.put(siddhiManager, revision);
+        }
+
+    }
+
+    /**
+     * Restores in the engine the streams taken over from a dead engine node,
+     * as they were in the last revision persisted by the node. The revision
+     * is read from the store of the dead node, the engine goes on persisting
+     * them in its own store.
+     * 
+     * @param store
+     *            store of the dead node
+     * @param queryPlanIdentifier
+     *            identifier the dead node persisted its state with
+     * @return names of the streams restored, the ones created after the last
+     *         revision are not
+     */
+    public static Set<String> restoreTakenOverStreams(SiddhiManager siddhiManager, StreamingPersistenceStore store,
+            String queryPlanIdentifier, Collection<String> streamNames) {
+
+        String recoveredExecutionPlan = store.recoverLastExecutionPlan(queryPlanIdentifier);
+        String revision = store.getLastRevision(queryPlanIdentifier);
+        if (!ExecutionPlanSnapshot.isStructured(recoveredExecutionPlan) || revision == null) {
+            logger.warn("No revision of " + queryPlanIdentifier + " found, its streams are restored empty");
+            return Collections.emptySet();
+        }
+
+        Set<String> restoredStreams = restoreExecutionPlan(ExecutionPlanSnapshot.fromJson(recoveredExecutionPlan),
+                siddhiManager, streamNames);
 
+        // siddhi loads the snapshots through the store of the engine
+        StreamingPersistenceStore persistenceStore = getPersistenceStore(siddhiManager);
+        siddhiManager.setPersistStore(store);
+        try {
+            siddhiManager.restoreRevision(revision);
+        } finally {
+            siddhiManager.setPersistStore(persistenceStore);
+        }
+        logger.info("Restored revision " + revision + " of " + queryPlanIdentifier);
+        return restoredStreams;
+    }
+
+    /**
+     * Defines the streams and adds the queries of the plan, keeping the query
+     * ids known by the clients.
+     * 
+     * @param takenOverStreams
+     *            streams of the plan to restore. If null, the streams not in
+     *            the shared catalog, the others are served by another engine
+     *            node
+     */
+    private static Set<String> restoreExecutionPlan(ExecutionPlanSnapshot executionPlan,
+            SiddhiManager siddhiManager, Collection<String> takenOverStreams) {
+
+        IMap<Object, Object> streamStatusMap = siddhiManager.getSiddhiContext().getHazelcastInstance()
+                .getMap(STREAMING.STREAM_STATUS_MAP);
+        String localNodeId = StreamPlacement.getLocalNodeId(siddhiManager.getSiddhiContext().getHazelcastInstance());
+
+        List<StreamPlan> restoredStreams = new ArrayList<>();
+        for (StreamPlan stream : executionPlan.getStreams()) {
+            if (takenOverStreams == null ? streamStatusMap.containsKey(stream.getName()) : !takenOverStreams
+                    .contains(stream.getName())) {
+                continue;
+            }
+            siddhiManager.defineStream(SiddhiUtils.buildDefineStreamSiddhiQL(new StratioStreamingMessage(stream
+                    .getName(), SiddhiUtils.decodeStreamDefinitionColumns(stream.getDefinition()), null)));
+            restoredStreams.add(stream);
+        }
+
+        // queries after all the streams, they can read from or insert into
+        // any of them
+        Set<String> restoredStreamNames = new HashSet<>();
+        for (StreamPlan stream : restoredStreams) {
+            StreamStatusDTO streamStatus = ExecutionPlanSnapshot.toStreamStatus(stream);
+            for (QueryDTO query : streamStatus.getAddedQueries().values()) {
+                query.setSiddhiQueryId(siddhiManager.addQuery(query.getQueryRaw().replaceAll("timebatch",
+                        "timeBatch")));
+            }
+            streamStatus.setOwnerNode(localNodeId);
+            StreamSharedStatus.putStreamStatus(streamStatus, siddhiManager);
+            restoredStreamNames.add(stream.getName());
+        }
+
+        logger.info("Restored " + restoredStreams.size() + " streams of the last execution");
+        return restoredStreamNames;
+    }
+
+    /**
+     * Sends again the inserts logged after the revision restored in this
+     * engine, from the sequence saved with that revision. Must be done before
+     * the actions are enabled, the sinks already got the events.
+     * 
+     * @return number of inserts replayed
+     * @throws IllegalStateException
+     *             if the restored revision and the insert log do not match,
+     *             replaying would lose or apply twice some inserts
+     */
+    public static long replayInserts(final SiddhiManager siddhiManager, InsertLog insertLog) {
+
+        long afterSequence = 0;
+        String revision = restoredRevisions.get(siddhiManager);
+        if (revision != null) {
+            Long revisionSequence = getPersistenceStore(siddhiManager).getInsertLogSequence(revision);
+            if (revisionSequence == null) {
+                if (insertLog.getLastSequence() >= insertLog.getFirstSequence()) {
+                    throw new IllegalStateException("Revision " + revision
+                            + " was saved without insert log sequence, the inserts logged in "
+                            + insertLog.getDirectory() + " cannot be replayed");
+                }
+                return 0;
+            }
+            afterSequence = revisionSequence;
+        }
+
+        if (afterSequence > insertLog.getLastSequence()) {
+            throw new IllegalStateException("Revision " + revision + " holds the inserts up to " + afterSequence
+                    + " but the insert log " + insertLog.getDirectory() + " ends at " + insertLog.getLastSequence());
+        }
+        if (afterSequence + 1 < insertLog.getFirstSequence()) {
+            throw new IllegalStateException("Revision " + revision + " holds the inserts up to " + afterSequence
+                    + " but the insert log " + insertLog.getDirectory() + " starts at "
+                    + insertLog.getFirstSequence());
+        }
+
+        try {
+            long replayed = insertLog.replay(afterSequence, new InsertLog.EntryHandler() {
+                @Override
+                public void apply(long sequence, String streamName, Object[] event) throws Exception {
+                    if (siddhiManager.getStreamDefinition(streamName) != null) {
+                        siddhiManager.getInputHandler(streamName).send(event);
+                    }
+                }
+            });
+            logger.info("Replayed " + replayed + " inserts logged after the last snapshot");
+            return replayed;
+        } catch (IOException e) {
+            logger.error("Error replaying the insert log " + insertLog.getDirectory(), e);
+            return 0;
+        }
+    }
+
+    /**
+     * Enables again the actions of the streams restored in this engine, the
+     * sinks are not part of the siddhi snapshots.
+     */
+    public static void restoreActions(SiddhiManager siddhiManager, ConfigurationContext configurationContext) {
+
+        for (StreamStatusDTO streamStatus : StreamStatusCache.of(
+                siddhiManager.getSiddhiContext().getHazelcastInstance()).getAll()) {
+            if (siddhiManager.getStreamDefinition(streamStatus.getStreamName()) == null) {
+                continue;
+            }
+            for (StreamAction action : new ArrayList<>(streamStatus.getActionsEnabled())) {
+                try {
+                    StreamOperations.enableAction(action, streamStatus.getStreamName(), configurationContext,
+                            siddhiManager);
+                } catch (Exception e) {
+                    logger.error("Error enabling " + action + " on restored stream " + streamStatus.getStreamName(),
+                            e);
+                }
+            }
+        }
     }
 }
@@ -0,0 +1,189 @@
+/**
+ * Copyright (C) 2014 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.streaming.streams;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.IMap;
+import com.hazelcast.core.Member;
+import com.hazelcast.core.MembershipEvent;
+import com.hazelcast.core.MembershipListener;
+import com.hazelcast.core.MessageListener;
+import com.stratio.streaming.commons.constants.STREAMING;
+import com.stratio.streaming.commons.messages.StratioStreamingMessage;
+
+/**
+ * Placement of the streams between the engine nodes joined to the same
+ * hazelcast cluster.
+ *
+ * A stream belongs to the node recorded in its status as long as that node
+ * is alive, new streams are placed in the ring of live nodes. Requests
+ * received by a node that does not own their stream are forwarded to the
+ * owner through a hazelcast topic of the owner.
+ *
+ * The streams of a dead node are inherited together by a single survivor,
+ * chosen by hashing the dead node in the ring, so the streams created by a
+ * query stay with its input stream.
+ */
+public class StreamPlacement implements MembershipListener {
+
+    private static Logger logger = LoggerFactory.getLogger(StreamPlacement.class);
+
+    public static final String FORWARD_TOPIC_PREFIX = "stratio-streaming-forward-";
+
+    /**
+     * Restores in this node the streams inherited from dead nodes.
+     */
+    public interface OrphanStreamsHandler {
+        void recover(List<StreamStatusDTO> orphanStreams, long detectedAt);
+    }
+
+    private final HazelcastInstance hazelcastInstance;
+    private final String localNodeId;
+
+    private volatile ConsistentHashRing ring;
+
+    private final AtomicBoolean orphanStreamsPending = new AtomicBoolean(true);
+    private volatile long nodeFailureDetectedAt = System.currentTimeMillis();
+    private OrphanStreamsHandler orphanStreamsHandler;
+
+    public StreamPlacement(HazelcastInstance hazelcastInstance) {
+        this.hazelcastInstance = hazelcastInstance;
+        this.localNodeId = getLocalNodeId(hazelcastInstance);
+        hazelcastInstance.getCluster().addMembershipListener(this);
+        refreshRing();
+    }
+
+    public static String getLocalNodeId(HazelcastInstance hazelcastInstance) {
+        return hazelcastInstance.getCluster().getLocalMember().getUuid();
+    }
+
+    public String getLocalNodeId() {
+        return localNodeId;
+    }
+
+    public ConsistentHashRing getRing() {
+        return ring;
+    }
+
+    public String ownerOf(String streamName) {
+        if (streamName == null) {
+            return localNodeId;
+        }
+        ConsistentHashRing currentRing = ring;
+        StreamStatusDTO streamStatus = StreamStatusCache.of(hazelcastInstance).get(streamName);
+        String node;
+        if (streamStatus != null && streamStatus.getOwnerNode() != null) {
+            node = getHeir(currentRing, streamStatus.getOwnerNode());
+        } else {
+            node = currentRing.getNode(streamName);
+        }
+        return node == null ? localNodeId : node;
+    }
+
+    private static String getHeir(ConsistentHashRing currentRing, String ownerNode) {
+        if (currentRing.contains(ownerNode)) {
+            return ownerNode;
+        }
+        return currentRing.getNode(ownerNode);
+    }
+
+    public void setOrphanStreamsHandler(OrphanStreamsHandler orphanStreamsHandler) {
+        this.orphanStreamsHandler = orphanStreamsHandler;
+    }
+
+    /**
+     * Recovers the streams this node has inherited since the last call. It is
+     * run before processing the requests of each batch, so the inherited
+     * streams exist when their requests are processed.
+     */
+    public synchronized void recoverOrphanStreams() {
+        if (orphanStreamsHandler == null || !orphanStreamsPending.getAndSet(false)) {
+            return;
+        }
+        long detectedAt = nodeFailureDetectedAt;
+        ConsistentHashRing currentRing = ring;
+
+        List<StreamStatusDTO> orphanStreams = new ArrayList<>();
+        IMap<Object, Object> streamStatusMap = hazelcastInstance.getMap(STREAMING.STREAM_STATUS_MAP);
+        for (Object value : streamStatusMap.values()) {
+            StreamStatusDTO streamStatus = (StreamStatusDTO) value;
+            String ownerNode = streamStatus.getOwnerNode();
+            if (ownerNode != null && !currentRing.contains(ownerNode)
+                    && localNodeId.equals(getHeir(currentRing, ownerNode))) {
+                orphanStreams.add(streamStatus);
+            }
+        }
+
+        if (!orphanStreams.isEmpty()) {
+            orphanStreamsHandler.recover(orphanStreams, detectedAt);
+        }
+    }
+
+    public boolean isLocal(String streamName) {
+        return localNodeId.equals(ownerOf(streamName));
+    }
+
+    /**
+     * Sends the request to the node owning its stream.
+     */
+    public void forward(String channel, StratioStreamingMessage message) {
+        String owner = ownerOf(message.getStreamName());
+        logger.debug("Forwarding request " + message.getRequest_id() + " of stream " + message.getStreamName()
+                + " to node " + owner);
+        hazelcastInstance.<StratioStreamingMessage> getTopic(getForwardTopic(channel, owner)).publish(message);
+    }
+
+    /**
+     * Receives the requests forwarded to this node by the others.
+     */
+    public void listen(String channel, MessageListener<StratioStreamingMessage> listener) {
+        hazelcastInstance.<StratioStreamingMessage> getTopic(getForwardTopic(channel, localNodeId))
+                .addMessageListener(listener);
+    }
+
+    private static String getForwardTopic(String channel, String node) {
+        return FORWARD_TOPIC_PREFIX + channel + "-" + node;
+    }
+
+    private void refreshRing() {
+        List<String> nodes = new ArrayList<>();
+        for (Member member : hazelcastInstance.getCluster().getMembers()) {
+            nodes.add(member.getUuid());
+        }
+        ring = new ConsistentHashRing(nodes);
+        logger.info("Engine nodes: {}, local node {}", nodes, localNodeId);
+    }
+
+    @Override
+    public void memberAdded(MembershipEvent membershipEvent) {
+        refreshRing();
+    }
+
+    @Override
+    public void memberRemoved(MembershipEvent membershipEvent) {
+        logger.warn("Engine node " + membershipEvent.getMember().getUuid() + " has left the cluster");
+        nodeFailureDetectedAt = System.currentTimeMillis();
+        refreshRing();
+        orphanStreamsPending.set(true);
+    }
+}
@@ -15,58 +15,75 @@
  */
 package com.stratio.streaming.streams;
 
+import java.util.Map;
+import java.util.Map.Entry;
+
 import org.wso2.siddhi.core.SiddhiManager;
 
-import com.hazelcast.core.IMap;
-import com.stratio.streaming.commons.constants.STREAMING;
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.map.EntryBackupProcessor;
+import com.hazelcast.map.EntryProcessor;
 import com.stratio.streaming.commons.constants.StreamAction;
 import com.stratio.streaming.utils.SiddhiUtils;
 
+/**
+ * Shared catalog of the streams. Reads go through the local
+ * {@link StreamStatusCache}, changes are applied where the entry is kept by
+ * entry processors instead of reading and writing back the whole status.
+ */
 public class StreamSharedStatus {
 
     private StreamSharedStatus() {
 
     }
 
+    private static StreamStatusCache getCache(SiddhiManager siddhiManager) {
+        return StreamStatusCache.of(siddhiManager.getSiddhiContext().getHazelcastInstance());
+    }
+
     public static StreamStatusDTO createStreamStatus(String streamName, SiddhiManager siddhiManager) {
 
-        IMap<Object, Object> streamStatusMap = siddhiManager.getSiddhiContext().getHazelcastInstance()
-                .getMap(STREAMING.STREAM_STATUS_MAP);
+        HazelcastInstance hazelcastInstance = siddhiManager.getSiddhiContext().getHazelcastInstance();
         StreamStatusDTO streamStatusDTO = new StreamStatusDTO(streamName, Boolean.TRUE);
+        streamStatusDTO.setOwnerNode(StreamPlacement.getLocalNodeId(hazelcastInstance));
         streamStatusDTO.setStreamDefinition(SiddhiUtils.recoverStreamDefinition(siddhiManager
                 .getStreamDefinition(streamName)));
-        streamStatusMap.put(streamName, streamStatusDTO);
+        putStreamStatus(streamStatusDTO, siddhiManager);
         return streamStatusDTO;
 
     }
 
-    public static void updateStreamDefinitionStreamStatus(String streamName, SiddhiManager siddhiManager) {
+    public static void putStreamStatus(StreamStatusDTO streamStatusDTO, SiddhiManager siddhiManager) {
+        // the engine now holding the stream, its state is taken over from
+        // there when the node dies
+        streamStatusDTO.setQueryPlanIdentifier(StreamPersistence.getQueryPlanIdentifier(siddhiManager));
+        StreamStatusCache cache = getCache(siddhiManager);
+        cache.getMap().put(streamStatusDTO.getStreamName(), streamStatusDTO);
+        cache.invalidate(streamStatusDTO.getStreamName());
+    }
 
-        IMap<Object, Object> streamStatusMap = siddhiManager.getSiddhiContext().getHazelcastInstance()
-                .getMap(STREAMING.STREAM_STATUS_MAP);
-        StreamStatusDTO streamStatusDTO = (StreamStatusDTO) streamStatusMap.get(streamName);
+    public static void updateStreamDefinitionStreamStatus(String streamName, SiddhiManager siddhiManager) {
 
-        streamStatusDTO.setStreamDefinition(SiddhiUtils.recoverStreamDefinition(siddhiManager
-                .getStreamDefinition(streamName)));
-        streamStatusMap.put(streamName, streamStatusDTO);
+        update(streamName, siddhiManager, new DefinitionUpdate(SiddhiUtils.recoverStreamDefinition(siddhiManager
+                .getStreamDefinition(streamName))));
     }
 
     public static StreamStatusDTO getStreamStatus(String streamName, SiddhiManager siddhiManager) {
 
-        IMap<Object, Object> streamStatusMap = siddhiManager.getSiddhiContext().getHazelcastInstance()
-                .getMap(STREAMING.STREAM_STATUS_MAP);
-
-        if (streamStatusMap.get(streamName) != null) {
-            return (StreamStatusDTO) streamStatusMap.get(streamName);
+        StreamStatusDTO streamStatusDTO = getCache(siddhiManager).get(streamName);
+        if (streamStatusDTO != null) {
+            return streamStatusDTO;
         } else {
             // stream status does not exist, this is an special case
             // the stream exists in siddhi becase a previous query has created
             // it
             // so we are going to register it as new
-            StreamStatusDTO streamStatusDTO = new StreamStatusDTO(streamName, Boolean.FALSE);
+            streamStatusDTO = new StreamStatusDTO(streamName, Boolean.FALSE);
+            streamStatusDTO.setOwnerNode(StreamPlacement.getLocalNodeId(siddhiManager.getSiddhiContext()
+                    .getHazelcastInstance()));
             streamStatusDTO.setStreamDefinition(SiddhiUtils.recoverStreamDefinition(siddhiManager
                     .getStreamDefinition(streamName)));
-            streamStatusMap.put(streamName, streamStatusDTO);
+            putStreamStatus(streamStatusDTO, siddhiManager);
             return streamStatusDTO;
         }
 
@@ -75,45 +92,198 @@ public class StreamSharedStatus {
     public static void addQueryToStreamStatus(String queryId, String query, String streamName,
             SiddhiManager siddhiManager) {
 
-        IMap<Object, Object> streamStatusMap = siddhiManager.getSiddhiContext().getHazelcastInstance()
-                .getMap(STREAMING.STREAM_STATUS_MAP);
-        StreamStatusDTO streamStatusDTO = (StreamStatusDTO) streamStatusMap.get(streamName);
-        streamStatusDTO.getAddedQueries().put(queryId, new QueryDTO(query));
-        streamStatusMap.put(streamStatusDTO.getStreamName(), streamStatusDTO);
+        update(streamName, siddhiManager, new AddQueryUpdate(queryId, query));
 
     }
 
-    public static String removeQueryInStreamStatus(String queryId, String streamName, SiddhiManager siddhiManager) {
+    /**
+     * Returns the id of a query already added to the stream with the same
+     * canonical text, or null if there is none.
+     */
+    public static String findSharedQueryId(String query, String streamName, SiddhiManager siddhiManager) {
 
-        IMap<Object, Object> streamStatusMap = siddhiManager.getSiddhiContext().getHazelcastInstance()
-                .getMap(STREAMING.STREAM_STATUS_MAP);
-        StreamStatusDTO streamStatusDTO = (StreamStatusDTO) streamStatusMap.get(streamName);
-        streamStatusDTO.getAddedQueries().remove(queryId);
-        streamStatusMap.put(streamStatusDTO.getStreamName(), streamStatusDTO);
-        return queryId;
+        StreamStatusDTO streamStatusDTO = getCache(siddhiManager).get(streamName);
+        if (streamStatusDTO != null) {
+            QueryDTO queryDTO = new QueryDTO(query);
+            for (Entry<String, QueryDTO> addedQuery : streamStatusDTO.getAddedQueries().entrySet()) {
+                if (addedQuery.getValue().equals(queryDTO)) {
+                    return addedQuery.getKey();
+                }
+            }
+        }
+        return null;
     }
 
-    public static void removeStreamStatus(String streamName, SiddhiManager siddhiManager) {
+    public static void retainQueryInStreamStatus(String queryId, String streamName, SiddhiManager siddhiManager) {
+
+        update(streamName, siddhiManager, new RetainQueryUpdate(queryId));
+    }
+
+    /**
+     * Releases one reference of the query, it is only removed from the stream
+     * status when nobody else shares it.
+     * 
+     * @return true if it was the last reference and the query has to be
+     *         removed from siddhi
+     */
+    public static boolean releaseQueryInStreamStatus(String queryId, String streamName, SiddhiManager siddhiManager) {
+
+        return Boolean.TRUE.equals(update(streamName, siddhiManager, new ReleaseQueryUpdate(queryId)));
+    }
 
-        IMap<Object, Object> streamStatusMap = siddhiManager.getSiddhiContext().getHazelcastInstance()
-                .getMap(STREAMING.STREAM_STATUS_MAP);
+    public static void removeStreamStatus(String streamName, SiddhiManager siddhiManager) {
 
-        streamStatusMap.remove(streamName);
+        StreamStatusCache cache = getCache(siddhiManager);
+        cache.getMap().remove(streamName);
+        cache.invalidate(streamName);
 
     }
 
     public static void changeActionStreamStatus(Boolean enable, String streamName, SiddhiManager siddhiManager,
             StreamAction action) {
 
-        IMap<Object, Object> streamStatusMap = siddhiManager.getSiddhiContext().getHazelcastInstance()
-                .getMap(STREAMING.STREAM_STATUS_MAP);
-        StreamStatusDTO streamStatusDTO = (StreamStatusDTO) streamStatusMap.get(streamName);
-        if (enable) {
-            streamStatusDTO.enableAction(action);
-        } else {
-            streamStatusDTO.disableAction(action);
+        update(streamName, siddhiManager, new ActionUpdate(enable, action));
+
+    }
+
+    private static Object update(String streamName, SiddhiManager siddhiManager, StatusUpdate update) {
+        StreamStatusCache cache = getCache(siddhiManager);
+        Object result = cache.getMap().executeOnKey(streamName, update);
+        cache.invalidate(streamName);
+        return result;
+    }
+
+    /**
+     * Change of one stream status, run on the member keeping the entry and
+     * on its backups.
+     */
+    private abstract static class StatusUpdate implements EntryProcessor<Object, Object>,
+            EntryBackupProcessor<Object, Object> {
+
+        private static final long serialVersionUID = 4731946357202517334L;
+
+        protected abstract Object update(StreamStatusDTO streamStatusDTO);
+
+        @Override
+        public Object process(Map.Entry<Object, Object> entry) {
+            StreamStatusDTO streamStatusDTO = (StreamStatusDTO) entry.getValue();
+            if (streamStatusDTO == null) {
+                return null;
+            }
+            Object result = update(streamStatusDTO);
+            streamStatusDTO.incrementVersion();
+            entry.setValue(streamStatusDTO);
+            return result;
+        }
+
+        @Override
+        public void processBackup(Map.Entry<Object, Object> entry) {
+            process(entry);
+        }
+
+        @Override
+        public EntryBackupProcessor<Object, Object> getBackupProcessor() {
+            return this;
+        }
+    }
+
+    private static class DefinitionUpdate extends StatusUpdate {
+
+        private static final long serialVersionUID = -2106874630617093811L;
+
+        private final String streamDefinition;
+
+        DefinitionUpdate(String streamDefinition) {
+            this.streamDefinition = streamDefinition;
+        }
+
+        @Override
+        protected Object update(StreamStatusDTO streamStatusDTO) {
+            streamStatusDTO.setStreamDefinition(streamDefinition);
+            return null;
+        }
+    }
+
+    private static class AddQueryUpdate extends StatusUpdate {
+
+        private static final long serialVersionUID = 6254103798523471207L;
+
+        private final String queryId;
+        private final String query;
+
+        AddQueryUpdate(String queryId, String query) {
+            this.queryId = queryId;
+            this.query = query;
+        }
+
+        @Override
+        protected Object update(StreamStatusDTO streamStatusDTO) {
+            streamStatusDTO.getAddedQueries().put(queryId, new QueryDTO(query));
+            return null;
+        }
+    }
+
+    private static class RetainQueryUpdate extends StatusUpdate {
+
+        private static final long serialVersionUID = -5320912785166310942L;
+
+        private final String queryId;
+
+        RetainQueryUpdate(String queryId) {
+            this.queryId = queryId;
+        }
+
+        @Override
+        protected Object update(StreamStatusDTO streamStatusDTO) {
+            QueryDTO queryDTO = streamStatusDTO.getAddedQueries().get(queryId);
+            if (queryDTO != null) {
+                queryDTO.retain();
+            }
+            return null;
+        }
+    }
+
+    private static class ReleaseQueryUpdate extends StatusUpdate {
+
+        private static final long serialVersionUID = 1872564039921640853L;
+
+        private final String queryId;
+
+        ReleaseQueryUpdate(String queryId) {
+            this.queryId = queryId;
         }
-        streamStatusMap.put(streamStatusDTO.getStreamName(), streamStatusDTO);
 
+        @Override
+        protected Object update(StreamStatusDTO streamStatusDTO) {
+            QueryDTO queryDTO = streamStatusDTO.getAddedQueries().get(queryId);
+            boolean lastReference = queryDTO == null || queryDTO.release() <= 0;
+            if (lastReference) {
+                streamStatusDTO.getAddedQueries().remove(queryId);
+            }
+            return lastReference;
+        }
+    }
+
+    private static class ActionUpdate extends StatusUpdate {
+
+        private static final long serialVersionUID = -7702460213384172594L;
+
+        private final boolean enable;
+        private final StreamAction action;
+
+        ActionUpdate(boolean enable, StreamAction action) {
+            this.enable = enable;
+            this.action = action;
+        }
+
+        @Override
+        protected Object update(StreamStatusDTO streamStatusDTO) {
+            if (enable) {
+                streamStatusDTO.enableAction(action);
+            } else {
+                streamStatusDTO.disableAction(action);
+            }
+            return null;
+        }
     }
 }
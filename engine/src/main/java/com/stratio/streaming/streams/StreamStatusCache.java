@@ -0,0 +1,170 @@
+/**
+ * Copyright (C) 2014 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.streaming.streams;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.hazelcast.core.EntryEvent;
+import com.hazelcast.core.EntryListener;
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.IMap;
+import com.stratio.streaming.commons.constants.STREAMING;
+
+/**
+ * Local copy of the shared streams catalog, so reading the status of a
+ * stream does not cost a round trip and a deserialization each time.
+ *
+ * Entries are dropped when any node changes them, the listener does not
+ * carry the values. Every change also moves the catalog version, so the
+ * whole catalog is only read again when something has changed.
+ */
+public class StreamStatusCache implements EntryListener<Object, Object> {
+
+    private static final Map<HazelcastInstance, StreamStatusCache> caches = Collections
+            .synchronizedMap(new WeakHashMap<HazelcastInstance, StreamStatusCache>());
+
+    private final IMap<Object, Object> streamStatusMap;
+    private final ConcurrentMap<String, StreamStatusDTO> entries = new ConcurrentHashMap<>();
+    private final AtomicLong version = new AtomicLong();
+
+    private volatile CatalogSnapshot allEntries;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Whole catalog with the version it was read at, published together so
+     * a reader never pairs a list with the version of another one.
+     */
+    private static final class CatalogSnapshot {
+        private final List<StreamStatusDTO> streams;
+        private final long version;
+
+        private CatalogSnapshot(List<StreamStatusDTO> streams, long version) {
+            this.streams = streams;
+            this.version = version;
+        }
+    }
+
+    StreamStatusCache(IMap<Object, Object> streamStatusMap) {
+        this.streamStatusMap = streamStatusMap;
+        streamStatusMap.addEntryListener(this, false);
+    }
+
+    public static StreamStatusCache of(HazelcastInstance hazelcastInstance) {
+        synchronized (caches) {
+            StreamStatusCache cache = caches.get(hazelcastInstance);
+            if (cache == null) {
+                cache = new StreamStatusCache(hazelcastInstance.<Object, Object> getMap(STREAMING.STREAM_STATUS_MAP));
+                caches.put(hazelcastInstance, cache);
+            }
+            return cache;
+        }
+    }
+
+    public IMap<Object, Object> getMap() {
+        return streamStatusMap;
+    }
+
+    /**
+     * @return the status of the stream, null if it is not in the catalog
+     */
+    public StreamStatusDTO get(String streamName) {
+        StreamStatusDTO streamStatus = entries.get(streamName);
+        if (streamStatus != null) {
+            hits.incrementAndGet();
+            return streamStatus;
+        }
+        misses.incrementAndGet();
+        long loadVersion = version.get();
+        streamStatus = (StreamStatusDTO) streamStatusMap.get(streamName);
+        // not cached if it has changed while being read
+        if (streamStatus != null && loadVersion == version.get()) {
+            entries.put(streamName, streamStatus);
+        }
+        return streamStatus;
+    }
+
+    /**
+     * @return every stream of the catalog, read again only if it has changed
+     */
+    public List<StreamStatusDTO> getAll() {
+        long loadVersion = version.get();
+        CatalogSnapshot cached = allEntries;
+        if (cached != null && cached.version == loadVersion) {
+            hits.incrementAndGet();
+            return cached.streams;
+        }
+        misses.incrementAndGet();
+        List<StreamStatusDTO> loaded = new ArrayList<>();
+        for (Object value : streamStatusMap.values()) {
+            loaded.add((StreamStatusDTO) value);
+        }
+        loaded = Collections.unmodifiableList(loaded);
+        allEntries = new CatalogSnapshot(loaded, loadVersion);
+        return loaded;
+    }
+
+    /**
+     * Drops a stream changed by this node, without waiting for its event.
+     */
+    public void invalidate(String streamName) {
+        version.incrementAndGet();
+        entries.remove(streamName);
+    }
+
+    /**
+     * @return number of changes seen in the catalog
+     */
+    public long getVersion() {
+        return version.get();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public void entryAdded(EntryEvent<Object, Object> event) {
+        invalidate((String) event.getKey());
+    }
+
+    @Override
+    public void entryRemoved(EntryEvent<Object, Object> event) {
+        invalidate((String) event.getKey());
+    }
+
+    @Override
+    public void entryUpdated(EntryEvent<Object, Object> event) {
+        invalidate((String) event.getKey());
+    }
+
+    @Override
+    public void entryEvicted(EntryEvent<Object, Object> event) {
+        invalidate((String) event.getKey());
+    }
+}
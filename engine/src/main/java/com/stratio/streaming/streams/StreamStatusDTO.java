@@ -31,6 +31,9 @@ public class StreamStatusDTO implements Serializable {
     private String streamName;
     private String streamDefinition;
     private Boolean userDefined;
+    private String ownerNode;
+    private String queryPlanIdentifier;
+    private long version;
 
     private final Set<StreamAction> actionsEnabled;
 
@@ -89,6 +92,29 @@ public class StreamStatusDTO implements Serializable {
         this.streamDefinition = streamDefinition;
     }
 
+    /**
+     * Engine node running the stream, see {@link StreamPlacement}
+     */
+    public String getOwnerNode() {
+        return ownerNode;
+    }
+
+    public void setOwnerNode(String ownerNode) {
+        this.ownerNode = ownerNode;
+    }
+
+    /**
+     * Identifier the state of the stream is persisted with, null if the
+     * failover is disabled. See {@link StreamFailover}
+     */
+    public String getQueryPlanIdentifier() {
+        return queryPlanIdentifier;
+    }
+
+    public void setQueryPlanIdentifier(String queryPlanIdentifier) {
+        this.queryPlanIdentifier = queryPlanIdentifier;
+    }
+
     public HashMap<String, QueryDTO> getAddedQueries() {
         return addedQueries;
     }
@@ -97,4 +123,15 @@ public class StreamStatusDTO implements Serializable {
         this.addedQueries = addedQueries;
     }
 
+    /**
+     * Number of changes applied to the status since it was created
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public void incrementVersion() {
+        version++;
+    }
+
 }
@@ -0,0 +1,61 @@
+/**
+ * Copyright (C) 2014 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.streaming.streams;
+
+import org.wso2.siddhi.core.persistence.PersistenceStore;
+
+/**
+ * Siddhi persistence store that also keeps the execution plan, so the
+ * streams and queries can be defined again before restoring their state.
+ */
+public interface StreamingPersistenceStore extends PersistenceStore {
+
+    interface Factory {
+        StreamingPersistenceStore create(String queryPlanIdentifier);
+    }
+
+    void saveExecutionPlan(String executionPlan);
+
+    String recoverLastExecutionPlan(String executionPlanIdentifier);
+
+    void removeAllRevisions();
+
+    /**
+     * Sets the sequence of the last logged insert held by the state persisted
+     * next, it is written together with the snapshots of that revision.
+     * 
+     * @param insertLogSequence
+     *            null to persist without insert log
+     */
+    void setInsertLogSequence(Long insertLogSequence);
+
+    /**
+     * @return sequence of the last logged insert held by the revision, null
+     *         if it was saved without insert log
+     */
+    Long getInsertLogSequence(String revision);
+
+    /**
+     * @return bytes of snapshots written since the store was created
+     */
+    long getWrittenBytes();
+
+    void setSnapshotSerializer(SnapshotSerializer snapshotSerializer);
+
+    void setDeltaSnapshots(DeltaSnapshots deltaSnapshots);
+
+    void setSnapshotRetention(SnapshotRetention snapshotRetention);
+}
@@ -0,0 +1,80 @@
+/**
+ * Copyright (C) 2014 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.streaming.utils;
+
+import java.util.Properties;
+
+import kafka.javaapi.producer.Producer;
+import kafka.producer.KeyedMessage;
+import kafka.producer.ProducerConfig;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.Gson;
+import com.stratio.streaming.commons.messages.StratioStreamingMessage;
+
+/**
+ * Sends the replies of the requests. Requests carrying a reply topic are
+ * answered in that kafka topic, keyed by request id, the rest in a zookeeper
+ * znode as the API has always expected.
+ */
+public class ReplyUtils {
+
+    private static Logger logger = LoggerFactory.getLogger(ReplyUtils.class);
+
+    private static volatile Producer<String, String> replyProducer;
+
+    private ReplyUtils() {
+    }
+
+    public static synchronized void startKafkaReplies(String kafkaCluster) {
+        if (replyProducer == null) {
+            replyProducer = new Producer<String, String>(createProducerConfig(kafkaCluster));
+        }
+    }
+
+    public static synchronized void shutdownKafkaReplies() {
+        if (replyProducer != null) {
+            replyProducer.close();
+            replyProducer = null;
+        }
+    }
+
+    public static void sendJsonReply(String zookeeperCluster, StratioStreamingMessage request, Object reply)
+            throws Exception {
+
+        Producer<String, String> producer = replyProducer;
+        if (request.getReply_topic() != null && producer != null) {
+            producer.send(new KeyedMessage<String, String>(request.getReply_topic(), request.getRequest_id(),
+                    new Gson().toJson(reply)));
+            logger.debug("Reply of request {} sent to topic {}", request.getRequest_id(), request.getReply_topic());
+        } else {
+            ZKUtils.getZKUtils(zookeeperCluster).createZNodeJsonReply(request, reply);
+        }
+    }
+
+    private static ProducerConfig createProducerConfig(String kafkaCluster) {
+        Properties properties = new Properties();
+        properties.put("serializer.class", "kafka.serializer.StringEncoder");
+        properties.put("metadata.broker.list", kafkaCluster);
+        // the API is waiting, a reply must not sit in a batch
+        properties.put("producer.type", "sync");
+        properties.put("request.required.acks", "1");
+
+        return new ProducerConfig(properties);
+    }
+}
@@ -15,10 +15,13 @@
  */
 package com.stratio.streaming.utils;
 
+import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -34,15 +37,21 @@ import org.wso2.siddhi.query.compiler.exception.SiddhiPraserException;
 import com.hazelcast.config.Config;
 import com.hazelcast.config.JoinConfig;
 import com.hazelcast.config.NetworkConfig;
+import com.hazelcast.core.HazelcastInstance;
 import com.hazelcast.instance.HazelcastInstanceFactory;
 import com.stratio.streaming.commons.constants.ColumnType;
 import com.stratio.streaming.commons.constants.STREAMING;
 import com.stratio.streaming.commons.constants.STREAM_OPERATIONS;
 import com.stratio.streaming.commons.messages.ColumnNameTypeValue;
 import com.stratio.streaming.commons.messages.StratioStreamingMessage;
+import com.stratio.streaming.extensions.DedupeWindowExtension;
 import com.stratio.streaming.extensions.DistinctWindowExtension;
+import com.stratio.streaming.extensions.PaneWindowExtension;
+import com.stratio.streaming.extensions.SessionWindowExtension;
 import com.stratio.streaming.streams.Casandra2PersistenceStore;
-import com.stratio.streaming.streams.StreamPersistence;
+import com.stratio.streaming.streams.SiddhiShards;
+import com.stratio.streaming.streams.StreamPersistence;
+import com.stratio.streaming.streams.StreamingPersistenceStore;
 
 public class SiddhiUtils {
 
@@ -50,6 +59,9 @@ public class SiddhiUtils {
 
     public static final String QUERY_PLAN_IDENTIFIER = "StratioStreamingCEP-Cluster";
 
+    private static final Pattern QUERY_OUTPUT_STREAM = Pattern.compile(
+            "\\binsert\\s+(?:(?:current|expired|all)-events\\s+)?into\\s+(\\w+)", Pattern.CASE_INSENSITIVE);
+
     private SiddhiUtils() {
 
     }
@@ -104,6 +116,31 @@ public class SiddhiUtils {
                 + attributesList.substring(0, attributesList.length() - 1) + ")";
     }
 
+    /**
+     * Columns of a definition built by
+     * {@link #recoverStreamDefinition(StreamDefinition)}
+     */
+    public static List<ColumnNameTypeValue> decodeStreamDefinitionColumns(String streamDefinition)
+            throws SiddhiPraserException {
+
+        int start = streamDefinition.indexOf('(');
+        int end = streamDefinition.lastIndexOf(')');
+        if (start < 0 || end < start) {
+            throw new SiddhiPraserException("Malformed stream definition: " + streamDefinition);
+        }
+
+        List<ColumnNameTypeValue> columns = new ArrayList<>();
+        for (String field : streamDefinition.substring(start + 1, end).split(",")) {
+            String[] nameAndType = field.trim().split("\\s+");
+            if (nameAndType.length != 2) {
+                throw new SiddhiPraserException("Malformed stream definition: " + streamDefinition);
+            }
+            columns.add(new ColumnNameTypeValue(nameAndType[0], encodeSiddhiType(Attribute.Type
+                    .valueOf(nameAndType[1].toUpperCase())), null));
+        }
+        return columns;
+    }
+
     public static StreamDefinition buildDefineStreamSiddhiQL(StratioStreamingMessage request) {
 
         StreamDefinition newStream = QueryFactory.createStreamDefinition().name(request.getStreamName());
@@ -139,33 +176,120 @@ public class SiddhiUtils {
      * @return SiddhiManager
      */
     public static SiddhiManager setupSiddhiManager(String cassandraCluster, Boolean failOverEnabled) {
+        return setupSiddhiManager(cassandraStoreFactory(cassandraCluster, failOverEnabled),
+                newHazelcastInstance(null), QUERY_PLAN_IDENTIFIER);
+    }
+
+    /**
+     * Instantiates one siddhi engine per shard, all of them sharing the same
+     * hazelcast instance so the streams catalog is common.
+     */
+    public static SiddhiShards setupSiddhiShards(int shards, String cassandraCluster, Boolean failOverEnabled) {
+        return setupSiddhiShards(shards, cassandraCluster, failOverEnabled, null);
+    }
+
+    /**
+     * @param clusterMembers
+     *            engine nodes to join, host or host:port, null or empty to
+     *            run alone
+     */
+    public static SiddhiShards setupSiddhiShards(int shards, String cassandraCluster, Boolean failOverEnabled,
+            List<String> clusterMembers) {
+        return setupSiddhiShards(shards, cassandraStoreFactory(cassandraCluster, failOverEnabled), clusterMembers,
+                null);
+    }
+
+    /**
+     * @param storeFactory
+     *            creates the persistence store of every shard, null to
+     *            disable the failover
+     * @param nodeName
+     *            name of this node in the cluster, null to use its hazelcast
+     *            address. Ignored when running alone
+     */
+    public static SiddhiShards setupSiddhiShards(int shards, StreamingPersistenceStore.Factory storeFactory,
+            List<String> clusterMembers, String nodeName) {
+
+        HazelcastInstance hazelcastInstance = newHazelcastInstance(clusterMembers);
+        if (clusterMembers == null) {
+            nodeName = null;
+        } else {
+            if (nodeName == null) {
+                InetSocketAddress address = hazelcastInstance.getCluster().getLocalMember().getInetSocketAddress();
+                nodeName = address.getAddress().getHostAddress() + ":" + address.getPort();
+            }
+            logger.info("Engine node name: " + nodeName);
+        }
+
+        List<SiddhiManager> siddhiManagers = new ArrayList<>(shards);
+        for (int i = 0; i < shards; i++) {
+            siddhiManagers.add(setupSiddhiManager(storeFactory, hazelcastInstance,
+                    SiddhiShards.getQueryPlanIdentifier(nodeName, i)));
+        }
+        return new SiddhiShards(siddhiManagers, nodeName);
+    }
+
+    private static StreamingPersistenceStore.Factory cassandraStoreFactory(final String cassandraCluster,
+            Boolean failOverEnabled) {
+        if (!failOverEnabled) {
+            return null;
+        }
+        return new StreamingPersistenceStore.Factory() {
+            @Override
+            public StreamingPersistenceStore create(String queryPlanIdentifier) {
+                return new Casandra2PersistenceStore(cassandraCluster, "", "", queryPlanIdentifier);
+            }
+        };
+    }
+
+    private static HazelcastInstance newHazelcastInstance(List<String> clusterMembers) {
+        Config config = new Config();
+        config.setInstanceName("stratio-streaming-hazelcast-instance");
+        NetworkConfig network = config.getNetworkConfig();
+        JoinConfig join = network.getJoin();
+        join.getMulticastConfig().setEnabled(false);
+        if (clusterMembers != null && !clusterMembers.isEmpty()) {
+            join.getTcpIpConfig().setEnabled(true).setMembers(clusterMembers);
+        }
+
+        return HazelcastInstanceFactory.newHazelcastInstance(config);
+    }
+
+    /**
+     * Instantiates a siddhi engine joined to the streams catalog of the
+     * hazelcast instance, restoring the last revision persisted with the
+     * identifier.
+     * 
+     * @param storeFactory
+     *            creates the persistence store of the engine, null to disable
+     *            the failover
+     */
+    public static SiddhiManager setupSiddhiManager(StreamingPersistenceStore.Factory storeFactory,
+            HazelcastInstance hazelcastInstance, String queryPlanIdentifier) {
 
         SiddhiConfiguration conf = new SiddhiConfiguration();
         conf.setInstanceIdentifier("StratioStreamingCEP-Instance-" + UUID.randomUUID().toString());
-        conf.setQueryPlanIdentifier(QUERY_PLAN_IDENTIFIER);
+        conf.setQueryPlanIdentifier(queryPlanIdentifier);
         conf.setDistributedProcessing(false);
 
         @SuppressWarnings("rawtypes")
         List<Class> extensions = new ArrayList<>();
         extensions.add(DistinctWindowExtension.class);
+        extensions.add(PaneWindowExtension.class);
+        extensions.add(SessionWindowExtension.class);
+        extensions.add(DedupeWindowExtension.class);
         conf.setSiddhiExtensions(extensions);
 
         // Create Siddhi Manager
         SiddhiManager siddhiManager = new SiddhiManager(conf);
 
-        Config config = new Config();
-        config.setInstanceName("stratio-streaming-hazelcast-instance");
-        NetworkConfig network = config.getNetworkConfig();
-        JoinConfig join = network.getJoin();
-        join.getMulticastConfig().setEnabled(false);
-
-        siddhiManager.getSiddhiContext().setHazelcastInstance(HazelcastInstanceFactory.newHazelcastInstance(config));
+        siddhiManager.getSiddhiContext().setHazelcastInstance(hazelcastInstance);
 
-        if (failOverEnabled) {
+        if (storeFactory != null) {
 
-            siddhiManager.setPersistStore(new Casandra2PersistenceStore(cassandraCluster, "", ""));
+            siddhiManager.setPersistStore(storeFactory.create(queryPlanIdentifier));
 
-            StreamPersistence.restoreLastRevision(siddhiManager);
+            StreamPersistence.restoreLastRevision(siddhiManager, queryPlanIdentifier);
         }
 
         return siddhiManager;
@@ -197,6 +321,40 @@ public class SiddhiUtils {
 
     }
 
+    /**
+     * Orders the values of the rows of a bulk insert, resolving the positions
+     * of their column names only once.
+     */
+    public static List<Object[]> getOrderedValues(StreamDefinition streamMetaData, List<ColumnNameTypeValue> columns,
+            List<List<Object>> rows) throws AttributeNotExistException {
+
+        int attributes = streamMetaData.getAttributeList().size();
+        int[] positions = new int[columns.size()];
+        Attribute.Type[] types = new Attribute.Type[columns.size()];
+        for (int i = 0; i < columns.size(); i++) {
+            positions[i] = streamMetaData.getAttributePosition(columns.get(i).getColumn());
+            types[i] = streamMetaData.getAttributeType(columns.get(i).getColumn());
+        }
+
+        List<Object[]> events = new ArrayList<>(rows.size());
+        for (List<Object> row : rows) {
+            Object[] orderedValues = new Object[attributes];
+            for (int i = 0; i < positions.length && i < row.size(); i++) {
+                Object value = row.get(i);
+                if (value instanceof String) {
+                    orderedValues[positions[i]] = decodeSiddhiValue((String) value, types[i]);
+                } else if (value instanceof Double) {
+                    orderedValues[positions[i]] = decodeSiddhiValue((Double) value, types[i]);
+                } else {
+                    orderedValues[positions[i]] = value;
+                }
+            }
+            events.add(orderedValues);
+        }
+
+        return events;
+    }
+
     private static Object decodeSiddhiValue(String originalValue, Attribute.Type type) throws SiddhiPraserException {
 
         switch (type) {
@@ -237,6 +395,15 @@ public class SiddhiUtils {
 
     }
 
+    /**
+     * Returns the stream a query inserts into, or null if it has no insert
+     * into clause.
+     */
+    public static String getQueryOutputStreamName(String query) {
+        Matcher matcher = QUERY_OUTPUT_STREAM.matcher(query);
+        return matcher.find() ? matcher.group(1) : null;
+    }
+
     // TODO move to StreamingCommons
     public static Boolean isStreamAllowedForThisOperation(String streamName, String operation) {
 
@@ -0,0 +1,155 @@
+/**
+ * Copyright (C) 2014 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.streaming.utils;
+
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Removes the replies nobody has read once they are older than their time to
+ * live. Replies are indexed by creation time slot when written, so a sweep
+ * only takes the expired slots and deletes their replies in background,
+ * without walking the zookeeper tree.
+ *
+ * Replies left by a previous run are indexed once, by their real creation
+ * time.
+ */
+public class ZKReplyCleaner implements Runnable {
+
+    private static Logger logger = LoggerFactory.getLogger(ZKReplyCleaner.class);
+
+    public static final long DEFAULT_TTL = 600000; // 10 minutes
+    public static final long DEFAULT_SLOT = 60000; // 1 minute
+
+    private final CuratorFramework client;
+    private final long ttlMillis;
+    private final long slotMillis;
+
+    private final ConcurrentSkipListMap<Long, Queue<String>> slots = new ConcurrentSkipListMap<>();
+    private final AtomicLong tracked = new AtomicLong();
+    private final AtomicLong removed = new AtomicLong();
+
+    public ZKReplyCleaner(CuratorFramework client) {
+        this(client, DEFAULT_TTL, DEFAULT_SLOT);
+    }
+
+    public ZKReplyCleaner(CuratorFramework client, long ttlMillis, long slotMillis) {
+        this.client = client;
+        this.ttlMillis = ttlMillis;
+        this.slotMillis = slotMillis;
+    }
+
+    public void track(String path) {
+        track(path, System.currentTimeMillis());
+    }
+
+    public void track(String path, long createdMillis) {
+        Long slot = createdMillis - createdMillis % slotMillis;
+        Queue<String> paths = slots.get(slot);
+        if (paths == null) {
+            Queue<String> created = new ConcurrentLinkedQueue<>();
+            paths = slots.putIfAbsent(slot, created);
+            if (paths == null) {
+                paths = created;
+            }
+        }
+        paths.add(path);
+        tracked.incrementAndGet();
+    }
+
+    /**
+     * Indexes the replies found under the base path, one level of operations
+     * and one of requests. Ephemeral nodes and nodes with children are not
+     * replies.
+     */
+    public void indexExistingReplies(String basePath) throws Exception {
+        if (client.checkExists().forPath(basePath) == null) {
+            return;
+        }
+        int indexed = 0;
+        for (String operation : client.getChildren().forPath(basePath)) {
+            String operationPath = basePath + "/" + operation;
+            for (String request : client.getChildren().forPath(operationPath)) {
+                String replyPath = operationPath + "/" + request;
+                Stat reply = client.checkExists().forPath(replyPath);
+                if (reply != null && reply.getEphemeralOwner() == 0 && reply.getNumChildren() == 0) {
+                    track(replyPath, reply.getCtime());
+                    indexed++;
+                }
+            }
+        }
+        logger.info("{} replies of previous runs indexed for cleaning", indexed);
+    }
+
+    @Override
+    public void run() {
+        try {
+            int sweptReplies = sweep(System.currentTimeMillis());
+            logger.debug("{} old replies removed from ZK", sweptReplies);
+        } catch (Exception e) {
+            logger.info("Error cleaning zookeeper replies: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Deletes the replies of every slot whose newest reply is older than the
+     * time to live.
+     * 
+     * @return number of replies deleted
+     */
+    public int sweep(long nowMillis) throws Exception {
+        int sweptReplies = 0;
+        ConcurrentNavigableMap<Long, Queue<String>> expired = slots.headMap(nowMillis - ttlMillis - slotMillis, true);
+        Iterator<Entry<Long, Queue<String>>> expiredSlots = expired.entrySet().iterator();
+        while (expiredSlots.hasNext()) {
+            Queue<String> paths = expiredSlots.next().getValue();
+            expiredSlots.remove();
+            for (String path : paths) {
+                // most of them have already been read and removed by the API
+                delete(path);
+                sweptReplies++;
+            }
+        }
+        tracked.addAndGet(-sweptReplies);
+        removed.addAndGet(sweptReplies);
+        return sweptReplies;
+    }
+
+    protected void delete(String path) throws Exception {
+        client.delete().inBackground().forPath(path);
+    }
+
+    /**
+     * @return replies waiting for their slot to expire
+     */
+    public long getTracked() {
+        return tracked.get();
+    }
+
+    public long getRemoved() {
+        return removed.get();
+    }
+}
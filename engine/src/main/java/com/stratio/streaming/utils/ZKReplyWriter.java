@@ -0,0 +1,236 @@
+/**
+ * Copyright (C) 2014 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.streaming.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.api.transaction.CuratorTransactionFinal;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes the request replies in zookeeper from its own thread, so the
+ * streaming batch does not wait for zookeeper round trips. Replies queued
+ * together are created in a single multi-op transaction.
+ *
+ * The queue is bounded: when zookeeper can not keep up, whoever replies
+ * waits instead of losing the reply.
+ */
+public class ZKReplyWriter implements Runnable {
+
+    private static Logger logger = LoggerFactory.getLogger(ZKReplyWriter.class);
+
+    private static final int DEFAULT_CAPACITY = 1024;
+    private static final int MAX_BATCH_SIZE = 64;
+    private static final long POLL_MILLIS = 100;
+
+    private final CuratorFramework client;
+    private final ZKReplyCleaner replyCleaner;
+    private final BlockingQueue<PendingReply> pendingReplies;
+    private final Set<String> existingParents = Collections
+            .newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong totalLatencyNanos = new AtomicLong();
+    private volatile long maxLatencyNanos;
+
+    private final Thread worker;
+    private volatile boolean running = true;
+
+    public ZKReplyWriter(CuratorFramework client) {
+        this(client, null);
+    }
+
+    /**
+     * @param replyCleaner
+     *            told about every reply written, null if they are not cleaned
+     */
+    public ZKReplyWriter(CuratorFramework client, ZKReplyCleaner replyCleaner) {
+        this(client, replyCleaner, DEFAULT_CAPACITY);
+    }
+
+    public ZKReplyWriter(CuratorFramework client, ZKReplyCleaner replyCleaner, int capacity) {
+        this.client = client;
+        this.replyCleaner = replyCleaner;
+        this.pendingReplies = new ArrayBlockingQueue<>(capacity);
+        this.worker = new Thread(this, "stratio-zookeeper-replies");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Queues a reply, waiting for room if the queue is full.
+     */
+    public void write(String path, byte[] data) throws InterruptedException {
+        if (!running) {
+            throw new IllegalStateException("Zookeeper reply writer is shut down");
+        }
+        pendingReplies.put(new PendingReply(path, data));
+    }
+
+    @Override
+    public void run() {
+        List<PendingReply> batch = new ArrayList<>(MAX_BATCH_SIZE);
+        while (running || !pendingReplies.isEmpty()) {
+            try {
+                PendingReply first = pendingReplies.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                pendingReplies.drainTo(batch, MAX_BATCH_SIZE - 1);
+                writeBatch(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void writeBatch(List<PendingReply> batch) {
+        try {
+            for (PendingReply reply : batch) {
+                ensureParent(reply.path);
+            }
+            CuratorTransactionFinal transaction = null;
+            for (PendingReply reply : batch) {
+                transaction = (transaction == null ? client.inTransaction() : transaction).create()
+                        .forPath(reply.path, reply.data).and();
+            }
+            transaction.commit();
+            batches.incrementAndGet();
+            for (PendingReply reply : batch) {
+                replied(reply);
+            }
+        } catch (Exception e) {
+            // a reply already written or a parent removed by the cleaner
+            // fails the whole transaction, write them one by one
+            logger.debug("Reply transaction of {} replies failed: {}", batch.size(), e.getMessage());
+            existingParents.clear();
+            for (PendingReply reply : batch) {
+                writeOne(reply);
+            }
+        }
+    }
+
+    private void writeOne(PendingReply reply) {
+        try {
+            if (client.checkExists().forPath(reply.path) != null) {
+                client.delete().deletingChildrenIfNeeded().forPath(reply.path);
+            }
+            client.create().creatingParentsIfNeeded().forPath(reply.path, reply.data);
+            batches.incrementAndGet();
+            replied(reply);
+        } catch (Exception e) {
+            failed.incrementAndGet();
+            logger.error("Error writing reply " + reply.path, e);
+        }
+    }
+
+    private void ensureParent(String path) throws Exception {
+        String parent = path.substring(0, path.lastIndexOf('/'));
+        if (!existingParents.contains(parent)) {
+            if (client.checkExists().forPath(parent) == null) {
+                client.create().creatingParentsIfNeeded().forPath(parent);
+            }
+            existingParents.add(parent);
+        }
+    }
+
+    private void replied(PendingReply reply) {
+        long latency = System.nanoTime() - reply.queuedNanos;
+        written.incrementAndGet();
+        totalLatencyNanos.addAndGet(latency);
+        if (latency > maxLatencyNanos) {
+            maxLatencyNanos = latency;
+        }
+        if (replyCleaner != null) {
+            replyCleaner.track(reply.path);
+        }
+    }
+
+    /**
+     * Stops accepting replies and waits for the queued ones to be written.
+     */
+    public void shutdown(long timeoutMillis) {
+        running = false;
+        try {
+            worker.join(timeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (worker.isAlive()) {
+            logger.warn("Zookeeper reply writer closed with {} pending replies", pendingReplies.size());
+            worker.interrupt();
+        }
+    }
+
+    public long getWritten() {
+        return written.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * @return zookeeper writes made, a transaction counts as one
+     */
+    public long getBatches() {
+        return batches.get();
+    }
+
+    public int getPending() {
+        return pendingReplies.size();
+    }
+
+    /**
+     * @return average time from queuing a reply until it is written
+     */
+    public long getAverageLatencyMicros() {
+        long count = written.get();
+        return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalLatencyNanos.get() / count);
+    }
+
+    public long getMaxLatencyMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(maxLatencyNanos);
+    }
+
+    private static class PendingReply {
+
+        private final String path;
+        private final byte[] data;
+        private final long queuedNanos = System.nanoTime();
+
+        PendingReply(String path, byte[] data) {
+            this.path = path;
+            this.data = data;
+        }
+    }
+}
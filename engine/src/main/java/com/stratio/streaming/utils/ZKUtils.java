@@ -15,16 +15,18 @@
  */
 package com.stratio.streaming.utils;
 
-import java.util.Iterator;
-import java.util.concurrent.ExecutorService;
+import java.io.IOException;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.curator.framework.CuratorFrameworkFactory;
 import org.apache.curator.framework.imps.CuratorFrameworkState;
+import org.apache.curator.framework.recipes.leader.LeaderLatch;
+import org.apache.curator.framework.recipes.leader.LeaderLatchListener;
 import org.apache.curator.retry.ExponentialBackoffRetry;
 import org.apache.zookeeper.CreateMode;
-import org.apache.zookeeper.data.Stat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -36,9 +38,15 @@ public class ZKUtils {
 
     private static Logger logger = LoggerFactory.getLogger(ZKUtils.class);
 
+    private static final long REPLY_WRITER_SHUTDOWN_TIMEOUT = 5000;
+    private static final long CLEAN_INTERVAL = 30000;
+
     private static ZKUtils self;
     private CuratorFramework client;
-    private ExecutorService backgroundZookeeperCleanerTasks;
+    private ScheduledExecutorService backgroundZookeeperCleanerTasks;
+    private ZKReplyCleaner replyCleaner;
+    private ZKReplyWriter replyWriter;
+    private LeaderLatch engineLeaderLatch;
 
     private ZKUtils(String zookeeperCluster) throws Exception {
 
@@ -51,8 +59,21 @@ public class ZKUtils {
         if (client.getState().compareTo(CuratorFrameworkState.STARTED) != 0) {
             throw new Exception("Connection to Zookeeper timed out after seconds");
         } else {
-            backgroundZookeeperCleanerTasks = Executors.newFixedThreadPool(1);
-            backgroundZookeeperCleanerTasks.submit(new ZookeeperBackgroundCleaner(client));
+            replyCleaner = new ZKReplyCleaner(client);
+            replyWriter = new ZKReplyWriter(client, replyCleaner);
+            backgroundZookeeperCleanerTasks = Executors.newSingleThreadScheduledExecutor();
+            backgroundZookeeperCleanerTasks.submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        replyCleaner.indexExistingReplies(STREAMING.ZK_BASE_PATH);
+                    } catch (Exception e) {
+                        logger.warn("Error indexing the replies of previous runs", e);
+                    }
+                }
+            });
+            backgroundZookeeperCleanerTasks.scheduleWithFixedDelay(replyCleaner, CLEAN_INTERVAL, CLEAN_INTERVAL,
+                    TimeUnit.MILLISECONDS);
         }
 
     }
@@ -66,7 +87,15 @@ public class ZKUtils {
 
     public static void shutdownZKUtils() {
         if (self != null) {
+            if (self.engineLeaderLatch != null) {
+                try {
+                    self.engineLeaderLatch.close();
+                } catch (IOException e) {
+                    logger.warn("Error leaving the engine leader election", e);
+                }
+            }
             self.backgroundZookeeperCleanerTasks.shutdownNow();
+            self.replyWriter.shutdown(REPLY_WRITER_SHUTDOWN_TIMEOUT);
             self.client.close();
         }
     }
@@ -80,98 +109,55 @@ public class ZKUtils {
         client.create().creatingParentsIfNeeded().withMode(CreateMode.EPHEMERAL).forPath(path, data);
     }
 
-    public void createZNodeJsonReply(StratioStreamingMessage request, Object reply) throws Exception {
-
-        String path = STREAMING.ZK_BASE_PATH + "/" + request.getOperation().toLowerCase() + "/"
-                + request.getRequest_id();
-
-        if (client.checkExists().forPath(path) != null) {
-            client.delete().deletingChildrenIfNeeded().forPath(path);
-        }
-
-        client.create().creatingParentsIfNeeded().forPath(path, new Gson().toJson(reply).getBytes());
-
-        logger.info("**** ZKUTILS " + request.getOperation() + "//" + request.getRequest_id() + "//" + reply + "//"
-                + path);
-
-    }
-
-    private class ZookeeperBackgroundCleaner implements Runnable {
-
-        private Logger logger = LoggerFactory.getLogger(ZookeeperBackgroundCleaner.class);
-
-        private CuratorFramework client;
-        private static final long ZNODES_TTL = 600000; // 10 minutes
-        private static final long CLEAN_INTERVAL = 30000; // 5 minutes
-
-        /**
-		 * 
-		 */
-        public ZookeeperBackgroundCleaner(CuratorFramework client) {
-            this.client = client;
-            logger.debug("Starting ZookeeperBackgroundCleaner...");
-            logger.info("ZookeeperBackgroundCleaner BASE path " + STREAMING.ZK_BASE_PATH);
-        }
-
-        private int removeOldChildZnodes(String path) throws Exception {
+    /**
+     * Several engine nodes can run at the same time, only the elected leader
+     * keeps the ephemeral znode, so it is created again by another node when
+     * the leader dies.
+     */
+    public void createLeaderEphemeralZNode(final String path, final byte[] data) throws Exception {
 
-            int counter = 0;
-            Iterator<String> children = client.getChildren().forPath(path).iterator();
-
-            while (children.hasNext()) {
-
-                String childrenPath = children.next();
-
-                if (client.getChildren().forPath(path + "/" + childrenPath).size() > 0) {
-                    counter += removeOldChildZnodes(path + "/" + childrenPath);
-                } else {
-
-                    Stat znode = client.checkExists().forPath(path + "/" + childrenPath);
-                    // avoid nulls and ephemeral znodes
-                    if (znode != null && znode.getEphemeralOwner() == 0) {
-                        client.delete().deletingChildrenIfNeeded().forPath(path + "/" + childrenPath);
-                        counter++;
-                    }
+        engineLeaderLatch = new LeaderLatch(client, path + "-leader");
+        engineLeaderLatch.addListener(new LeaderLatchListener() {
 
+            @Override
+            public void isLeader() {
+                try {
+                    logger.info("Elected as leader engine node");
+                    createEphemeralZNode(path, data);
+                } catch (Exception e) {
+                    logger.error("Error creating znode " + path, e);
                 }
             }
 
-            return counter;
-        }
-
-        /*
-         * (non-Javadoc)
-         * 
-         * @see java.lang.Runnable#run()
-         */
-        @Override
-        public void run() {
-
-            while (!Thread.currentThread().isInterrupted()) {
-
-                try {
-
-                    if (client.getState().compareTo(CuratorFrameworkState.STARTED) == 0) {
-                        int childsRemoved = removeOldChildZnodes(STREAMING.ZK_BASE_PATH);
+            @Override
+            public void notLeader() {
+                logger.info("Leadership lost");
+            }
+        });
+        engineLeaderLatch.start();
+    }
 
-                        logger.debug(childsRemoved + " old zNodes removed from ZK");
-                    }
+    /**
+     * Queues the reply, it is written in zookeeper in background.
+     */
+    public void createZNodeJsonReply(StratioStreamingMessage request, Object reply) throws Exception {
 
-                    Thread.sleep(CLEAN_INTERVAL);
+        String path = STREAMING.ZK_BASE_PATH + "/" + request.getOperation().toLowerCase() + "/"
+                + request.getRequest_id();
 
-                } catch (InterruptedException ie) {
-                    // no need to clean anything, as client is shared
-                    logger.info("Shutting down Zookeeper Background Cleaner");
-                }
+        replyWriter.write(path, new Gson().toJson(reply).getBytes());
 
-                catch (Exception e) {
-                    logger.info("Error on Zookeeper Background Cleaner: " + e.getMessage());
-                }
+        logger.debug("**** ZKUTILS " + request.getOperation() + "//" + request.getRequest_id() + "//" + reply + "//"
+                + path);
 
-            }
+    }
 
-        }
+    public ZKReplyWriter getReplyWriter() {
+        return replyWriter;
+    }
 
+    public ZKReplyCleaner getReplyCleaner() {
+        return replyCleaner;
     }
 
 }
@@ -0,0 +1,99 @@
+package com.stratio.streaming.test.siddhi.extension.window;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.wso2.siddhi.core.SiddhiManager;
+import org.wso2.siddhi.core.config.SiddhiConfiguration;
+import org.wso2.siddhi.core.event.Event;
+import org.wso2.siddhi.core.event.in.InEvent;
+import org.wso2.siddhi.core.stream.output.StreamCallback;
+import org.wso2.siddhi.query.compiler.exception.SiddhiPraserException;
+
+import com.stratio.streaming.extensions.DedupeWindowExtension;
+
+public class DedupeWindowTest {
+
+    private SiddhiManager sm;
+
+    private AtomicInteger count;
+
+    @Before
+    public void setUp() {
+        count = new AtomicInteger(0);
+        SiddhiConfiguration config = new SiddhiConfiguration();
+        @SuppressWarnings("rawtypes")
+        List<Class> extensions = new ArrayList<>();
+        extensions.add(DedupeWindowExtension.class);
+        config.setSiddhiExtensions(extensions);
+        sm = new SiddhiManager(config);
+        sm.defineStream("define stream testStream (c1 string, c2 float, c3 int);");
+    }
+
+    @After
+    public void tearDown() {
+        sm.shutdown();
+    }
+
+    @Test
+    public void createQueryTest() {
+        sm.addQuery("from testStream #window.stratio:dedupe(1 min, 0.01, c1) select c1, c2, c3 insert into resultStream;");
+        assertNotNull(sm.getStreamDefinition("resultStream"));
+    }
+
+    @Test(expected = SiddhiPraserException.class)
+    public void wrongFalsePositiveRateTest() {
+        sm.addQuery("from testStream #window.stratio:dedupe(1 min, 2, c1) select c1, c2, c3 insert into resultStream;");
+    }
+
+    @Test
+    public void duplicatesDroppedTest() throws InterruptedException {
+        sm.addQuery("from testStream #window.stratio:dedupe(1 min, 0.001, c1, 1000) select c1, c2, c3 insert into resultStream;");
+        addCounterCallback();
+
+        for (int i = 0; i < 100; i++) {
+            sm.getInputHandler("testStream").send(new Object[] { "ID_" + i, new Float(10), new Integer(i) });
+        }
+        for (int i = 0; i < 100; i++) {
+            sm.getInputHandler("testStream").send(new Object[] { "ID_" + i, new Float(20), new Integer(i) });
+        }
+
+        Thread.sleep(100);
+        assertEquals(100, count.get());
+    }
+
+    @Test
+    public void horizonExpiredTest() throws InterruptedException {
+        sm.addQuery("from testStream #window.stratio:dedupe(200 milliseconds, 0.01, c1) select c1, c2, c3 insert into resultStream;");
+        addCounterCallback();
+
+        sm.getInputHandler("testStream").send(new Object[] { "ID_A", new Float(10), new Integer(1) });
+        sm.getInputHandler("testStream").send(new Object[] { "ID_A", new Float(10), new Integer(1) });
+        Thread.sleep(400);
+        sm.getInputHandler("testStream").send(new Object[] { "ID_A", new Float(10), new Integer(1) });
+
+        Thread.sleep(100);
+        assertEquals(2, count.get());
+    }
+
+    private void addCounterCallback() {
+        sm.addCallback("resultStream", new StreamCallback() {
+
+            @Override
+            public void receive(Event[] events) {
+                for (Event event : events) {
+                    if (event instanceof InEvent) {
+                        count.getAndIncrement();
+                    }
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,120 @@
+package com.stratio.streaming.test.siddhi.extension.window;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.wso2.siddhi.core.SiddhiManager;
+import org.wso2.siddhi.core.config.SiddhiConfiguration;
+import org.wso2.siddhi.core.event.Event;
+import org.wso2.siddhi.core.event.in.InEvent;
+import org.wso2.siddhi.core.stream.output.StreamCallback;
+import org.wso2.siddhi.query.compiler.exception.SiddhiPraserException;
+
+import com.stratio.streaming.extensions.PaneWindowExtension;
+
+public class PaneWindowTest {
+
+    private SiddhiManager sm;
+
+    private List<Object[]> received;
+
+    @Before
+    public void setUp() {
+        received = new ArrayList<>();
+        SiddhiConfiguration config = new SiddhiConfiguration();
+        @SuppressWarnings("rawtypes")
+        List<Class> extensions = new ArrayList<>();
+        extensions.add(PaneWindowExtension.class);
+        config.setSiddhiExtensions(extensions);
+        sm = new SiddhiManager(config);
+    }
+
+    @After
+    public void tearDown() {
+        sm.shutdown();
+    }
+
+    @Test
+    public void createQueryTest() {
+        sm.defineStream("define stream testStream (c1 string, c2 float, c3 int);");
+        sm.addQuery("from testStream #window.stratio:pane(1 sec, 100 milliseconds, 'sum', c2, c3) select c1, c2, c3 insert into resultStream;");
+        assertNotNull(sm.getStreamDefinition("resultStream"));
+    }
+
+    @Test(expected = SiddhiPraserException.class)
+    public void nonNumericAttributeTest() {
+        sm.defineStream("define stream testStream (c1 string, c2 float, c3 int);");
+        sm.addQuery("from testStream #window.stratio:pane(1 sec, 100 milliseconds, 'sum', c1) select c1, c2, c3 insert into resultStream;");
+    }
+
+    @Test
+    public void sumInsideWindowTest() throws InterruptedException {
+        sm.defineStream("define stream testStream (c1 string, c2 float, c3 int);");
+        sm.addQuery("from testStream #window.stratio:pane(10 sec, 100 milliseconds, 'sum', c2, c3) select c1, c2, c3 insert into resultStream;");
+        addCollectorCallback();
+
+        sm.getInputHandler("testStream").send(new Object[] { "KEY_A", new Float(10), new Integer(20) });
+        sm.getInputHandler("testStream").send(new Object[] { "KEY_A", new Float(20), new Integer(30) });
+        sm.getInputHandler("testStream").send(new Object[] { "KEY_B", new Float(30), new Integer(40) });
+
+        Thread.sleep(350);
+
+        Object[] last = lastReceived();
+        assertEquals("KEY_B", last[0]);
+        assertEquals(60f, (Float) last[1], 0.001);
+        assertEquals(90, last[2]);
+    }
+
+    @Test
+    public void expiredPanesTest() throws InterruptedException {
+        sm.defineStream("define stream testStream (c1 string, c2 float, c3 int);");
+        sm.addQuery("from testStream #window.stratio:pane(300 milliseconds, 100 milliseconds, 'count', c3) select c1, c2, c3 insert into resultStream;");
+        addCollectorCallback();
+
+        sm.getInputHandler("testStream").send(new Object[] { "KEY_A", new Float(10), new Integer(20) });
+        sm.getInputHandler("testStream").send(new Object[] { "KEY_A", new Float(20), new Integer(30) });
+
+        Thread.sleep(150);
+        assertEquals(2, lastReceived()[2]);
+
+        Thread.sleep(500);
+        // once the panes holding both events expire the window goes quiet
+        int emitted = received.size();
+        Thread.sleep(200);
+        assertEquals(emitted, received.size());
+        // and a new event is counted without the expired ones
+        sm.getInputHandler("testStream").send(new Object[] { "KEY_A", new Float(30), new Integer(40) });
+        Thread.sleep(150);
+        assertEquals(1, lastReceived()[2]);
+    }
+
+    private Object[] lastReceived() {
+        synchronized (received) {
+            assertTrue(received.size() > 0);
+            return received.get(received.size() - 1);
+        }
+    }
+
+    private void addCollectorCallback() {
+        sm.addCallback("resultStream", new StreamCallback() {
+
+            @Override
+            public void receive(Event[] events) {
+                for (Event event : events) {
+                    if (event instanceof InEvent) {
+                        synchronized (received) {
+                            received.add(event.getData());
+                        }
+                    }
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,113 @@
+package com.stratio.streaming.test.siddhi.extension.window;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.wso2.siddhi.core.SiddhiManager;
+import org.wso2.siddhi.core.config.SiddhiConfiguration;
+import org.wso2.siddhi.core.event.Event;
+import org.wso2.siddhi.core.event.in.InEvent;
+import org.wso2.siddhi.core.stream.output.StreamCallback;
+import org.wso2.siddhi.query.compiler.exception.SiddhiPraserException;
+
+import com.stratio.streaming.extensions.SessionWindowExtension;
+
+public class SessionWindowTest {
+
+    private SiddhiManager sm;
+
+    private Map<String, Object[]> closedSessions;
+
+    @Before
+    public void setUp() {
+        closedSessions = new HashMap<>();
+        SiddhiConfiguration config = new SiddhiConfiguration();
+        @SuppressWarnings("rawtypes")
+        List<Class> extensions = new ArrayList<>();
+        extensions.add(SessionWindowExtension.class);
+        config.setSiddhiExtensions(extensions);
+        sm = new SiddhiManager(config);
+        sm.defineStream("define stream testStream (c1 string, c2 float, c3 int);");
+    }
+
+    @After
+    public void tearDown() {
+        sm.shutdown();
+    }
+
+    @Test
+    public void createQueryTest() {
+        sm.addQuery("from testStream #window.stratio:session(1 sec, c1, 'sum', c2) select c1, c2, c3 insert into resultStream;");
+        assertNotNull(sm.getStreamDefinition("resultStream"));
+    }
+
+    @Test(expected = SiddhiPraserException.class)
+    public void unknownAggregationTest() {
+        sm.addQuery("from testStream #window.stratio:session(1 sec, c1, 'median', c2) select c1, c2, c3 insert into resultStream;");
+    }
+
+    @Test
+    public void sessionClosedAfterGapTest() throws InterruptedException {
+        sm.addQuery("from testStream #window.stratio:session(200 milliseconds, c1, 'sum', c2, c3) select c1, c2, c3 insert into resultStream;");
+        addCollectorCallback();
+
+        sm.getInputHandler("testStream").send(new Object[] { "KEY_A", new Float(10), new Integer(1) });
+        sm.getInputHandler("testStream").send(new Object[] { "KEY_B", new Float(5), new Integer(1) });
+        Thread.sleep(100);
+        sm.getInputHandler("testStream").send(new Object[] { "KEY_A", new Float(20), new Integer(2) });
+
+        Thread.sleep(150);
+        synchronized (closedSessions) {
+            assertEquals(1, closedSessions.size());
+            assertEquals(5f, (Float) closedSessions.get("KEY_B")[1], 0.001);
+        }
+
+        Thread.sleep(200);
+        synchronized (closedSessions) {
+            assertEquals(2, closedSessions.size());
+            assertEquals(30f, (Float) closedSessions.get("KEY_A")[1], 0.001);
+            assertEquals(3, closedSessions.get("KEY_A")[2]);
+        }
+    }
+
+    @Test
+    public void maxSessionsTest() throws InterruptedException {
+        sm.addQuery("from testStream #window.stratio:session(10 sec, 2, c1, 'count', c3) select c1, c2, c3 insert into resultStream;");
+        addCollectorCallback();
+
+        sm.getInputHandler("testStream").send(new Object[] { "KEY_A", new Float(10), new Integer(1) });
+        sm.getInputHandler("testStream").send(new Object[] { "KEY_B", new Float(10), new Integer(1) });
+        sm.getInputHandler("testStream").send(new Object[] { "KEY_A", new Float(10), new Integer(1) });
+        sm.getInputHandler("testStream").send(new Object[] { "KEY_C", new Float(10), new Integer(1) });
+
+        Thread.sleep(100);
+        synchronized (closedSessions) {
+            assertEquals(1, closedSessions.size());
+            assertEquals(1, closedSessions.get("KEY_B")[2]);
+        }
+    }
+
+    private void addCollectorCallback() {
+        sm.addCallback("resultStream", new StreamCallback() {
+
+            @Override
+            public void receive(Event[] events) {
+                for (Event event : events) {
+                    if (event instanceof InEvent) {
+                        synchronized (closedSessions) {
+                            closedSessions.put((String) event.getData(0), event.getData());
+                        }
+                    }
+                }
+            }
+        });
+    }
+}
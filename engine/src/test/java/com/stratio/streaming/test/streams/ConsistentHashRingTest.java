@@ -0,0 +1,54 @@
+package com.stratio.streaming.test.streams;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.stratio.streaming.streams.ConsistentHashRing;
+
+public class ConsistentHashRingTest {
+
+    @Test
+    public void emptyRingHasNoOwnerTest() {
+        ConsistentHashRing ring = new ConsistentHashRing(Collections.<String> emptyList());
+        assertNull(ring.getNode("testStream"));
+    }
+
+    @Test
+    public void streamsAreSpreadBetweenNodesTest() {
+        ConsistentHashRing ring = new ConsistentHashRing(Arrays.asList("node1", "node2", "node3"));
+
+        Map<String, Integer> streamsByNode = new HashMap<>();
+        for (int i = 0; i < 3000; i++) {
+            String node = ring.getNode("stream" + i);
+            Integer count = streamsByNode.get(node);
+            streamsByNode.put(node, count == null ? 1 : count + 1);
+        }
+
+        assertEquals(3, streamsByNode.size());
+        for (Integer count : streamsByNode.values()) {
+            assertTrue(count > 500);
+        }
+    }
+
+    @Test
+    public void onlyStreamsOfRemovedNodeMoveTest() {
+        ConsistentHashRing before = new ConsistentHashRing(Arrays.asList("node1", "node2", "node3"));
+        ConsistentHashRing after = new ConsistentHashRing(Arrays.asList("node1", "node2"));
+
+        for (int i = 0; i < 1000; i++) {
+            String streamName = "stream" + i;
+            String owner = before.getNode(streamName);
+            if (!owner.equals("node3")) {
+                assertEquals(owner, after.getNode(streamName));
+            }
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.stratio.streaming.test.streams;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.stratio.streaming.streams.DeltaSnapshots;
+
+public class DeltaSnapshotsTest {
+
+    private static final byte[] STATE = new byte[] { 1, 2, 3 };
+    private static final byte[] CHANGED_STATE = new byte[] { 1, 2, 4 };
+
+    @Test
+    public void unchangedStateIsReferencedTest() {
+        DeltaSnapshots deltaSnapshots = new DeltaSnapshots(10);
+
+        assertNull(deltaSnapshots.findUnchanged("r1", "window", STATE));
+        assertNull(deltaSnapshots.findUnchanged("r1", "other", STATE));
+        assertEquals("r1", deltaSnapshots.findUnchanged("r2", "window", STATE));
+        assertNull(deltaSnapshots.findUnchanged("r2", "other", CHANGED_STATE));
+        assertEquals("r1", deltaSnapshots.findUnchanged("r3", "window", STATE));
+        assertEquals("r2", deltaSnapshots.findUnchanged("r3", "other", CHANGED_STATE));
+
+        assertEquals(3, deltaSnapshots.getWrittenElements());
+        assertEquals(3, deltaSnapshots.getUnchangedElements());
+    }
+
+    @Test
+    public void revisionsBeforeFullSnapshotAreCompactedTest() {
+        DeltaSnapshots deltaSnapshots = new DeltaSnapshots(2);
+
+        assertNull(deltaSnapshots.findUnchanged("r1", "window", STATE));
+        assertEquals("r1", deltaSnapshots.findUnchanged("r2", "window", STATE));
+        // full revision, every state is written again
+        assertNull(deltaSnapshots.findUnchanged("r3", "window", STATE));
+        assertTrue(deltaSnapshots.takeCompactableRevisions().isEmpty());
+
+        assertEquals("r3", deltaSnapshots.findUnchanged("r4", "window", STATE));
+        assertEquals(Arrays.asList("r1", "r2"), deltaSnapshots.takeCompactableRevisions());
+        assertTrue(deltaSnapshots.takeCompactableRevisions().isEmpty());
+    }
+
+    @Test
+    public void referencesAreDecodedTest() {
+        assertEquals("1412345678901_revision", DeltaSnapshots.referencedRevision(DeltaSnapshots
+                .reference("1412345678901_revision")));
+        assertNull(DeltaSnapshots.referencedRevision(new byte[] { 'S', 'N', 1, 1 }));
+    }
+}
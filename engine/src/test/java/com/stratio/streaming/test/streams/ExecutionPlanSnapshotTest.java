@@ -0,0 +1,71 @@
+package com.stratio.streaming.test.streams;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.stratio.streaming.commons.constants.StreamAction;
+import com.stratio.streaming.streams.ExecutionPlanSnapshot;
+import com.stratio.streaming.streams.QueryDTO;
+import com.stratio.streaming.streams.StreamStatusDTO;
+
+public class ExecutionPlanSnapshotTest {
+
+    private static StreamStatusDTO streamStatus(String name) {
+        StreamStatusDTO streamStatus = new StreamStatusDTO(name, Boolean.TRUE);
+        streamStatus.setStreamDefinition("name.string|value.int");
+        streamStatus.enableAction(StreamAction.LISTEN);
+        streamStatus.enableAction(StreamAction.SAVE_TO_CASSANDRA);
+        QueryDTO query = new QueryDTO("from " + name + " select name insert into " + name + "Names");
+        query.retain();
+        streamStatus.getAddedQueries().put("query-" + name, query);
+        return streamStatus;
+    }
+
+    @Test
+    public void catalogIsRestoredTest() {
+        String json = ExecutionPlanSnapshot.fromStreamStatus(Arrays.asList(streamStatus("sensors"))).toJson();
+
+        assertTrue(ExecutionPlanSnapshot.isStructured(json));
+        ExecutionPlanSnapshot restored = ExecutionPlanSnapshot.fromJson(json);
+        assertEquals(ExecutionPlanSnapshot.FORMAT_VERSION, restored.getVersion());
+        assertEquals(1, restored.getStreams().size());
+
+        StreamStatusDTO streamStatus = ExecutionPlanSnapshot.toStreamStatus(restored.getStreams().get(0));
+        assertEquals("sensors", streamStatus.getStreamName());
+        assertEquals("name.string|value.int", streamStatus.getStreamDefinition());
+        assertTrue(streamStatus.isUserDefined());
+        assertTrue(streamStatus.isActionEnabled(StreamAction.LISTEN));
+        assertTrue(streamStatus.isActionEnabled(StreamAction.SAVE_TO_CASSANDRA));
+        assertFalse(streamStatus.isActionEnabled(StreamAction.INDEXED));
+        assertEquals(2, streamStatus.getAddedQueries().get("query-sensors").getReferences());
+        assertEquals("from sensors select name insert into sensorsNames", streamStatus.getAddedQueries()
+                .get("query-sensors").getQueryRaw());
+    }
+
+    @Test
+    public void sameCatalogGivesSamePlanTest() {
+        String first = ExecutionPlanSnapshot.fromStreamStatus(
+                Arrays.asList(streamStatus("sensors"), streamStatus("alarms"))).toJson();
+        String second = ExecutionPlanSnapshot.fromStreamStatus(
+                Arrays.asList(streamStatus("alarms"), streamStatus("sensors"))).toJson();
+
+        assertEquals(first, second);
+    }
+
+    @Test
+    public void plainSiddhiPlansAreNotStructuredTest() {
+        assertFalse(ExecutionPlanSnapshot.isStructured("define stream sensors (name string);"));
+        assertFalse(ExecutionPlanSnapshot.isStructured(null));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void newerVersionsAreRejectedTest() {
+        ExecutionPlanSnapshot.fromJson("{\"version\":" + (ExecutionPlanSnapshot.FORMAT_VERSION + 1)
+                + ",\"streams\":[]}");
+    }
+}
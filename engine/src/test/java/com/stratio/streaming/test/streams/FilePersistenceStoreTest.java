@@ -0,0 +1,154 @@
+package com.stratio.streaming.test.streams;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.wso2.siddhi.core.event.management.PersistenceManagementEvent;
+import org.wso2.siddhi.core.persistence.PersistenceObject;
+
+import com.stratio.streaming.streams.DeltaSnapshots;
+import com.stratio.streaming.streams.FilePersistenceStore;
+import com.stratio.streaming.streams.SnapshotRetention;
+
+public class FilePersistenceStoreTest {
+
+    private File directory;
+    private FilePersistenceStore store;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("stratio-snapshots").toFile();
+        store = new FilePersistenceStore(directory, false, FilePersistenceStore.DEFAULT_SEGMENT_SIZE);
+    }
+
+    @After
+    public void tearDown() {
+        store.close();
+        deleteRecursively(directory);
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static PersistenceManagementEvent revision(String revision) {
+        PersistenceManagementEvent event = mock(PersistenceManagementEvent.class);
+        when(event.getRevision()).thenReturn(revision);
+        when(event.getExecutionPlanIdentifier()).thenReturn("plan");
+        return event;
+    }
+
+    private static PersistenceObject state(int value) {
+        return new PersistenceObject(new Object[] { "window", value });
+    }
+
+    @Test
+    public void savedSnapshotsAreLoadedTest() {
+        store.save(revision("r1"), "window", state(1));
+        store.save(revision("r1"), "other", state(2));
+
+        assertEquals("r1", store.getLastRevision("plan"));
+        assertNotNull(store.load(revision("r1"), "window"));
+        assertNotNull(store.load(revision("r1"), "other"));
+        assertNull(store.load(revision("r1"), "missing"));
+    }
+
+    @Test
+    public void unchangedSnapshotsAreLoadedFromReferencedRevisionTest() {
+        store.save(revision("r1"), "window", state(1));
+        store.save(revision("r2"), "window", state(1));
+
+        assertEquals(1, store.getDeltaSnapshots().getUnchangedElements());
+        assertNotNull(store.load(revision("r2"), "window"));
+    }
+
+    @Test
+    public void revisionsAreRecoveredAfterRestartTest() throws IOException {
+        store.save(revision("r1"), "window", state(1));
+        store.save(revision("r2"), "window", state(2));
+        store.saveExecutionPlan("define stream testStream (value int)");
+        store.close();
+
+        // half written record left by a crash
+        File segment = new File(directory, "snapshots-0000000000000000.log");
+        long validBytes = segment.length();
+        try (FileOutputStream out = new FileOutputStream(segment, true)) {
+            out.write(new byte[] { 0x53, 0x52, 0x45, 0x43, 0, 0, 1 });
+        }
+
+        store = new FilePersistenceStore(directory, false, FilePersistenceStore.DEFAULT_SEGMENT_SIZE);
+
+        assertEquals(validBytes, segment.length());
+        assertEquals(Arrays.asList("r1", "r2"), store.getRevisions());
+        assertEquals("r2", store.getLastRevision("plan"));
+        assertNotNull(store.load(revision("r2"), "window"));
+        assertEquals("define stream testStream (value int)", store.recoverLastExecutionPlan("plan"));
+
+        store.save(revision("r3"), "window", state(3));
+        assertEquals("r3", store.getLastRevision("plan"));
+    }
+
+    @Test
+    public void insertLogSequenceIsKeptWithItsRevisionTest() {
+        store.setInsertLogSequence(5L);
+        store.save(revision("r1"), "window", state(1));
+        store.setInsertLogSequence(null);
+        store.save(revision("r2"), "window", state(2));
+        store.close();
+
+        store = new FilePersistenceStore(directory, false, FilePersistenceStore.DEFAULT_SEGMENT_SIZE);
+
+        assertEquals(Long.valueOf(5), store.getInsertLogSequence("r1"));
+        assertNull(store.getInsertLogSequence("r2"));
+        assertNotNull(store.load(revision("r1"), "window"));
+    }
+
+    @Test
+    public void expiredSegmentsAreDeletedTest() {
+        store.close();
+        store = new FilePersistenceStore(directory, false, 256);
+        store.setDeltaSnapshots(new DeltaSnapshots(1));
+        store.setSnapshotRetention(new SnapshotRetention(2, TimeUnit.DAYS.toMillis(1)));
+
+        for (int i = 0; i < 10; i++) {
+            store.save(revision("r" + i), "window", state(i));
+        }
+
+        assertTrue(store.getRevisions().size() <= 3);
+        assertEquals("r9", store.getLastRevision("plan"));
+        assertTrue(store.getSegments() < 10);
+        assertEquals(store.getSegments(), directory.listFiles().length);
+    }
+
+    @Test
+    public void removeAllRevisionsClearsTheStoreTest() {
+        store.save(revision("r1"), "window", state(1));
+        store.saveExecutionPlan("define stream testStream (value int)");
+
+        store.removeAllRevisions();
+
+        assertNull(store.getLastRevision("plan"));
+        assertEquals("", store.recoverLastExecutionPlan("plan"));
+        assertNull(store.load(revision("r1"), "window"));
+    }
+}
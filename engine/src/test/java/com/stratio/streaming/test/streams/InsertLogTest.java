@@ -0,0 +1,196 @@
+package com.stratio.streaming.test.streams;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.wso2.siddhi.core.SiddhiManager;
+import org.wso2.siddhi.core.event.management.PersistenceManagementEvent;
+import org.wso2.siddhi.core.persistence.PersistenceObject;
+
+import com.stratio.streaming.streams.FilePersistenceStore;
+import com.stratio.streaming.streams.InsertLog;
+import com.stratio.streaming.streams.StreamPersistence;
+
+public class InsertLogTest {
+
+    private File directory;
+    private InsertLog insertLog;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("stratio-insert-log").toFile();
+        insertLog = new InsertLog(directory, false);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        insertLog.close();
+        deleteRecursively(directory);
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * Engine restored from the last revision of a file store, saved holding
+     * the inserts up to the sequence.
+     */
+    private SiddhiManager restoredEngine(Long revisionSequence) {
+        FilePersistenceStore store = new FilePersistenceStore(new File(directory, "snapshots"), false,
+                FilePersistenceStore.DEFAULT_SEGMENT_SIZE);
+        PersistenceManagementEvent event = mock(PersistenceManagementEvent.class);
+        when(event.getRevision()).thenReturn("r1");
+        store.setInsertLogSequence(revisionSequence);
+        store.save(event, "window", new PersistenceObject(new Object[] { "window" }));
+        store.setInsertLogSequence(null);
+
+        SiddhiManager siddhiManager = mock(SiddhiManager.class, RETURNS_DEEP_STUBS);
+        when(siddhiManager.getSiddhiContext().getPersistenceService().getPersistenceStore()).thenReturn(store);
+        StreamPersistence.restoreLastRevision(siddhiManager, "plan");
+        verify(siddhiManager).restoreRevision("r1");
+        return siddhiManager;
+    }
+
+    private static List<Object[]> replay(InsertLog insertLog, long afterSequence) throws IOException {
+        final List<Object[]> events = new ArrayList<>();
+        insertLog.replay(afterSequence, new InsertLog.EntryHandler() {
+            @Override
+            public void apply(long sequence, String streamName, Object[] event) {
+                events.add(event);
+            }
+        });
+        return events;
+    }
+
+    @Test
+    public void insertsAfterSnapshotAreReplayedTest() throws IOException {
+        insertLog.append("request-1", "sensors", new Object[] { "a", 1 });
+        insertLog.append("request-2", "sensors", new Object[] { "b", 2L });
+        long snapshotSequence = insertLog.awaitApplied();
+        insertLog.append("request-3", "sensors", new Object[] { "c", 3.5d, 1.5f, true, null });
+
+        List<Object[]> replayed = replay(insertLog, snapshotSequence);
+
+        assertEquals(1, replayed.size());
+        assertArrayEquals(new Object[] { "c", 3.5d, 1.5f, true, null }, replayed.get(0));
+    }
+
+    @Test
+    public void bulkInsertsAreLoggedInOneRecordTest() throws IOException {
+        insertLog.append("request-1", "sensors", new Object[] { "a", 1 });
+        List<Object[]> rows = Arrays.asList(new Object[] { "b", 2 }, new Object[] { "c", 3 }, new Object[] { "d", 4 });
+        assertTrue(insertLog.append("request-2", "sensors", rows));
+        assertFalse(insertLog.append("request-2", "sensors", rows));
+        assertEquals(4, insertLog.getLastSequence());
+        insertLog.close();
+
+        insertLog = new InsertLog(directory, false);
+        assertEquals(4, insertLog.getLastSequence());
+        assertFalse(insertLog.append("request-2", "sensors", rows));
+
+        List<Object[]> replayed = replay(insertLog, 2);
+        assertEquals(2, replayed.size());
+        assertArrayEquals(new Object[] { "c", 3 }, replayed.get(0));
+        assertArrayEquals(new Object[] { "d", 4 }, replayed.get(1));
+    }
+
+    @Test
+    public void requestsAreLoggedOnceTest() throws IOException {
+        assertTrue(insertLog.append("request-1", "sensors", new Object[] { "a" }));
+        assertFalse(insertLog.append("request-1", "sensors", new Object[] { "a" }));
+        assertTrue(insertLog.append(null, "sensors", new Object[] { "b" }));
+        assertTrue(insertLog.append(null, "sensors", new Object[] { "b" }));
+
+        assertEquals(3, insertLog.getLastSequence());
+        assertEquals(1, insertLog.getDuplicates());
+    }
+
+    @Test
+    public void logIsRecoveredAfterRestartTest() throws IOException {
+        insertLog.append("request-1", "sensors", new Object[] { "a" });
+        insertLog.append("request-2", "sensors", new Object[] { "b" });
+        insertLog.close();
+
+        insertLog = new InsertLog(directory, false);
+
+        assertEquals(2, insertLog.getLastSequence());
+        assertFalse(insertLog.append("request-2", "sensors", new Object[] { "b" }));
+        assertTrue(insertLog.append("request-3", "sensors", new Object[] { "c" }));
+        assertEquals(3, replay(insertLog, 0).size());
+    }
+
+    @Test
+    public void replayStartsAfterTheSequenceOfTheRestoredRevisionTest() throws IOException {
+        insertLog.append("request-1", "sensors", new Object[] { "a" });
+        insertLog.append("request-2", "sensors", new Object[] { "b" });
+        insertLog.append("request-3", "sensors", new Object[] { "c" });
+
+        assertEquals(1, StreamPersistence.replayInserts(restoredEngine(2L), insertLog));
+    }
+
+    @Test
+    public void replayFailsWhenTheRevisionHasNoSequenceTest() throws IOException {
+        insertLog.append("request-1", "sensors", new Object[] { "a" });
+
+        try {
+            StreamPersistence.replayInserts(restoredEngine(null), insertLog);
+            fail("Inserts replayed without knowing the ones held by the revision");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().contains("r1"));
+        }
+    }
+
+    @Test
+    public void replayFailsWhenTheLogDoesNotReachTheRevisionTest() throws IOException {
+        insertLog.append("request-1", "sensors", new Object[] { "a" });
+        insertLog.append("request-2", "sensors", new Object[] { "b" });
+        insertLog.truncate(insertLog.awaitApplied());
+        insertLog.append("request-3", "sensors", new Object[] { "c" });
+
+        try {
+            StreamPersistence.replayInserts(restoredEngine(1L), insertLog);
+            fail("Inserts replayed with a gap after the revision");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().contains("starts at 3"));
+        }
+    }
+
+    @Test
+    public void insertsHeldBySnapshotAreRemovedTest() throws IOException {
+        insertLog.append("request-1", "sensors", new Object[] { "a" });
+        insertLog.append("request-2", "sensors", new Object[] { "b" });
+        insertLog.truncate(insertLog.awaitApplied());
+        insertLog.append("request-3", "sensors", new Object[] { "c" });
+        insertLog.truncate(insertLog.awaitApplied());
+
+        assertEquals(1, directory.listFiles().length);
+        assertTrue(replay(insertLog, 0).isEmpty());
+
+        insertLog.append("request-4", "sensors", new Object[] { "d" });
+        assertEquals(1, replay(insertLog, 0).size());
+    }
+}
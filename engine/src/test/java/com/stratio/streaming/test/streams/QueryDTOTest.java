@@ -0,0 +1,44 @@
+package com.stratio.streaming.test.streams;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import org.junit.Test;
+
+import com.stratio.streaming.streams.QueryDTO;
+
+public class QueryDTOTest {
+
+    @Test
+    public void canonicalQueriesAreEqualTest() {
+        QueryDTO query = new QueryDTO("from testStream[c3 > 10] #window.timebatch( 1 min ) select c1, c2 insert into resultStream;");
+        QueryDTO sameQuery = new QueryDTO("  from testStream [ c3>10 ]\n#window.timeBatch(1 min)\tselect c1,c2 insert   into resultStream ");
+
+        assertEquals(query, sameQuery);
+        assertEquals(query.hashCode(), sameQuery.hashCode());
+    }
+
+    @Test
+    public void quotedLiteralsAreKeptTest() {
+        QueryDTO query = new QueryDTO("from testStream[c1 == 'a  b'] select c1 insert into resultStream");
+        QueryDTO otherQuery = new QueryDTO("from testStream[c1 == 'a b'] select c1 insert into resultStream");
+
+        assertFalse(query.equals(otherQuery));
+    }
+
+    @Test
+    public void keywordsAreNotJoinedTest() {
+        assertEquals("from testStream select c1 insert into resultStream",
+                QueryDTO.canonicalize("from   testStream select c1 insert into resultStream;"));
+    }
+
+    @Test
+    public void referencesTest() {
+        QueryDTO query = new QueryDTO("from testStream select c1 insert into resultStream");
+
+        assertEquals(1, query.getReferences());
+        assertEquals(2, query.retain());
+        assertEquals(1, query.release());
+        assertEquals(0, query.release());
+    }
+}
@@ -0,0 +1,131 @@
+package com.stratio.streaming.test.streams;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.wso2.siddhi.core.SiddhiManager;
+import org.wso2.siddhi.query.api.definition.StreamDefinition;
+
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.IMap;
+import com.stratio.streaming.commons.constants.REPLY_CODES;
+import com.stratio.streaming.commons.constants.STREAMING;
+import com.stratio.streaming.commons.messages.StratioStreamingMessage;
+import com.stratio.streaming.exception.RequestValidationException;
+import com.stratio.streaming.functions.validator.QueryOutputStreamValidation;
+import com.stratio.streaming.streams.SiddhiShards;
+import com.stratio.streaming.streams.StreamStatusDTO;
+import com.stratio.streaming.utils.SiddhiUtils;
+
+public class SiddhiShardsTest {
+
+    private SiddhiManager first;
+    private SiddhiManager second;
+    private SiddhiShards shards;
+
+    @Before
+    public void setUp() {
+        first = mock(SiddhiManager.class);
+        second = mock(SiddhiManager.class);
+        shards = new SiddhiShards(Arrays.asList(first, second));
+    }
+
+    @Test
+    public void existingStreamIsRoutedToItsShardTest() {
+        String streamName = "testStream";
+        int hashedShard = shards.shardOf(streamName);
+        SiddhiManager other = hashedShard == 0 ? second : first;
+
+        when(other.getStreamDefinition(streamName)).thenReturn(new StreamDefinition());
+
+        assertEquals(other, shards.getSiddhiManager(streamName));
+    }
+
+    @Test
+    public void newStreamsAreSpreadTest() {
+        int[] streamsByShard = new int[2];
+        for (int i = 0; i < 100; i++) {
+            streamsByShard[shards.shardOf("stream" + i)]++;
+        }
+
+        assertEquals(100, streamsByShard[0] + streamsByShard[1]);
+        assertTrue(streamsByShard[0] > 0 && streamsByShard[1] > 0);
+    }
+
+    @Test
+    public void firstShardKeepsDefaultQueryPlanTest() {
+        assertEquals(SiddhiUtils.QUERY_PLAN_IDENTIFIER, SiddhiShards.getQueryPlanIdentifier(0));
+        assertEquals(SiddhiUtils.QUERY_PLAN_IDENTIFIER + "-shard-1", SiddhiShards.getQueryPlanIdentifier(1));
+    }
+
+    @Test
+    public void queryPlansAreScopedToTheNodeTest() {
+        SiddhiShards nodeShards = new SiddhiShards(Arrays.asList(first, second), "10.0.0.1:5701");
+
+        assertEquals(SiddhiUtils.QUERY_PLAN_IDENTIFIER + "-10.0.0.1_5701", nodeShards.getShardQueryPlanIdentifier(0));
+        assertEquals(SiddhiUtils.QUERY_PLAN_IDENTIFIER + "-10.0.0.1_5701-shard-1",
+                nodeShards.getShardQueryPlanIdentifier(1));
+        assertEquals(SiddhiUtils.QUERY_PLAN_IDENTIFIER, shards.getShardQueryPlanIdentifier(0));
+    }
+
+    @Test
+    public void addedShardsGetTheirOwnQueryPlanTest() {
+        SiddhiShards nodeShards = new SiddhiShards(Arrays.asList(first, second), "10.0.0.1:5701");
+        SiddhiManager third = mock(SiddhiManager.class);
+        when(third.getStreamDefinition("takenOver")).thenReturn(new StreamDefinition());
+
+        String queryPlanIdentifier = nodeShards.nextQueryPlanIdentifier("node/1");
+        assertEquals(SiddhiUtils.QUERY_PLAN_IDENTIFIER + "-10.0.0.1_5701-shard-2-node_1", queryPlanIdentifier);
+        assertEquals(2, nodeShards.addShard(third, queryPlanIdentifier));
+
+        assertEquals(3, nodeShards.size());
+        assertEquals(queryPlanIdentifier, nodeShards.getShardQueryPlanIdentifier(2));
+        assertEquals(third, nodeShards.getSiddhiManager("takenOver"));
+    }
+
+    @Test
+    public void queryOutputStreamIsFoundTest() {
+        assertEquals("outStream", SiddhiUtils.getQueryOutputStreamName("from testStream select * insert into outStream"));
+        assertEquals("outStream", SiddhiUtils.getQueryOutputStreamName(
+                "from testStream#window.length(10) select * INSERT expired-events INTO outStream;"));
+        assertNull(SiddhiUtils.getQueryOutputStreamName("from testStream select *"));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void queryInsertingIntoStreamOfOtherShardIsRejectedTest() throws RequestValidationException {
+        IMap<Object, Object> streamStatusMap = mock(IMap.class);
+        HazelcastInstance hazelcastInstance = mock(HazelcastInstance.class);
+        when(hazelcastInstance.<Object, Object> getMap(STREAMING.STREAM_STATUS_MAP)).thenReturn(streamStatusMap);
+        when(streamStatusMap.get("otherShardStream")).thenReturn(new StreamStatusDTO("otherShardStream", true));
+        SiddhiManager siddhiManager = mock(SiddhiManager.class, RETURNS_DEEP_STUBS);
+        when(siddhiManager.getSiddhiContext().getHazelcastInstance()).thenReturn(hazelcastInstance);
+        when(siddhiManager.getStreamDefinition(anyString())).thenReturn(null);
+        QueryOutputStreamValidation validation = new QueryOutputStreamValidation(siddhiManager);
+
+        validation.validate(addQuery("from testStream select * insert into newStream"));
+        try {
+            validation.validate(addQuery("from testStream select * insert into otherShardStream"));
+            fail("Query inserting into a stream of other shard was accepted");
+        } catch (RequestValidationException e) {
+            assertEquals(REPLY_CODES.KO_STREAM_OPERATION_NOT_ALLOWED.intValue(), e.getCode());
+        }
+    }
+
+    private static StratioStreamingMessage addQuery(String query) {
+        StratioStreamingMessage message = new StratioStreamingMessage();
+        message.setStreamName("testStream");
+        message.setRequest(query);
+        return message;
+    }
+}
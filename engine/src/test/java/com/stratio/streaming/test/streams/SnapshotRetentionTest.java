@@ -0,0 +1,51 @@
+package com.stratio.streaming.test.streams;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+
+import org.junit.Test;
+
+import com.stratio.streaming.streams.SnapshotRetention;
+
+public class SnapshotRetentionTest {
+
+    private static final long NOW = 1000000;
+
+    private static LinkedHashMap<String, Long> revisions(int count, long interval) {
+        LinkedHashMap<String, Long> revisions = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            revisions.put("r" + i, NOW - i * interval);
+        }
+        return revisions;
+    }
+
+    @Test
+    public void onlyLastRevisionsAreKeptTest() {
+        SnapshotRetention retention = new SnapshotRetention(3, Long.MAX_VALUE);
+
+        assertEquals(Arrays.asList("r3", "r4"),
+                retention.selectExpired(revisions(5, 10), Collections.<String> emptyList(), NOW));
+    }
+
+    @Test
+    public void oldRevisionsAreRemovedTest() {
+        SnapshotRetention retention = new SnapshotRetention(10, 25);
+
+        assertEquals(Arrays.asList("r3", "r4"),
+                retention.selectExpired(revisions(5, 10), Collections.<String> emptyList(), NOW));
+    }
+
+    @Test
+    public void newestAndReferencedRevisionsAreKeptTest() {
+        SnapshotRetention retention = new SnapshotRetention(1, 0);
+
+        assertEquals(Arrays.asList("r1", "r3"),
+                retention.selectExpired(revisions(4, 10), Collections.singletonList("r2"), NOW + 100));
+        assertTrue(retention.selectExpired(revisions(1, 10), Collections.<String> emptyList(), NOW + 100)
+                .isEmpty());
+    }
+}
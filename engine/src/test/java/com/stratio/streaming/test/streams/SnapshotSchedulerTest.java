@@ -0,0 +1,74 @@
+package com.stratio.streaming.test.streams;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.wso2.siddhi.core.SiddhiManager;
+
+import com.stratio.streaming.streams.SiddhiShards;
+import com.stratio.streaming.streams.SnapshotScheduler;
+import com.stratio.streaming.streams.StreamingPersistenceStore;
+
+public class SnapshotSchedulerTest {
+
+    private static SiddhiManager siddhiManager(StreamingPersistenceStore store) {
+        SiddhiManager siddhiManager = mock(SiddhiManager.class, RETURNS_DEEP_STUBS);
+        when(siddhiManager.getSiddhiContext().getPersistenceService().getPersistenceStore()).thenReturn(store);
+        return siddhiManager;
+    }
+
+    @Test
+    public void writtenBytesAreMeasuredTest() {
+        StreamingPersistenceStore first = mock(StreamingPersistenceStore.class);
+        when(first.getWrittenBytes()).thenReturn(100L, 150L);
+        StreamingPersistenceStore second = mock(StreamingPersistenceStore.class);
+        when(second.getWrittenBytes()).thenReturn(0L, 30L);
+
+        SnapshotScheduler scheduler = new SnapshotScheduler(new SiddhiShards(Arrays.asList(siddhiManager(first),
+                siddhiManager(second))), 1000);
+
+        assertTrue(scheduler.snapshot());
+        assertEquals(1, scheduler.getSnapshots());
+        assertEquals(80, scheduler.getLastBytes());
+    }
+
+    @Test
+    public void snapshotIsSkippedWhilePreviousIsRunningTest() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        StreamingPersistenceStore store = mock(StreamingPersistenceStore.class);
+        SiddhiManager siddhiManager = siddhiManager(store);
+        when(siddhiManager.persist()).thenAnswer(new Answer<String>() {
+            @Override
+            public String answer(InvocationOnMock invocation) throws Throwable {
+                started.countDown();
+                release.await();
+                return "revision";
+            }
+        });
+
+        final SnapshotScheduler scheduler = new SnapshotScheduler(new SiddhiShards(Arrays.asList(siddhiManager)),
+                1000);
+        Thread running = new Thread(scheduler);
+        running.start();
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        assertFalse(scheduler.snapshot());
+        assertEquals(1, scheduler.getSkipped());
+
+        release.countDown();
+        running.join(5000);
+        assertEquals(1, scheduler.getSnapshots());
+    }
+}
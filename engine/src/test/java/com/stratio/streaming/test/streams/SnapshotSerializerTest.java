@@ -0,0 +1,66 @@
+package com.stratio.streaming.test.streams;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.stratio.streaming.streams.SnapshotCompression;
+import com.stratio.streaming.streams.SnapshotSerializer;
+
+public class SnapshotSerializerTest {
+
+    private static ArrayList<String> windowState() {
+        ArrayList<String> events = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            events.add("sensor-" + (i % 10) + "|temperature|" + (i % 50));
+        }
+        return events;
+    }
+
+    @Test
+    public void snapshotsAreRestoredWithEveryCodecTest() throws Exception {
+        List<String> state = windowState();
+        for (SnapshotCompression compression : SnapshotCompression.values()) {
+            SnapshotSerializer serializer = new SnapshotSerializer(compression);
+            byte[] snapshot = serializer.serialize(state);
+
+            assertEquals(snapshot.length, serializer.getLastSnapshotBytes());
+            assertEquals(state, new SnapshotSerializer(SnapshotCompression.NONE).deserialize(snapshot));
+        }
+    }
+
+    @Test
+    public void compressedSnapshotsAreSmallerTest() throws Exception {
+        SnapshotSerializer serializer = new SnapshotSerializer(SnapshotCompression.SNAPPY);
+        byte[] snapshot = serializer.serialize(windowState());
+
+        assertTrue(snapshot.length < serializer.getLastStateBytes() / 2);
+    }
+
+    @Test
+    public void plainJavaSnapshotsAreRestoredTest() throws Exception {
+        List<String> state = windowState();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(state);
+        }
+
+        assertEquals(state, new SnapshotSerializer(SnapshotCompression.SNAPPY).deserialize(bytes.toByteArray()));
+    }
+
+    @Test(expected = IOException.class)
+    public void newerFormatVersionIsRejectedTest() throws Exception {
+        SnapshotSerializer serializer = new SnapshotSerializer(SnapshotCompression.NONE);
+        byte[] snapshot = serializer.serialize(windowState());
+        snapshot[2] = SnapshotSerializer.FORMAT_VERSION + 1;
+
+        serializer.deserialize(snapshot);
+    }
+}
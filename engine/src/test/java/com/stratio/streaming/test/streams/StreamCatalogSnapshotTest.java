@@ -0,0 +1,115 @@
+package com.stratio.streaming.test.streams;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.wso2.siddhi.core.SiddhiManager;
+import org.wso2.siddhi.query.api.definition.Attribute;
+import org.wso2.siddhi.query.api.definition.StreamDefinition;
+
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.IMap;
+import com.stratio.streaming.commons.constants.STREAMING;
+import com.stratio.streaming.commons.constants.StreamAction;
+import com.stratio.streaming.commons.messages.ListStreamsMessage;
+import com.stratio.streaming.streams.SiddhiShards;
+import com.stratio.streaming.streams.StreamCatalogSnapshot;
+import com.stratio.streaming.streams.StreamStatusCache;
+import com.stratio.streaming.streams.StreamStatusDTO;
+
+public class StreamCatalogSnapshotTest {
+
+    private SiddhiManager siddhiManager;
+    private HazelcastInstance hazelcastInstance;
+    private StreamDefinition first;
+    private StreamDefinition second;
+    private StreamStatusDTO firstStatus;
+    private StreamCatalogSnapshot snapshot;
+
+    @SuppressWarnings("unchecked")
+    @Before
+    public void setUp() {
+        IMap<Object, Object> streamStatusMap = mock(IMap.class);
+        hazelcastInstance = mock(HazelcastInstance.class);
+        when(hazelcastInstance.<Object, Object> getMap(STREAMING.STREAM_STATUS_MAP)).thenReturn(streamStatusMap);
+        siddhiManager = mock(SiddhiManager.class, RETURNS_DEEP_STUBS);
+        when(siddhiManager.getSiddhiContext().getHazelcastInstance()).thenReturn(hazelcastInstance);
+
+        first = streamDefinition("first");
+        second = streamDefinition("second");
+        when(siddhiManager.getStreamDefinitions()).thenReturn(Arrays.asList(first, second));
+
+        firstStatus = new StreamStatusDTO("first", Boolean.TRUE);
+        when(streamStatusMap.get("first")).thenReturn(firstStatus);
+        when(streamStatusMap.get("second")).thenReturn(new StreamStatusDTO("second", Boolean.TRUE));
+
+        snapshot = new StreamCatalogSnapshot(new SiddhiShards(Collections.singletonList(siddhiManager)), null);
+    }
+
+    private static StreamDefinition streamDefinition(String streamName) {
+        Attribute column = mock(Attribute.class);
+        when(column.getName()).thenReturn("column1");
+        when(column.getType()).thenReturn(Attribute.Type.STRING);
+        StreamDefinition streamDefinition = mock(StreamDefinition.class);
+        when(streamDefinition.getStreamId()).thenReturn(streamName);
+        when(streamDefinition.getId()).thenReturn(streamName);
+        when(streamDefinition.getAttributeList()).thenReturn(Arrays.asList(column));
+        return streamDefinition;
+    }
+
+    @Test
+    public void unknownVersionGetsWholeListTest() {
+        ListStreamsMessage reply = snapshot.list(null);
+
+        assertFalse(reply.isDiff());
+        assertEquals(2, reply.getStreams().size());
+        assertEquals(2, reply.getCount().intValue());
+
+        reply = snapshot.list("another-catalog:1");
+        assertFalse(reply.isDiff());
+        assertEquals(2, reply.getStreams().size());
+    }
+
+    @Test
+    public void unchangedCatalogIsNotListedAgainTest() {
+        String version = snapshot.list(null).getCatalogVersion();
+
+        ListStreamsMessage reply = snapshot.list(version);
+
+        assertTrue(reply.isUnchanged());
+        assertEquals(version, reply.getCatalogVersion());
+        assertEquals(1, snapshot.getRebuilds());
+    }
+
+    @Test
+    public void onlyChangesAreSentTest() {
+        String version = snapshot.list(null).getCatalogVersion();
+
+        firstStatus.enableAction(StreamAction.LISTEN);
+        StreamStatusCache.of(hazelcastInstance).invalidate("first");
+        ListStreamsMessage reply = snapshot.list(version);
+
+        assertTrue(reply.isDiff());
+        assertEquals(1, reply.getStreams().size());
+        assertEquals("first", reply.getStreams().get(0).getStreamName());
+        assertTrue(reply.getRemovedStreams().isEmpty());
+
+        when(siddhiManager.getStreamDefinitions()).thenReturn(Arrays.asList(first));
+        StreamStatusCache.of(hazelcastInstance).invalidate("second");
+        reply = snapshot.list(version);
+
+        assertEquals(1, reply.getStreams().size());
+        assertEquals(Arrays.asList("second"), reply.getRemovedStreams());
+        assertEquals(1, reply.getCount().intValue());
+        assertEquals(3, snapshot.getVersion());
+    }
+}
@@ -0,0 +1,202 @@
+package com.stratio.streaming.test.streams;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.wso2.siddhi.core.SiddhiManager;
+import org.wso2.siddhi.core.event.management.PersistenceManagementEvent;
+import org.wso2.siddhi.core.persistence.PersistenceObject;
+import org.wso2.siddhi.query.api.definition.StreamDefinition;
+
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.IMap;
+import com.stratio.streaming.commons.constants.STREAMING;
+import com.stratio.streaming.configuration.ConfigurationContext;
+import com.stratio.streaming.streams.ExecutionPlanSnapshot;
+import com.stratio.streaming.streams.FilePersistenceStore;
+import com.stratio.streaming.streams.QueryDTO;
+import com.stratio.streaming.streams.SiddhiShards;
+import com.stratio.streaming.streams.StreamFailover;
+import com.stratio.streaming.streams.StreamPersistence;
+import com.stratio.streaming.streams.StreamPlacement;
+import com.stratio.streaming.streams.StreamStatusDTO;
+import com.stratio.streaming.streams.StreamingPersistenceStore;
+
+public class StreamFailoverTest {
+
+    private File directory;
+    private FilePersistenceStore deadStore;
+    private StreamingPersistenceStore ownStore;
+    private IMap<Object, Object> streamStatusMap;
+    private HazelcastInstance hazelcastInstance;
+    private SiddhiManager siddhiManager;
+
+    @SuppressWarnings("unchecked")
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("stratio-failover").toFile();
+        deadStore = new FilePersistenceStore(directory, false, FilePersistenceStore.DEFAULT_SEGMENT_SIZE);
+
+        // catalog kept in a plain map
+        final Map<Object, Object> catalog = new HashMap<>();
+        streamStatusMap = mock(IMap.class);
+        when(streamStatusMap.put(any(), any())).thenAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+                return catalog.put(invocation.getArguments()[0], invocation.getArguments()[1]);
+            }
+        });
+        when(streamStatusMap.get(any())).thenAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+                return catalog.get(invocation.getArguments()[0]);
+            }
+        });
+        when(streamStatusMap.values()).thenAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+                return catalog.values();
+            }
+        });
+        hazelcastInstance = mock(HazelcastInstance.class, RETURNS_DEEP_STUBS);
+        when(hazelcastInstance.<Object, Object> getMap(STREAMING.STREAM_STATUS_MAP)).thenReturn(streamStatusMap);
+
+        ownStore = mock(StreamingPersistenceStore.class);
+        siddhiManager = mock(SiddhiManager.class, RETURNS_DEEP_STUBS);
+        when(siddhiManager.getSiddhiContext().getHazelcastInstance()).thenReturn(hazelcastInstance);
+        when(siddhiManager.getSiddhiContext().getPersistenceService().getPersistenceStore()).thenReturn(ownStore);
+    }
+
+    @After
+    public void tearDown() {
+        deadStore.close();
+        deleteRecursively(directory);
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static StreamStatusDTO streamStatus(String name) {
+        StreamStatusDTO streamStatus = new StreamStatusDTO(name, Boolean.TRUE);
+        streamStatus.setStreamDefinition("define stream " + name + "(name string,value int)");
+        return streamStatus;
+    }
+
+    private void persistDeadNode(String revision) {
+        StreamStatusDTO sensors = streamStatus("sensors");
+        sensors.getAddedQueries().put("query-sensors",
+                new QueryDTO("from sensors select name insert into sensorsNames"));
+        deadStore.saveExecutionPlan(ExecutionPlanSnapshot.fromStreamStatus(
+                Arrays.asList(sensors, streamStatus("dropped"))).toJson());
+        PersistenceManagementEvent event = mock(PersistenceManagementEvent.class);
+        when(event.getRevision()).thenReturn(revision);
+        deadStore.save(event, "window", new PersistenceObject(new Object[] { "window" }));
+    }
+
+    @Test
+    public void takenOverStreamsAreRestoredFromTheDeadNodeStoreTest() {
+        persistDeadNode("r1");
+
+        Set<String> restored = StreamPersistence.restoreTakenOverStreams(siddhiManager, deadStore, "dead-plan",
+                Arrays.asList("sensors", "created"));
+
+        assertEquals(1, restored.size());
+        assertTrue(restored.contains("sensors"));
+        // neither the stream dropped before the failure nor the one created
+        // after the last revision
+        verify(siddhiManager, times(1)).defineStream(any(StreamDefinition.class));
+        verify(streamStatusMap).put(eq("sensors"), any(StreamStatusDTO.class));
+
+        // the revision is read from the dead node, the engine keeps its store
+        InOrder restore = inOrder(siddhiManager);
+        restore.verify(siddhiManager).setPersistStore(deadStore);
+        restore.verify(siddhiManager).restoreRevision("r1");
+        restore.verify(siddhiManager).setPersistStore(ownStore);
+    }
+
+    @Test
+    public void streamsWithoutRevisionAreNotRestoredTest() {
+        Set<String> restored = StreamPersistence.restoreTakenOverStreams(siddhiManager, deadStore, "dead-plan",
+                Arrays.asList("sensors"));
+
+        assertTrue(restored.isEmpty());
+        verify(siddhiManager, never()).defineStream(any(StreamDefinition.class));
+        verify(siddhiManager, never()).restoreRevision(anyString());
+    }
+
+    @Test
+    public void deadNodeStateIsKeptWhenTheRestoreFailsTest() {
+        persistDeadNode("r1");
+        doThrow(new IllegalStateException("snapshot not readable")).when(siddhiManager).restoreRevision("r1");
+        when(siddhiManager.addQuery(anyString())).thenReturn("siddhi-query");
+
+        StreamStatusDTO sensors = streamStatus("sensors");
+        sensors.getAddedQueries().put("query-sensors",
+                new QueryDTO("from sensors select name insert into sensorsNames"));
+        sensors.setOwnerNode("dead-node");
+        sensors.setQueryPlanIdentifier("dead-plan");
+        streamStatusMap.put("sensors", sensors);
+
+        SiddhiManager localShard = mock(SiddhiManager.class, RETURNS_DEEP_STUBS);
+        when(localShard.getSiddhiContext().getHazelcastInstance()).thenReturn(hazelcastInstance);
+        SiddhiShards shards = new SiddhiShards(Arrays.asList(localShard), "local");
+        StreamPlacement placement = mock(StreamPlacement.class);
+        when(placement.getLocalNodeId()).thenReturn("local-node");
+        StreamingPersistenceStore.Factory storeFactory = mock(StreamingPersistenceStore.Factory.class);
+        when(storeFactory.create("dead-plan")).thenReturn(deadStore);
+
+        StreamFailover failover = new StreamFailover(shards, placement, mock(ConfigurationContext.class),
+                storeFactory, null) {
+            @Override
+            protected SiddhiManager createShard(String queryPlanIdentifier) {
+                StreamPersistence.restoreLastRevision(siddhiManager, queryPlanIdentifier);
+                return siddhiManager;
+            }
+        };
+        failover.recover(Arrays.asList(sensors), System.currentTimeMillis());
+
+        // the stream is held by the new shard, its queries added only once
+        assertEquals(2, shards.size());
+        assertEquals(siddhiManager, shards.get(1));
+        verify(siddhiManager, times(1)).addQuery(anyString());
+        assertEquals(1, failover.getRecoveredStreams());
+        assertEquals(0, failover.getRestoredStreams());
+        assertEquals(shards.getShardQueryPlanIdentifier(1),
+                ((StreamStatusDTO) streamStatusMap.get("sensors")).getQueryPlanIdentifier());
+
+        // the dead node state is still there
+        assertEquals("r1", deadStore.getLastRevision("dead-plan"));
+    }
+}
@@ -0,0 +1,79 @@
+package com.stratio.streaming.test.streams;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.wso2.siddhi.core.stream.input.InputHandler;
+
+import com.stratio.streaming.streams.StreamInputQueue;
+import com.stratio.streaming.streams.StreamInputQueue.OverflowPolicy;
+
+public class StreamInputQueueTest {
+
+    @Test
+    public void eventsAreSentInOrderTest() throws Exception {
+        final List<Object> received = Collections.synchronizedList(new ArrayList<>());
+        InputHandler inputHandler = mock(InputHandler.class);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                received.add(((Object[]) invocation.getArguments()[0])[0]);
+                return null;
+            }
+        }).when(inputHandler).send(any(Object[].class));
+
+        StreamInputQueue queue = new StreamInputQueue("testStream", inputHandler, 16, OverflowPolicy.BLOCK);
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(queue.offer(new Object[] { i }));
+        }
+        queue.shutdown(5000);
+
+        assertEquals(1000, received.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, received.get(i));
+        }
+        assertEquals(1000, queue.getProcessed());
+        assertEquals(0, queue.getDepth());
+    }
+
+    @Test
+    public void fullQueueDropsEventsTest() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        InputHandler inputHandler = mock(InputHandler.class);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                release.await();
+                return null;
+            }
+        }).when(inputHandler).send(any(Object[].class));
+
+        StreamInputQueue queue = new StreamInputQueue("testStream", inputHandler, 3, OverflowPolicy.DROP);
+        assertEquals(4, queue.getCapacity());
+
+        int accepted = 0;
+        for (int i = 0; i < 10; i++) {
+            if (queue.offer(new Object[] { i })) {
+                accepted++;
+            }
+        }
+        assertFalse(accepted == 10);
+        assertEquals(10 - accepted, queue.getDropped());
+
+        release.countDown();
+        queue.shutdown(5000);
+        assertEquals(accepted, queue.getProcessed());
+    }
+}
@@ -0,0 +1,118 @@
+package com.stratio.streaming.test.streams;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.hazelcast.core.Cluster;
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.IMap;
+import com.hazelcast.core.Member;
+import com.stratio.streaming.commons.constants.STREAMING;
+import com.stratio.streaming.streams.ConsistentHashRing;
+import com.stratio.streaming.streams.StreamPlacement;
+import com.stratio.streaming.streams.StreamPlacement.OrphanStreamsHandler;
+import com.stratio.streaming.streams.StreamStatusDTO;
+
+public class StreamPlacementTest {
+
+    private static final List<String> NODES = Arrays.asList("node1", "node2", "node3");
+
+    private IMap<Object, Object> streamStatusMap;
+    private StreamStatusDTO orphanStream;
+    private String heir;
+
+    @SuppressWarnings("unchecked")
+    @Before
+    public void setUp() {
+        streamStatusMap = mock(IMap.class);
+        orphanStream = new StreamStatusDTO("orphanStream", Boolean.TRUE);
+        orphanStream.setOwnerNode("deadNode");
+        when(streamStatusMap.get("orphanStream")).thenReturn(orphanStream);
+        when(streamStatusMap.values()).thenReturn(Collections.<Object> singletonList(orphanStream));
+
+        heir = new ConsistentHashRing(NODES).getNode("deadNode");
+    }
+
+    private StreamPlacement newPlacement(String localNode) {
+        Set<Member> members = new LinkedHashSet<>();
+        Member localMember = null;
+        for (String node : NODES) {
+            Member member = mock(Member.class);
+            when(member.getUuid()).thenReturn(node);
+            members.add(member);
+            if (node.equals(localNode)) {
+                localMember = member;
+            }
+        }
+        Cluster cluster = mock(Cluster.class);
+        when(cluster.getMembers()).thenReturn(members);
+        when(cluster.getLocalMember()).thenReturn(localMember);
+
+        HazelcastInstance hazelcastInstance = mock(HazelcastInstance.class);
+        when(hazelcastInstance.getCluster()).thenReturn(cluster);
+        when(hazelcastInstance.<Object, Object> getMap(STREAMING.STREAM_STATUS_MAP)).thenReturn(streamStatusMap);
+        return new StreamPlacement(hazelcastInstance);
+    }
+
+    @Test
+    public void aliveOwnerKeepsItsStreamTest() {
+        StreamStatusDTO stream = new StreamStatusDTO("testStream", Boolean.TRUE);
+        stream.setOwnerNode("node2");
+        when(streamStatusMap.get("testStream")).thenReturn(stream);
+
+        StreamPlacement placement = newPlacement("node1");
+
+        assertEquals("node2", placement.ownerOf("testStream"));
+        assertEquals("node1", placement.ownerOf(null));
+    }
+
+    @Test
+    public void streamsOfDeadNodeGoToItsHeirTest() {
+        StreamPlacement placement = newPlacement("node1");
+
+        assertEquals(heir, placement.ownerOf("orphanStream"));
+        assertTrue(NODES.contains(placement.ownerOf("newStream")));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void heirRecoversOrphanStreamsOnceTest() {
+        OrphanStreamsHandler handler = mock(OrphanStreamsHandler.class);
+        StreamPlacement placement = newPlacement(heir);
+        placement.setOrphanStreamsHandler(handler);
+
+        placement.recoverOrphanStreams();
+        placement.recoverOrphanStreams();
+
+        verify(handler).recover(eq(Collections.singletonList(orphanStream)), anyLong());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void otherNodesDoNotRecoverOrphanStreamsTest() {
+        String other = heir.equals("node1") ? "node2" : "node1";
+        OrphanStreamsHandler handler = mock(OrphanStreamsHandler.class);
+        StreamPlacement placement = newPlacement(other);
+        placement.setOrphanStreamsHandler(handler);
+
+        placement.recoverOrphanStreams();
+
+        verify(handler, never()).recover(any(List.class), anyLong());
+    }
+}
@@ -0,0 +1,114 @@
+package com.stratio.streaming.test.streams;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.AbstractMap.SimpleEntry;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.wso2.siddhi.core.SiddhiManager;
+
+import com.hazelcast.core.EntryEvent;
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.IMap;
+import com.hazelcast.map.EntryProcessor;
+import com.stratio.streaming.commons.constants.STREAMING;
+import com.stratio.streaming.commons.constants.StreamAction;
+import com.stratio.streaming.streams.StreamSharedStatus;
+import com.stratio.streaming.streams.StreamStatusCache;
+import com.stratio.streaming.streams.StreamStatusDTO;
+
+public class StreamStatusCacheTest {
+
+    private IMap<Object, Object> streamStatusMap;
+    private HazelcastInstance hazelcastInstance;
+    private StreamStatusDTO streamStatus;
+
+    @SuppressWarnings("unchecked")
+    @Before
+    public void setUp() {
+        streamStatusMap = mock(IMap.class);
+        hazelcastInstance = mock(HazelcastInstance.class);
+        when(hazelcastInstance.<Object, Object> getMap(STREAMING.STREAM_STATUS_MAP)).thenReturn(streamStatusMap);
+
+        streamStatus = new StreamStatusDTO("testStream", Boolean.TRUE);
+        when(streamStatusMap.get("testStream")).thenReturn(streamStatus);
+        when(streamStatusMap.values()).thenReturn(Arrays.<Object> asList(streamStatus));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static EntryEvent<Object, Object> changed(String streamName) {
+        EntryEvent<Object, Object> event = mock(EntryEvent.class);
+        when(event.getKey()).thenReturn(streamName);
+        return event;
+    }
+
+    @Test
+    public void statusIsReadOnceUntilChangedTest() {
+        StreamStatusCache cache = StreamStatusCache.of(hazelcastInstance);
+
+        assertSame(streamStatus, cache.get("testStream"));
+        assertSame(streamStatus, cache.get("testStream"));
+        verify(streamStatusMap, times(1)).get("testStream");
+
+        cache.entryUpdated(changed("testStream"));
+
+        cache.get("testStream");
+        verify(streamStatusMap, times(2)).get("testStream");
+        assertEquals(2, cache.getMisses());
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    public void catalogIsReadAgainOnlyAfterChangesTest() {
+        StreamStatusCache cache = StreamStatusCache.of(hazelcastInstance);
+
+        cache.getAll();
+        cache.getAll();
+        verify(streamStatusMap, times(1)).values();
+
+        cache.entryAdded(changed("otherStream"));
+
+        assertEquals(1, cache.getAll().size());
+        verify(streamStatusMap, times(2)).values();
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void actionsAreChangedInPlaceTest() {
+        when(streamStatusMap.executeOnKey(eq("testStream"), any(EntryProcessor.class))).thenAnswer(
+                new Answer<Object>() {
+                    @Override
+                    public Object answer(InvocationOnMock invocation) throws Throwable {
+                        Map.Entry<Object, Object> entry = new SimpleEntry<Object, Object>("testStream", streamStatus);
+                        return ((EntryProcessor<Object, Object>) invocation.getArguments()[1]).process(entry);
+                    }
+                });
+        SiddhiManager siddhiManager = mock(SiddhiManager.class, RETURNS_DEEP_STUBS);
+        when(siddhiManager.getSiddhiContext().getHazelcastInstance()).thenReturn(hazelcastInstance);
+
+        StreamSharedStatus.changeActionStreamStatus(Boolean.TRUE, "testStream", siddhiManager, StreamAction.LISTEN);
+        StreamSharedStatus.addQueryToStreamStatus("query", "from testStream select * insert into out",
+                "testStream", siddhiManager);
+
+        assertTrue(streamStatus.isActionEnabled(StreamAction.LISTEN));
+        assertEquals(2, streamStatus.getVersion());
+        assertTrue(StreamSharedStatus.releaseQueryInStreamStatus("query", "testStream", siddhiManager));
+        assertFalse(streamStatus.getAddedQueries().containsKey("query"));
+        verify(streamStatusMap, times(0)).put(any(), any());
+    }
+}
@@ -0,0 +1,57 @@
+package com.stratio.streaming.test.utils;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.stratio.streaming.utils.ZKReplyCleaner;
+
+public class ZKReplyCleanerTest {
+
+    private static final long TTL = 600000;
+    private static final long SLOT = 60000;
+
+    private List<String> deleted;
+    private ZKReplyCleaner replyCleaner;
+
+    @Before
+    public void setUp() {
+        deleted = new ArrayList<>();
+        replyCleaner = new ZKReplyCleaner(null, TTL, SLOT) {
+            @Override
+            protected void delete(String path) {
+                deleted.add(path);
+            }
+        };
+    }
+
+    @Test
+    public void freshRepliesAreKeptTest() throws Exception {
+        long now = 10 * TTL;
+        replyCleaner.track("/stratio/streaming/create/1", now - TTL + 1);
+
+        assertEquals(0, replyCleaner.sweep(now));
+        assertEquals(0, replyCleaner.sweep(now + SLOT - 1));
+        assertEquals(1, replyCleaner.getTracked());
+    }
+
+    @Test
+    public void expiredSlotsAreRemovedTest() throws Exception {
+        long now = 10 * TTL;
+        replyCleaner.track("/stratio/streaming/create/1", now - 2 * TTL);
+        replyCleaner.track("/stratio/streaming/drop/2", now - 2 * TTL + 1);
+        replyCleaner.track("/stratio/streaming/create/3", now);
+
+        assertEquals(2, replyCleaner.sweep(now));
+
+        assertEquals(Arrays.asList("/stratio/streaming/create/1", "/stratio/streaming/drop/2"), deleted);
+        assertEquals(1, replyCleaner.getTracked());
+        assertEquals(2, replyCleaner.getRemoved());
+        assertEquals(0, replyCleaner.sweep(now));
+    }
+}
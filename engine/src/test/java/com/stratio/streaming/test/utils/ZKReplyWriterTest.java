@@ -0,0 +1,97 @@
+package com.stratio.streaming.test.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.RetryOneTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.netflix.curator.test.TestingServer;
+import com.stratio.streaming.utils.ZKReplyWriter;
+
+public class ZKReplyWriterTest {
+
+    private static final String REPLIES_PATH = "/stratio/streaming/create";
+    private static final long SHUTDOWN_TIMEOUT = 30000;
+
+    private TestingServer zookeeperServer;
+    private CuratorFramework client;
+    private ZKReplyWriter replyWriter;
+
+    @Before
+    public void setUp() throws Exception {
+        zookeeperServer = new TestingServer();
+        client = CuratorFrameworkFactory.newClient(zookeeperServer.getConnectString(), new RetryOneTime(100));
+        client.start();
+        replyWriter = new ZKReplyWriter(client);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        replyWriter.shutdown(SHUTDOWN_TIMEOUT);
+        client.close();
+        zookeeperServer.close();
+    }
+
+    private static byte[] reply(int request) {
+        return ("{\"request\":" + request + "}").getBytes();
+    }
+
+    @Test
+    public void queuedRepliesAreWrittenInTransactionsTest() throws Exception {
+        int replies = 200;
+        for (int i = 0; i < replies; i++) {
+            replyWriter.write(REPLIES_PATH + "/" + i, reply(i));
+        }
+        replyWriter.shutdown(SHUTDOWN_TIMEOUT);
+
+        assertEquals(replies, replyWriter.getWritten());
+        assertEquals(0, replyWriter.getFailed());
+        // replies queued while a batch was written share the next one
+        assertTrue(replyWriter.getBatches() < replies);
+        for (int i = 0; i < replies; i++) {
+            assertArrayEquals(reply(i), client.getData().forPath(REPLIES_PATH + "/" + i));
+        }
+    }
+
+    @Test
+    public void repliesAreWrittenOneByOneWhenTheTransactionFailsTest() throws Exception {
+        // a reply already written makes the whole transaction fail
+        client.create().creatingParentsIfNeeded().forPath(REPLIES_PATH + "/1", reply(0));
+
+        replyWriter.write(REPLIES_PATH + "/1", reply(1));
+        replyWriter.write(REPLIES_PATH + "/2", reply(2));
+        replyWriter.shutdown(SHUTDOWN_TIMEOUT);
+
+        assertEquals(2, replyWriter.getWritten());
+        assertEquals(0, replyWriter.getFailed());
+        assertArrayEquals(reply(1), client.getData().forPath(REPLIES_PATH + "/1"));
+        assertArrayEquals(reply(2), client.getData().forPath(REPLIES_PATH + "/2"));
+    }
+
+    @Test
+    public void pendingRepliesAreWrittenOnShutdownTest() throws Exception {
+        int replies = 500;
+        for (int i = 0; i < replies; i++) {
+            replyWriter.write(REPLIES_PATH + "/" + i, reply(i));
+        }
+
+        replyWriter.shutdown(SHUTDOWN_TIMEOUT);
+
+        assertEquals(0, replyWriter.getPending());
+        assertEquals(replies, replyWriter.getWritten());
+        assertEquals(replies, client.getChildren().forPath(REPLIES_PATH).size());
+        try {
+            replyWriter.write(REPLIES_PATH + "/" + replies, reply(replies));
+            fail("Reply accepted after the shutdown");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+}